@@ -0,0 +1,121 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Generates input data for the benchmarks. Payloads follow the structure
+ * expected by the example style sheet so that every stage of the pipeline
+ * processes realistic content.
+ *
+ */
+public final class BenchmarkData {
+
+    public static final String XSL_PATH = "example.xsl";
+    public static final String CSS_PATH = "example.css";
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Parses payload size given as benchmark parameter.
+     *
+     * @param size Size with KB or MB unit, e.g. 100KB
+     *
+     * @return Size in bytes
+     */
+    public static int parseSize(String size) {
+        if (size.endsWith("MB")) {
+            return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024 * 1024;
+        }
+        if (size.endsWith("KB")) {
+            return Integer.parseInt(size.substring(0, size.length() - 2)) * 1024;
+        }
+        return Integer.parseInt(size);
+    }
+
+    /**
+     * Creates XML payload of at least given size.
+     *
+     * @param bytes Minimum payload size in characters
+     *
+     * @return XML payload
+     */
+    public static String payload(int bytes) {
+        StringBuilder xml = new StringBuilder(bytes + 256);
+        xml.append("<root><headers><header>Header 1</header><header>Header 2</header>")
+                .append("<header>Header 3</header></headers><rows>");
+        for (int row = 1; xml.length() < bytes; row++) {
+            xml.append("<row name=\"Row ").append(row).append("\">")
+                    .append("<column>Column 1</column><column>Column 2</column><column>Column 3</column>")
+                    .append("</row>");
+        }
+        return xml.append("</rows></root>").toString();
+    }
+
+    /**
+     * Creates well formed HTML content spanning given number of pages.
+     *
+     * @param pageCount Number of pages
+     *
+     * @return HTML content
+     */
+    public static String pages(int pageCount) {
+        StringBuilder html = new StringBuilder();
+        html.append("<html><head><title>Benchmark</title>")
+                .append("<link rel=\"stylesheet\" type=\"text/css\" href=\"").append(CSS_PATH).append("\"/>")
+                .append("</head><body>");
+        for (int page = 1; page <= pageCount; page++) {
+            html.append("<div style=\"page-break-after: always\"><h2>Page ").append(page).append("</h2><table>");
+            for (int row = 1; row <= 30; row++) {
+                html.append("<tr class=\"Row\"><th>Row ").append(row).append("</th>")
+                        .append("<td>Column 1</td><td>Column 2</td><td>Column 3</td></tr>");
+            }
+            html.append("</table></div>");
+        }
+        return html.append("</body></html>").toString();
+    }
+
+    /**
+     * Reads benchmark resource from class path.
+     *
+     * @param name Resource name
+     *
+     * @return Resource content
+     *
+     * @throws IOException If resource cannot be read
+     */
+    public static String resource(String name) throws IOException {
+        InputStream in = BenchmarkData.class.getClassLoader().getResourceAsStream(name);
+        if (in == null) {
+            throw new IOException("Benchmark resource not found: " + name);
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        } finally {
+            in.close();
+        }
+    }
+}
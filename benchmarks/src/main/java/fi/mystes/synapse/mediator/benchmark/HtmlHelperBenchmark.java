@@ -0,0 +1,69 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.mystes.synapse.mediator.util.HtmlHelper;
+import fi.mystes.synapse.mediator.util.XslTransformer;
+
+/**
+ * Measures clean up of transformed HTML content.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HtmlHelperBenchmark {
+
+    @Param({ "1KB", "100KB", "1MB", "10MB" })
+    public String payloadSize;
+
+    private HtmlHelper htmlHelper;
+    private String html;
+
+    @Setup
+    public void setUp() throws IOException, XMLStreamException {
+        htmlHelper = new HtmlHelper();
+        html = new XslTransformer().transform(
+                AXIOMUtil.stringToOM(BenchmarkData.payload(BenchmarkData.parseSize(payloadSize))),
+                BenchmarkData.XSL_PATH, BenchmarkData.resource(BenchmarkData.XSL_PATH));
+    }
+
+    @Benchmark
+    public String clean() throws IOException {
+        return htmlHelper.clean(html);
+    }
+}
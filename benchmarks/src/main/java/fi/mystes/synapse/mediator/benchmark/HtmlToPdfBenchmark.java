@@ -0,0 +1,88 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.lowagie.text.DocumentException;
+
+import fi.mystes.synapse.mediator.util.HtmlToPdf;
+
+/**
+ * Measures rendering of HTML content into PDF. The PDF is written into a
+ * stream counting the bytes only, so that file system is not measured.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class HtmlToPdfBenchmark {
+
+    @Param({ "1", "10", "100" })
+    public int pageCount;
+
+    private HtmlToPdf htmlToPdf;
+    private String html;
+    private String css;
+
+    @Setup
+    public void setUp() throws IOException {
+        htmlToPdf = new HtmlToPdf();
+        html = BenchmarkData.pages(pageCount);
+        css = BenchmarkData.resource(BenchmarkData.CSS_PATH);
+    }
+
+    @Benchmark
+    public long create() throws IOException, DocumentException {
+        CountingOutputStream pdf = new CountingOutputStream();
+        htmlToPdf.create(html, css, pdf);
+        return pdf.count;
+    }
+
+    /**
+     * Output stream discarding everything but the number of bytes written.
+     */
+    static class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count += len;
+        }
+    }
+}
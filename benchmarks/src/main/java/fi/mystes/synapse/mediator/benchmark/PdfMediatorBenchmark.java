@@ -0,0 +1,119 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.apache.axiom.soap.SOAPEnvelope;
+import org.apache.axiom.soap.SOAPFactory;
+import org.apache.synapse.MessageContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.mystes.synapse.mediator.PdfMediator;
+import fi.mystes.synapse.mediator.util.HtmlToPdf;
+import fi.mystes.synapse.mediator.util.MediatorUtil;
+import fi.mystes.synapse.mediator.util.XslTransformer;
+
+/**
+ * Measures the whole mediation from message payload into PDF delivered into a
+ * message property. Registry resources are served from memory, which equals
+ * mediation with warm resource cache.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class PdfMediatorBenchmark {
+
+    @Param({ "1KB", "100KB", "1MB", "10MB" })
+    public String payloadSize;
+
+    @Param({ "string", "dom" })
+    public String pipeline;
+
+    private PdfMediator mediator;
+    private MessageContext messageContext;
+
+    @Setup
+    public void setUp() throws IOException, XMLStreamException {
+        Map<String, String> resources = new HashMap<String, String>();
+        resources.put(BenchmarkData.XSL_PATH, BenchmarkData.resource(BenchmarkData.XSL_PATH));
+        resources.put(BenchmarkData.CSS_PATH, BenchmarkData.resource(BenchmarkData.CSS_PATH));
+
+        mediator = new PdfMediator(new XslTransformer(), new HtmlToPdf(), new InMemoryMediatorUtil(resources));
+        mediator.setXslFilePath(BenchmarkData.XSL_PATH);
+        mediator.setCssFilePath(BenchmarkData.CSS_PATH);
+        mediator.setPipeline(pipeline);
+        mediator.setOutput(PdfMediator.OUTPUT_PROPERTY);
+        mediator.setOutputProperty("pdf");
+
+        SOAPFactory soapFactory = OMAbstractFactory.getSOAP11Factory();
+        SOAPEnvelope envelope = soapFactory.getDefaultEnvelope();
+        OMElement payload = AXIOMUtil.stringToOM(BenchmarkData.payload(BenchmarkData.parseSize(payloadSize)));
+        payload.build();
+        envelope.getBody().addChild(payload);
+
+        // stub only mock does not record invocations, which would otherwise pile up between iterations
+        messageContext = mock(MessageContext.class, withSettings().stubOnly());
+        when(messageContext.getEnvelope()).thenReturn(envelope);
+    }
+
+    @Benchmark
+    public boolean mediate() {
+        return mediator.mediate(messageContext);
+    }
+
+    /**
+     * Mediator utility serving registry resources from memory.
+     */
+    static class InMemoryMediatorUtil extends MediatorUtil {
+        private final Map<String, String> resources;
+
+        InMemoryMediatorUtil(Map<String, String> resources) {
+            this.resources = resources;
+        }
+
+        @Override
+        public String getResource(String path, MessageContext messageContext) {
+            return resources.get(path);
+        }
+    }
+}
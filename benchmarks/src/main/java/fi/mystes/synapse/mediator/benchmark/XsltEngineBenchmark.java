@@ -0,0 +1,84 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.benchmark;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.util.AXIOMUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fi.mystes.synapse.mediator.util.TemplatesCache;
+import fi.mystes.synapse.mediator.util.XslTransformer;
+import fi.mystes.synapse.mediator.util.XsltEngines;
+
+/**
+ * Compares XSLT engines transforming message payload into HTML content with
+ * the sample style sheet. The style sheet is compiled once per engine, so
+ * only the transformation is measured.
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class XsltEngineBenchmark {
+
+    @Param({ XsltEngines.JDK, XsltEngines.XALAN, XsltEngines.SAXON })
+    public String engine;
+
+    @Param({ "1KB", "100KB", "1MB" })
+    public String payloadSize;
+
+    private XslTransformer xslTransformer;
+    private OMElement payload;
+    private String xsl;
+
+    @Setup
+    public void setUp() throws IOException, XMLStreamException {
+        xslTransformer = new XslTransformer(new TemplatesCache(),
+                XsltEngines.forName(engine, Collections.<String, String>emptyMap()));
+        xsl = BenchmarkData.resource(BenchmarkData.XSL_PATH);
+        payload = AXIOMUtil.stringToOM(BenchmarkData.payload(BenchmarkData.parseSize(payloadSize)));
+        // build the whole tree so that parsing the payload is not measured
+        payload.build();
+        // a missing engine would only show up as empty results
+        if (xslTransformer.transform(payload, BenchmarkData.XSL_PATH, xsl).isEmpty()) {
+            throw new IllegalStateException("XSLT engine " + engine + " failed to transform the payload");
+        }
+    }
+
+    @Benchmark
+    public String transform() {
+        return xslTransformer.transform(payload, BenchmarkData.XSL_PATH, xsl);
+    }
+}
@@ -18,47 +18,216 @@ package fi.mystes.synapse.mediator;
 
 import com.lowagie.text.DocumentException;
 
+import fi.mystes.synapse.mediator.util.AdmissionController;
+import fi.mystes.synapse.mediator.util.AsyncRenderExecutor;
+import fi.mystes.synapse.mediator.util.Digests;
+import fi.mystes.synapse.mediator.util.FontManager;
+import fi.mystes.synapse.mediator.util.HtmlChunker;
 import fi.mystes.synapse.mediator.util.HtmlToPdf;
 import fi.mystes.synapse.mediator.util.MediatorUtil;
+import fi.mystes.synapse.mediator.util.MeteredOutputStream;
+import fi.mystes.synapse.mediator.util.PdfFileWriter;
+import fi.mystes.synapse.mediator.util.PdfFormFiller;
+import fi.mystes.synapse.mediator.util.PdfMediatorMetrics;
+import fi.mystes.synapse.mediator.util.PdfMerger;
+import fi.mystes.synapse.mediator.util.ParallelRenderEngine;
+import fi.mystes.synapse.mediator.util.PdfResultCache;
+import fi.mystes.synapse.mediator.util.PropertyExpression;
+import fi.mystes.synapse.mediator.util.RegistryResourceCache;
+import fi.mystes.synapse.mediator.util.RenderResourceCache;
+import fi.mystes.synapse.mediator.util.RendererPool;
+import fi.mystes.synapse.mediator.util.SpillFile;
+import fi.mystes.synapse.mediator.util.StaticPages;
+import fi.mystes.synapse.mediator.util.StylesheetCache;
+import fi.mystes.synapse.mediator.util.TemplatesCache;
 import fi.mystes.synapse.mediator.util.XslTransformer;
+import fi.mystes.synapse.mediator.util.XsltEngines;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeoutException;
 
+import javax.activation.DataHandler;
+import javax.xml.transform.TransformerException;
+
+import org.apache.axiom.attachments.ByteArrayDataSource;
+import org.apache.axiom.om.OMAbstractFactory;
 import org.apache.axiom.om.OMAttribute;
 import org.apache.axiom.om.OMElement;
 import org.apache.axiom.om.OMText;
+import org.apache.axiom.util.base64.Base64Utils;
+import org.apache.synapse.ManagedLifecycle;
+import org.apache.synapse.Mediator;
 import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.commons.jmx.MBeanRegistrar;
+import org.apache.synapse.core.SynapseEnvironment;
 import org.apache.synapse.mediators.AbstractMediator;
+import org.apache.synapse.mediators.base.SequenceMediator;
+import org.apache.synapse.registry.Registry;
 import org.apache.synapse.util.xpath.SynapseXPath;
+import org.apache.synapse.util.xpath.SynapseXPathFunctionContext;
+import org.apache.synapse.util.xpath.SynapseXPathVariableContext;
+import org.jaxen.Context;
+import org.jaxen.ContextSupport;
 import org.jaxen.JaxenException;
+import org.jaxen.util.SingletonList;
+import org.w3c.dom.Document;
 
 /**
  * PDF mediator to output XML contents into PDF file.
  * 
  * <pre>
- * &lt;pdf &gt;
- *      &lt;pdfFilePath (value="literal" | expression="xpath")/&gt;
+ * &lt;pdf [cacheResources="true|false"] [resourceCacheDuration="milliseconds"] [pipeline="string|dom"]
+ *      [rendererPoolSize="n"] [output="file|body|property"] [outputProperty="name"]
+ *      [outputFormat="binary|base64"] [async="true|false"] [asyncPoolSize="n"] [asyncQueueSize="n"]
+ *      [asyncRejectPolicy="abort|callerRuns"] [sequence="key"] [metrics="true|false"] [metricsName="name"]
+ *      [cleanHtml="true|false"] [renderResourceCacheSize="bytes"]
+ *      [iterateExpression="xpath"] [batchOutput="files|merged"] [batchParallelism="n"]
+ *      [batchCompletion="ordered|unordered"] [warmUp="true|false"]
+ *      [maxConcurrentRenders="n"] [maxInFlightBytes="bytes"] [admissionTimeout="milliseconds"]
+ *      [largeDocumentThreshold="bytes"] [chunkElement="name"] [chunkSize="n"] [chunkParallelism="n"]
+ *      [fontDirectories="path[,path]"] [resultCacheSize="bytes"] [resultCacheDirectory="path"]
+ *      [resultCacheDiskSize="bytes"] [coverPages="path"] [background="path"] [appendPages="path"]
+ *      [formTemplate="path"] [flattenForm="true|false"] [xsltEngine="default|jdk|xalan|saxon|class"]
+ *      [xsltFeatures="name=value[,name=value]"]&gt;
+ *      &lt;pdfFilePath (value="literal" | expression="xpath") [atomic="true|false"] [fsync="true|false"]
+ *              [bufferSize="bytes"] [createDirectories="true|false"]/&gt;
  *      &lt;cssFilePath (value="literal" | expression="xpath")/&gt;
  *      &lt;xslFilePath (value="literal" | expression="xpath")/&gt;
+ *      &lt;formField name="string" expression="xpath"/&gt;*
  * &lt;/pdf&gt;
  * </pre>
  */
-public class PdfMediator extends AbstractMediator {
+public class PdfMediator extends AbstractMediator implements ManagedLifecycle {
+
+    /** Transformation result is handled as HTML string, cleaned and parsed again by the renderer */
+    public static final String PIPELINE_STRING = "string";
+    /** Transformation result is handed to the renderer as DOM document */
+    public static final String PIPELINE_DOM = "dom";
+
+    /** PDF is written to the file given by pdfFilePath */
+    public static final String OUTPUT_FILE = "file";
+    /** PDF replaces the message body */
+    public static final String OUTPUT_BODY = "body";
+    /** PDF is set to the message context property given by outputProperty */
+    public static final String OUTPUT_PROPERTY = "property";
+
+    /** PDF is delivered as binary content which can be sent as MTOM attachment */
+    public static final String OUTPUT_FORMAT_BINARY = "binary";
+    /** PDF is delivered as base64 encoded text */
+    public static final String OUTPUT_FORMAT_BASE64 = "base64";
+
+    /** Each batch item is written to its own file given by the pdfFilePath expression */
+    public static final String BATCH_OUTPUT_FILES = "files";
+    /** Batch items are merged into a single PDF delivered to the configured output */
+    public static final String BATCH_OUTPUT_MERGED = "merged";
+
+    /** Parallel batch items are handled in item order */
+    public static final String BATCH_COMPLETION_ORDERED = "ordered";
+    /** Parallel batch items are handled in the order they complete */
+    public static final String BATCH_COMPLETION_UNORDERED = "unordered";
+
+    private static final String PDF_CONTENT_TYPE = "application/pdf";
+
+    /** Document rendered on warm-up when there is no XSL to transform, or it produces no content */
+    private static final String WARM_UP_HTML = "<html><head><title>warm-up</title></head>"
+            + "<body><h1>warm-up</h1><table><tr><td>warm-up</td></tr></table></body></html>";
+
+    /** Counters of the renderer pool, caches and executor exposed with the metrics */
+    private static final String[] GAUGES = { "RendererPoolCreated", "RendererPoolIdle", "RendererPoolWaiting",
+            "TemplatesCacheHits", "TemplatesCacheMisses", "ResourceCacheHits", "ResourceCacheMisses",
+            "StylesheetCacheHits", "StylesheetCacheMisses", "AsyncQueued", "AsyncRejected", "AsyncCallerRuns",
+            "CleanFallbacks", "RenderResourceCacheHits", "RenderResourceCacheMisses", "RenderResourceCacheBytes",
+            "RenderResourceCacheEvictions", "AdmissionActive", "AdmissionInFlightBytes", "AdmissionWaiting",
+            "AdmissionWaited", "AdmissionRejected", "SharedFonts", "ResultCacheHits", "ResultCacheDiskHits",
+            "ResultCacheMisses", "ResultCacheDeduplicated", "ResultCacheEvictions", "ResultCacheBytes" };
 
     private XslTransformer xslTransformer;
+    private String xsltEngine = XsltEngines.DEFAULT;
+    private String xsltFeatures;
     private HtmlToPdf htmlToPdf;
     private MediatorUtil mediatorUtil;
 
     // paths are defined in mediator params
     private String pdfFilePath;
     private SynapseXPath pdfFilePathExpression;
+    private PropertyExpression pdfFileProperty;
     
     private String xslFilePath;
     private SynapseXPath xslFilePathExpression;
+    private PropertyExpression xslFileProperty;
     
     private String cssFilePath;
     private SynapseXPath cssFilePathExpression;
+    private PropertyExpression cssFileProperty;
+
+    private boolean cacheResources;
+    private long resourceCacheDuration = RegistryResourceCache.DEFAULT_CACHE_DURATION;
+
+    private String pipeline = PIPELINE_STRING;
+
+    private int rendererPoolSize = RendererPool.DEFAULT_MAX_SIZE;
+    private long renderResourceCacheSize = RenderResourceCache.DEFAULT_MAX_BYTES;
+    private String fontDirectories;
+    private boolean rendererPoolChanged;
+
+    private String output = OUTPUT_FILE;
+    private String outputProperty;
+    private String outputFormat = OUTPUT_FORMAT_BINARY;
+
+    private boolean async;
+    private int asyncPoolSize = AsyncRenderExecutor.DEFAULT_POOL_SIZE;
+    private int asyncQueueSize = AsyncRenderExecutor.DEFAULT_QUEUE_SIZE;
+    private boolean asyncCallerRuns;
+    private String sequence;
+    private AsyncRenderExecutor asyncRenderExecutor;
+
+    private int maxConcurrentRenders;
+    private long maxInFlightBytes;
+    private long admissionTimeout = AdmissionController.DEFAULT_QUEUE_TIMEOUT;
+    private volatile AdmissionController admissionController;
+
+    private long largeDocumentThreshold;
+
+    private String coverPages;
+    private String background;
+    private String appendPages;
+
+    private String formTemplate;
+    private boolean flattenForm = true;
+    private final Map<String, SynapseXPath> formFields = new LinkedHashMap<String, SynapseXPath>();
+    private PdfFormFiller formFiller;
+
+    private long resultCacheSize;
+    private String resultCacheDirectory;
+    private long resultCacheDiskSize = PdfResultCache.DEFAULT_MAX_DISK_BYTES;
+    private volatile PdfResultCache resultCache;
+
+    private String chunkElement;
+    private int chunkSize = 1;
+    private int chunkParallelism = ParallelRenderEngine.DEFAULT_PARALLELISM;
+
+    private PdfMediatorMetrics metrics;
+    private String metricsName;
+
+    private boolean warmUp;
+
+    private SynapseXPath iterateExpression;
+    private String batchOutput = BATCH_OUTPUT_FILES;
+    private int batchParallelism = 1;
+    private String batchCompletion = BATCH_COMPLETION_ORDERED;
+    private ParallelRenderEngine parallelRenderEngine;
 
     /**
      * Default constructor.
@@ -85,26 +254,673 @@ public class PdfMediator extends AbstractMediator {
     public boolean mediate(MessageContext messageContext) {
 		log.info("called PDF mediate.");
 
+		long start = System.nanoTime();
 		try {
-			String xslFile = getXslFile(messageContext);
-			String xsl = mediatorUtil.getResource(xslFile, messageContext);
+			if (formFiller != null) {
+				String pdfFile = OUTPUT_FILE.equals(output) ? getPdfFile(messageContext) : null;
+				FormRender render = new FormRender(getFormValues(messageContext), pdfFile, messageContext, start);
+				if (async) {
+					getAsyncRenderExecutor().execute(render);
+					return sequence == null;
+				}
+				render.createPdf();
+				return true;
+			}
 
+			String xslFile = getXslFile(messageContext);
 			String cssFile = getCssFile(messageContext);
+			String pdfFile = OUTPUT_FILE.equals(output) && !isBatchToFiles() ? getPdfFile(messageContext) : null;
+			long stageStart = recordStage(PdfMediatorMetrics.Stage.XPATH, start);
+
+			String xsl = mediatorUtil.getResource(xslFile, messageContext);
 			String css = mediatorUtil.getResource(cssFile, messageContext);
+			stageStart = recordStage(PdfMediatorMetrics.Stage.REGISTRY_FETCH, stageStart);
+
+			PdfResultCache cache = getResultCache();
+			if (cache != null && iterateExpression == null) {
+				CachedRender render = new CachedRender(cache, getResultKey(messageContext, xslFile, xsl, css), xslFile, xsl,
+						css, pdfFile, messageContext, start);
+				if (async) {
+					render.detach();
+					getAsyncRenderExecutor().execute(render);
+					return sequence == null;
+				}
+				render.createPdf();
+				return true;
+			}
+
+			long payloadSize = estimatePayloadSize(messageContext);
+			AdmissionController.Permit permit = admit(messageContext, payloadSize);
+			Object html = null;
+			boolean handedOver = false;
+			try {
+				if (iterateExpression != null) {
+					renderBatch(messageContext, xslFile, xsl, css, pdfFile, start);
+					return true;
+				}
 
-			String xmlPayload = mediatorUtil.getPayload(messageContext);
-			String html = xslTransformer.transform(xmlPayload, xsl);
-			String pdfFile = getPdfFile(messageContext);
+				stageStart = System.nanoTime();
+				OMElement payload = mediatorUtil.getPayloadElement(messageContext);
+				html = isLargeDocument(payloadSize) ? transformToSpillFile(payload, xslFile, xsl)
+						: transform(payload, xslFile, xsl);
+				recordStage(PdfMediatorMetrics.Stage.TRANSFORM, stageStart);
 
-			htmlToPdf.create(html, css, pdfFile);
+				Render render = new Render(html, css, pdfFile, messageContext, start, permit);
+				if (async) {
+					getAsyncRenderExecutor().execute(render);
+					// the asynchronous render releases the permit and spill file
+					handedOver = true;
+					// message continues in the completion sequence if one is given
+					return sequence == null;
+				}
+				render.createPdf();
+			} finally {
+				if (!handedOver) {
+					release(permit, html);
+				}
+			}
 		} catch (IOException e) {
+			recordFailure();
 			handleException("Failed to create PDF.", e, messageContext);
 		} catch (DocumentException  e) {
+			recordFailure();
             handleException("Failed to create PDF.", e, messageContext);
+        } catch (TransformerException e) {
+			recordFailure();
+            handleException("Failed to transform payload.", e, messageContext);
+        } catch (RejectedExecutionException e) {
+			recordFailure();
+            handleException("Failed to submit PDF render.", e, messageContext);
         }
 
         return true;
     }
+
+    /**
+     * Waits for admission to render when concurrent renders or in-flight
+     * bytes are limited. A render not admitted within the queue timeout
+     * fails the message into the fault sequence.
+     * 
+     * @param messageContext Message context of the render
+     * @param payloadSize Estimated payload size in bytes
+     * 
+     * @return Permit to release once the render has completed, null if renders are not limited
+     */
+    private AdmissionController.Permit admit(MessageContext messageContext, long payloadSize) {
+        AdmissionController controller = admissionController;
+        if (controller == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        try {
+            AdmissionController.Permit permit = controller.acquire(payloadSize);
+            recordStage(PdfMediatorMetrics.Stage.ADMISSION, start);
+            return permit;
+        } catch (TimeoutException e) {
+            recordFailure();
+            handleException("PDF render rejected by admission control.", e, messageContext);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            recordFailure();
+            handleException("Interrupted while waiting for admission to render PDF.", e, messageContext);
+        }
+        return null;
+    }
+
+    /**
+     * Hands registry to the renderers for gov: and conf: resources, creates
+     * the renderer pool if its settings were changed, creates executors for
+     * asynchronous renders and chunks, warms up the mediator if enabled and
+     * registers metrics MBean.
+     * 
+     * @param synapseEnvironment Synapse environment
+     */
+    public void init(SynapseEnvironment synapseEnvironment) {
+        if (synapseEnvironment.getSynapseConfiguration() != null) {
+            htmlToPdf.setRegistry(synapseEnvironment.getSynapseConfiguration().getRegistry());
+        }
+        updateRendererPool();
+        if (async) {
+            getAsyncRenderExecutor();
+        }
+        if (chunkElement != null && chunkParallelism > 1 && htmlToPdf.getChunkEngine() == null) {
+            htmlToPdf.setChunkEngine(new ParallelRenderEngine(chunkParallelism));
+        }
+        getResultCache();
+        if (formFiller != null) {
+            try {
+                formFiller.load();
+            } catch (IOException e) {
+                log.warn("Failed to load form template, loading it again for the first message", e);
+            }
+        }
+        if (htmlToPdf.getStaticPages() != null) {
+            try {
+                htmlToPdf.getStaticPages().load(htmlToPdf);
+            } catch (Exception e) {
+                log.warn("Failed to load static pages, loading them again for the first message", e);
+            }
+        }
+        if (warmUp) {
+            warmUp(synapseEnvironment);
+        }
+        if (metrics != null) {
+            MBeanRegistrar.getInstance().registerMBean(metrics, PdfMediatorMetrics.MBEAN_CATEGORY, getMetricsId());
+        }
+    }
+
+    /**
+     * Renders a small document so that classes are loaded, style sheets
+     * compiled and a renderer with its fonts created before the first
+     * message arrives. Literal XSL and CSS paths are read from the registry,
+     * and the XSL is applied to an empty element. In form mode the template
+     * is filled with no values instead. Warm-up failures are only logged,
+     * since they do not prevent processing messages.
+     * 
+     * @param synapseEnvironment Synapse environment
+     */
+    private void warmUp(SynapseEnvironment synapseEnvironment) {
+        long start = System.nanoTime();
+        try {
+            if (formFiller != null) {
+                formFiller.fill(Collections.<String, String>emptyMap(), new ByteArrayOutputStream());
+                log.info("PDF mediator warmed up in " + (System.nanoTime() - start) / 1000000 + " ms");
+                return;
+            }
+            Registry registry = synapseEnvironment.getSynapseConfiguration() != null
+                    ? synapseEnvironment.getSynapseConfiguration().getRegistry() : null;
+            String css = cssFilePath != null && registry != null ? mediatorUtil.getResource(cssFilePath, registry)
+                    : null;
+            Object html = WARM_UP_HTML;
+            if (xslFilePath != null && registry != null) {
+                String xsl = mediatorUtil.getResource(xslFilePath, registry);
+                OMElement warmUpElement = OMAbstractFactory.getOMFactory().createOMElement("warmUp", null);
+                html = transform(warmUpElement, xslFilePath, xsl);
+                if ("".equals(html)) {
+                    html = WARM_UP_HTML;
+                }
+            }
+            createPdf(html, css);
+            log.info("PDF mediator warmed up in " + (System.nanoTime() - start) / 1000000 + " ms");
+        } catch (Exception e) {
+            log.warn("PDF mediator warm-up failed, the first message may take longer", e);
+        } finally {
+            if (metrics != null) {
+                metrics.reset();
+            }
+        }
+    }
+
+    /**
+     * Shuts down executors for asynchronous renders, batches and chunks and
+     * unregisters metrics MBean. Renders already submitted are completed.
+     */
+    public synchronized void destroy() {
+        if (metrics != null) {
+            MBeanRegistrar.getInstance().unRegisterMBean(PdfMediatorMetrics.MBEAN_CATEGORY, getMetricsId());
+        }
+        if (asyncRenderExecutor != null) {
+            asyncRenderExecutor.shutdown();
+            asyncRenderExecutor = null;
+        }
+        if (parallelRenderEngine != null) {
+            parallelRenderEngine.shutdown();
+            parallelRenderEngine = null;
+        }
+        if (htmlToPdf.getChunkEngine() != null) {
+            htmlToPdf.getChunkEngine().shutdown();
+            htmlToPdf.setChunkEngine(null);
+        }
+    }
+
+    /**
+     * Gets executor for asynchronous renders, creating it on first use.
+     * 
+     * @return Executor for asynchronous renders
+     */
+    public synchronized AsyncRenderExecutor getAsyncRenderExecutor() {
+        if (asyncRenderExecutor == null) {
+            asyncRenderExecutor = new AsyncRenderExecutor(asyncPoolSize, asyncQueueSize, asyncCallerRuns);
+        }
+        return asyncRenderExecutor;
+    }
+
+    /**
+     * Gets cache of rendered PDFs, opening it on first use.
+     * 
+     * @return Result cache, null if results are not cached
+     */
+    public synchronized PdfResultCache getResultCache() {
+        if (resultCache == null && (resultCacheSize > 0 || resultCacheDirectory != null)) {
+            try {
+                resultCache = resultCacheDirectory != null
+                        ? new PdfResultCache(resultCacheSize, resultCacheDirectory, resultCacheDiskSize)
+                        : new PdfResultCache(resultCacheSize);
+            } catch (IOException e) {
+                log.error("Failed to open PDF result cache directory " + resultCacheDirectory, e);
+                throw new SynapseException("Failed to open PDF result cache directory " + resultCacheDirectory, e);
+            }
+        }
+        return resultCache;
+    }
+
+    /**
+     * Calculates key of the rendered PDF in the result cache from the
+     * payload, the style sheets, the static pages, the fonts and all other
+     * settings affecting the rendered PDF, so that PDFs kept on disk over a
+     * restart are not served after the configuration has changed. Style
+     * sheets are hashed through the caches of their compiled forms, which
+     * remember the hash of unchanged content.
+     * 
+     * @param messageContext Message context of the render
+     * @param xslFile Registry path of the XSL style sheet
+     * @param xsl XSL style sheet
+     * @param css Rules to style HTML content
+     * 
+     * @return Hash of the render inputs
+     */
+    private String getResultKey(MessageContext messageContext, String xslFile, String xsl, String css) {
+        TemplatesCache templatesCache = xslTransformer.getTemplatesCache();
+        StylesheetCache stylesheetCache = htmlToPdf.getStylesheetCache();
+        StringBuilder key = new StringBuilder(mediatorUtil.getPayloadHash(messageContext));
+        key.append('\n').append(xsl == null ? "" : templatesCache != null
+                ? templatesCache.getHash(xslFile, xsl) : Digests.sha1Hex(xsl));
+        key.append('\n').append(css == null ? "" : stylesheetCache != null
+                ? stylesheetCache.getHash(css) : Digests.sha1Hex(css));
+        key.append('\n').append(xsltEngine).append(',').append(xsltFeatures);
+        key.append('\n').append(pipeline).append(',').append(isCleanHtml()).append(',').append(largeDocumentThreshold);
+        key.append(',').append(chunkElement).append(',').append(chunkSize);
+        for (String path : new String[] { coverPages, background, appendPages }) {
+            key.append('\n').append(path != null ? path + ',' + new File(path).lastModified() : "");
+        }
+        for (String directory : getFontDirectoryList()) {
+            key.append('\n').append(directory).append(',').append(new File(directory).lastModified());
+        }
+        return Digests.sha1Hex(key.toString());
+    }
+
+    /**
+     * Continues mediation of asynchronously rendered message in the completion sequence.
+     * 
+     * @param messageContext Message context the PDF was delivered to
+     */
+    private void continueInSequence(MessageContext messageContext) {
+        Mediator completionSequence = messageContext.getSequence(sequence);
+        if (!(completionSequence instanceof SequenceMediator)) {
+            handleException("Sequence " + sequence + " not found", messageContext);
+        }
+        messageContext.getEnvironment().injectAsync(messageContext, (SequenceMediator) completionSequence);
+    }
+
+    /**
+     * Handles failure of asynchronous render. If the message continues in a
+     * completion sequence, the failure is handed to the fault handler of the
+     * message. Otherwise nothing is waiting for the message and the failure
+     * is only logged.
+     * 
+     * @param messageContext Message context of the failed render
+     * @param e Cause of the failure
+     */
+    private void handleAsyncFailure(MessageContext messageContext, Exception e) {
+        recordFailure();
+        log.error("Failed to create PDF asynchronously.", e);
+        if (sequence != null && !messageContext.getFaultStack().isEmpty()) {
+            messageContext.getFaultStack().pop().handleFault(messageContext, e);
+        }
+    }
+
+    /**
+     * Evaluates form field expressions to the values filled into the form
+     * template.
+     * 
+     * @param messageContext Message context to evaluate expressions to
+     * 
+     * @return Values by field name, null for fields having no value in the message
+     */
+    private Map<String, String> getFormValues(MessageContext messageContext) {
+        long start = System.nanoTime();
+        Map<String, String> values = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, SynapseXPath> field : formFields.entrySet()) {
+            try {
+                values.put(field.getKey(), evaluateXPathExpression(field.getValue(), messageContext));
+            } catch (JaxenException e) {
+                handleException("Invalid formField " + field.getKey() + " expression", e, messageContext);
+            }
+        }
+        recordStage(PdfMediatorMetrics.Stage.XPATH, start);
+        return values;
+    }
+
+    /**
+     * Delivers created PDF into message body or property.
+     * 
+     * @param pdf Created PDF
+     * @param messageContext Message context to deliver PDF to
+     */
+    private void deliverPdf(byte[] pdf, MessageContext messageContext) {
+        boolean binary = OUTPUT_FORMAT_BINARY.equals(outputFormat);
+        if (OUTPUT_BODY.equals(output)) {
+            mediatorUtil.setBinaryPayload(new DataHandler(new ByteArrayDataSource(pdf, PDF_CONTENT_TYPE)), binary,
+                    messageContext);
+        } else if (binary) {
+            messageContext.setProperty(outputProperty, new DataHandler(new ByteArrayDataSource(pdf, PDF_CONTENT_TYPE)));
+        } else {
+            messageContext.setProperty(outputProperty, Base64Utils.encode(pdf));
+        }
+    }
+    
+    /**
+     * Renders each element selected by the iterate expression as its own
+     * document. All items share the style sheets fetched and compiled for the
+     * message. Items are either written to their own files or merged into a
+     * single PDF delivered to the configured output.
+     * 
+     * @param messageContext Message context containing the batch
+     * @param xslFile Registry path of the XSL style sheet
+     * @param xsl XSL style sheet
+     * @param css Rules to style HTML content
+     * @param pdfFile File name with path to export merged PDF to, null if not merged into a file
+     * @param start Value of {@link System#nanoTime()} when the mediation started
+     * 
+     * @throws IOException If PDF creation fails
+     * @throws DocumentException If writing contents to PDF fails
+     * @throws TransformerException If transformation fails
+     */
+    private void renderBatch(MessageContext messageContext, String xslFile, String xsl, String css, String pdfFile,
+            long start) throws IOException, DocumentException, TransformerException {
+        List<OMElement> items = getBatchItems(messageContext);
+        if (items.isEmpty()) {
+            if (isBatchToFiles()) {
+                log.info("No items found with iterateExpression " + iterateExpression);
+                return;
+            }
+            handleException("No items found with iterateExpression " + iterateExpression, messageContext);
+        }
+
+        List<BatchItem> batch = new ArrayList<BatchItem>(items.size());
+        for (OMElement item : items) {
+            batch.add(new BatchItem(item, xslFile, xsl, css,
+                    isBatchToFiles() ? getItemPdfFile(item, messageContext) : null));
+        }
+        List<byte[]> pdfs = runBatch(batch, messageContext);
+
+        if (!isBatchToFiles()) {
+            long mergeStart = System.nanoTime();
+            if (pdfFile != null) {
+                PdfFileWriter.PdfFileStream outputStream = htmlToPdf.getFileWriter().open(pdfFile);
+                try {
+                    PdfMerger.merge(pdfs, outputStream);
+                    outputStream.commit();
+                } finally {
+                    outputStream.close();
+                }
+            } else {
+                ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+                PdfMerger.merge(pdfs, pdf);
+                deliverPdf(pdf.toByteArray(), messageContext);
+            }
+            recordStage(PdfMediatorMetrics.Stage.MERGE, mergeStart);
+        }
+        recordStage(PdfMediatorMetrics.Stage.TOTAL, start);
+    }
+
+    /**
+     * Renders batch items one by one in the message processing thread, or in
+     * parallel on the render engine if batch parallelism is greater than one.
+     * 
+     * @param batch Items to render
+     * @param messageContext Message context containing the batch
+     * 
+     * @return Rendered PDF of each item in item order, or in completion order if
+     *         parallel completion is unordered; null items if written to files
+     * 
+     * @throws IOException If PDF creation fails
+     * @throws DocumentException If writing contents to PDF fails
+     * @throws TransformerException If transformation fails
+     */
+    private List<byte[]> runBatch(List<BatchItem> batch, MessageContext messageContext)
+            throws IOException, DocumentException, TransformerException {
+        if (batchParallelism <= 1 || batch.size() == 1) {
+            List<byte[]> pdfs = new ArrayList<byte[]>(batch.size());
+            for (BatchItem item : batch) {
+                pdfs.add(item.call());
+            }
+            return pdfs;
+        }
+
+        // workers only read the payload, so it must be fully built beforehand
+        messageContext.getEnvelope().build();
+        try {
+            return getParallelRenderEngine().invokeAll(batch, !BATCH_COMPLETION_UNORDERED.equals(batchCompletion));
+        } catch (IOException | DocumentException | TransformerException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("Failed to render batch item", e);
+        }
+    }
+
+    /**
+     * Selects batch items with the iterate expression.
+     * 
+     * @param messageContext Message context containing the batch
+     * 
+     * @return Selected elements in document order
+     */
+    private List<OMElement> getBatchItems(MessageContext messageContext) {
+        List<OMElement> items = new ArrayList<OMElement>();
+        try {
+            Object result = iterateExpression.evaluate(messageContext);
+            List<?> nodes = result instanceof List ? (List<?>) result : Collections.singletonList(result);
+            for (Object node : nodes) {
+                if (!(node instanceof OMElement)) {
+                    handleException("iterateExpression " + iterateExpression + " must select elements", messageContext);
+                }
+                items.add((OMElement) node);
+            }
+        } catch (JaxenException e) {
+            handleException("Invalid iterateExpression", e, messageContext);
+        }
+        return items;
+    }
+
+    /**
+     * Evaluates the pdfFilePath expression with given batch item as context node.
+     * 
+     * @param item Batch item
+     * @param messageContext Message context containing the batch
+     * 
+     * @return File name with path to export the item to
+     */
+    private String getItemPdfFile(OMElement item, MessageContext messageContext) {
+        String value = null;
+        try {
+            value = extractValueFromPayload(pdfFilePathExpression, messageContext,
+                    evaluate(pdfFilePathExpression, item, messageContext));
+        } catch (JaxenException e) {
+            handleException("Invalid pdfFilePath expression", e, messageContext);
+        }
+        if (value == null) {
+            handleException("No value found with pdfFilePath's expression for batch item", messageContext);
+        }
+        return value;
+    }
+
+    /**
+     * Evaluates expression with given node as context node. Synapse installs
+     * its variables and functions, such as <code>$ctx:</code> and
+     * <code>get-property()</code>, only when a message context is evaluated,
+     * which always starts from the envelope. Hence the context is built here
+     * the same way but with given node in it.
+     * 
+     * @param xpath Expression to evaluate
+     * @param node Context node
+     * @param messageContext Message context to resolve variables and functions from
+     * 
+     * @return Evaluation result
+     * 
+     * @throws JaxenException If evaluation fails
+     */
+    private Object evaluate(SynapseXPath xpath, OMElement node, MessageContext messageContext)
+            throws JaxenException {
+        ContextSupport contextSupport = new ContextSupport(xpath.getNamespaceContext(),
+                new SynapseXPathFunctionContext(xpath.getFunctionContext(), messageContext),
+                new SynapseXPathVariableContext(xpath.getVariableContext(), messageContext),
+                xpath.getNavigator());
+        Context context = new Context(contextSupport);
+        context.setNodeSet(new SingletonList(node));
+        return xpath.getRootExpr().evaluate(context);
+    }
+
+    /**
+     * 
+     * @return True if batch items are written to their own files
+     */
+    private boolean isBatchToFiles() {
+        return iterateExpression != null && BATCH_OUTPUT_FILES.equals(batchOutput);
+    }
+
+    /**
+     * Gets engine for parallel batches, creating it on first use.
+     * 
+     * @return Engine for parallel batches
+     */
+    public synchronized ParallelRenderEngine getParallelRenderEngine() {
+        if (parallelRenderEngine == null) {
+            parallelRenderEngine = new ParallelRenderEngine(batchParallelism);
+        }
+        return parallelRenderEngine;
+    }
+
+    /**
+     * Transforms given element into HTML with the configured pipeline.
+     * 
+     * @param xml Element to transform
+     * @param xslFile Registry path of the XSL style sheet
+     * @param xsl XSL style sheet
+     * 
+     * @return Transformed HTML content, either string or DOM document
+     * 
+     * @throws TransformerException If transformation fails
+     */
+    private Object transform(OMElement xml, String xslFile, String xsl) throws TransformerException {
+        if (PIPELINE_DOM.equals(pipeline)) {
+            return xslTransformer.transformToDocument(xml, xslFile, xsl);
+        }
+        return xslTransformer.transform(xml, xslFile, xsl);
+    }
+
+    /**
+     * Estimates payload size of given message once per mediation, and only
+     * if admission control or large-document mode needs it, since without a
+     * Content-Length header the payload is serialized to measure it.
+     * 
+     * @param messageContext Message context of the render
+     * 
+     * @return Estimated payload size in bytes, zero if it is not needed
+     */
+    private long estimatePayloadSize(MessageContext messageContext) {
+        AdmissionController controller = admissionController;
+        boolean limitsBytes = controller != null && controller.getMaxInFlightBytes() > 0;
+        boolean largeDocumentMode = largeDocumentThreshold > 0 && PIPELINE_STRING.equals(pipeline);
+        return limitsBytes || largeDocumentMode ? mediatorUtil.getPayloadSize(messageContext) : 0;
+    }
+
+    /**
+     * Checks whether a payload is rendered in large-document mode, spilling
+     * the transformed content to disk.
+     * 
+     * @param payloadSize Estimated payload size in bytes
+     * 
+     * @return True if large-document mode is enabled and the payload is at least as large as the threshold
+     */
+    private boolean isLargeDocument(long payloadSize) {
+        return largeDocumentThreshold > 0 && PIPELINE_STRING.equals(pipeline) && payloadSize >= largeDocumentThreshold;
+    }
+
+    /**
+     * Transforms given element with given XSL into a spill file.
+     * 
+     * @param xml Element to transform
+     * @param xslFile Registry path of the XSL style sheet
+     * @param xsl XSL style sheet
+     * 
+     * @return File holding transformed HTML content
+     * 
+     * @throws TransformerException If transformation fails
+     * @throws IOException If spill file cannot be written
+     */
+    private SpillFile transformToSpillFile(OMElement xml, String xslFile, String xsl)
+            throws TransformerException, IOException {
+        SpillFile html = new SpillFile(null);
+        boolean transformed = false;
+        try (OutputStream out = html.openOutputStream()) {
+            xslTransformer.transform(xml, xslFile, xsl, out);
+            transformed = true;
+        } finally {
+            if (!transformed) {
+                html.close();
+            }
+        }
+        return html;
+    }
+
+    /**
+     * Releases admission of a render and deletes its spill file.
+     * 
+     * @param permit Admission of the render, null if renders are not limited
+     * @param html Transformed HTML content of the render, null if transformation did not complete
+     */
+    private void release(AdmissionController.Permit permit, Object html) {
+        if (html instanceof SpillFile) {
+            ((SpillFile) html).close();
+        }
+        if (permit != null) {
+            permit.release();
+        }
+    }
+
+    /**
+     * Creates PDF of given HTML content into file.
+     * 
+     * @param html Transformed HTML content, either string, DOM document or spill file
+     * @param css Rules to style HTML content
+     * @param pdfFile File name with path to export PDF to
+     * 
+     * @throws IOException If PDF creation fails
+     * @throws DocumentException If writing contents to PDF fails
+     */
+    private void createPdf(Object html, String css, String pdfFile) throws IOException, DocumentException {
+        if (html instanceof Document) {
+            htmlToPdf.create((Document) html, css, pdfFile);
+        } else if (html instanceof SpillFile) {
+            htmlToPdf.create((SpillFile) html, css, pdfFile);
+        } else {
+            htmlToPdf.create((String) html, css, pdfFile);
+        }
+    }
+
+    /**
+     * Creates PDF of given HTML content in memory.
+     * 
+     * @param html Transformed HTML content, either string, DOM document or spill file
+     * @param css Rules to style HTML content
+     * 
+     * @return Created PDF
+     * 
+     * @throws IOException If PDF creation fails
+     * @throws DocumentException If writing contents to PDF fails
+     */
+    private byte[] createPdf(Object html, String css) throws IOException, DocumentException {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        if (html instanceof Document) {
+            htmlToPdf.create((Document) html, css, pdf);
+        } else if (html instanceof SpillFile) {
+            htmlToPdf.create((SpillFile) html, css, pdf);
+        } else {
+            htmlToPdf.create((String) html, css, pdf);
+        }
+        return pdf.toByteArray();
+    }
     
     /**
      * 
@@ -168,6 +984,7 @@ public class PdfMediator extends AbstractMediator {
 	 */
 	public void setPdfFilePathExpression(SynapseXPath pdfFilePathExpression) {
 		this.pdfFilePathExpression = pdfFilePathExpression;
+		this.pdfFileProperty = PropertyExpression.parse(pdfFilePathExpression);
 	}
 
 	/**
@@ -184,6 +1001,7 @@ public class PdfMediator extends AbstractMediator {
 	 */
 	public void setXslFilePathExpression(SynapseXPath xslFilePathExpression) {
 		this.xslFilePathExpression = xslFilePathExpression;
+		this.xslFileProperty = PropertyExpression.parse(xslFilePathExpression);
 	}
 
 	/**
@@ -200,46 +1018,866 @@ public class PdfMediator extends AbstractMediator {
 	 */
 	public void setCssFilePathExpression(SynapseXPath cssFilePathExpression) {
 		this.cssFilePathExpression = cssFilePathExpression;
+		this.cssFileProperty = PropertyExpression.parse(cssFilePathExpression);
 	}
-    
+
 	/**
 	 * 
-	 * @param messageContext
-	 * @return
+	 * @return True if XSL and CSS resources are cached between messages
 	 */
-	private String getXslFile(MessageContext messageContext) {
-		return fetchValue(messageContext, xslFilePath, xslFilePathExpression, "xslFilePath");
+	public boolean isCacheResources() {
+		return cacheResources;
 	}
-	
+
 	/**
 	 * 
-	 * @param messageContext
-	 * @return
+	 * @param cacheResources True to cache XSL and CSS resources between messages
 	 */
-	private String getCssFile(MessageContext messageContext) {
-		return fetchValue(messageContext, cssFilePath, cssFilePathExpression, "cssFilePath");
+	public void setCacheResources(boolean cacheResources) {
+		this.cacheResources = cacheResources;
+		updateResourceCache();
 	}
-	
+
 	/**
 	 * 
-	 * @param messageContext
-	 * @return
+	 * @return Milliseconds a cached resource is used before checking it for changes
 	 */
-	private String getPdfFile(MessageContext messageContext) {
-		return fetchValue(messageContext, pdfFilePath, pdfFilePathExpression, "pdfFilePath");
+	public long getResourceCacheDuration() {
+		return resourceCacheDuration;
 	}
-	
+
 	/**
-	 * Fetches value by evaluating given expression.
-	 * 
-	 * @param messageContext Context containing payload to evaluate XPath expression to
-	 * @param defaultValue Value taken from 'value' attribute
-	 * @param expression XPath expression to evaluate
-	 * @param fieldName Contains one of the following: pdfFilePath, cssFilePath, xslFilePath
+	 * 
+	 * @param resourceCacheDuration Milliseconds a cached resource is used before checking it for changes
+	 */
+	public void setResourceCacheDuration(long resourceCacheDuration) {
+		this.resourceCacheDuration = resourceCacheDuration;
+		updateResourceCache();
+	}
+
+	/**
+	 * 
+	 * @return Pipeline used to hand transformation result to the renderer
+	 */
+	public String getPipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * 
+	 * @param pipeline Either {@link #PIPELINE_STRING} or {@link #PIPELINE_DOM}
+	 */
+	public void setPipeline(String pipeline) {
+		this.pipeline = pipeline;
+	}
+
+	/**
+	 * 
+	 * @return Maximum number of documents rendered at the same time
+	 */
+	public int getRendererPoolSize() {
+		return rendererPoolSize;
+	}
+
+	/**
+	 * 
+	 * @param rendererPoolSize Maximum number of documents rendered at the same time
+	 */
+	public void setRendererPoolSize(int rendererPoolSize) {
+		this.rendererPoolSize = rendererPoolSize;
+		rendererPoolChanged = true;
+	}
+
+	/**
+	 * 
+	 * @return Maximum total size in bytes of images and other resources cached by the renderers
+	 */
+	public long getRenderResourceCacheSize() {
+		return renderResourceCacheSize;
+	}
+
+	/**
+	 * 
+	 * @param renderResourceCacheSize Maximum total size in bytes of images and other resources cached by the renderers
+	 */
+	public void setRenderResourceCacheSize(long renderResourceCacheSize) {
+		this.renderResourceCacheSize = renderResourceCacheSize;
+		rendererPoolChanged = true;
+	}
+
+	/**
+	 * 
+	 * @return Comma separated directories of font files registered to the renderers
+	 */
+	public String getFontDirectories() {
+		return fontDirectories;
+	}
+
+	/**
+	 * 
+	 * @param fontDirectories Comma separated directories of font files registered to the renderers
+	 */
+	public void setFontDirectories(String fontDirectories) {
+		this.fontDirectories = fontDirectories;
+		rendererPoolChanged = true;
+	}
+
+	/**
+	 * 
+	 * @return Configured font directories as list, empty if there are none
+	 */
+	private List<String> getFontDirectoryList() {
+		List<String> directories = new ArrayList<String>();
+		if (fontDirectories != null) {
+			for (String directory : fontDirectories.split(",")) {
+				if (!directory.trim().isEmpty()) {
+					directories.add(directory.trim());
+				}
+			}
+		}
+		return directories;
+	}
+
+	/**
+	 * 
+	 * @return Where created PDF is delivered to
+	 */
+	public String getOutput() {
+		return output;
+	}
+
+	/**
+	 * 
+	 * @param output One of {@link #OUTPUT_FILE}, {@link #OUTPUT_BODY} or {@link #OUTPUT_PROPERTY}
+	 */
+	public void setOutput(String output) {
+		this.output = output;
+	}
+
+	/**
+	 * 
+	 * @return Name of the property created PDF is set to
+	 */
+	public String getOutputProperty() {
+		return outputProperty;
+	}
+
+	/**
+	 * 
+	 * @param outputProperty Name of the property created PDF is set to
+	 */
+	public void setOutputProperty(String outputProperty) {
+		this.outputProperty = outputProperty;
+	}
+
+	/**
+	 * 
+	 * @return Format of PDF delivered into message body or property
+	 */
+	public String getOutputFormat() {
+		return outputFormat;
+	}
+
+	/**
+	 * 
+	 * @param outputFormat Either {@link #OUTPUT_FORMAT_BINARY} or {@link #OUTPUT_FORMAT_BASE64}
+	 */
+	public void setOutputFormat(String outputFormat) {
+		this.outputFormat = outputFormat;
+	}
+
+	/**
+	 * 
+	 * @return True if PDFs are rendered asynchronously
+	 */
+	public boolean isAsync() {
+		return async;
+	}
+
+	/**
+	 * 
+	 * @param async True to render PDFs asynchronously
+	 */
+	public void setAsync(boolean async) {
+		this.async = async;
+	}
+
+	/**
+	 * 
+	 * @return Number of threads rendering PDFs asynchronously
+	 */
+	public int getAsyncPoolSize() {
+		return asyncPoolSize;
+	}
+
+	/**
+	 * 
+	 * @param asyncPoolSize Number of threads rendering PDFs asynchronously
+	 */
+	public void setAsyncPoolSize(int asyncPoolSize) {
+		this.asyncPoolSize = asyncPoolSize;
+	}
+
+	/**
+	 * 
+	 * @return Maximum number of asynchronous renders waiting for a thread
+	 */
+	public int getAsyncQueueSize() {
+		return asyncQueueSize;
+	}
+
+	/**
+	 * 
+	 * @param asyncQueueSize Maximum number of asynchronous renders waiting for a thread
+	 */
+	public void setAsyncQueueSize(int asyncQueueSize) {
+		this.asyncQueueSize = asyncQueueSize;
+	}
+
+	/**
+	 * 
+	 * @return True if render is run by the message processing thread when the queue is full
+	 */
+	public boolean isAsyncCallerRuns() {
+		return asyncCallerRuns;
+	}
+
+	/**
+	 * 
+	 * @param asyncCallerRuns True to run render in the message processing thread when the queue is full,
+	 *            false to fail the message
+	 */
+	public void setAsyncCallerRuns(boolean asyncCallerRuns) {
+		this.asyncCallerRuns = asyncCallerRuns;
+	}
+
+	/**
+	 * 
+	 * @return Key of the sequence message continues in after asynchronous render
+	 */
+	public String getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * 
+	 * @param sequence Key of the sequence message continues in after asynchronous render
+	 */
+	public void setSequence(String sequence) {
+		this.sequence = sequence;
+	}
+
+	/**
+	 * 
+	 * @return Expression selecting the items of a batch, null if not in batch mode
+	 */
+	public SynapseXPath getIterateExpression() {
+		return iterateExpression;
+	}
+
+	/**
+	 * 
+	 * @param iterateExpression Expression selecting elements rendered as separate documents
+	 */
+	public void setIterateExpression(SynapseXPath iterateExpression) {
+		this.iterateExpression = iterateExpression;
+	}
+
+	/**
+	 * 
+	 * @return Either {@link #BATCH_OUTPUT_FILES} or {@link #BATCH_OUTPUT_MERGED}
+	 */
+	public String getBatchOutput() {
+		return batchOutput;
+	}
+
+	/**
+	 * 
+	 * @param batchOutput Either {@link #BATCH_OUTPUT_FILES} or {@link #BATCH_OUTPUT_MERGED}
+	 */
+	public void setBatchOutput(String batchOutput) {
+		this.batchOutput = batchOutput;
+	}
+
+	/**
+	 * 
+	 * @return Number of batch items rendered at the same time
+	 */
+	public int getBatchParallelism() {
+		return batchParallelism;
+	}
+
+	/**
+	 * 
+	 * @param batchParallelism Number of batch items rendered at the same time
+	 */
+	public void setBatchParallelism(int batchParallelism) {
+		this.batchParallelism = batchParallelism;
+	}
+
+	/**
+	 * 
+	 * @return Either {@link #BATCH_COMPLETION_ORDERED} or {@link #BATCH_COMPLETION_UNORDERED}
+	 */
+	public String getBatchCompletion() {
+		return batchCompletion;
+	}
+
+	/**
+	 * 
+	 * @param batchCompletion Either {@link #BATCH_COMPLETION_ORDERED} or {@link #BATCH_COMPLETION_UNORDERED}
+	 */
+	public void setBatchCompletion(String batchCompletion) {
+		this.batchCompletion = batchCompletion;
+	}
+
+	/**
+	 * 
+	 * @return Writer of PDF files
+	 */
+	public PdfFileWriter getPdfFileWriter() {
+		return htmlToPdf.getFileWriter();
+	}
+
+	/**
+	 * 
+	 * @param pdfFileWriter Writer of PDF files
+	 */
+	public void setPdfFileWriter(PdfFileWriter pdfFileWriter) {
+		htmlToPdf.setFileWriter(pdfFileWriter);
+	}
+
+	/**
+	 * 
+	 * @return Name of the elements documents are split at for chunked rendering, null if not chunked
+	 */
+	public String getChunkElement() {
+		return chunkElement;
+	}
+
+	/**
+	 * 
+	 * @param chunkElement Name of the elements to split documents at for chunked rendering, null to not chunk
+	 */
+	public void setChunkElement(String chunkElement) {
+		this.chunkElement = chunkElement;
+		updateChunker();
+	}
+
+	/**
+	 * 
+	 * @return Number of split elements in each chunk
+	 */
+	public int getChunkSize() {
+		return chunkSize;
+	}
+
+	/**
+	 * 
+	 * @param chunkSize Number of split elements in each chunk
+	 */
+	public void setChunkSize(int chunkSize) {
+		this.chunkSize = chunkSize;
+		updateChunker();
+	}
+
+	/**
+	 * 
+	 * @return Number of chunks rendered at the same time
+	 */
+	public int getChunkParallelism() {
+		return chunkParallelism;
+	}
+
+	/**
+	 * 
+	 * @param chunkParallelism Number of chunks rendered at the same time
+	 */
+	public void setChunkParallelism(int chunkParallelism) {
+		this.chunkParallelism = chunkParallelism;
+	}
+
+	/**
+	 * Replaces the document splitter of the renderer to match current settings.
+	 */
+	private void updateChunker() {
+		htmlToPdf.setChunker(chunkElement != null ? new HtmlChunker(chunkElement, chunkSize) : null);
+	}
+
+	/**
+	 * 
+	 * @return Path of PDF or HTML file of pages inserted before rendered pages, null if none
+	 */
+	public String getCoverPages() {
+		return coverPages;
+	}
+
+	/**
+	 * 
+	 * @param coverPages Path of PDF or HTML file of pages inserted before rendered pages, null if none
+	 */
+	public void setCoverPages(String coverPages) {
+		this.coverPages = coverPages;
+		updateStaticPages();
+	}
+
+	/**
+	 * 
+	 * @return Path of PDF or HTML file of background of rendered pages, null if none
+	 */
+	public String getBackground() {
+		return background;
+	}
+
+	/**
+	 * 
+	 * @param background Path of PDF or HTML file of background of rendered pages, null if none
+	 */
+	public void setBackground(String background) {
+		this.background = background;
+		updateStaticPages();
+	}
+
+	/**
+	 * 
+	 * @return Path of PDF or HTML file of pages appended after rendered pages, null if none
+	 */
+	public String getAppendPages() {
+		return appendPages;
+	}
+
+	/**
+	 * 
+	 * @param appendPages Path of PDF or HTML file of pages appended after rendered pages, null if none
+	 */
+	public void setAppendPages(String appendPages) {
+		this.appendPages = appendPages;
+		updateStaticPages();
+	}
+
+	/**
+	 * Replaces the static pages of the renderer to match current settings.
+	 */
+	private void updateStaticPages() {
+		htmlToPdf.setStaticPages(coverPages != null || background != null || appendPages != null
+				? new StaticPages(coverPages, background, appendPages) : null);
+	}
+
+	/**
+	 * 
+	 * @return Path of PDF form template filled instead of rendering HTML, null if HTML is rendered
+	 */
+	public String getFormTemplate() {
+		return formTemplate;
+	}
+
+	/**
+	 * 
+	 * @param formTemplate Path of PDF form template filled instead of rendering HTML, null to render HTML
+	 */
+	public void setFormTemplate(String formTemplate) {
+		this.formTemplate = formTemplate;
+		updateFormFiller();
+	}
+
+	/**
+	 * 
+	 * @return Whether filled form fields are flattened into page content
+	 */
+	public boolean isFlattenForm() {
+		return flattenForm;
+	}
+
+	/**
+	 * 
+	 * @param flattenForm Whether filled form fields are flattened into page content
+	 */
+	public void setFlattenForm(boolean flattenForm) {
+		this.flattenForm = flattenForm;
+		updateFormFiller();
+	}
+
+	/**
+	 * 
+	 * @return Expressions selecting form field values by field name, in configuration order
+	 */
+	public Map<String, SynapseXPath> getFormFields() {
+		return Collections.unmodifiableMap(formFields);
+	}
+
+	/**
+	 * 
+	 * @param name Fully qualified name of the form field
+	 * @param expression Expression selecting the field value from the message
+	 */
+	public void addFormField(String name, SynapseXPath expression) {
+		formFields.put(name, expression);
+	}
+
+	/**
+	 * Replaces the form filler to match current settings.
+	 */
+	private void updateFormFiller() {
+		formFiller = formTemplate != null ? new PdfFormFiller(formTemplate, flattenForm) : null;
+	}
+
+	/**
+	 * 
+	 * @return Payload size in bytes from which documents are rendered in large-document mode, zero if disabled
+	 */
+	public long getLargeDocumentThreshold() {
+		return largeDocumentThreshold;
+	}
+
+	/**
+	 * 
+	 * @param largeDocumentThreshold Payload size in bytes from which documents are rendered in
+	 *            large-document mode, zero to disable
+	 */
+	public void setLargeDocumentThreshold(long largeDocumentThreshold) {
+		this.largeDocumentThreshold = largeDocumentThreshold;
+	}
+
+	/**
+	 * 
+	 * @return Maximum total size in bytes of rendered PDFs cached in memory, zero if not cached in memory
+	 */
+	public long getResultCacheSize() {
+		return resultCacheSize;
+	}
+
+	/**
+	 * 
+	 * @param resultCacheSize Maximum total size in bytes of rendered PDFs cached in memory, zero if not cached in memory
+	 */
+	public synchronized void setResultCacheSize(long resultCacheSize) {
+		this.resultCacheSize = resultCacheSize;
+		this.resultCache = null;
+	}
+
+	/**
+	 * 
+	 * @return Directory of rendered PDFs cached on disk, null if not cached on disk
+	 */
+	public String getResultCacheDirectory() {
+		return resultCacheDirectory;
+	}
+
+	/**
+	 * 
+	 * @param resultCacheDirectory Directory of rendered PDFs cached on disk, null if not cached on disk
+	 */
+	public synchronized void setResultCacheDirectory(String resultCacheDirectory) {
+		this.resultCacheDirectory = resultCacheDirectory;
+		this.resultCache = null;
+	}
+
+	/**
+	 * 
+	 * @return Maximum total size in bytes of rendered PDFs cached on disk
+	 */
+	public long getResultCacheDiskSize() {
+		return resultCacheDiskSize;
+	}
+
+	/**
+	 * 
+	 * @param resultCacheDiskSize Maximum total size in bytes of rendered PDFs cached on disk
+	 */
+	public synchronized void setResultCacheDiskSize(long resultCacheDiskSize) {
+		this.resultCacheDiskSize = resultCacheDiskSize;
+		this.resultCache = null;
+	}
+
+	/**
+	 * 
+	 * @return Maximum number of concurrent renders, zero for no limit
+	 */
+	public int getMaxConcurrentRenders() {
+		return maxConcurrentRenders;
+	}
+
+	/**
+	 * 
+	 * @param maxConcurrentRenders Maximum number of concurrent renders, zero for no limit
+	 */
+	public void setMaxConcurrentRenders(int maxConcurrentRenders) {
+		this.maxConcurrentRenders = maxConcurrentRenders;
+		updateAdmissionController();
+	}
+
+	/**
+	 * 
+	 * @return Maximum estimated payload bytes of concurrent renders, zero for no limit
+	 */
+	public long getMaxInFlightBytes() {
+		return maxInFlightBytes;
+	}
+
+	/**
+	 * 
+	 * @param maxInFlightBytes Maximum estimated payload bytes of concurrent renders, zero for no limit
+	 */
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		this.maxInFlightBytes = maxInFlightBytes;
+		updateAdmissionController();
+	}
+
+	/**
+	 * 
+	 * @return Milliseconds a render waits for admission before the message fails
+	 */
+	public long getAdmissionTimeout() {
+		return admissionTimeout;
+	}
+
+	/**
+	 * 
+	 * @param admissionTimeout Milliseconds a render waits for admission before the message fails
+	 */
+	public void setAdmissionTimeout(long admissionTimeout) {
+		this.admissionTimeout = admissionTimeout;
+		updateAdmissionController();
+	}
+
+	/**
+	 * 
+	 * @return Admission control of renders, null if renders are not limited
+	 */
+	public AdmissionController getAdmissionController() {
+		return admissionController;
+	}
+
+	/**
+	 * Replaces the admission control to match current limits.
+	 */
+	private void updateAdmissionController() {
+		admissionController = maxConcurrentRenders > 0 || maxInFlightBytes > 0
+				? new AdmissionController(maxConcurrentRenders, maxInFlightBytes, admissionTimeout) : null;
+	}
+
+	/**
+	 * 
+	 * @return True if a document is rendered on init to warm up the mediator
+	 */
+	public boolean isWarmUp() {
+		return warmUp;
+	}
+
+	/**
+	 * 
+	 * @param warmUp True to render a document on init to warm up the mediator
+	 */
+	public void setWarmUp(boolean warmUp) {
+		this.warmUp = warmUp;
+	}
+
+	/**
+	 * 
+	 * @return Name of the XSLT engine or class name of an engine or transformer factory
+	 */
+	public String getXsltEngine() {
+		return xsltEngine;
+	}
+
+	/**
+	 * 
+	 * @param xsltEngine Name of the XSLT engine or class name of an engine or transformer factory
+	 */
+	public void setXsltEngine(String xsltEngine) {
+		this.xsltEngine = xsltEngine;
+		updateXslTransformer();
+	}
+
+	/**
+	 * 
+	 * @return Transformer factory features as comma separated name=value pairs, null if none
+	 */
+	public String getXsltFeatures() {
+		return xsltFeatures;
+	}
+
+	/**
+	 * 
+	 * @param xsltFeatures Transformer factory features as comma separated name=value pairs, null if none
+	 */
+	public void setXsltFeatures(String xsltFeatures) {
+		this.xsltFeatures = xsltFeatures;
+		updateXslTransformer();
+	}
+
+	/**
+	 * Replaces the XSL transformer to match current engine settings. Style
+	 * sheets compiled by another engine are not reused.
+	 */
+	private void updateXslTransformer() {
+		xslTransformer = new XslTransformer(new TemplatesCache(),
+				XsltEngines.forName(xsltEngine, XsltEngines.parseFeatures(xsltFeatures)));
+	}
+
+	/**
+	 * 
+	 * @return False if transformed HTML is rendered without cleaning it first
+	 */
+	public boolean isCleanHtml() {
+		return htmlToPdf.isCleanHtml();
+	}
+
+	/**
+	 * 
+	 * @param cleanHtml False to render transformed HTML without cleaning it
+	 *            first, falling back to cleaning if it is not well formed
+	 */
+	public void setCleanHtml(boolean cleanHtml) {
+		htmlToPdf.setCleanHtml(cleanHtml);
+	}
+
+	/**
+	 * 
+	 * @return True if metrics are recorded
+	 */
+	public boolean isMetricsEnabled() {
+		return metrics != null;
+	}
+
+	/**
+	 * 
+	 * @param metricsEnabled True to record metrics and expose them as MBean
+	 */
+	public void setMetricsEnabled(boolean metricsEnabled) {
+		if (!metricsEnabled) {
+			metrics = null;
+		} else if (metrics == null) {
+			metrics = new PdfMediatorMetrics();
+			for (String gauge : GAUGES) {
+				metrics.addGauge(gauge, new ComponentGauge(gauge));
+			}
+		}
+		htmlToPdf.setMetrics(metrics);
+	}
+
+	/**
+	 * 
+	 * @return Name metrics MBean is registered with, null for generated name
+	 *         which changes whenever the mediator is deployed again
+	 */
+	public String getMetricsName() {
+		return metricsName;
+	}
+
+	/**
+	 * 
+	 * @param metricsName Name to register metrics MBean with, null for generated name
+	 *            which changes whenever the mediator is deployed again
+	 */
+	public void setMetricsName(String metricsName) {
+		this.metricsName = metricsName;
+	}
+
+	/**
+	 * 
+	 * @return Recorded metrics, null if metrics are disabled
+	 */
+	public PdfMediatorMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * 
+	 * @return Name metrics MBean is registered with
+	 */
+	private String getMetricsId() {
+		return metricsName != null ? metricsName : "pdf-" + Integer.toHexString(System.identityHashCode(this));
+	}
+
+	/**
+	 * Records duration of given stage if metrics are enabled.
+	 * 
+	 * @param stage Stage to record
+	 * @param start Value of {@link System#nanoTime()} when the stage started
+	 * 
+	 * @return Current value of {@link System#nanoTime()}
+	 */
+	private long recordStage(PdfMediatorMetrics.Stage stage, long start) {
+		PdfMediatorMetrics current = metrics;
+		return current != null ? current.recordStageSince(stage, start) : System.nanoTime();
+	}
+
+	/**
+	 * Records failed mediation if metrics are enabled.
+	 */
+	private void recordFailure() {
+		PdfMediatorMetrics current = metrics;
+		if (current != null) {
+			current.recordFailure();
+		}
+	}
+
+	/**
+	 * Replaces the renderer pool and its resource cache to match current
+	 * settings, once after any of them has been changed.
+	 */
+	private void updateRendererPool() {
+		if (rendererPoolChanged) {
+			htmlToPdf.setRendererPool(new RendererPool(rendererPoolSize, getFontDirectoryList(),
+					new RenderResourceCache(renderResourceCacheSize)));
+			rendererPoolChanged = false;
+		}
+	}
+
+	/**
+	 * Replaces the registry resource cache to match current settings.
+	 */
+	private void updateResourceCache() {
+		mediatorUtil.setResourceCache(cacheResources
+				? new RegistryResourceCache(RegistryResourceCache.DEFAULT_MAX_SIZE, resourceCacheDuration) : null);
+	}
+    
+	/**
+	 * 
+	 * @param messageContext
+	 * @return
+	 */
+	private String getXslFile(MessageContext messageContext) {
+		return fetchValue(messageContext, xslFilePath, xslFilePathExpression, xslFileProperty, "xslFilePath");
+	}
+	
+	/**
+	 * 
+	 * @param messageContext
+	 * @return
+	 */
+	private String getCssFile(MessageContext messageContext) {
+		return fetchValue(messageContext, cssFilePath, cssFilePathExpression, cssFileProperty, "cssFilePath");
+	}
+	
+	/**
+	 * 
+	 * @param messageContext
+	 * @return
+	 */
+	private String getPdfFile(MessageContext messageContext) {
+		return fetchValue(messageContext, pdfFilePath, pdfFilePathExpression, pdfFileProperty, "pdfFilePath");
+	}
+	
+	/**
+	 * Fetches value by evaluating given expression. Property-only expressions
+	 * are resolved by reading the property, falling back to XPath evaluation
+	 * when it is not set as a string.
+	 * 
+	 * @param messageContext Context containing payload to evaluate XPath expression to
+	 * @param defaultValue Value taken from 'value' attribute
+	 * @param expression XPath expression to evaluate
+	 * @param property Property read by the expression, null if expression is not property-only
+	 * @param fieldName Contains one of the following: pdfFilePath, cssFilePath, xslFilePath
 	 * 
 	 * @return Fetched value or already set value from 'value' attribute
 	 */
-	private String fetchValue(MessageContext messageContext, String defaultValue, SynapseXPath expression, String fieldName) {
+	private String fetchValue(MessageContext messageContext, String defaultValue, SynapseXPath expression,
+			PropertyExpression property, String fieldName) {
+        if (defaultValue == null && property != null) {
+        	defaultValue = property.resolve(messageContext);
+        }
         if (defaultValue == null) {
         	try {
         		defaultValue = evaluateXPathExpression(expression, messageContext);
@@ -311,4 +1949,391 @@ public class PdfMediator extends AbstractMediator {
         getLog(messageContext).traceOrDebug("VfsMediator: Resolving resulted in null");
         return null;
     }
+
+    /**
+     * Render of transformed HTML content into PDF, executed either in the
+     * message processing thread or asynchronously.
+     */
+    private class Render implements Runnable {
+        private final Object html;
+        final String css;
+        final String pdfFile;
+        final MessageContext messageContext;
+        final long start;
+        private final AdmissionController.Permit permit;
+
+        /**
+         * 
+         * @param html Transformed HTML content, either string or DOM document
+         * @param css Rules to style HTML content
+         * @param pdfFile File name with path to export PDF to, null if PDF is delivered into message
+         * @param messageContext Message context of the render
+         * @param start Value of {@link System#nanoTime()} when the mediation started
+         * @param permit Admission of the render, null if renders are not limited
+         */
+        Render(Object html, String css, String pdfFile, MessageContext messageContext, long start,
+                AdmissionController.Permit permit) {
+            this.html = html;
+            this.css = css;
+            this.pdfFile = pdfFile;
+            this.messageContext = messageContext;
+            this.start = start;
+            this.permit = permit;
+        }
+
+        /**
+         * Creates PDF and delivers it to the configured output.
+         * 
+         * @throws IOException If PDF creation fails
+         * @throws DocumentException If writing contents to PDF fails
+         */
+        void createPdf() throws IOException, DocumentException, TransformerException {
+            if (pdfFile != null) {
+                PdfMediator.this.createPdf(html, css, pdfFile);
+            } else {
+                deliverPdf(PdfMediator.this.createPdf(html, css), messageContext);
+            }
+            recordStage(PdfMediatorMetrics.Stage.TOTAL, start);
+        }
+
+        /**
+         * Creates PDF asynchronously, continues in the completion sequence and
+         * releases the admission and spill file of the render.
+         */
+        @Override
+        public void run() {
+            try {
+                createPdf();
+                if (sequence != null) {
+                    continueInSequence(messageContext);
+                }
+            } catch (Exception e) {
+                handleAsyncFailure(messageContext, e);
+            } finally {
+                release(permit, html);
+            }
+        }
+    }
+
+    /**
+     * Fill of the form template with values evaluated from the message,
+     * executed either in the message processing thread or asynchronously.
+     */
+    private class FormRender extends Render {
+        private final Map<String, String> values;
+
+        /**
+         * 
+         * @param values Values by field name
+         * @param pdfFile File name with path to export PDF to, null if PDF is delivered into message
+         * @param messageContext Message context of the render
+         * @param start Value of {@link System#nanoTime()} when the mediation started
+         */
+        FormRender(Map<String, String> values, String pdfFile, MessageContext messageContext, long start) {
+            super(null, null, pdfFile, messageContext, start, null);
+            this.values = values;
+        }
+
+        /**
+         * Fills the form template and delivers the PDF to the configured output.
+         * 
+         * @throws IOException If template can not be read or PDF written
+         * @throws DocumentException If field can not be filled
+         */
+        @Override
+        void createPdf() throws IOException, DocumentException {
+            long stageStart = System.nanoTime();
+            int pages;
+            long size;
+            if (pdfFile != null) {
+                PdfFileWriter.PdfFileStream outputStream = htmlToPdf.getFileWriter().open(pdfFile);
+                try {
+                    MeteredOutputStream metered = new MeteredOutputStream(outputStream);
+                    pages = formFiller.fill(values, metered);
+                    stageStart = recordStage(PdfMediatorMetrics.Stage.FILL, stageStart);
+                    outputStream.commit();
+                    recordStage(PdfMediatorMetrics.Stage.COMMIT, stageStart);
+                    size = metered.getByteCount();
+                } finally {
+                    outputStream.close();
+                }
+            } else {
+                ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+                pages = formFiller.fill(values, pdf);
+                recordStage(PdfMediatorMetrics.Stage.FILL, stageStart);
+                size = pdf.size();
+                deliverPdf(pdf.toByteArray(), messageContext);
+            }
+            PdfMediatorMetrics current = metrics;
+            if (current != null) {
+                current.recordBytesOut(size);
+                current.recordPages(pages);
+            }
+            recordStage(PdfMediatorMetrics.Stage.TOTAL, start);
+        }
+    }
+
+    /**
+     * Render served through the result cache. The payload is transformed
+     * and rendered only if the PDF is not cached and not being rendered for
+     * another message already, so a cache hit skips admission as well.
+     */
+    private class CachedRender extends Render implements Callable<byte[]> {
+        private final PdfResultCache cache;
+        private final String key;
+        private final String xslFile;
+        private final String xsl;
+        private byte[] pdf;
+        private OMElement payload;
+        private long payloadSize;
+
+        /**
+         * 
+         * @param cache Cache to look the PDF up from
+         * @param key Hash of the render inputs
+         * @param xslFile Registry path of the XSL style sheet
+         * @param xsl XSL style sheet
+         * @param css Rules to style HTML content
+         * @param pdfFile File name with path to export PDF to, null if PDF is delivered into message
+         * @param messageContext Message context of the render
+         * @param start Value of {@link System#nanoTime()} when the mediation started
+         */
+        CachedRender(PdfResultCache cache, String key, String xslFile, String xsl, String css, String pdfFile,
+                MessageContext messageContext, long start) {
+            super(null, css, pdfFile, messageContext, start, null);
+            this.cache = cache;
+            this.key = key;
+            this.xslFile = xslFile;
+            this.xsl = xsl;
+        }
+
+        /**
+         * Gets PDF from the cache, or renders it, and delivers it to the
+         * configured output.
+         * 
+         * @throws IOException If PDF creation or writing fails
+         * @throws DocumentException If writing contents to PDF fails
+         * @throws TransformerException If transformation fails
+         */
+        @Override
+        void createPdf() throws IOException, DocumentException, TransformerException {
+            byte[] pdf = this.pdf;
+            try {
+                if (pdf == null) {
+                    pdf = cache.get(key, this);
+                }
+            } catch (ExecutionException e) {
+                throw rethrow(e.getCause());
+            }
+            if (pdfFile != null) {
+                PdfFileWriter.PdfFileStream outputStream = htmlToPdf.getFileWriter().open(pdfFile);
+                try {
+                    outputStream.write(pdf);
+                    outputStream.commit();
+                } finally {
+                    outputStream.close();
+                }
+            } else {
+                deliverPdf(pdf, messageContext);
+            }
+            recordStage(PdfMediatorMetrics.Stage.TOTAL, start);
+        }
+
+        /**
+         * Detaches the render from the payload of the message while still in
+         * the message processing thread, since once mediation continues the
+         * message may be changed or sent before an asynchronous render reads
+         * it. A cached PDF is taken right away, otherwise the payload is
+         * copied for the render.
+         */
+        void detach() {
+            pdf = cache.getIfPresent(key);
+            if (pdf == null) {
+                payloadSize = estimatePayloadSize(messageContext);
+                payload = mediatorUtil.getPayloadElement(messageContext).cloneOMElement();
+            }
+        }
+
+        /**
+         * Transforms and renders the PDF on a cache miss, from the copied
+         * payload if there is one and from the message otherwise.
+         */
+        @Override
+        public byte[] call() throws Exception {
+            long payloadSize = payload != null ? this.payloadSize : estimatePayloadSize(messageContext);
+            AdmissionController.Permit permit = admit(messageContext, payloadSize);
+            Object html = null;
+            try {
+                long stageStart = System.nanoTime();
+                OMElement payload = this.payload != null ? this.payload
+                        : mediatorUtil.getPayloadElement(messageContext);
+                html = isLargeDocument(payloadSize) ? transformToSpillFile(payload, xslFile, xsl)
+                        : transform(payload, xslFile, xsl);
+                recordStage(PdfMediatorMetrics.Stage.TRANSFORM, stageStart);
+                return PdfMediator.this.createPdf(html, css);
+            } finally {
+                release(permit, html);
+            }
+        }
+
+        /**
+         * Gets failure of the render to throw as is.
+         * 
+         * @param cause Failure of the render
+         * 
+         * @return Exception to throw if the failure is not thrown directly
+         * 
+         * @throws IOException If render failed with one
+         * @throws DocumentException If render failed with one
+         * @throws TransformerException If render failed with one
+         */
+        private IOException rethrow(Throwable cause) throws IOException, DocumentException, TransformerException {
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof DocumentException) {
+                throw (DocumentException) cause;
+            } else if (cause instanceof TransformerException) {
+                throw (TransformerException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            return new IOException(cause);
+        }
+    }
+
+    /**
+     * Transformation and render of a single batch item.
+     */
+    private class BatchItem implements Callable<byte[]> {
+        private final OMElement item;
+        private final String xslFile;
+        private final String xsl;
+        private final String css;
+        private final String pdfFile;
+
+        /**
+         * 
+         * @param item Element to render
+         * @param xslFile Registry path of the XSL style sheet
+         * @param xsl XSL style sheet
+         * @param css Rules to style HTML content
+         * @param pdfFile File name with path to export PDF to, null if PDF is merged
+         */
+        BatchItem(OMElement item, String xslFile, String xsl, String css, String pdfFile) {
+            this.item = item;
+            this.xslFile = xslFile;
+            this.xsl = xsl;
+            this.css = css;
+            this.pdfFile = pdfFile;
+        }
+
+        /**
+         * Transforms and renders the item.
+         * 
+         * @return Created PDF, null if written to file
+         */
+        @Override
+        public byte[] call() throws IOException, DocumentException, TransformerException {
+            long start = System.nanoTime();
+            Object html = transform(item, xslFile, xsl);
+            recordStage(PdfMediatorMetrics.Stage.TRANSFORM, start);
+            if (pdfFile != null) {
+                createPdf(html, css, pdfFile);
+                return null;
+            }
+            return createPdf(html, css);
+        }
+    }
+
+    /**
+     * Exposes counters of the renderer pool, caches and asynchronous
+     * executor currently used by the mediator.
+     */
+    private class ComponentGauge implements PdfMediatorMetrics.Gauge {
+        private final String name;
+
+        /**
+         * 
+         * @param name One of the gauge names in {@link PdfMediator#GAUGES}
+         */
+        ComponentGauge(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public long getValue() {
+            RendererPool rendererPool = htmlToPdf.getRendererPool();
+            TemplatesCache templatesCache = xslTransformer.getTemplatesCache();
+            RegistryResourceCache resourceCache = mediatorUtil.getResourceCache();
+            StylesheetCache stylesheetCache = htmlToPdf.getStylesheetCache();
+            RenderResourceCache renderResourceCache = rendererPool != null ? rendererPool.getResourceCache() : null;
+            AsyncRenderExecutor executor = asyncRenderExecutor;
+            AdmissionController admission = admissionController;
+            PdfResultCache cache = resultCache;
+            switch (name) {
+            case "RendererPoolCreated":
+                return rendererPool != null ? rendererPool.getCreatedCount() : 0;
+            case "RendererPoolIdle":
+                return rendererPool != null ? rendererPool.getIdleCount() : 0;
+            case "RendererPoolWaiting":
+                return rendererPool != null ? rendererPool.getWaitingCount() : 0;
+            case "TemplatesCacheHits":
+                return templatesCache != null ? templatesCache.getHitCount() : 0;
+            case "TemplatesCacheMisses":
+                return templatesCache != null ? templatesCache.getMissCount() : 0;
+            case "ResourceCacheHits":
+                return resourceCache != null ? resourceCache.getHitCount() : 0;
+            case "ResourceCacheMisses":
+                return resourceCache != null ? resourceCache.getMissCount() : 0;
+            case "AsyncQueued":
+                return executor != null ? executor.getQueuedCount() : 0;
+            case "AsyncRejected":
+                return executor != null ? executor.getRejectedCount() : 0;
+            case "AsyncCallerRuns":
+                return executor != null ? executor.getCallerRunCount() : 0;
+            case "CleanFallbacks":
+                return htmlToPdf.getCleanFallbackCount();
+            case "StylesheetCacheHits":
+                return stylesheetCache != null ? stylesheetCache.getHitCount() : 0;
+            case "StylesheetCacheMisses":
+                return stylesheetCache != null ? stylesheetCache.getMissCount() : 0;
+            case "RenderResourceCacheHits":
+                return renderResourceCache != null ? renderResourceCache.getHitCount() : 0;
+            case "RenderResourceCacheMisses":
+                return renderResourceCache != null ? renderResourceCache.getMissCount() : 0;
+            case "RenderResourceCacheBytes":
+                return renderResourceCache != null ? renderResourceCache.getSizeInBytes() : 0;
+            case "RenderResourceCacheEvictions":
+                return renderResourceCache != null ? renderResourceCache.getEvictionCount() : 0;
+            case "AdmissionActive":
+                return admission != null ? admission.getActiveCount() : 0;
+            case "AdmissionInFlightBytes":
+                return admission != null ? admission.getInFlightBytes() : 0;
+            case "AdmissionWaiting":
+                return admission != null ? admission.getWaitingCount() : 0;
+            case "AdmissionWaited":
+                return admission != null ? admission.getWaitedCount() : 0;
+            case "AdmissionRejected":
+                return admission != null ? admission.getRejectedCount() : 0;
+            case "SharedFonts":
+                return FontManager.getInstance().getFontCount();
+            case "ResultCacheHits":
+                return cache != null ? cache.getHitCount() : 0;
+            case "ResultCacheDiskHits":
+                return cache != null ? cache.getDiskHitCount() : 0;
+            case "ResultCacheMisses":
+                return cache != null ? cache.getMissCount() : 0;
+            case "ResultCacheDeduplicated":
+                return cache != null ? cache.getDeduplicatedCount() : 0;
+            case "ResultCacheEvictions":
+                return cache != null ? cache.getEvictionCount() : 0;
+            case "ResultCacheBytes":
+                return cache != null ? cache.getSizeInBytes() : 0;
+            default:
+                return 0;
+            }
+        }
+    }
 }
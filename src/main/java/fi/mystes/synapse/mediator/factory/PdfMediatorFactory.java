@@ -15,9 +15,12 @@
  */
 package fi.mystes.synapse.mediator.factory;
 
+import java.io.File;
+import java.util.Iterator;
 import java.util.Properties;
 
 import javax.xml.namespace.QName;
+import javax.xml.transform.TransformerConfigurationException;
 
 import org.apache.axiom.om.OMAttribute;
 import org.apache.axiom.om.OMElement;
@@ -29,15 +32,31 @@ import org.jaxen.JaxenException;
 import org.kohsuke.MetaInfServices;
 
 import fi.mystes.synapse.mediator.PdfMediator;
+import fi.mystes.synapse.mediator.util.PdfFileWriter;
+import fi.mystes.synapse.mediator.util.XsltEngines;
 
 /**
  * Factory for {@link PdfMediator} instances.
  * 
  * <pre>
- * &lt;pdf &gt;
- *      &lt;pdfFilePath (value="literal" | expression="xpath")/&gt;
+ * &lt;pdf [cacheResources="true|false"] [resourceCacheDuration="milliseconds"] [pipeline="string|dom"]
+ *      [rendererPoolSize="n"] [output="file|body|property"] [outputProperty="name"]
+ *      [outputFormat="binary|base64"] [async="true|false"] [asyncPoolSize="n"] [asyncQueueSize="n"]
+ *      [asyncRejectPolicy="abort|callerRuns"] [sequence="key"] [metrics="true|false"] [metricsName="name"]
+ *      [cleanHtml="true|false"] [renderResourceCacheSize="bytes"]
+ *      [iterateExpression="xpath"] [batchOutput="files|merged"] [batchParallelism="n"]
+ *      [batchCompletion="ordered|unordered"] [warmUp="true|false"]
+ *      [maxConcurrentRenders="n"] [maxInFlightBytes="bytes"] [admissionTimeout="milliseconds"]
+ *      [largeDocumentThreshold="bytes"] [chunkElement="name"] [chunkSize="n"] [chunkParallelism="n"]
+ *      [fontDirectories="path[,path]"] [resultCacheSize="bytes"] [resultCacheDirectory="path"]
+ *      [resultCacheDiskSize="bytes"] [coverPages="path"] [background="path"] [appendPages="path"]
+ *      [formTemplate="path"] [flattenForm="true|false"] [xsltEngine="default|jdk|xalan|saxon|class"]
+ *      [xsltFeatures="name=value[,name=value]"]&gt;
+ *      &lt;pdfFilePath (value="literal" | expression="xpath") [atomic="true|false"] [fsync="true|false"]
+ *              [bufferSize="bytes"] [createDirectories="true|false"]/&gt;
  *      &lt;cssFilePath (value="literal" | expression="xpath")/&gt;
  *      &lt;xslFilePath (value="literal" | expression="xpath")/&gt;
+ *      &lt;formField name="string" expression="xpath"/&gt;*
  * &lt;/pdf&gt;
  * </pre>
  */
@@ -49,6 +68,55 @@ public class PdfMediatorFactory extends AbstractMediatorFactory {
 	public static final QName Q_PDF_FILE_PATH = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "pdfFilePath");
 	public static final QName Q_CSS_FILE_PATH = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "cssFilePath");
 	public static final QName Q_XSL_FILE_PATH = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "xslFilePath");
+	public static final QName Q_FORM_FIELD = new QName(XMLConfigConstants.SYNAPSE_NAMESPACE, "formField");
+
+	public static final QName ATT_CACHE_RESOURCES = new QName("cacheResources");
+	public static final QName ATT_RESOURCE_CACHE_DURATION = new QName("resourceCacheDuration");
+	public static final QName ATT_PIPELINE = new QName("pipeline");
+	public static final QName ATT_RENDERER_POOL_SIZE = new QName("rendererPoolSize");
+	public static final QName ATT_RENDER_RESOURCE_CACHE_SIZE = new QName("renderResourceCacheSize");
+	public static final QName ATT_OUTPUT = new QName("output");
+	public static final QName ATT_OUTPUT_PROPERTY = new QName("outputProperty");
+	public static final QName ATT_OUTPUT_FORMAT = new QName("outputFormat");
+	public static final QName ATT_ASYNC = new QName("async");
+	public static final QName ATT_ASYNC_POOL_SIZE = new QName("asyncPoolSize");
+	public static final QName ATT_ASYNC_QUEUE_SIZE = new QName("asyncQueueSize");
+	public static final QName ATT_ASYNC_REJECT_POLICY = new QName("asyncRejectPolicy");
+	public static final QName ATT_SEQUENCE = new QName("sequence");
+	public static final QName ATT_METRICS = new QName("metrics");
+	public static final QName ATT_METRICS_NAME = new QName("metricsName");
+	public static final QName ATT_CLEAN_HTML = new QName("cleanHtml");
+	public static final QName ATT_ITERATE_EXPRESSION = new QName("iterateExpression");
+	public static final QName ATT_BATCH_OUTPUT = new QName("batchOutput");
+	public static final QName ATT_BATCH_PARALLELISM = new QName("batchParallelism");
+	public static final QName ATT_BATCH_COMPLETION = new QName("batchCompletion");
+	public static final QName ATT_WARM_UP = new QName("warmUp");
+	public static final QName ATT_MAX_CONCURRENT_RENDERS = new QName("maxConcurrentRenders");
+	public static final QName ATT_MAX_IN_FLIGHT_BYTES = new QName("maxInFlightBytes");
+	public static final QName ATT_ADMISSION_TIMEOUT = new QName("admissionTimeout");
+	public static final QName ATT_LARGE_DOCUMENT_THRESHOLD = new QName("largeDocumentThreshold");
+	public static final QName ATT_CHUNK_ELEMENT = new QName("chunkElement");
+	public static final QName ATT_CHUNK_SIZE = new QName("chunkSize");
+	public static final QName ATT_CHUNK_PARALLELISM = new QName("chunkParallelism");
+	public static final QName ATT_FONT_DIRECTORIES = new QName("fontDirectories");
+	public static final QName ATT_RESULT_CACHE_SIZE = new QName("resultCacheSize");
+	public static final QName ATT_RESULT_CACHE_DIRECTORY = new QName("resultCacheDirectory");
+	public static final QName ATT_RESULT_CACHE_DISK_SIZE = new QName("resultCacheDiskSize");
+	public static final QName ATT_COVER_PAGES = new QName("coverPages");
+	public static final QName ATT_BACKGROUND = new QName("background");
+	public static final QName ATT_APPEND_PAGES = new QName("appendPages");
+	public static final QName ATT_FORM_TEMPLATE = new QName("formTemplate");
+	public static final QName ATT_FLATTEN_FORM = new QName("flattenForm");
+	public static final QName ATT_XSLT_ENGINE = new QName("xsltEngine");
+	public static final QName ATT_XSLT_FEATURES = new QName("xsltFeatures");
+
+	public static final QName ATT_ATOMIC = new QName("atomic");
+	public static final QName ATT_FSYNC = new QName("fsync");
+	public static final QName ATT_BUFFER_SIZE = new QName("bufferSize");
+	public static final QName ATT_CREATE_DIRECTORIES = new QName("createDirectories");
+
+	public static final String REJECT_POLICY_ABORT = "abort";
+	public static final String REJECT_POLICY_CALLER_RUNS = "callerRuns";
 
 	/**
 	 * The QName of PDF mediator element in the XML config
@@ -77,17 +145,448 @@ public class PdfMediatorFactory extends AbstractMediatorFactory {
 
 		PdfMediator pdf = new PdfMediator();
 
-		setPdfFilePath(elem, pdf);
+		setOutput(elem, pdf);
+
+		if (PdfMediator.OUTPUT_FILE.equals(pdf.getOutput()) || elem.getFirstChildWithName(Q_PDF_FILE_PATH) != null) {
+			setPdfFilePath(elem, pdf);
+		}
+
+		setFormTemplate(elem, pdf);
+
+		// form templates are filled without transforming and rendering HTML
+		if (pdf.getFormTemplate() == null || elem.getFirstChildWithName(Q_CSS_FILE_PATH) != null) {
+			setCssFilePath(elem, pdf);
+		}
+
+		if (pdf.getFormTemplate() == null || elem.getFirstChildWithName(Q_XSL_FILE_PATH) != null) {
+			setXslFilePath(elem, pdf);
+		}
+
+		setResourceCaching(elem, pdf);
+
+		setXsltEngine(elem, pdf);
+
+		setPipeline(elem, pdf);
+
+		setRendererPoolSize(elem, pdf);
+
+		setRenderResourceCacheSize(elem, pdf);
+
+		setFontDirectories(elem, pdf);
+
+		setAsync(elem, pdf);
+
+		setBatch(elem, pdf);
+
+		setAdmission(elem, pdf);
+
+		setLargeDocumentThreshold(elem, pdf);
+
+		setChunking(elem, pdf);
+
+		setResultCache(elem, pdf);
 
-		setCssFilePath(elem, pdf);
+		setStaticPages(elem, pdf);
 
-		setXslFilePath(elem, pdf);
+		pdf.setMetricsEnabled(getBooleanAttribute(elem, ATT_METRICS, false));
+		pdf.setMetricsName(elem.getAttributeValue(ATT_METRICS_NAME));
+
+		pdf.setCleanHtml(getBooleanAttribute(elem, ATT_CLEAN_HTML, true));
+
+		pdf.setWarmUp(getBooleanAttribute(elem, ATT_WARM_UP, false));
 
 		return pdf;
 	}
 
 	/**
-	 * Helper method to set PDF file path to PDF mediator.
+	 * Helper method to set registry resource caching to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional resource caching attributes
+	 * @param pdf Mediator to set resource caching to
+	 */
+	private void setResourceCaching(OMElement pdfElement, PdfMediator pdf) {
+		pdf.setResourceCacheDuration(getLongAttribute(pdfElement, ATT_RESOURCE_CACHE_DURATION,
+				pdf.getResourceCacheDuration()));
+		pdf.setCacheResources(getBooleanAttribute(pdfElement, ATT_CACHE_RESOURCES, false));
+	}
+
+	/**
+	 * Helper method to set XSLT engine to PDF mediator. The engine must be
+	 * available and support the given features when the mediator is created.
+	 * 
+	 * @param pdfElement Contains optional XSLT engine attributes
+	 * @param pdf Mediator to set XSLT engine to
+	 */
+	private void setXsltEngine(OMElement pdfElement, PdfMediator pdf) {
+		String engine = pdfElement.getAttributeValue(ATT_XSLT_ENGINE);
+		String features = pdfElement.getAttributeValue(ATT_XSLT_FEATURES);
+		if (engine == null && features == null) {
+			return;
+		}
+		if (engine == null) {
+			engine = pdf.getXsltEngine();
+		}
+		try {
+			XsltEngines.forName(engine, XsltEngines.parseFeatures(features)).newTransformerFactory();
+		} catch (IllegalArgumentException e) {
+			handleException("Invalid xsltEngine value : " + engine, e);
+		} catch (TransformerConfigurationException e) {
+			handleException("Invalid xsltEngine value : " + engine, e);
+		}
+		pdf.setXsltEngine(engine);
+		pdf.setXsltFeatures(features);
+	}
+
+	/**
+	 * Helper method to set rendering pipeline to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional pipeline attribute
+	 * @param pdf Mediator to set pipeline to
+	 */
+	private void setPipeline(OMElement pdfElement, PdfMediator pdf) {
+		pdf.setPipeline(getEnumeratedAttribute(pdfElement, ATT_PIPELINE, pdf.getPipeline(),
+				PdfMediator.PIPELINE_STRING, PdfMediator.PIPELINE_DOM));
+	}
+
+	/**
+	 * Helper method to set PDF output to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional output attributes
+	 * @param pdf Mediator to set output to
+	 */
+	private void setOutput(OMElement pdfElement, PdfMediator pdf) {
+		pdf.setOutput(getEnumeratedAttribute(pdfElement, ATT_OUTPUT, pdf.getOutput(),
+				PdfMediator.OUTPUT_FILE, PdfMediator.OUTPUT_BODY, PdfMediator.OUTPUT_PROPERTY));
+		pdf.setOutputFormat(getEnumeratedAttribute(pdfElement, ATT_OUTPUT_FORMAT, pdf.getOutputFormat(),
+				PdfMediator.OUTPUT_FORMAT_BINARY, PdfMediator.OUTPUT_FORMAT_BASE64));
+		pdf.setOutputProperty(pdfElement.getAttributeValue(ATT_OUTPUT_PROPERTY));
+		if (PdfMediator.OUTPUT_PROPERTY.equals(pdf.getOutput()) && pdf.getOutputProperty() == null) {
+			handleException("outputProperty attribute is required for property output");
+		}
+	}
+
+	/**
+	 * Helper method to set asynchronous rendering to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional asynchronous rendering attributes
+	 * @param pdf Mediator to set asynchronous rendering to
+	 */
+	private void setAsync(OMElement pdfElement, PdfMediator pdf) {
+		pdf.setAsync(getBooleanAttribute(pdfElement, ATT_ASYNC, false));
+		pdf.setAsyncPoolSize(getPositiveIntAttribute(pdfElement, ATT_ASYNC_POOL_SIZE, pdf.getAsyncPoolSize()));
+		pdf.setAsyncQueueSize(getPositiveIntAttribute(pdfElement, ATT_ASYNC_QUEUE_SIZE, pdf.getAsyncQueueSize()));
+		pdf.setAsyncCallerRuns(REJECT_POLICY_CALLER_RUNS.equals(getEnumeratedAttribute(pdfElement,
+				ATT_ASYNC_REJECT_POLICY, REJECT_POLICY_ABORT, REJECT_POLICY_ABORT, REJECT_POLICY_CALLER_RUNS)));
+		pdf.setSequence(pdfElement.getAttributeValue(ATT_SEQUENCE));
+		if (pdf.isAsync() && pdf.getSequence() == null && !PdfMediator.OUTPUT_FILE.equals(pdf.getOutput())) {
+			handleException("sequence attribute is required for asynchronous " + pdf.getOutput() + " output");
+		}
+	}
+
+	/**
+	 * Helper method to set batch mode to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional batch attributes
+	 * @param pdf Mediator to set batch mode to
+	 */
+	private void setBatch(OMElement pdfElement, PdfMediator pdf) {
+		if (pdfElement.getAttribute(ATT_ITERATE_EXPRESSION) == null) {
+			return;
+		}
+		try {
+			pdf.setIterateExpression(SynapseXPathFactory.getSynapseXPath(pdfElement, ATT_ITERATE_EXPRESSION));
+		} catch (JaxenException e) {
+			handleException("Invalid iterateExpression : " + pdfElement.getAttributeValue(ATT_ITERATE_EXPRESSION));
+		}
+		pdf.setBatchOutput(getEnumeratedAttribute(pdfElement, ATT_BATCH_OUTPUT, pdf.getBatchOutput(),
+				PdfMediator.BATCH_OUTPUT_FILES, PdfMediator.BATCH_OUTPUT_MERGED));
+		pdf.setBatchParallelism(getPositiveIntAttribute(pdfElement, ATT_BATCH_PARALLELISM, pdf.getBatchParallelism()));
+		pdf.setBatchCompletion(getEnumeratedAttribute(pdfElement, ATT_BATCH_COMPLETION, pdf.getBatchCompletion(),
+				PdfMediator.BATCH_COMPLETION_ORDERED, PdfMediator.BATCH_COMPLETION_UNORDERED));
+		if (pdf.isAsync()) {
+			handleException("async attribute is not supported with iterateExpression");
+		}
+		if (pdf.getFormTemplate() != null) {
+			handleException("formTemplate attribute is not supported with iterateExpression");
+		}
+		if (PdfMediator.BATCH_OUTPUT_FILES.equals(pdf.getBatchOutput())) {
+			if (!PdfMediator.OUTPUT_FILE.equals(pdf.getOutput())) {
+				handleException("batchOutput files requires file output");
+			}
+			if (pdf.getPdfFilePathExpression() == null) {
+				handleException("pdfFilePath expression is required for batchOutput files");
+			}
+		}
+	}
+
+	/**
+	 * Helper method to set admission control of renders to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional admission control attributes
+	 * @param pdf Mediator to set admission control to
+	 */
+	private void setAdmission(OMElement pdfElement, PdfMediator pdf) {
+		if (pdfElement.getAttribute(ATT_MAX_CONCURRENT_RENDERS) != null) {
+			pdf.setMaxConcurrentRenders(getPositiveIntAttribute(pdfElement, ATT_MAX_CONCURRENT_RENDERS,
+					pdf.getMaxConcurrentRenders()));
+		}
+		long maxInFlightBytes = getLongAttribute(pdfElement, ATT_MAX_IN_FLIGHT_BYTES, pdf.getMaxInFlightBytes());
+		if (maxInFlightBytes < 0) {
+			handleException("Invalid maxInFlightBytes value : " + maxInFlightBytes);
+		}
+		pdf.setMaxInFlightBytes(maxInFlightBytes);
+		long admissionTimeout = getLongAttribute(pdfElement, ATT_ADMISSION_TIMEOUT, pdf.getAdmissionTimeout());
+		if (admissionTimeout < 0) {
+			handleException("Invalid admissionTimeout value : " + admissionTimeout);
+		}
+		pdf.setAdmissionTimeout(admissionTimeout);
+	}
+
+	/**
+	 * Helper method to set large-document mode threshold to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional large-document threshold attribute
+	 * @param pdf Mediator to set large-document threshold to
+	 */
+	private void setLargeDocumentThreshold(OMElement pdfElement, PdfMediator pdf) {
+		long threshold = getLongAttribute(pdfElement, ATT_LARGE_DOCUMENT_THRESHOLD, pdf.getLargeDocumentThreshold());
+		if (threshold < 0) {
+			handleException("Invalid largeDocumentThreshold value : " + threshold);
+		}
+		pdf.setLargeDocumentThreshold(threshold);
+	}
+
+	/**
+	 * Helper method to set result cache to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional result cache attributes
+	 * @param pdf Mediator to set result cache to
+	 */
+	private void setResultCache(OMElement pdfElement, PdfMediator pdf) {
+		long size = getLongAttribute(pdfElement, ATT_RESULT_CACHE_SIZE, pdf.getResultCacheSize());
+		if (size < 0) {
+			handleException("Invalid resultCacheSize value : " + size);
+		}
+		long diskSize = getLongAttribute(pdfElement, ATT_RESULT_CACHE_DISK_SIZE, pdf.getResultCacheDiskSize());
+		if (diskSize < 1) {
+			handleException("Invalid resultCacheDiskSize value : " + diskSize);
+		}
+		pdf.setResultCacheSize(size);
+		pdf.setResultCacheDiskSize(diskSize);
+		pdf.setResultCacheDirectory(pdfElement.getAttributeValue(ATT_RESULT_CACHE_DIRECTORY));
+	}
+
+	/**
+	 * Helper method to set static pages to PDF mediator. Each file must exist
+	 * when the mediator is created.
+	 * 
+	 * @param pdfElement Contains optional static page attributes
+	 * @param pdf Mediator to set static pages to
+	 */
+	private void setStaticPages(OMElement pdfElement, PdfMediator pdf) {
+		for (QName attributeName : new QName[] { ATT_COVER_PAGES, ATT_BACKGROUND, ATT_APPEND_PAGES }) {
+			String path = pdfElement.getAttributeValue(attributeName);
+			if (path != null && !new File(path).isFile()) {
+				handleException("Invalid " + attributeName.getLocalPart() + " value : " + path + " is not a file");
+			}
+		}
+		pdf.setCoverPages(pdfElement.getAttributeValue(ATT_COVER_PAGES));
+		pdf.setBackground(pdfElement.getAttributeValue(ATT_BACKGROUND));
+		pdf.setAppendPages(pdfElement.getAttributeValue(ATT_APPEND_PAGES));
+	}
+
+	/**
+	 * Helper method to set form template and the expressions of its field
+	 * values to PDF mediator. The template must exist when the mediator is
+	 * created.
+	 * 
+	 * @param pdfElement Contains optional form template attributes and form field elements
+	 * @param pdf Mediator to set form template to
+	 */
+	private void setFormTemplate(OMElement pdfElement, PdfMediator pdf) {
+		String formTemplate = pdfElement.getAttributeValue(ATT_FORM_TEMPLATE);
+		if (formTemplate == null) {
+			if (pdfElement.getFirstChildWithName(Q_FORM_FIELD) != null) {
+				handleException("formTemplate attribute is required for formField");
+			}
+			return;
+		}
+		if (!new File(formTemplate).isFile()) {
+			handleException("Invalid formTemplate value : " + formTemplate + " is not a file");
+		}
+		pdf.setFlattenForm(getBooleanAttribute(pdfElement, ATT_FLATTEN_FORM, true));
+		pdf.setFormTemplate(formTemplate);
+
+		Iterator<?> formFields = pdfElement.getChildrenWithName(Q_FORM_FIELD);
+		while (formFields.hasNext()) {
+			OMElement formField = (OMElement) formFields.next();
+			String name = formField.getAttributeValue(ATT_NAME);
+			if (name == null) {
+				handleException("name attribute is required for formField");
+			}
+			if (formField.getAttribute(ATT_EXPRN) == null) {
+				handleException("expression attribute is required for formField " + name);
+			}
+			try {
+				pdf.addFormField(name, SynapseXPathFactory.getSynapseXPath(formField, ATT_EXPRN));
+			} catch (JaxenException e) {
+				handleException("Invalid formField " + name + " expression : " + formField.getAttributeValue(ATT_EXPRN));
+			}
+		}
+	}
+
+	/**
+	 * Helper method to set chunked rendering to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional chunking attributes
+	 * @param pdf Mediator to set chunked rendering to
+	 */
+	private void setChunking(OMElement pdfElement, PdfMediator pdf) {
+		pdf.setChunkSize(getPositiveIntAttribute(pdfElement, ATT_CHUNK_SIZE, pdf.getChunkSize()));
+		pdf.setChunkParallelism(getPositiveIntAttribute(pdfElement, ATT_CHUNK_PARALLELISM, pdf.getChunkParallelism()));
+		pdf.setChunkElement(pdfElement.getAttributeValue(ATT_CHUNK_ELEMENT));
+	}
+
+	/**
+	 * Sets directories of font files shared by the renderers. Each directory
+	 * must exist when the mediator is created.
+	 * 
+	 * @param pdfElement Element to read fontDirectories attribute from
+	 * @param pdf Mediator to set font directories to
+	 */
+	private void setFontDirectories(OMElement pdfElement, PdfMediator pdf) {
+		String fontDirectories = pdfElement.getAttributeValue(ATT_FONT_DIRECTORIES);
+		if (fontDirectories == null) {
+			return;
+		}
+		for (String directory : fontDirectories.split(",")) {
+			if (!directory.trim().isEmpty() && !new File(directory.trim()).isDirectory()) {
+				handleException("Invalid fontDirectories value : " + directory.trim() + " is not a directory");
+			}
+		}
+		pdf.setFontDirectories(fontDirectories);
+	}
+
+	/**
+	 * Helper method to read optional attribute having a positive integer value.
+	 * 
+	 * @param element Element to read attribute from
+	 * @param attributeName Name of the attribute
+	 * @param defaultValue Value to use if attribute is not set
+	 * 
+	 * @return Attribute value or given default value
+	 */
+	private int getPositiveIntAttribute(OMElement element, QName attributeName, int defaultValue) {
+		long value = getLongAttribute(element, attributeName, defaultValue);
+		if (value < 1 || value > Integer.MAX_VALUE) {
+			handleException("Invalid " + attributeName.getLocalPart() + " value : " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Helper method to read optional attribute having one of the given values.
+	 * 
+	 * @param element Element to read attribute from
+	 * @param attributeName Name of the attribute
+	 * @param defaultValue Value to use if attribute is not set
+	 * @param allowedValues Values the attribute may have
+	 * 
+	 * @return Attribute value or given default value
+	 */
+	private String getEnumeratedAttribute(OMElement element, QName attributeName, String defaultValue,
+			String... allowedValues) {
+		String value = element.getAttributeValue(attributeName);
+		if (value == null) {
+			return defaultValue;
+		}
+		for (String allowedValue : allowedValues) {
+			if (allowedValue.equals(value)) {
+				return value;
+			}
+		}
+		handleException("Invalid " + attributeName.getLocalPart() + " value : " + value);
+		return defaultValue;
+	}
+
+	/**
+	 * Helper method to set renderer pool size to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional renderer pool size attribute
+	 * @param pdf Mediator to set renderer pool size to
+	 */
+	private void setRendererPoolSize(OMElement pdfElement, PdfMediator pdf) {
+		if (pdfElement.getAttribute(ATT_RENDERER_POOL_SIZE) == null) {
+			return;
+		}
+		long rendererPoolSize = getLongAttribute(pdfElement, ATT_RENDERER_POOL_SIZE, pdf.getRendererPoolSize());
+		if (rendererPoolSize < 1 || rendererPoolSize > Integer.MAX_VALUE) {
+			handleException("Invalid rendererPoolSize value : " + rendererPoolSize);
+		}
+		pdf.setRendererPoolSize((int) rendererPoolSize);
+	}
+
+	/**
+	 * Helper method to set size of the renderers' resource cache to PDF mediator.
+	 * 
+	 * @param pdfElement Contains optional render resource cache size attribute
+	 * @param pdf Mediator to set render resource cache size to
+	 */
+	private void setRenderResourceCacheSize(OMElement pdfElement, PdfMediator pdf) {
+		if (pdfElement.getAttribute(ATT_RENDER_RESOURCE_CACHE_SIZE) == null) {
+			return;
+		}
+		long size = getLongAttribute(pdfElement, ATT_RENDER_RESOURCE_CACHE_SIZE, pdf.getRenderResourceCacheSize());
+		if (size < 1) {
+			handleException("Invalid renderResourceCacheSize value : " + size);
+		}
+		pdf.setRenderResourceCacheSize(size);
+	}
+
+	/**
+	 * Helper method to read optional boolean attribute.
+	 * 
+	 * @param element Element to read attribute from
+	 * @param attributeName Name of the attribute
+	 * @param defaultValue Value to use if attribute is not set
+	 * 
+	 * @return Attribute value or given default value
+	 */
+	private boolean getBooleanAttribute(OMElement element, QName attributeName, boolean defaultValue) {
+		String value = element.getAttributeValue(attributeName);
+		if (value == null) {
+			return defaultValue;
+		}
+		if (!"true".equals(value) && !"false".equals(value)) {
+			handleException("Invalid " + attributeName.getLocalPart() + " value : " + value);
+		}
+		return Boolean.parseBoolean(value);
+	}
+
+	/**
+	 * Helper method to read optional numeric attribute.
+	 * 
+	 * @param element Element to read attribute from
+	 * @param attributeName Name of the attribute
+	 * @param defaultValue Value to use if attribute is not set
+	 * 
+	 * @return Attribute value or given default value
+	 */
+	private long getLongAttribute(OMElement element, QName attributeName, long defaultValue) {
+		String value = element.getAttributeValue(attributeName);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			handleException("Invalid " + attributeName.getLocalPart() + " value : " + value);
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Helper method to set PDF file path and file writing options to PDF mediator.
 	 * 
 	 * @param pdfElement Contains necessary element for PDF file path setting
 	 * @param pdf Mediator to set PDF file path to
@@ -112,6 +611,12 @@ public class PdfMediatorFactory extends AbstractMediatorFactory {
 				handleException("Invalid pdfFilePath expression : " + pdfFilePathElement.getAttributeValue(ATT_EXPRN));
 			}
 		}
+
+		pdf.setPdfFileWriter(new PdfFileWriter(
+				getPositiveIntAttribute(pdfFilePathElement, ATT_BUFFER_SIZE, PdfFileWriter.DEFAULT_BUFFER_SIZE),
+				getBooleanAttribute(pdfFilePathElement, ATT_ATOMIC, true),
+				getBooleanAttribute(pdfFilePathElement, ATT_FSYNC, false),
+				getBooleanAttribute(pdfFilePathElement, ATT_CREATE_DIRECTORIES, false)));
 	}
 
 	/**
@@ -15,13 +15,25 @@
  */
 package fi.mystes.synapse.mediator.serializer;
 
+import java.util.Map;
+
 import org.apache.axiom.om.OMElement;
 import org.apache.synapse.Mediator;
 import org.apache.synapse.config.xml.AbstractMediatorSerializer;
 import org.apache.synapse.config.xml.SynapseXPathSerializer;
+import org.apache.synapse.util.xpath.SynapseXPath;
 import org.kohsuke.MetaInfServices;
 
 import fi.mystes.synapse.mediator.PdfMediator;
+import fi.mystes.synapse.mediator.util.AdmissionController;
+import fi.mystes.synapse.mediator.util.AsyncRenderExecutor;
+import fi.mystes.synapse.mediator.util.ParallelRenderEngine;
+import fi.mystes.synapse.mediator.util.PdfResultCache;
+import fi.mystes.synapse.mediator.util.PdfFileWriter;
+import fi.mystes.synapse.mediator.util.RegistryResourceCache;
+import fi.mystes.synapse.mediator.util.RenderResourceCache;
+import fi.mystes.synapse.mediator.util.RendererPool;
+import fi.mystes.synapse.mediator.util.XsltEngines;
 
 
 /**
@@ -29,10 +41,24 @@ import fi.mystes.synapse.mediator.PdfMediator;
  * instance.
  * 
  * <pre>
- * &lt;pdf &gt;
- *      &lt;pdfFilePath (value="literal" | expression="xpath")/&gt;
+ * &lt;pdf [cacheResources="true|false"] [resourceCacheDuration="milliseconds"] [pipeline="string|dom"]
+ *      [rendererPoolSize="n"] [output="file|body|property"] [outputProperty="name"]
+ *      [outputFormat="binary|base64"] [async="true|false"] [asyncPoolSize="n"] [asyncQueueSize="n"]
+ *      [asyncRejectPolicy="abort|callerRuns"] [sequence="key"] [metrics="true|false"] [metricsName="name"]
+ *      [cleanHtml="true|false"] [renderResourceCacheSize="bytes"]
+ *      [iterateExpression="xpath"] [batchOutput="files|merged"] [batchParallelism="n"]
+ *      [batchCompletion="ordered|unordered"] [warmUp="true|false"]
+ *      [maxConcurrentRenders="n"] [maxInFlightBytes="bytes"] [admissionTimeout="milliseconds"]
+ *      [largeDocumentThreshold="bytes"] [chunkElement="name"] [chunkSize="n"] [chunkParallelism="n"]
+ *      [fontDirectories="path[,path]"] [resultCacheSize="bytes"] [resultCacheDirectory="path"]
+ *      [resultCacheDiskSize="bytes"] [coverPages="path"] [background="path"] [appendPages="path"]
+ *      [formTemplate="path"] [flattenForm="true|false"] [xsltEngine="default|jdk|xalan|saxon|class"]
+ *      [xsltFeatures="name=value[,name=value]"]&gt;
+ *      &lt;pdfFilePath (value="literal" | expression="xpath") [atomic="true|false"] [fsync="true|false"]
+ *              [bufferSize="bytes"] [createDirectories="true|false"]/&gt;
  *      &lt;cssFilePath (value="literal" | expression="xpath")/&gt;
  *      &lt;xslFilePath (value="literal" | expression="xpath")/&gt;
+ *      &lt;formField name="string" expression="xpath"/&gt;*
  * &lt;/pdf&gt;
  * </pre>
  */
@@ -61,16 +87,208 @@ public class PdfMediatorSerializer extends AbstractMediatorSerializer {
         PdfMediator mediator = (PdfMediator) m;
         OMElement pdf = fac.createOMElement("pdf", synNS);
         saveTracingState(pdf, mediator);
+
+        setResourceCaching(mediator, pdf);
+
+        if (!XsltEngines.DEFAULT.equals(mediator.getXsltEngine())) {
+            pdf.addAttribute(fac.createOMAttribute("xsltEngine", nullNS, mediator.getXsltEngine()));
+        }
+        if (mediator.getXsltFeatures() != null) {
+            pdf.addAttribute(fac.createOMAttribute("xsltFeatures", nullNS, mediator.getXsltFeatures()));
+        }
+
+        if (!PdfMediator.PIPELINE_STRING.equals(mediator.getPipeline())) {
+            pdf.addAttribute(fac.createOMAttribute("pipeline", nullNS, mediator.getPipeline()));
+        }
+
+        if (mediator.getRendererPoolSize() != RendererPool.DEFAULT_MAX_SIZE) {
+            pdf.addAttribute(fac.createOMAttribute("rendererPoolSize", nullNS,
+                    String.valueOf(mediator.getRendererPoolSize())));
+        }
+        if (mediator.getRenderResourceCacheSize() != RenderResourceCache.DEFAULT_MAX_BYTES) {
+            pdf.addAttribute(fac.createOMAttribute("renderResourceCacheSize", nullNS,
+                    String.valueOf(mediator.getRenderResourceCacheSize())));
+        }
+
+        setOutput(mediator, pdf);
+
+        setAsync(mediator, pdf);
+
+        setBatch(mediator, pdf);
+
+        if (mediator.isMetricsEnabled()) {
+            pdf.addAttribute(fac.createOMAttribute("metrics", nullNS, "true"));
+        }
+        if (mediator.getMetricsName() != null) {
+            pdf.addAttribute(fac.createOMAttribute("metricsName", nullNS, mediator.getMetricsName()));
+        }
+
+        if (!mediator.isCleanHtml()) {
+            pdf.addAttribute(fac.createOMAttribute("cleanHtml", nullNS, "false"));
+        }
+        if (mediator.isWarmUp()) {
+            pdf.addAttribute(fac.createOMAttribute("warmUp", nullNS, "true"));
+        }
+        if (mediator.getMaxConcurrentRenders() > 0) {
+            pdf.addAttribute(fac.createOMAttribute("maxConcurrentRenders", nullNS,
+                    String.valueOf(mediator.getMaxConcurrentRenders())));
+        }
+        if (mediator.getMaxInFlightBytes() > 0) {
+            pdf.addAttribute(fac.createOMAttribute("maxInFlightBytes", nullNS,
+                    String.valueOf(mediator.getMaxInFlightBytes())));
+        }
+        if (mediator.getAdmissionTimeout() != AdmissionController.DEFAULT_QUEUE_TIMEOUT) {
+            pdf.addAttribute(fac.createOMAttribute("admissionTimeout", nullNS,
+                    String.valueOf(mediator.getAdmissionTimeout())));
+        }
+        if (mediator.getLargeDocumentThreshold() > 0) {
+            pdf.addAttribute(fac.createOMAttribute("largeDocumentThreshold", nullNS,
+                    String.valueOf(mediator.getLargeDocumentThreshold())));
+        }
+        if (mediator.getChunkElement() != null) {
+            pdf.addAttribute(fac.createOMAttribute("chunkElement", nullNS, mediator.getChunkElement()));
+        }
+        if (mediator.getChunkSize() != 1) {
+            pdf.addAttribute(fac.createOMAttribute("chunkSize", nullNS, String.valueOf(mediator.getChunkSize())));
+        }
+        if (mediator.getChunkParallelism() != ParallelRenderEngine.DEFAULT_PARALLELISM) {
+            pdf.addAttribute(fac.createOMAttribute("chunkParallelism", nullNS,
+                    String.valueOf(mediator.getChunkParallelism())));
+        }
+        if (mediator.getFontDirectories() != null) {
+            pdf.addAttribute(fac.createOMAttribute("fontDirectories", nullNS, mediator.getFontDirectories()));
+        }
+        if (mediator.getResultCacheSize() > 0) {
+            pdf.addAttribute(fac.createOMAttribute("resultCacheSize", nullNS,
+                    String.valueOf(mediator.getResultCacheSize())));
+        }
+        if (mediator.getResultCacheDirectory() != null) {
+            pdf.addAttribute(fac.createOMAttribute("resultCacheDirectory", nullNS, mediator.getResultCacheDirectory()));
+        }
+        if (mediator.getResultCacheDiskSize() != PdfResultCache.DEFAULT_MAX_DISK_BYTES) {
+            pdf.addAttribute(fac.createOMAttribute("resultCacheDiskSize", nullNS,
+                    String.valueOf(mediator.getResultCacheDiskSize())));
+        }
+        if (mediator.getCoverPages() != null) {
+            pdf.addAttribute(fac.createOMAttribute("coverPages", nullNS, mediator.getCoverPages()));
+        }
+        if (mediator.getBackground() != null) {
+            pdf.addAttribute(fac.createOMAttribute("background", nullNS, mediator.getBackground()));
+        }
+        if (mediator.getAppendPages() != null) {
+            pdf.addAttribute(fac.createOMAttribute("appendPages", nullNS, mediator.getAppendPages()));
+        }
+        if (mediator.getFormTemplate() != null) {
+            pdf.addAttribute(fac.createOMAttribute("formTemplate", nullNS, mediator.getFormTemplate()));
+            if (!mediator.isFlattenForm()) {
+                pdf.addAttribute(fac.createOMAttribute("flattenForm", nullNS, "false"));
+            }
+        }
         
-        setPdfFilePath(mediator, pdf);
+        if (PdfMediator.OUTPUT_FILE.equals(mediator.getOutput()) || mediator.getPdfFilePath() != null
+                || mediator.getPdfFilePathExpression() != null) {
+            setPdfFilePath(mediator, pdf);
+        }
         
-        setCssFilePath(mediator, pdf);
+        // form templates are filled without transforming and rendering HTML
+        if (mediator.getFormTemplate() == null || mediator.getCssFilePath() != null
+                || mediator.getCssFilePathExpression() != null) {
+            setCssFilePath(mediator, pdf);
+        }
 
-        setXslFilePath(mediator, pdf);
+        if (mediator.getFormTemplate() == null || mediator.getXslFilePath() != null
+                || mediator.getXslFilePathExpression() != null) {
+            setXslFilePath(mediator, pdf);
+        }
+
+        setFormFields(mediator, pdf);
         
         return pdf;
     }
     
+    /**
+     * Helper method to set registry resource caching attributes on given OMElement pdf.
+     * 
+     * @param mediator Contains information about resource caching
+     * @param pdf OMElement to set resource caching attributes to
+     */
+    private void setResourceCaching(PdfMediator mediator, OMElement pdf) {
+        if (mediator.isCacheResources()) {
+            pdf.addAttribute(fac.createOMAttribute("cacheResources", nullNS, "true"));
+        }
+        if (mediator.getResourceCacheDuration() != RegistryResourceCache.DEFAULT_CACHE_DURATION) {
+            pdf.addAttribute(fac.createOMAttribute("resourceCacheDuration", nullNS,
+                    String.valueOf(mediator.getResourceCacheDuration())));
+        }
+    }
+
+    /**
+     * Helper method to set PDF output attributes on given OMElement pdf.
+     * 
+     * @param mediator Contains information about PDF output
+     * @param pdf OMElement to set output attributes to
+     */
+    private void setOutput(PdfMediator mediator, OMElement pdf) {
+        if (!PdfMediator.OUTPUT_FILE.equals(mediator.getOutput())) {
+            pdf.addAttribute(fac.createOMAttribute("output", nullNS, mediator.getOutput()));
+        }
+        if (mediator.getOutputProperty() != null) {
+            pdf.addAttribute(fac.createOMAttribute("outputProperty", nullNS, mediator.getOutputProperty()));
+        }
+        if (!PdfMediator.OUTPUT_FORMAT_BINARY.equals(mediator.getOutputFormat())) {
+            pdf.addAttribute(fac.createOMAttribute("outputFormat", nullNS, mediator.getOutputFormat()));
+        }
+    }
+
+    /**
+     * Helper method to set batch attributes on given OMElement pdf.
+     * 
+     * @param mediator Contains information about batch mode
+     * @param pdf OMElement to set batch attributes to
+     */
+    private void setBatch(PdfMediator mediator, OMElement pdf) {
+        if (mediator.getIterateExpression() == null) {
+            return;
+        }
+        SynapseXPathSerializer.serializeXPath(mediator.getIterateExpression(), pdf, "iterateExpression");
+        if (!PdfMediator.BATCH_OUTPUT_FILES.equals(mediator.getBatchOutput())) {
+            pdf.addAttribute(fac.createOMAttribute("batchOutput", nullNS, mediator.getBatchOutput()));
+        }
+        if (mediator.getBatchParallelism() != 1) {
+            pdf.addAttribute(fac.createOMAttribute("batchParallelism", nullNS,
+                    String.valueOf(mediator.getBatchParallelism())));
+        }
+        if (!PdfMediator.BATCH_COMPLETION_ORDERED.equals(mediator.getBatchCompletion())) {
+            pdf.addAttribute(fac.createOMAttribute("batchCompletion", nullNS, mediator.getBatchCompletion()));
+        }
+    }
+
+    /**
+     * Helper method to set asynchronous rendering attributes on given OMElement pdf.
+     * 
+     * @param mediator Contains information about asynchronous rendering
+     * @param pdf OMElement to set asynchronous rendering attributes to
+     */
+    private void setAsync(PdfMediator mediator, OMElement pdf) {
+        if (mediator.isAsync()) {
+            pdf.addAttribute(fac.createOMAttribute("async", nullNS, "true"));
+        }
+        if (mediator.getAsyncPoolSize() != AsyncRenderExecutor.DEFAULT_POOL_SIZE) {
+            pdf.addAttribute(fac.createOMAttribute("asyncPoolSize", nullNS,
+                    String.valueOf(mediator.getAsyncPoolSize())));
+        }
+        if (mediator.getAsyncQueueSize() != AsyncRenderExecutor.DEFAULT_QUEUE_SIZE) {
+            pdf.addAttribute(fac.createOMAttribute("asyncQueueSize", nullNS,
+                    String.valueOf(mediator.getAsyncQueueSize())));
+        }
+        if (mediator.isAsyncCallerRuns()) {
+            pdf.addAttribute(fac.createOMAttribute("asyncRejectPolicy", nullNS, "callerRuns"));
+        }
+        if (mediator.getSequence() != null) {
+            pdf.addAttribute(fac.createOMAttribute("sequence", nullNS, mediator.getSequence()));
+        }
+    }
+
     /**
      * Helper method to set PDF file path on given OMElement pdf.
      * 
@@ -84,8 +302,36 @@ public class PdfMediatorSerializer extends AbstractMediatorSerializer {
     	} else {
     		pdfFilePath.addAttribute(fac.createOMAttribute("value", nullNS, mediator.getPdfFilePath()));
     	}
+    	PdfFileWriter fileWriter = mediator.getPdfFileWriter();
+    	if (!fileWriter.isAtomic()) {
+    		pdfFilePath.addAttribute(fac.createOMAttribute("atomic", nullNS, "false"));
+    	}
+    	if (fileWriter.isSync()) {
+    		pdfFilePath.addAttribute(fac.createOMAttribute("fsync", nullNS, "true"));
+    	}
+    	if (fileWriter.getBufferSize() != PdfFileWriter.DEFAULT_BUFFER_SIZE) {
+    		pdfFilePath.addAttribute(fac.createOMAttribute("bufferSize", nullNS,
+    				String.valueOf(fileWriter.getBufferSize())));
+    	}
+    	if (fileWriter.isCreateDirectories()) {
+    		pdfFilePath.addAttribute(fac.createOMAttribute("createDirectories", nullNS, "true"));
+    	}
     }
     
+    /**
+     * Helper method to set form field elements on given OMElement pdf.
+     * 
+     * @param mediator Contains information about form fields
+     * @param pdf OMElement to add form field elements to
+     */
+    private void setFormFields(PdfMediator mediator, OMElement pdf) {
+        for (Map.Entry<String, SynapseXPath> field : mediator.getFormFields().entrySet()) {
+            OMElement formField = fac.createOMElement("formField", synNS, pdf);
+            formField.addAttribute(fac.createOMAttribute("name", nullNS, field.getKey()));
+            SynapseXPathSerializer.serializeXPath(field.getValue(), formField, "expression");
+        }
+    }
+
     /**
      * Helper method to set CSS file path on given OMElement pdf.
      * 
@@ -0,0 +1,251 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Admission control limiting the number of concurrent renders and the
+ * estimated number of bytes they hold in memory.
+ *
+ * A render acquires a permit before the payload is transformed and releases
+ * it once the PDF has been delivered. When either limit is reached renders
+ * wait until enough permits are released, and are rejected
+ * if that does not happen within the queue timeout. A single render larger
+ * than the byte limit is admitted once nothing else is in flight, so it is
+ * never rejected only because of its size.
+ *
+ */
+public class AdmissionController {
+
+    public static final long DEFAULT_QUEUE_TIMEOUT = 30000;
+
+    private final int maxConcurrent;
+    private final long maxInFlightBytes;
+    private final long queueTimeout;
+
+    private final ReentrantLock lock = new ReentrantLock(true);
+    private final Condition released = lock.newCondition();
+    private int active;
+    private long inFlightBytes;
+    private int waiting;
+
+    private final AtomicLong admitted = new AtomicLong();
+    private final AtomicLong waited = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * Creates admission control with given limits.
+     *
+     * @param maxConcurrent Maximum number of concurrent renders, zero for no limit
+     * @param maxInFlightBytes Maximum estimated bytes of concurrent renders, zero for no limit
+     * @param queueTimeout Milliseconds a render waits for admission before it is rejected
+     */
+    public AdmissionController(int maxConcurrent, long maxInFlightBytes, long queueTimeout) {
+        if (maxConcurrent < 0 || maxInFlightBytes < 0 || queueTimeout < 0) {
+            throw new IllegalArgumentException("Admission limits and timeout must not be negative: " + maxConcurrent
+                    + ", " + maxInFlightBytes + ", " + queueTimeout);
+        }
+        this.maxConcurrent = maxConcurrent;
+        this.maxInFlightBytes = maxInFlightBytes;
+        this.queueTimeout = queueTimeout;
+    }
+
+    /**
+     * Waits until a render of given size may proceed.
+     *
+     * @param estimatedBytes Estimated size of the render
+     *
+     * @return Permit to release once the render has completed
+     *
+     * @throws TimeoutException If the render was not admitted within the queue timeout
+     * @throws InterruptedException If interrupted while waiting
+     */
+    public Permit acquire(long estimatedBytes) throws TimeoutException, InterruptedException {
+        long bytes = maxInFlightBytes > 0 ? Math.min(Math.max(estimatedBytes, 0), maxInFlightBytes) : 0;
+        long remaining = TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+        lock.lockInterruptibly();
+        try {
+            if (!fits(bytes)) {
+                waited.incrementAndGet();
+                waiting++;
+                try {
+                    while (!fits(bytes)) {
+                        if (remaining <= 0) {
+                            rejected.incrementAndGet();
+                            throw new TimeoutException("Render was not admitted within " + queueTimeout + " ms, "
+                                    + active + " renders and " + inFlightBytes + " bytes in flight");
+                        }
+                        remaining = released.awaitNanos(remaining);
+                    }
+                } finally {
+                    waiting--;
+                }
+            }
+            active++;
+            inFlightBytes += bytes;
+            admitted.incrementAndGet();
+            return new Permit(bytes);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @return Maximum number of concurrent renders, zero for no limit
+     */
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    /**
+     *
+     * @return Maximum estimated bytes of concurrent renders, zero for no limit
+     */
+    public long getMaxInFlightBytes() {
+        return maxInFlightBytes;
+    }
+
+    /**
+     *
+     * @return Milliseconds a render waits for admission before it is rejected
+     */
+    public long getQueueTimeout() {
+        return queueTimeout;
+    }
+
+    /**
+     *
+     * @return Number of renders currently holding a permit
+     */
+    public int getActiveCount() {
+        lock.lock();
+        try {
+            return active;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @return Estimated bytes of renders currently holding a permit
+     */
+    public long getInFlightBytes() {
+        lock.lock();
+        try {
+            return inFlightBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @return Number of renders currently waiting for admission
+     */
+    public int getWaitingCount() {
+        lock.lock();
+        try {
+            return waiting;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     *
+     * @return Number of admitted renders
+     */
+    public long getAdmittedCount() {
+        return admitted.get();
+    }
+
+    /**
+     *
+     * @return Number of renders which had to wait for admission
+     */
+    public long getWaitedCount() {
+        return waited.get();
+    }
+
+    /**
+     *
+     * @return Number of renders rejected after the queue timeout
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * Checks whether a render of given size fits within the limits. Must be
+     * called holding the lock.
+     *
+     * @param bytes Size of the render, already capped to the byte limit
+     *
+     * @return True if the render may proceed
+     */
+    private boolean fits(long bytes) {
+        if (maxConcurrent > 0 && active >= maxConcurrent) {
+            return false;
+        }
+        return maxInFlightBytes == 0 || active == 0 || inFlightBytes + bytes <= maxInFlightBytes;
+    }
+
+    /**
+     * Admission of a single render. Releasing a permit more than once has no
+     * effect.
+     */
+    public final class Permit {
+        private final long bytes;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Permit(long bytes) {
+            this.bytes = bytes;
+        }
+
+        /**
+         * Gives the capacity of the render back to waiting renders.
+         */
+        public void release() {
+            if (!done.compareAndSet(false, true)) {
+                return;
+            }
+            lock.lock();
+            try {
+                active--;
+                inFlightBytes -= bytes;
+                released.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         *
+         * @return Estimated bytes the permit was acquired for
+         */
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded executor running PDF renders outside of the message processing
+ * threads.
+ *
+ * The executor has a fixed number of worker threads and a bounded queue.
+ * When the queue is full a render is either rejected or run by the
+ * submitting thread, which slows down the producer. Counters for submitted,
+ * rejected and completed renders together with the current queue depth
+ * describe the back-pressure on the executor.
+ *
+ */
+public class AsyncRenderExecutor {
+
+    public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    public static final int DEFAULT_QUEUE_SIZE = 100;
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    private final boolean callerRuns;
+
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong callerRun = new AtomicLong();
+
+    /**
+     * Creates executor with given bounds.
+     *
+     * @param poolSize Number of worker threads
+     * @param queueSize Maximum number of renders waiting for a worker thread
+     * @param callerRuns True to run render in the submitting thread when the queue is full,
+     *            false to reject it
+     */
+    public AsyncRenderExecutor(int poolSize, int queueSize, boolean callerRuns) {
+        if (poolSize < 1 || queueSize < 1) {
+            throw new IllegalArgumentException("Render executor pool and queue sizes must be positive: "
+                    + poolSize + ", " + queueSize);
+        }
+        this.callerRuns = callerRuns;
+        this.executor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new RenderThreadFactory(), new RejectionCounter());
+    }
+
+    /**
+     * Submits render for execution.
+     *
+     * @param render Render to execute
+     *
+     * @throws RejectedExecutionException If the queue is full and renders are not run by the caller,
+     *             or if the executor has been shut down
+     */
+    public void execute(Runnable render) {
+        submitted.incrementAndGet();
+        executor.execute(render);
+    }
+
+    /**
+     * Stops accepting renders and lets already submitted renders complete.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     *
+     * @return True if the executor has been shut down
+     */
+    public boolean isShutdown() {
+        return executor.isShutdown();
+    }
+
+    /**
+     *
+     * @return Number of worker threads
+     */
+    public int getPoolSize() {
+        return executor.getMaximumPoolSize();
+    }
+
+    /**
+     *
+     * @return Number of renders currently executing in worker threads
+     */
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    /**
+     *
+     * @return Number of renders waiting for a worker thread
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     *
+     * @return Number of free slots in the queue
+     */
+    public int getRemainingCapacity() {
+        return executor.getQueue().remainingCapacity();
+    }
+
+    /**
+     *
+     * @return Number of renders submitted
+     */
+    public long getSubmittedCount() {
+        return submitted.get();
+    }
+
+    /**
+     *
+     * @return Number of renders completed by worker threads
+     */
+    public long getCompletedCount() {
+        return executor.getCompletedTaskCount();
+    }
+
+    /**
+     *
+     * @return Number of renders rejected because the queue was full
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     *
+     * @return Number of renders run by the submitting thread because the queue was full
+     */
+    public long getCallerRunCount() {
+        return callerRun.get();
+    }
+
+    /**
+     * Counts renders which did not fit in the queue and applies the
+     * configured policy to them.
+     */
+    private class RejectionCounter implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable render, ThreadPoolExecutor executor) {
+            if (callerRuns && !executor.isShutdown()) {
+                callerRun.incrementAndGet();
+                render.run();
+                return;
+            }
+            rejected.incrementAndGet();
+            throw new RejectedExecutionException(executor.isShutdown()
+                    ? "PDF render executor is shut down" : "PDF render queue is full");
+        }
+    }
+
+    /**
+     * Creates named daemon threads, so an undeployed mediator can not keep
+     * the server from stopping.
+     */
+    private static class RenderThreadFactory implements ThreadFactory {
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "pdf-render-" + poolNumber + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
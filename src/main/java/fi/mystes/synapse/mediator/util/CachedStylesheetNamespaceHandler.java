@@ -0,0 +1,52 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.w3c.dom.Document;
+import org.xhtmlrenderer.css.sheet.Stylesheet;
+import org.xhtmlrenderer.css.sheet.StylesheetInfo;
+import org.xhtmlrenderer.simple.extend.XhtmlNamespaceHandler;
+
+/**
+ * XHTML namespace handler handing already parsed style sheet to the renderer
+ * for style sheet links pointing to {@link StylesheetCache#STYLESHEET_URI}.
+ * The renderer uses a style sheet attached to the link as is, without
+ * loading or parsing it.
+ *
+ */
+public class CachedStylesheetNamespaceHandler extends XhtmlNamespaceHandler {
+
+    private final Stylesheet stylesheet;
+
+    /**
+     *
+     * @param stylesheet Parsed style sheet to serve
+     */
+    public CachedStylesheetNamespaceHandler(Stylesheet stylesheet) {
+        this.stylesheet = stylesheet;
+    }
+
+    @Override
+    public StylesheetInfo[] getStylesheets(Document doc) {
+        StylesheetInfo[] stylesheets = super.getStylesheets(doc);
+        for (StylesheetInfo info : stylesheets) {
+            if (StylesheetCache.STYLESHEET_URI.equals(info.getUri())) {
+                info.setStylesheet(stylesheet);
+            }
+        }
+        return stylesheets;
+    }
+}
@@ -0,0 +1,74 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helper class to calculate content hashes used as cache keys.
+ *
+ */
+public final class Digests {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Digests() {
+    }
+
+    /**
+     * Calculates SHA-1 hash of given content.
+     *
+     * @param content Content to hash
+     *
+     * @return Hash as lower case hexadecimal string
+     */
+    public static String sha1Hex(String content) {
+        return toHex(newSha1().digest(content.getBytes(UTF_8)));
+    }
+
+    /**
+     * Creates new SHA-1 message digest.
+     *
+     * @return Message digest
+     */
+    public static MessageDigest newSha1() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            // every Java platform is required to support SHA-1
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Converts given bytes to hexadecimal string.
+     *
+     * @param bytes Bytes to convert
+     *
+     * @return Lower case hexadecimal string
+     */
+    public static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+        return new String(chars);
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.BaseFont;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xhtmlrenderer.pdf.ITextFontResolver;
+import org.xhtmlrenderer.pdf.ITextFontResolver.FontDescription;
+import org.xhtmlrenderer.pdf.TrueTypeUtil;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Process-wide cache of TrueType and OpenType fonts shared by all PDF
+ * renderers.
+ *
+ * A font resolver of its own parses every font file added to it, so
+ * without sharing each renderer would read and parse the same fonts again.
+ * Fonts are loaded here once per file and the resulting iText
+ * {@link BaseFont} instances and font descriptions are registered to the
+ * resolver of each renderer. Fonts are loaded by file name, which makes
+ * iText read them through a memory mapped file instead of copying the font
+ * program onto the heap. Base fonts are not modified by rendering, so the
+ * same instance can be used by several renderers at the same time.
+ *
+ * Other font types, such as Type 1 fonts, are registered to each resolver
+ * as before.
+ *
+ */
+public class FontManager {
+    private static final Log log = LogFactory.getLog(FontManager.class);
+
+    private static final FontManager INSTANCE = new FontManager();
+
+    private static final List<String> FONT_FILE_EXTENSIONS = Arrays.asList(".ttf", ".otf", ".ttc");
+
+    private static final Method GET_FONT_FAMILY;
+    private static final Method ADD_FONT_DESCRIPTION;
+
+    static {
+        // Font families of the resolver are not public, hence the descriptions
+        // are added to them reflectively
+        try {
+            GET_FONT_FAMILY = ITextFontResolver.class.getMethod("getFontFamily", String.class);
+            ADD_FONT_DESCRIPTION = GET_FONT_FAMILY.getReturnType().getMethod("addFontDescription",
+                    FontDescription.class);
+            ADD_FONT_DESCRIPTION.setAccessible(true);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final ConcurrentMap<String, SharedFont> fonts = new ConcurrentHashMap<String, SharedFont>();
+
+    /**
+     *
+     * @return Font manager shared by all mediators
+     */
+    public static FontManager getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Registers given fonts to a font resolver, loading those which are not
+     * loaded yet.
+     *
+     * @param resolver Font resolver of a renderer
+     * @param fontPaths Paths of font files, or directories to register all font files of
+     *
+     * @throws IOException If font can not be read or directory listed
+     */
+    public void register(ITextFontResolver resolver, List<String> fontPaths) throws IOException {
+        for (String fontPath : fontPaths) {
+            if (new File(fontPath).isDirectory()) {
+                for (String fontFile : listFontFiles(fontPath)) {
+                    register(resolver, fontFile);
+                }
+            } else {
+                register(resolver, fontPath);
+            }
+        }
+    }
+
+    /**
+     * Lists font files of given directory. Each font of a TrueType
+     * collection is listed with its index, as expected by iText.
+     *
+     * @param directory Directory to list
+     *
+     * @return Font files in name order
+     *
+     * @throws IOException If directory can not be listed or collection read
+     */
+    public List<String> listFontFiles(String directory) throws IOException {
+        File[] files = new File(directory).listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list font directory " + directory);
+        }
+        Arrays.sort(files);
+
+        List<String> fontFiles = new ArrayList<String>();
+        for (File file : files) {
+            String name = file.getName().toLowerCase(Locale.ENGLISH);
+            if (!file.isFile() || !FONT_FILE_EXTENSIONS.contains(extension(name))) {
+                continue;
+            }
+            if (name.endsWith(".ttc")) {
+                try {
+                    String[] names = BaseFont.enumerateTTCNames(file.getPath());
+                    for (int i = 0; i < names.length; i++) {
+                        fontFiles.add(file.getPath() + "," + i);
+                    }
+                } catch (DocumentException e) {
+                    throw new IOException("Failed to read font collection " + file, e);
+                }
+            } else {
+                fontFiles.add(file.getPath());
+            }
+        }
+        return fontFiles;
+    }
+
+    /**
+     *
+     * @return Number of fonts loaded and shared
+     */
+    public int getFontCount() {
+        return fonts.size();
+    }
+
+    /**
+     * Removes all loaded fonts. Renderers keep the fonts already registered
+     * to them.
+     */
+    public void clear() {
+        fonts.clear();
+    }
+
+    /**
+     * Registers single font to a font resolver.
+     *
+     * @param resolver Font resolver of a renderer
+     * @param fontFile Path of the font file
+     *
+     * @throws IOException If font can not be read
+     */
+    private void register(ITextFontResolver resolver, String fontFile) throws IOException {
+        if (!isTrueType(fontFile)) {
+            try {
+                resolver.addFont(fontFile, BaseFont.IDENTITY_H, BaseFont.EMBEDDED);
+            } catch (DocumentException e) {
+                throw new IOException("Failed to register font " + fontFile, e);
+            }
+            return;
+        }
+
+        SharedFont font = getFont(fontFile);
+        try {
+            for (String familyName : font.familyNames) {
+                Object family = GET_FONT_FAMILY.invoke(resolver, familyName);
+                ADD_FONT_DESCRIPTION.invoke(family, font.description);
+            }
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            throw new IOException("Failed to register font " + fontFile, e.getCause());
+        }
+    }
+
+    /**
+     * Gets loaded font, loading it if this is the first use of the file.
+     * Concurrent first uses may load the same file more than once, but only
+     * one of the results is kept.
+     *
+     * @param fontFile Path of the font file
+     *
+     * @return Loaded font
+     *
+     * @throws IOException If font can not be read
+     */
+    private SharedFont getFont(String fontFile) throws IOException {
+        String key = canonicalize(fontFile);
+        SharedFont font = fonts.get(key);
+        if (font == null) {
+            SharedFont loaded = load(fontFile);
+            font = fonts.putIfAbsent(key, loaded);
+            if (font == null) {
+                font = loaded;
+            }
+        }
+        return font;
+    }
+
+    /**
+     * Loads font and describes it for the font resolvers.
+     *
+     * @param fontFile Path of the font file
+     *
+     * @return Loaded font
+     *
+     * @throws IOException If font can not be read
+     */
+    private SharedFont load(String fontFile) throws IOException {
+        BaseFont baseFont;
+        try {
+            baseFont = BaseFont.createFont(fontFile, BaseFont.IDENTITY_H, BaseFont.EMBEDDED, false, null, null);
+        } catch (DocumentException e) {
+            throw new IOException("Failed to register font " + fontFile, e);
+        }
+
+        FontDescription description = new FontDescription(baseFont);
+        try {
+            TrueTypeUtil.populateDescription(fontFile, baseFont, description);
+        } catch (Exception e) {
+            // Font is still usable, only underline and strikeout metrics are missing
+            log.warn("Failed to read metrics of font " + fontFile, e);
+        }
+
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded shared font " + fontFile);
+        }
+        return new SharedFont(Collections.unmodifiableList(Arrays.asList(TrueTypeUtil.getFamilyNames(baseFont))),
+                description);
+    }
+
+    /**
+     * Gets key of a font file which is the same for all paths of the file.
+     *
+     * @param fontFile Path of the font file, possibly followed by collection index
+     *
+     * @return Canonical path of the font file with the collection index
+     *
+     * @throws IOException If file does not exist
+     */
+    private static String canonicalize(String fontFile) throws IOException {
+        int index = fontFile.toLowerCase(Locale.ENGLISH).indexOf(".ttc,");
+        String path = index != -1 ? fontFile.substring(0, index + 4) : fontFile;
+        File file = new File(path);
+        if (!file.isFile()) {
+            throw new IOException("Font file not found: " + path);
+        }
+        return file.getCanonicalPath() + fontFile.substring(path.length());
+    }
+
+    /**
+     * Checks whether font is loaded by this manager.
+     *
+     * @param fontFile Path of the font file
+     *
+     * @return True for TrueType and OpenType fonts and collections
+     */
+    private static boolean isTrueType(String fontFile) {
+        String name = fontFile.toLowerCase(Locale.ENGLISH);
+        return name.endsWith(".ttf") || name.endsWith(".otf") || name.contains(".ttc,");
+    }
+
+    /**
+     *
+     * @param name File name
+     *
+     * @return Extension of the file name including the dot, empty if there is none
+     */
+    private static String extension(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot != -1 ? name.substring(dot) : "";
+    }
+
+    /**
+     * Font loaded once and shared by all renderers.
+     */
+    private static class SharedFont {
+        private final List<String> familyNames;
+        private final FontDescription description;
+
+        SharedFont(List<String> familyNames, FontDescription description) {
+            this.familyNames = familyNames;
+            this.description = description;
+        }
+    }
+}
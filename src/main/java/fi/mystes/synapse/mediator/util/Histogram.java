@@ -0,0 +1,139 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.util.Arrays;
+
+/**
+ * Thread-safe histogram of recorded values. Count, sum and maximum cover all
+ * recorded values while percentiles are calculated from a reservoir holding
+ * the most recent values, so that they follow the current behavior instead of
+ * the whole uptime.
+ *
+ */
+public class Histogram {
+
+    public static final int DEFAULT_RESERVOIR_SIZE = 1024;
+
+    private final long[] reservoir;
+    private int next;
+    private int filled;
+
+    private long count;
+    private long sum;
+    private long max;
+
+    /**
+     * Creates histogram with default reservoir size.
+     */
+    public Histogram() {
+        this(DEFAULT_RESERVOIR_SIZE);
+    }
+
+    /**
+     * Creates histogram with given reservoir size.
+     *
+     * @param reservoirSize Number of most recent values percentiles are calculated from
+     */
+    public Histogram(int reservoirSize) {
+        if (reservoirSize < 1) {
+            throw new IllegalArgumentException("Histogram reservoir size must be positive: " + reservoirSize);
+        }
+        this.reservoir = new long[reservoirSize];
+    }
+
+    /**
+     * Records given value.
+     *
+     * @param value Value to record
+     */
+    public synchronized void record(long value) {
+        reservoir[next] = value;
+        next = (next + 1) % reservoir.length;
+        if (filled < reservoir.length) {
+            filled++;
+        }
+        count++;
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     *
+     * @return Number of recorded values
+     */
+    public synchronized long getCount() {
+        return count;
+    }
+
+    /**
+     *
+     * @return Sum of recorded values
+     */
+    public synchronized long getSum() {
+        return sum;
+    }
+
+    /**
+     *
+     * @return Largest recorded value, zero if nothing is recorded
+     */
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     *
+     * @return Mean of recorded values, zero if nothing is recorded
+     */
+    public synchronized double getMean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * Calculates percentile of the most recent values.
+     *
+     * @param percentile Percentile between 0 and 100
+     *
+     * @return Value below or equal to which given percentage of the most recent
+     *         values are, zero if nothing is recorded
+     */
+    public long getPercentile(double percentile) {
+        long[] values;
+        synchronized (this) {
+            if (filled == 0) {
+                return 0;
+            }
+            values = Arrays.copyOf(reservoir, filled);
+        }
+        Arrays.sort(values);
+        int index = (int) Math.ceil(percentile / 100 * values.length) - 1;
+        return values[Math.min(values.length - 1, Math.max(0, index))];
+    }
+
+    /**
+     * Forgets all recorded values.
+     */
+    public synchronized void reset() {
+        next = 0;
+        filled = 0;
+        count = 0;
+        sum = 0;
+        max = 0;
+    }
+}
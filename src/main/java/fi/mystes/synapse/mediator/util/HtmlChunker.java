@@ -0,0 +1,218 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Splits HTML document into smaller documents which can be laid out and
+ * rendered independently.
+ *
+ * The document is split at elements of a given name, e.g. each
+ * <code>section</code> or every N <code>tr</code> rows of a table. The
+ * element having most such children is split so that each chunk gets given
+ * number of them. Content preceding the split elements goes to the first
+ * chunk and content following them to the last one, except for the document
+ * head and table headers, which are repeated in every chunk.
+ *
+ */
+public class HtmlChunker {
+
+    /** Elements copied to every chunk when they precede the split elements */
+    private static final Set<String> REPEATED_ELEMENTS = new HashSet<String>(Arrays.asList("head", "thead",
+            "colgroup", "col", "caption"));
+
+    private final String element;
+    private final int unitsPerChunk;
+
+    /**
+     * 
+     * @param element Name of the elements to split document at
+     * @param unitsPerChunk Number of such elements in each chunk
+     */
+    public HtmlChunker(String element, int unitsPerChunk) {
+        if (element == null || unitsPerChunk < 1) {
+            throw new IllegalArgumentException("Chunk element must be given and chunk size must be positive: "
+                    + element + ", " + unitsPerChunk);
+        }
+        this.element = element;
+        this.unitsPerChunk = unitsPerChunk;
+    }
+
+    /**
+     * Splits given document into chunks. Given document is left intact.
+     * 
+     * @param html Document to split
+     * 
+     * @return Chunks in document order, or given document alone if it has no more split elements than fit in one
+     *         chunk
+     */
+    public List<Document> split(Document html) {
+        Element parent = findParent(html.getDocumentElement(), null);
+        int units = parent != null ? countUnits(parent) : 0;
+        if (units <= unitsPerChunk) {
+            return Collections.singletonList(html);
+        }
+
+        List<Node> path = new ArrayList<Node>();
+        for (Node node = parent; node != null && node != html; node = node.getParentNode()) {
+            path.add(0, node);
+        }
+        int chunkCount = (units + unitsPerChunk - 1) / unitsPerChunk;
+        List<Document> chunks = new ArrayList<Document>(chunkCount);
+        for (int chunk = 0; chunk < chunkCount; chunk++) {
+            Document copy = html.getImplementation().createDocument(null, null, null);
+            copy.appendChild(copyPath(copy, path, 0, chunk, chunkCount));
+            chunks.add(copy);
+        }
+        return chunks;
+    }
+
+    /**
+     * 
+     * @return Name of the elements document is split at
+     */
+    public String getElement() {
+        return element;
+    }
+
+    /**
+     * 
+     * @return Number of split elements in each chunk
+     */
+    public int getUnitsPerChunk() {
+        return unitsPerChunk;
+    }
+
+    /**
+     * Finds element having most split elements as children.
+     * 
+     * @param node Element to search from
+     * @param best Best element found so far, null if none
+     * 
+     * @return Element having most split elements as children, null if there are none
+     */
+    private Element findParent(Element node, Element best) {
+        int units = countUnits(node);
+        if (units > 0 && (best == null || units > countUnits(best))) {
+            best = node;
+        }
+        for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                best = findParent((Element) child, best);
+            }
+        }
+        return best;
+    }
+
+    /**
+     * 
+     * @param parent Element to count children of
+     * 
+     * @return Number of split elements among the children of given element
+     */
+    private int countUnits(Element parent) {
+        int count = 0;
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (isUnit(child)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Copies content of given chunk below given level of the path leading
+     * to the split parent.
+     * 
+     * @param copy Document to copy into
+     * @param path Elements from document element to the parent of the split elements
+     * @param level Index of the path element to copy
+     * @param chunk Index of the chunk
+     * @param chunkCount Number of chunks
+     * 
+     * @return Copy of the path element with the content of the chunk
+     */
+    private Node copyPath(Document copy, List<Node> path, int level, int chunk, int chunkCount) {
+        Node source = path.get(level);
+        Node target = copy.importNode(source, false);
+        if (level < path.size() - 1) {
+            Node next = path.get(level + 1);
+            boolean beforePath = true;
+            for (Node child = source.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child == next) {
+                    target.appendChild(copyPath(copy, path, level + 1, chunk, chunkCount));
+                    beforePath = false;
+                } else if (beforePath ? chunk == 0 || isRepeated(child) : chunk == chunkCount - 1) {
+                    target.appendChild(copy.importNode(child, true));
+                }
+            }
+            return target;
+        }
+
+        // content between split elements goes with the split element following it
+        int unit = 0;
+        for (Node child = source.getFirstChild(); child != null; child = child.getNextSibling()) {
+            int owner = Math.min(unit / unitsPerChunk, chunkCount - 1);
+            if (owner == chunk || (unit == 0 && isRepeated(child))) {
+                target.appendChild(copy.importNode(child, true));
+            }
+            if (isUnit(child)) {
+                unit++;
+            }
+        }
+        return target;
+    }
+
+    /**
+     * 
+     * @param node Node to check
+     * 
+     * @return True if given node is a split element
+     */
+    private boolean isUnit(Node node) {
+        return node instanceof Element && element.equalsIgnoreCase(localName(node));
+    }
+
+    /**
+     * 
+     * @param node Node to check
+     * 
+     * @return True if given node is copied to every chunk
+     */
+    private boolean isRepeated(Node node) {
+        return node instanceof Element && REPEATED_ELEMENTS.contains(localName(node).toLowerCase());
+    }
+
+    /**
+     * 
+     * @param node Node to get name of
+     * 
+     * @return Local name of given node, or its node name if it has no local name
+     */
+    private static String localName(Node node) {
+        return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+    }
+}
@@ -22,6 +22,8 @@ import org.htmlcleaner.TagNode;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 
 /**
  * Helper class to clean up given HTML content as string to be well formed.
@@ -29,6 +31,8 @@ import java.io.IOException;
  */
 public class HtmlHelper {
 
+    private static final String UTF_8 = "UTF-8";
+
 	/**
 	 * Performs the clean up on given HTML content to be well formed.
 	 * 
@@ -56,6 +60,24 @@ public class HtmlHelper {
         return cleanedHtml;
     }
 
+	/**
+	 * Performs the clean up on given HTML content read from a stream and
+	 * writes the well formed content to another stream, without holding
+	 * either of them as a string.
+	 * 
+	 * @param html Stream to read UTF-8 encoded HTML content from
+	 * @param out Stream to write cleaned UTF-8 encoded content to
+	 * 
+	 * @throws IOException If any error occurs while performing cleaning
+	 */
+    public void clean(final InputStream html, final OutputStream out) throws IOException {
+        HtmlCleaner cleaner = new HtmlCleaner();
+        CleanerProperties props = cleaner.getProperties();
+        props.setOmitDoctypeDeclaration(true);
+        TagNode node = cleaner.clean(html, UTF_8);
+        new PrettyXmlSerializer(props).writeToStream(node, out, UTF_8);
+    }
+
     /**
      * Removes the document tag from given HTML content.
      * 
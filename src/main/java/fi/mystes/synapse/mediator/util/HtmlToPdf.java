@@ -18,20 +18,74 @@ package fi.mystes.synapse.mediator.util;
 
 import com.lowagie.text.DocumentException;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.registry.Registry;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.xhtmlrenderer.css.sheet.Stylesheet;
 import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.resource.XMLResource;
+import org.xhtmlrenderer.simple.extend.XhtmlNamespaceHandler;
+import org.xhtmlrenderer.util.XRRuntimeException;
 
-import java.io.FileOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
 
 /**
  * Helper class to export given HTML content into desired PDF file.
  *
  */
 public class HtmlToPdf {
+    private final Log log = LogFactory.getLog(HtmlToPdf.class);
+
+    private static final Pattern PAGES_COUNTER = Pattern.compile("counter\\(\\s*pages\\s*\\)");
+
+    private RendererPool rendererPool;
+    private PdfMediatorMetrics metrics;
+    private boolean cleanHtml = true;
+    private StylesheetCache stylesheetCache = new StylesheetCache();
+    private PdfFileWriter fileWriter = new PdfFileWriter();
+    private volatile Registry registry;
+    private HtmlChunker chunker;
+    private ParallelRenderEngine chunkEngine;
+    private StaticPages staticPages;
+    private final AtomicLong cleanFallbacks = new AtomicLong();
+
+    /**
+     * Default constructor.
+     */
+    public HtmlToPdf() {
+        this(new RendererPool());
+    }
+
+    /**
+     * Constructor to render with renderers from given pool.
+     * 
+     * @param rendererPool Pool to borrow renderers from
+     */
+    public HtmlToPdf(RendererPool rendererPool) {
+        this.rendererPool = rendererPool;
+    }
 
 	/**
-	 * Creates PDF file with given HTML content.
+	 * Creates PDF file with given HTML content. The file is written with the
+	 * configured {@link PdfFileWriter} and completed only if the PDF is created.
 	 * 
 	 * @param html Content to export to PDF file
 	 * @param css Rules to style HTML content
@@ -41,33 +95,783 @@ public class HtmlToPdf {
 	 * @throws DocumentException If writing contents to PDF file fails
 	 */
     public void create(String html, final String css, final String pdfFile) throws IOException, DocumentException {
+        PdfFileWriter.PdfFileStream outputStream = fileWriter.open(pdfFile);
+        try {
+            create(html, css, outputStream);
+            commit(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+	/**
+	 * Creates PDF with given HTML content and writes it to given stream. If
+	 * cleaning is disabled the content is parsed as is and cleaned only when
+	 * it is not well formed.
+	 * 
+	 * @param html Content to export to PDF
+	 * @param css Rules to style HTML content
+	 * @param outputStream Stream to write PDF to, left open
+	 * 
+	 * @throws IOException If HTML content clean up or writing to stream fails
+	 * @throws DocumentException If writing contents to PDF fails
+	 */
+    public void create(String html, final String css, final OutputStream outputStream) throws IOException, DocumentException {
+        long start = System.nanoTime();
+        if (!cleanHtml) {
+            Document document = parseWellFormed(html);
+            if (document != null) {
+                recordStage(PdfMediatorMetrics.Stage.PARSE, start);
+                if (metrics != null) {
+                    metrics.recordBytesIn(html.length());
+                }
+                create(document, css, outputStream);
+                return;
+            }
+            start = System.nanoTime();
+        }
+
         String cleanedHtmlContent = new HtmlHelper().clean(html);
+        start = recordStage(PdfMediatorMetrics.Stage.CLEAN, start);
 
-        ITextRenderer renderer = new ITextRenderer();
+        Document document = XMLResource.load(new StringReader(cleanedHtmlContent)).getDocument();
+        recordStage(PdfMediatorMetrics.Stage.PARSE, start);
+        if (metrics != null) {
+            metrics.recordBytesIn(html.length());
+        }
 
-        String content = injectCssToHtml(css, cleanedHtmlContent);
+        create(document, css, outputStream);
+    }
 
-        renderer.setDocumentFromString(content);
-        renderer.layout();
-        OutputStream outputStream = new FileOutputStream(pdfFile);
-        renderer.createPDF(outputStream);
+	/**
+	 * Creates PDF file with HTML content spilled to given file.
+	 * 
+	 * @param html File holding UTF-8 encoded content to export to PDF file, closed when done
+	 * @param css Rules to style HTML content
+	 * @param pdfFile File name with path to export HTML content to
+	 * 
+	 * @throws IOException If reading or cleaning content or PDF file creation fails
+	 * @throws DocumentException If writing contents to PDF file fails
+	 */
+    public void create(SpillFile html, final String css, final String pdfFile) throws IOException, DocumentException {
+        PdfFileWriter.PdfFileStream outputStream = fileWriter.open(pdfFile);
+        try {
+            create(html, css, outputStream);
+            commit(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
 
-        // Finishing up
-        renderer.finishPDF();
+	/**
+	 * Creates PDF with HTML content spilled to given file and writes it to
+	 * given stream. The content is read through a memory mapping and cleaned
+	 * into another spill file, and each file is deleted as soon as the next
+	 * stage has consumed it, so neither the content nor its cleaned copy is
+	 * held in heap.
+	 * 
+	 * @param html File holding UTF-8 encoded content to export to PDF, closed when done
+	 * @param css Rules to style HTML content
+	 * @param outputStream Stream to write PDF to, left open
+	 * 
+	 * @throws IOException If reading or cleaning content or writing to stream fails
+	 * @throws DocumentException If writing contents to PDF fails
+	 */
+    public void create(SpillFile html, final String css, final OutputStream outputStream) throws IOException, DocumentException {
+        Document document = null;
+        try {
+            long start = System.nanoTime();
+            if (metrics != null) {
+                metrics.recordBytesIn(html.size());
+            }
+            if (!cleanHtml) {
+                document = parseWellFormed(html);
+                if (document != null) {
+                    recordStage(PdfMediatorMetrics.Stage.PARSE, start);
+                }
+                start = System.nanoTime();
+            }
+            if (document == null) {
+                SpillFile cleaned = new SpillFile(html.getPath().getParent());
+                try {
+                    try (InputStream in = html.openInputStream(); OutputStream out = cleaned.openOutputStream()) {
+                        new HtmlHelper().clean(in, out);
+                    }
+                    html.close();
+                    start = recordStage(PdfMediatorMetrics.Stage.CLEAN, start);
+
+                    try (InputStream in = cleaned.openInputStream()) {
+                        document = XMLResource.load(in).getDocument();
+                    }
+                    recordStage(PdfMediatorMetrics.Stage.PARSE, start);
+                } finally {
+                    cleaned.close();
+                }
+            }
+        } finally {
+            html.close();
+        }
+        create(document, css, outputStream);
+    }
+
+	/**
+	 * Creates PDF file with given HTML document. The document is handed to
+	 * the renderer as is, without serializing, cleaning or parsing it again.
+	 * 
+	 * @param html Document to export to PDF file, CSS links are modified to refer to cached style sheet
+	 * @param css Rules to style HTML content
+	 * @param pdfFile File name with path to export HTML content to
+	 * 
+	 * @throws IOException If PDF file creation fails
+	 * @throws DocumentException If writing contents to PDF file fails
+	 */
+    public void create(Document html, final String css, final String pdfFile) throws IOException, DocumentException {
+        PdfFileWriter.PdfFileStream outputStream = fileWriter.open(pdfFile);
+        try {
+            create(html, css, outputStream);
+            commit(outputStream);
+        } finally {
+            outputStream.close();
+        }
+    }
+
+	/**
+	 * Creates PDF with given HTML document and writes it to given stream.
+	 * When chunking is enabled and the document is large enough, it is
+	 * rendered in chunks in parallel. When static pages are set, the rendered
+	 * PDF is spilled to a temporary file, read from there page by page and
+	 * written to the stream with the static pages added.
+	 * 
+	 * @param html Document to export to PDF, CSS links are modified to refer to cached style sheet
+	 * @param css Rules to style HTML content
+	 * @param outputStream Stream to write PDF to, left open
+	 * 
+	 * @throws IOException If writing to stream fails
+	 * @throws DocumentException If writing contents to PDF fails
+	 */
+    public void create(Document html, final String css, final OutputStream outputStream) throws IOException, DocumentException {
+        long start = System.nanoTime();
+        Stylesheet stylesheet = linkCssToHtml(css, html);
+        start = recordStage(PdfMediatorMetrics.Stage.CSS_INJECT, start);
+
+        List<Document> chunks = null;
+        if (chunker != null) {
+            chunks = chunker.split(html);
+            recordStage(PdfMediatorMetrics.Stage.SPLIT, start);
+        }
+
+        StaticPages pages = staticPages;
+        if (pages == null) {
+            render(html, chunks, css, stylesheet, outputStream);
+            return;
+        }
+        try (SpillFile rendered = new SpillFile(null, ".pdf")) {
+            try (OutputStream spill = rendered.openOutputStream()) {
+                render(html, chunks, css, stylesheet, spill);
+            }
+            start = System.nanoTime();
+            pages.apply(rendered, outputStream, this);
+            recordStage(PdfMediatorMetrics.Stage.STAMP, start);
+        }
     }
 
     /**
-     * Replaces 'link' tags including css-file references with 'style' tag and given CSS content.
+     * Renders given document whole or, if it was split into several chunks,
+     * in chunks.
      * 
-     * @param css Style sheet content to be injected to HTML content
-     * @param cleanedHtmlContent HTML content to inject CSS content to
+     * @param html Document to export to PDF
+     * @param chunks Chunks of the document, null if it is not split
+     * @param css Style sheet content, null if there is none
+     * @param stylesheet Parsed style sheet, null if there is none
+     * @param outputStream Stream to write PDF to
      * 
-     * @return Modified HTML content
+     * @throws IOException If rendering is interrupted or writing to stream fails
+     * @throws DocumentException If writing contents to PDF fails
      */
-    private String injectCssToHtml(String css, String cleanedHtmlContent) {
-        return cleanedHtmlContent.replaceAll("<link.*.css.*>", String.format("%s%s%s", "<style>", css, "</style>"));
+    private void render(Document html, List<Document> chunks, String css, Stylesheet stylesheet,
+            OutputStream outputStream) throws IOException, DocumentException {
+        if (chunks != null && chunks.size() > 1) {
+            renderChunks(chunks, css, stylesheet, outputStream);
+        } else {
+            render(html, stylesheet, outputStream);
+        }
     }
 
+    /**
+     * Renders static HTML content as is, without style sheet, chunking or
+     * static pages.
+     * 
+     * @param html Content to export to PDF
+     * @param outputStream Stream to write PDF to, left open
+     * 
+     * @throws IOException If writing to stream fails
+     * @throws DocumentException If writing contents to PDF fails
+     */
+    void renderStatic(String html, OutputStream outputStream) throws IOException, DocumentException {
+        String cleanedHtmlContent = new HtmlHelper().clean(html);
+        render(XMLResource.load(new StringReader(cleanedHtmlContent)).getDocument(), null, outputStream);
+    }
 
-}
+    /**
+     * 
+     * @return Static pages added to each rendered PDF, null if none
+     */
+    public StaticPages getStaticPages() {
+        return staticPages;
+    }
+
+    /**
+     * 
+     * @param staticPages Static pages added to each rendered PDF, null if none
+     */
+    public void setStaticPages(StaticPages staticPages) {
+        this.staticPages = staticPages;
+    }
+
+    /**
+     * 
+     * @return Pool renderers are borrowed from
+     */
+    public RendererPool getRendererPool() {
+        return rendererPool;
+    }
+
+    /**
+     * 
+     * @param rendererPool Pool to borrow renderers from
+     */
+    public void setRendererPool(RendererPool rendererPool) {
+        this.rendererPool = rendererPool;
+    }
+
+    /**
+     * 
+     * @return False if HTML content is parsed without cleaning it first
+     */
+    public boolean isCleanHtml() {
+        return cleanHtml;
+    }
+
+    /**
+     * 
+     * @param cleanHtml False to parse HTML content without cleaning it first,
+     *            which is faster when the content is already well formed XHTML
+     */
+    public void setCleanHtml(boolean cleanHtml) {
+        this.cleanHtml = cleanHtml;
+    }
+
+    /**
+     * 
+     * @return Number of times HTML content had to be cleaned although cleaning was disabled
+     */
+    public long getCleanFallbackCount() {
+        return cleanFallbacks.get();
+    }
+
+    /**
+     * 
+     * @return Metrics stages are recorded to, null if not recorded
+     */
+    public PdfMediatorMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * 
+     * @param metrics Metrics to record stages to, null to not record
+     */
+    public void setMetrics(PdfMediatorMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * 
+     * @return Cache of parsed style sheets
+     */
+    public StylesheetCache getStylesheetCache() {
+        return stylesheetCache;
+    }
+
+    /**
+     * 
+     * @param stylesheetCache Cache of parsed style sheets
+     */
+    public void setStylesheetCache(StylesheetCache stylesheetCache) {
+        this.stylesheetCache = stylesheetCache;
+    }
+
+    /**
+     * 
+     * @return Writer of PDF files
+     */
+    public PdfFileWriter getFileWriter() {
+        return fileWriter;
+    }
+
+    /**
+     * 
+     * @param fileWriter Writer of PDF files
+     */
+    public void setFileWriter(PdfFileWriter fileWriter) {
+        this.fileWriter = fileWriter;
+    }
+
+    /**
+     * 
+     * @return Registry to load gov: and conf: resources of documents from
+     */
+    public Registry getRegistry() {
+        return registry;
+    }
+
+    /**
+     * 
+     * @param registry Registry to load gov: and conf: resources of documents from
+     */
+    public void setRegistry(Registry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     * 
+     * @return Splitter of documents rendered in chunks, null if documents are rendered whole
+     */
+    public HtmlChunker getChunker() {
+        return chunker;
+    }
+
+    /**
+     * 
+     * @param chunker Splitter of documents rendered in chunks, null to render documents whole
+     */
+    public void setChunker(HtmlChunker chunker) {
+        this.chunker = chunker;
+    }
+
+    /**
+     * 
+     * @return Engine rendering chunks in parallel, null to render them in the calling thread
+     */
+    public ParallelRenderEngine getChunkEngine() {
+        return chunkEngine;
+    }
+
+    /**
+     * 
+     * @param chunkEngine Engine rendering chunks in parallel, null to render them in the calling thread
+     */
+    public void setChunkEngine(ParallelRenderEngine chunkEngine) {
+        this.chunkEngine = chunkEngine;
+    }
+
+    /**
+     * Lays out given document with a pooled renderer and writes it as PDF to given stream.
+     * Worker threads of a {@link ParallelRenderEngine} use a renderer of their own instead,
+     * which they keep between documents without resetting it.
+     * 
+     * @param html Document to export to PDF
+     * @param stylesheet Parsed style sheet for links to cached style sheet, null if there is none
+     * @param outputStream Stream to write PDF to
+     * 
+     * @throws IOException If waiting for a renderer is interrupted
+     * @throws DocumentException If writing contents to PDF fails
+     */
+    private void render(Document html, Stylesheet stylesheet, final OutputStream outputStream)
+            throws IOException, DocumentException {
+        final Map<Object, Object> workerResources = ParallelRenderEngine.getWorkerResources();
+        ITextRenderer renderer;
+        if (workerResources == null) {
+            renderer = rendererPool.borrow();
+        } else {
+            renderer = (ITextRenderer) workerResources.remove(rendererPool);
+            if (renderer == null) {
+                renderer = rendererPool.createRenderer();
+            }
+        }
+        boolean reusable = false;
+        try {
+            long start = System.nanoTime();
+            if (renderer.getSharedContext().getUserAgentCallback() instanceof PdfUserAgent) {
+                ((PdfUserAgent) renderer.getSharedContext().getUserAgentCallback()).setRegistry(registry);
+            }
+            renderer.setDocument(html, null, stylesheet != null
+                    ? new CachedStylesheetNamespaceHandler(stylesheet) : new XhtmlNamespaceHandler());
+            renderer.layout();
+            start = recordStage(PdfMediatorMetrics.Stage.LAYOUT, start);
+
+            MeteredOutputStream pdf = new MeteredOutputStream(outputStream);
+            renderer.createPDF(pdf, false);
+
+            // Finishing up, leaving closing the stream to the caller
+            renderer.getWriter().setCloseStream(false);
+            renderer.finishPDF();
+            if (metrics != null) {
+                metrics.recordStage(PdfMediatorMetrics.Stage.CREATE_PDF,
+                        System.nanoTime() - start - pdf.getWriteNanos());
+                metrics.recordStage(PdfMediatorMetrics.Stage.WRITE, pdf.getWriteNanos());
+                metrics.recordBytesOut(pdf.getByteCount());
+                metrics.recordPages(renderer.getRootBox().getLayer().getPages().size());
+            }
+            reusable = true;
+        } finally {
+            if (workerResources == null) {
+                rendererPool.release(renderer, reusable);
+            } else if (reusable) {
+                workerResources.put(rendererPool, renderer);
+            }
+        }
+    }
+
+    /**
+     * Renders chunks of a document into separate PDFs and merges them.
+     * 
+     * Chunks are laid out in parallel with renderers borrowed from the pool,
+     * at most as many at a time as the chunk engine has workers. Laid out
+     * chunks are drawn in document order, each continuing the page numbering
+     * of the preceding chunks, and copied to the merged PDF right away, after
+     * which their renderers are returned to the pool. More renderers are only
+     * waited for while none are held, so chunked documents rendered at the
+     * same time cannot block each other. When the style sheet refers to the
+     * total number of pages with <code>counter(pages)</code>, the chunks are
+     * first laid out once only to count their pages, because a renderer only
+     * knows the pages of its own chunk.
+     * 
+     * @param chunks Chunks of the document in document order
+     * @param css Style sheet content, null if there is none
+     * @param stylesheet Parsed style sheet, null if there is none
+     * @param outputStream Stream to write merged PDF to
+     * 
+     * @throws IOException If rendering is interrupted or writing to stream fails
+     * @throws DocumentException If writing contents to PDF fails
+     */
+    private void renderChunks(List<Document> chunks, String css, Stylesheet stylesheet,
+            OutputStream outputStream) throws IOException, DocumentException {
+        long start = System.nanoTime();
+        if (css != null && PAGES_COUNTER.matcher(css).find()) {
+            int totalPages = countPages(chunks, stylesheet);
+            stylesheet = stylesheetCache.getStylesheet(
+                    PAGES_COUNTER.matcher(css).replaceAll("\"" + totalPages + "\""));
+            start = recordStage(PdfMediatorMetrics.Stage.LAYOUT, start);
+        }
+
+        int window = chunkEngine != null ? chunkEngine.getParallelism() : 1;
+        MeteredOutputStream pdf = new MeteredOutputStream(outputStream);
+        PdfMerger merger = new PdfMerger(pdf);
+        Deque<Future<ITextRenderer>> layouts = new ArrayDeque<Future<ITextRenderer>>();
+        try {
+            for (Document chunk : chunks) {
+                ITextRenderer renderer = null;
+                while (!layouts.isEmpty()
+                        && (layouts.size() >= window || (renderer = rendererPool.tryBorrow()) == null)) {
+                    drawChunk(getResult(layouts.removeFirst()), merger);
+                }
+                if (renderer == null) {
+                    renderer = rendererPool.borrow();
+                }
+                layouts.add(submit(new ChunkLayout(renderer, chunk, stylesheet)));
+            }
+            while (!layouts.isEmpty()) {
+                drawChunk(getResult(layouts.removeFirst()), merger);
+            }
+            merger.close();
+        } finally {
+            discard(layouts);
+        }
+        if (metrics != null) {
+            metrics.recordStage(PdfMediatorMetrics.Stage.CREATE_PDF,
+                    System.nanoTime() - start - pdf.getWriteNanos());
+            metrics.recordStage(PdfMediatorMetrics.Stage.WRITE, pdf.getWriteNanos());
+            metrics.recordBytesOut(pdf.getByteCount());
+            metrics.recordPages(merger.getPageCount());
+        }
+    }
+
+    /**
+     * Lays out given chunks only to count their pages. Each renderer is
+     * returned to the pool as soon as its chunk has been counted.
+     * 
+     * @param chunks Chunks of the document in document order
+     * @param stylesheet Parsed style sheet, null if there is none
+     * 
+     * @return Total number of pages of the chunks
+     * 
+     * @throws IOException If rendering is interrupted
+     * @throws DocumentException If laying out a chunk fails
+     */
+    private int countPages(List<Document> chunks, Stylesheet stylesheet) throws IOException, DocumentException {
+        int window = chunkEngine != null ? chunkEngine.getParallelism() : 1;
+        Deque<Future<Integer>> counts = new ArrayDeque<Future<Integer>>();
+        int totalPages = 0;
+        for (Document chunk : chunks) {
+            if (counts.size() >= window) {
+                totalPages += getResult(counts.removeFirst());
+            }
+            counts.add(submit(new ChunkCount(rendererPool.borrow(), chunk, stylesheet)));
+        }
+        while (!counts.isEmpty()) {
+            totalPages += getResult(counts.removeFirst());
+        }
+        return totalPages;
+    }
+
+    /**
+     * Draws laid out chunk continuing the pages merged so far, returns its
+     * renderer to the pool and adds the chunk to the merged PDF.
+     * 
+     * @param renderer Renderer having the chunk laid out
+     * @param merger Merger of the chunks drawn so far
+     * 
+     * @throws IOException If writing merged PDF fails
+     * @throws DocumentException If writing contents to PDF fails
+     */
+    private void drawChunk(ITextRenderer renderer, PdfMerger merger) throws IOException, DocumentException {
+        ByteArrayOutputStream chunkPdf = new ByteArrayOutputStream();
+        boolean reusable = false;
+        try {
+            renderer.createPDF(chunkPdf, true, merger.getPageCount() + 1);
+            reusable = true;
+        } finally {
+            rendererPool.release(renderer, reusable);
+        }
+        merger.add(chunkPdf.toByteArray());
+    }
+
+    /**
+     * Returns renderers of chunks laid out but not drawn to the pool, once
+     * their layout completes.
+     * 
+     * @param layouts Pending layouts of chunks
+     */
+    private void discard(Deque<Future<ITextRenderer>> layouts) {
+        boolean interrupted = false;
+        while (!layouts.isEmpty()) {
+            try {
+                rendererPool.release(layouts.peekFirst().get(), true);
+                layouts.removeFirst();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                // Failed layout has returned its renderer already
+                layouts.removeFirst();
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    /**
+     * Submits given chunk task to the chunk engine, or runs it in the
+     * calling thread if there is no engine.
+     * 
+     * @param task Task to run
+     * 
+     * @return Pending result of the task
+     */
+    private <T> Future<T> submit(Callable<T> task) {
+        if (chunkEngine != null) {
+            return chunkEngine.submit(task);
+        }
+        FutureTask<T> future = new FutureTask<T>(task);
+        future.run();
+        return future;
+    }
+
+    /**
+     * Waits for result of given chunk task.
+     * 
+     * @param future Pending result of the task
+     * 
+     * @return Result of the task
+     * 
+     * @throws IOException If the task fails with it or waiting is interrupted
+     * @throws DocumentException If the task fails with it
+     */
+    private static <T> T getResult(Future<T> future) throws IOException, DocumentException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for chunk to render");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof DocumentException) {
+                throw (DocumentException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Failed to render chunk", cause);
+        }
+    }
+
+    /**
+     * Completes written PDF file.
+     * 
+     * @param outputStream Stream the PDF was written to
+     * 
+     * @throws IOException If completing the file fails
+     */
+    private void commit(PdfFileWriter.PdfFileStream outputStream) throws IOException {
+        long start = System.nanoTime();
+        outputStream.commit();
+        recordStage(PdfMediatorMetrics.Stage.COMMIT, start);
+    }
+
+    /**
+     * Parses given HTML content expecting it to be well formed XHTML.
+     * 
+     * @param html HTML content
+     * 
+     * @return Parsed document, null if content is not well formed
+     */
+    private Document parseWellFormed(String html) {
+        try {
+            return XMLResource.load(new StringReader(html)).getDocument();
+        } catch (XRRuntimeException e) {
+            cleanFallbacks.incrementAndGet();
+            log.debug("HTML content is not well formed, cleaning it up before rendering", e);
+            return null;
+        }
+    }
+
+    /**
+     * Parses HTML content spilled to given file expecting it to be well
+     * formed XHTML.
+     * 
+     * @param html File holding HTML content
+     * 
+     * @return Parsed document, null if content is not well formed
+     * 
+     * @throws IOException If file cannot be read
+     */
+    private Document parseWellFormed(SpillFile html) throws IOException {
+        try (InputStream in = html.openInputStream()) {
+            return XMLResource.load(in).getDocument();
+        } catch (XRRuntimeException e) {
+            cleanFallbacks.incrementAndGet();
+            log.debug("HTML content is not well formed, cleaning it up before rendering", e);
+            return null;
+        }
+    }
+
+    /**
+     * Records duration of given stage if metrics are recorded.
+     * 
+     * @param stage Stage to record
+     * @param start Value of {@link System#nanoTime()} when the stage started
+     * 
+     * @return Current value of {@link System#nanoTime()}
+     */
+    private long recordStage(PdfMediatorMetrics.Stage stage, long start) {
+        return metrics != null ? metrics.recordStageSince(stage, start) : System.nanoTime();
+    }
+
+    /**
+     * Lays out given chunk with given renderer.
+     * 
+     * @param renderer Renderer to lay out the chunk with
+     * @param chunk Chunk to lay out
+     * @param stylesheet Parsed style sheet, null if there is none
+     */
+    private void layoutChunk(ITextRenderer renderer, Document chunk, Stylesheet stylesheet) {
+        if (renderer.getSharedContext().getUserAgentCallback() instanceof PdfUserAgent) {
+            ((PdfUserAgent) renderer.getSharedContext().getUserAgentCallback()).setRegistry(registry);
+        }
+        renderer.setDocument(chunk, null, stylesheet != null
+                ? new CachedStylesheetNamespaceHandler(stylesheet) : new XhtmlNamespaceHandler());
+        renderer.layout();
+    }
+
+    /**
+     * Layout of a single chunk with a borrowed renderer. The renderer is
+     * returned to the pool if the layout fails, otherwise it is returned
+     * after the chunk has been drawn.
+     */
+    private class ChunkLayout implements Callable<ITextRenderer> {
+        private final ITextRenderer renderer;
+        private final Document chunk;
+        private final Stylesheet stylesheet;
+
+        ChunkLayout(ITextRenderer renderer, Document chunk, Stylesheet stylesheet) {
+            this.renderer = renderer;
+            this.chunk = chunk;
+            this.stylesheet = stylesheet;
+        }
+
+        @Override
+        public ITextRenderer call() {
+            boolean laidOut = false;
+            try {
+                layoutChunk(renderer, chunk, stylesheet);
+                laidOut = true;
+                return renderer;
+            } finally {
+                if (!laidOut) {
+                    rendererPool.release(renderer, false);
+                }
+            }
+        }
+    }
+
+    /**
+     * Counting of the pages of a single chunk with a borrowed renderer,
+     * which is returned to the pool right after.
+     */
+    private class ChunkCount implements Callable<Integer> {
+        private final ITextRenderer renderer;
+        private final Document chunk;
+        private final Stylesheet stylesheet;
+
+        ChunkCount(ITextRenderer renderer, Document chunk, Stylesheet stylesheet) {
+            this.renderer = renderer;
+            this.chunk = chunk;
+            this.stylesheet = stylesheet;
+        }
+
+        @Override
+        public Integer call() {
+            boolean reusable = false;
+            try {
+                layoutChunk(renderer, chunk, stylesheet);
+                int pages = renderer.getRootBox().getLayer().getPages().size();
+                reusable = true;
+                return pages;
+            } finally {
+                rendererPool.release(renderer, reusable);
+            }
+        }
+    }
+
+    /**
+     * Points 'link' elements including css-file references to the parsed
+     * style sheet of given CSS content. The links are made to apply to all
+     * media regardless of their rel, type and media attributes, the same way
+     * as the style element the CSS content used to be inlined into.
+     * 
+     * @param css Style sheet content to be linked to HTML document
+     * @param html HTML document to link CSS content to
+     * 
+     * @return Parsed style sheet, null if no CSS content is given
+     */
+    private Stylesheet linkCssToHtml(String css, Document html) {
+        if (css == null) {
+            return null;
+        }
+        NodeList links = html.getElementsByTagName("link");
+        for (int i = 0; i < links.getLength(); i++) {
+            Element link = (Element) links.item(i);
+            if (link.getAttribute("href").contains(".css")) {
+                link.setAttribute("href", StylesheetCache.STYLESHEET_URI);
+                link.setAttribute("rel", "stylesheet");
+                link.setAttribute("type", "text/css");
+                link.setAttribute("media", "all");
+            }
+        }
+        return stylesheetCache.getStylesheet(css);
+    }
+}
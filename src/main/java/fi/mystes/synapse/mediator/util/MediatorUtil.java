@@ -15,12 +15,24 @@
  */
 package fi.mystes.synapse.mediator.util;
 
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMFactory;
+import org.apache.axiom.om.OMNode;
 import org.apache.axiom.om.OMText;
 import org.apache.axiom.soap.SOAPBody;
 import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
 import org.apache.synapse.config.Entry;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
 import org.apache.synapse.registry.Registry;
 
+import javax.activation.DataHandler;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.Map;
 import java.util.Properties;
 
 /**
@@ -29,6 +41,32 @@ import java.util.Properties;
  */
 public class MediatorUtil {
 
+    /** Element wrapping binary payload, as used by Synapse binary relay */
+    public static final QName BINARY_PAYLOAD = new QName("http://ws.apache.org/commons/ns/payload", "binary");
+
+    private static final String CONTENT_LENGTH = "Content-Length";
+
+    /** Discards serialized payload which is only measured or hashed */
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    private RegistryResourceCache resourceCache;
+
+    /** Reads resources missing from the resource cache */
+    private final RegistryResourceCache.ResourceReader resourceReader = new RegistryResourceCache.ResourceReader() {
+        @Override
+        public String read(String path, Registry registry) {
+            return readResource(path, registry);
+        }
+    };
+
 	/**
 	 * Reads payload as string from given Message Context
 	 * 
@@ -40,6 +78,75 @@ public class MediatorUtil {
         return messageContext.getEnvelope().getBody().getFirstElement().toString();
     }
 
+    /**
+     * Reads payload element from given Message Context without serializing it.
+     * 
+     * @param messageContext Contains XML payload
+     * 
+     * @return First element of SOAP Body
+     */
+    public OMElement getPayloadElement(MessageContext messageContext) {
+        return messageContext.getEnvelope().getBody().getFirstElement();
+    }
+
+    /**
+     * Estimates size of the payload in given Message Context. The
+     * Content-Length transport header is used when the message has one,
+     * otherwise the payload is serialized into a counting stream.
+     * 
+     * @param messageContext Contains XML payload
+     * 
+     * @return Estimated payload size in bytes, zero if there is no payload
+     */
+    public long getPayloadSize(MessageContext messageContext) {
+        if (messageContext instanceof Axis2MessageContext) {
+            Object headers = ((Axis2MessageContext) messageContext).getAxis2MessageContext()
+                    .getProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS);
+            if (headers instanceof Map) {
+                Object contentLength = ((Map<?, ?>) headers).get(CONTENT_LENGTH);
+                if (contentLength != null) {
+                    try {
+                        return Long.parseLong(contentLength.toString().trim());
+                    } catch (NumberFormatException e) {
+                        // fall back to serializing the payload
+                    }
+                }
+            }
+        }
+        OMElement payload = getPayloadElement(messageContext);
+        if (payload == null) {
+            return 0;
+        }
+        MeteredOutputStream counter = new MeteredOutputStream(NULL_OUTPUT);
+        try {
+            payload.serialize(counter);
+        } catch (XMLStreamException e) {
+            throw new SynapseException("Failed to estimate payload size", e);
+        }
+        return counter.getByteCount();
+    }
+
+    /**
+     * Calculates hash of the payload in given Message Context by serializing
+     * it into a digesting stream, without buffering the serialized payload.
+     * 
+     * @param messageContext Contains XML payload
+     * 
+     * @return SHA-1 hash of the serialized payload as hexadecimal string
+     */
+    public String getPayloadHash(MessageContext messageContext) {
+        MessageDigest digest = Digests.newSha1();
+        OMElement payload = getPayloadElement(messageContext);
+        if (payload != null) {
+            try {
+                payload.serialize(new DigestOutputStream(NULL_OUTPUT, digest));
+            } catch (XMLStreamException e) {
+                throw new SynapseException("Failed to hash payload", e);
+            }
+        }
+        return Digests.toHex(digest.digest());
+    }
+
     /**
      * Reads SOAP Body from given Message Context.
      * 
@@ -51,6 +158,26 @@ public class MediatorUtil {
         return messageContext.getEnvelope().getBody();
     }
 
+    /**
+     * Replaces SOAP Body content of given Message Context with binary content
+     * wrapped in the binary payload element used by Synapse binary relay.
+     * 
+     * @param content Binary content
+     * @param optimize True to send content as MTOM attachment when MTOM is enabled,
+     *            false to always send it as base64 encoded text
+     * @param messageContext Contains SOAP Body to replace content of
+     */
+    public void setBinaryPayload(DataHandler content, boolean optimize, MessageContext messageContext) {
+        SOAPBody body = getBody(messageContext);
+        OMNode child;
+        while ((child = body.getFirstOMChild()) != null) {
+            child.detach();
+        }
+        OMFactory factory = body.getOMFactory();
+        OMElement binary = factory.createOMElement(BINARY_PAYLOAD, body);
+        binary.addChild(factory.createOMText(content, optimize));
+    }
+
     /**
      * Reads property value from Message Context.
      * 
@@ -64,7 +191,8 @@ public class MediatorUtil {
     }
 
     /**
-     * Reads resource from Synapse registry.
+     * Reads resource from Synapse registry, or from the resource cache when
+     * caching is enabled.
      * 
      * @param path Path to the registry
      * @param messageContext Contains access to registry
@@ -72,25 +200,58 @@ public class MediatorUtil {
      * @return Content of the resource
      */
     public String getResource(String path, MessageContext messageContext) {
-        Entry entry = createEntry(path);
-        final Object o = resourceFromRegistry(entry, messageContext);
-        if (o instanceof OMText) {
-            return ((OMText)o).getText();
+        return getResource(path, getRegistry(messageContext));
+    }
+
+    /**
+     * Reads resource from given registry, or from the resource cache when
+     * caching is enabled.
+     * 
+     * @param path Path to the registry
+     * @param registry Registry to read resource from
+     * 
+     * @return Content of the resource
+     */
+    public String getResource(String path, Registry registry) {
+        if (resourceCache == null) {
+            return readResource(path, registry);
         }
-        //OMElement
-        return o.toString();
+
+        return resourceCache.get(path, registry, resourceReader);
     }
 
     /**
-     * Gets resource from Synapse registry.
      * 
-     * @param entry Resource entry to get from registry
-     * @param messageContext Contains access to registry
+     * @return Cache for registry resources, null if resources are not cached
+     */
+    public RegistryResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
      * 
-     * @return Matched resource
+     * @param resourceCache Cache for registry resources, null to disable caching
      */
-    private Object resourceFromRegistry(Entry entry, MessageContext messageContext) {
-        return getRegistry(messageContext).getResource(entry, new Properties());
+    public void setResourceCache(RegistryResourceCache resourceCache) {
+        this.resourceCache = resourceCache;
+    }
+
+    /**
+     * Reads resource content from given registry.
+     * 
+     * @param path Path to the registry
+     * @param registry Registry to read resource from
+     * 
+     * @return Content of the resource
+     */
+    private String readResource(String path, Registry registry) {
+        Entry entry = createEntry(path);
+        final Object o = registry.getResource(entry, new Properties());
+        if (o instanceof OMText) {
+            return ((OMText)o).getText();
+        }
+        //OMElement
+        return o.toString();
     }
 
     /**
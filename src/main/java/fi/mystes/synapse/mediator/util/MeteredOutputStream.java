@@ -0,0 +1,78 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream keeping count of bytes written and time spent in writing
+ * them to the underlying stream.
+ *
+ */
+public class MeteredOutputStream extends FilterOutputStream {
+
+    private long byteCount;
+    private long writeNanos;
+
+    /**
+     *
+     * @param out Stream to write to
+     */
+    public MeteredOutputStream(OutputStream out) {
+        super(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        long start = System.nanoTime();
+        out.write(b);
+        writeNanos += System.nanoTime() - start;
+        byteCount++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        long start = System.nanoTime();
+        out.write(b, off, len);
+        writeNanos += System.nanoTime() - start;
+        byteCount += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        long start = System.nanoTime();
+        out.flush();
+        writeNanos += System.nanoTime() - start;
+    }
+
+    /**
+     *
+     * @return Number of bytes written
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     *
+     * @return Nanoseconds spent in writing and flushing
+     */
+    public long getWriteNanos() {
+        return writeNanos;
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Engine rendering lists of independent documents in parallel.
+ *
+ * The engine has a fixed number of worker threads and an unbounded queue,
+ * since the number of documents is known when they are submitted. Results
+ * are returned either in the order of the submitted items or in the order
+ * the items complete. If rendering any item fails, the items not yet
+ * rendered are cancelled.
+ *
+ * Each worker thread keeps resources of its own, such as a transformer per
+ * compiled style sheet and a PDF renderer, which are reused for every item
+ * the worker renders. See {@link #getWorkerResources()}.
+ *
+ */
+public class ParallelRenderEngine {
+
+    public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    private static final AtomicInteger POOL_NUMBER = new AtomicInteger();
+
+    private final ExecutorService executor;
+    private final int parallelism;
+
+    /**
+     * Creates engine with one worker thread per processor.
+     */
+    public ParallelRenderEngine() {
+        this(DEFAULT_PARALLELISM);
+    }
+
+    /**
+     * Creates engine with given number of worker threads.
+     *
+     * @param parallelism Number of items rendered at the same time
+     */
+    public ParallelRenderEngine(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Render parallelism must be positive: " + parallelism);
+        }
+        this.parallelism = parallelism;
+        this.executor = Executors.newFixedThreadPool(parallelism, new WorkerThreadFactory());
+    }
+
+    /**
+     * Renders given items and waits for all of them to complete.
+     *
+     * @param items Renders of the items
+     *
+     * @return Results of the items in the order of the items
+     *
+     * @throws Exception Failure of the first failed item in item order
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> items) throws Exception {
+        return invokeAll(items, true);
+    }
+
+    /**
+     * Renders given items and waits for all of them to complete.
+     *
+     * @param items Renders of the items
+     * @param ordered True to return results in the order of the items, false
+     *            to return them in the order the items complete
+     *
+     * @return Results of the items
+     *
+     * @throws Exception Failure of the first failed item, in item order if
+     *             ordered, otherwise the first one to fail
+     */
+    public <T> List<T> invokeAll(List<? extends Callable<T>> items, boolean ordered) throws Exception {
+        CompletionService<T> completion = newCompletionService();
+        List<Future<T>> futures = new ArrayList<Future<T>>(items.size());
+        for (Callable<T> item : items) {
+            futures.add(completion.submit(item));
+        }
+        List<T> results = new ArrayList<T>(items.size());
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                results.add(ordered ? futures.get(i).get() : completion.take().get());
+            }
+        } catch (ExecutionException e) {
+            cancel(futures);
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (InterruptedException e) {
+            cancel(futures);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for renders to complete");
+        }
+        return results;
+    }
+
+    /**
+     * Submits single item to be rendered. Unlike {@link #invokeAll(List)},
+     * lets the caller consume results while further items are being rendered.
+     *
+     * @param item Render of the item
+     *
+     * @return Pending result of the item
+     */
+    public <T> Future<T> submit(Callable<T> item) {
+        return executor.submit(item);
+    }
+
+    /**
+     * Stops accepting items and lets already submitted items complete.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     *
+     * @return Number of items rendered at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Gets resources kept by the current worker thread between items. The
+     * map is weakly keyed and only ever accessed by its own thread, so it
+     * needs no synchronization.
+     *
+     * @return Resources of the current worker thread, null if the current
+     *         thread is not a worker of any engine
+     */
+    public static Map<Object, Object> getWorkerResources() {
+        Thread current = Thread.currentThread();
+        return current instanceof WorkerThread ? ((WorkerThread) current).resources : null;
+    }
+
+    /**
+     *
+     * @return Completion service submitting items to the worker threads
+     */
+    <T> CompletionService<T> newCompletionService() {
+        return new ExecutorCompletionService<T>(executor);
+    }
+
+    /**
+     * Cancels items not yet completed.
+     *
+     * @param futures Submitted items
+     */
+    private static void cancel(List<? extends Future<?>> futures) {
+        for (Future<?> future : futures) {
+            future.cancel(false);
+        }
+    }
+
+    /**
+     * Worker thread keeping resources reused between items.
+     */
+    private static class WorkerThread extends Thread {
+        private final Map<Object, Object> resources = new WeakHashMap<Object, Object>();
+
+        WorkerThread(Runnable runnable, String name) {
+            super(runnable, name);
+        }
+    }
+
+    /**
+     * Creates named daemon worker threads.
+     */
+    private static class WorkerThreadFactory implements ThreadFactory {
+        private final int poolNumber = POOL_NUMBER.incrementAndGet();
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new WorkerThread(runnable, "pdf-parallel-" + poolNumber + "-"
+                    + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,312 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Writes PDF files through buffered file channels.
+ *
+ * When writing atomically, the PDF is written to a temporary file in the
+ * target directory, which is renamed to the target file only once the PDF
+ * is complete. Readers polling the directory therefore never see partially
+ * written PDFs, and a failed render leaves no file behind. Writing fails
+ * rather than falls back to a plain copy if the file system can not rename
+ * the file atomically. The written file may also be forced to disk before it
+ * is renamed, and the directory after it, so the PDF survives a crash once it
+ * is visible.
+ *
+ */
+public class PdfFileWriter {
+    private static final Log log = LogFactory.getLog(PdfFileWriter.class);
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+    private final int bufferSize;
+    private final boolean atomic;
+    private final boolean sync;
+    private final boolean createDirectories;
+
+    /**
+     * Creates writer writing atomically with default buffer size, without
+     * forcing files to disk or creating directories.
+     */
+    public PdfFileWriter() {
+        this(DEFAULT_BUFFER_SIZE, true, false, false);
+    }
+
+    /**
+     * Creates writer with given options.
+     *
+     * @param bufferSize Size of the write buffer in bytes
+     * @param atomic True to write to a temporary file renamed to the target file once complete
+     * @param sync True to force written file to disk before it is renamed or closed, and its directory after it
+     * @param createDirectories True to create missing parent directories of the target file
+     */
+    public PdfFileWriter(int bufferSize, boolean atomic, boolean sync, boolean createDirectories) {
+        if (bufferSize < 1) {
+            throw new IllegalArgumentException("Buffer size must be positive: " + bufferSize);
+        }
+        this.bufferSize = bufferSize;
+        this.atomic = atomic;
+        this.sync = sync;
+        this.createDirectories = createDirectories;
+    }
+
+    /**
+     * Opens stream writing to given file. The stream must be committed once
+     * the PDF is complete and closed in any case.
+     *
+     * @param pdfFile File name with path to write PDF to
+     *
+     * @return Stream to write PDF to
+     *
+     * @throws IOException If file can not be created
+     */
+    public PdfFileStream open(String pdfFile) throws IOException {
+        Path target = Paths.get(pdfFile).toAbsolutePath();
+        Path directory = target.getParent();
+        if (createDirectories && directory != null) {
+            Files.createDirectories(directory);
+        }
+        if (!atomic) {
+            return new PdfFileStream(target, null, FileChannel.open(target, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+        }
+        // the channel creates the temporary file itself rather than Files.createTempFile,
+        // so the file gets the permissions of the umask like a directly written file
+        while (true) {
+            Path temp = getTempFile(target);
+            try {
+                return new PdfFileStream(target, temp, FileChannel.open(temp, StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.WRITE));
+            } catch (FileAlreadyExistsException e) {
+                // another writer picked the same name, try another one
+            }
+        }
+    }
+
+    /**
+     * Picks a name for the temporary file of given target file. The name is
+     * hidden and has a different suffix, so pollers matching the target name
+     * skip it.
+     *
+     * @param target File the PDF is written to
+     *
+     * @return Temporary file in the target directory
+     */
+    private static Path getTempFile(Path target) {
+        return target.resolveSibling("." + target.getFileName() + "."
+                + Long.toHexString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE) + TEMP_FILE_SUFFIX);
+    }
+
+    /**
+     * Forces given directory to disk, so a file created or renamed in it is
+     * not lost in a crash. Platforms which can not open directories, such as
+     * Windows, persist directory entries with the file, so they are skipped.
+     *
+     * @param directory Directory to force to disk
+     *
+     * @throws IOException If forcing the directory fails
+     */
+    private static void syncDirectory(Path directory) throws IOException {
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(directory, StandardOpenOption.READ);
+        } catch (IOException e) {
+            log.debug("Directory " + directory + " can not be opened for syncing", e);
+            return;
+        }
+        try {
+            channel.force(true);
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     *
+     * @return Size of the write buffer in bytes
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     *
+     * @return True if PDF is written to a temporary file renamed to the target file once complete
+     */
+    public boolean isAtomic() {
+        return atomic;
+    }
+
+    /**
+     *
+     * @return True if written file is forced to disk before it is renamed or closed, and its directory after it
+     */
+    public boolean isSync() {
+        return sync;
+    }
+
+    /**
+     *
+     * @return True if missing parent directories of the target file are created
+     */
+    public boolean isCreateDirectories() {
+        return createDirectories;
+    }
+
+    /**
+     * Buffered stream writing to a file channel.
+     */
+    public class PdfFileStream extends OutputStream {
+        private final Path target;
+        private final Path temp;
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        private boolean committed;
+        private boolean closed;
+
+        /**
+         *
+         * @param target File the PDF is written to
+         * @param temp Temporary file renamed to the target file on commit, null if written directly
+         * @param channel Channel to write to
+         */
+        PdfFileStream(Path target, Path temp, FileChannel channel) {
+            this.target = target;
+            this.temp = temp;
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (!buffer.hasRemaining()) {
+                drain();
+            }
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length > buffer.remaining()) {
+                drain();
+                if (length > buffer.capacity()) {
+                    // large writes go to the channel without copying them to the buffer
+                    writeFully(ByteBuffer.wrap(bytes, offset, length));
+                    return;
+                }
+            }
+            buffer.put(bytes, offset, length);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            drain();
+        }
+
+        /**
+         * Completes the file. Buffered content is written, the file is forced
+         * to disk if configured and, when writing atomically, the temporary
+         * file is renamed to the target file. The directory entry is then
+         * forced to disk too if configured.
+         *
+         * @throws IOException If writing or renaming the file fails, or the
+         *             file system can not rename it atomically
+         */
+        public void commit() throws IOException {
+            drain();
+            if (sync) {
+                channel.force(true);
+            }
+            channel.close();
+            closed = true;
+            if (temp != null) {
+                try {
+                    Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (AtomicMoveNotSupportedException e) {
+                    throw new IOException("File system can not rename " + temp + " atomically to " + target
+                            + ", write PDF non-atomically instead", e);
+                }
+            }
+            committed = true;
+            if (sync) {
+                syncDirectory(target.getParent());
+            }
+        }
+
+        /**
+         * Closes the file. If the stream has not been committed, the
+         * temporary file is deleted and the target file is left untouched.
+         */
+        @Override
+        public void close() throws IOException {
+            if (committed) {
+                return;
+            }
+            try {
+                if (!closed) {
+                    closed = true;
+                    channel.close();
+                }
+            } finally {
+                if (temp != null) {
+                    Files.deleteIfExists(temp);
+                }
+            }
+        }
+
+        /**
+         * Writes buffered content to the channel.
+         *
+         * @throws IOException If writing fails
+         */
+        private void drain() throws IOException {
+            buffer.flip();
+            writeFully(buffer);
+            buffer.clear();
+        }
+
+        /**
+         * Writes given content to the channel.
+         *
+         * @param content Content to write
+         *
+         * @throws IOException If writing fails
+         */
+        private void writeFully(ByteBuffer content) throws IOException {
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+        }
+    }
+}
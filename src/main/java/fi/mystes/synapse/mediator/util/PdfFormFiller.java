@@ -0,0 +1,158 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.AcroFields;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfStamper;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Map;
+
+/**
+ * Fills a PDF form template with field values, as a fast alternative to
+ * transforming and laying out HTML for fixed-layout documents such as
+ * shipping labels and certificates.
+ *
+ * The template is read and parsed once and kept in memory, and read again
+ * only when its file changes. Each fill stamps an independent copy of the
+ * parsed template, so no HTML, CSS or PDF parsing is done per document.
+ * Field appearances are generated from the values, and the form is
+ * optionally flattened so that the values become page content which can no
+ * longer be edited.
+ *
+ */
+public class PdfFormFiller {
+    private final Log log = LogFactory.getLog(PdfFormFiller.class);
+
+    private final String template;
+    private final boolean flatten;
+    private volatile Template loaded;
+
+    /**
+     *
+     * @param template Path of the PDF file having the AcroForm fields
+     * @param flatten Whether filled fields are flattened into page content
+     */
+    public PdfFormFiller(String template, boolean flatten) {
+        this.template = template;
+        this.flatten = flatten;
+    }
+
+    /**
+     * Fills the template and writes the filled PDF to given stream. Values of
+     * fields which the template does not have are ignored.
+     *
+     * @param values Values by fully qualified field name, null values leave the field as is
+     * @param outputStream Stream to write the filled PDF to, left open
+     *
+     * @return Number of pages in the filled PDF
+     *
+     * @throws IOException If template can not be read or writing to stream fails
+     * @throws DocumentException If field can not be filled or PDF written
+     */
+    public int fill(Map<String, String> values, OutputStream outputStream) throws IOException, DocumentException {
+        PdfReader reader = new PdfReader(getTemplate());
+        PdfStamper stamper = new PdfStamper(reader, outputStream);
+        stamper.getWriter().setCloseStream(false);
+        AcroFields fields = stamper.getAcroFields();
+        for (Map.Entry<String, String> value : values.entrySet()) {
+            if (value.getValue() != null && !fields.setField(value.getKey(), value.getValue())
+                    && log.isDebugEnabled()) {
+                log.debug("Form template " + template + " has no field " + value.getKey());
+            }
+        }
+        stamper.setFormFlattening(flatten);
+        stamper.close();
+        int pages = reader.getNumberOfPages();
+        reader.close();
+        return pages;
+    }
+
+    /**
+     * Reads the template so that the first document does not have to.
+     *
+     * @throws IOException If template can not be read
+     */
+    public void load() throws IOException {
+        getTemplate();
+    }
+
+    /**
+     *
+     * @return Path of the PDF file having the AcroForm fields
+     */
+    public String getTemplatePath() {
+        return template;
+    }
+
+    /**
+     *
+     * @return Whether filled fields are flattened into page content
+     */
+    public boolean isFlatten() {
+        return flatten;
+    }
+
+    /**
+     * Gets parsed template, reading it if it is not loaded yet or its file
+     * has changed. Concurrent reloads may read the file more than once, but
+     * each fill uses a complete template.
+     *
+     * @return Parsed template, only to be copied
+     *
+     * @throws IOException If file can not be read or is not a PDF
+     */
+    private PdfReader getTemplate() throws IOException {
+        File file = new File(template);
+        long lastModified = file.lastModified();
+        Template current = loaded;
+        if (current != null && current.lastModified == lastModified) {
+            return current.reader;
+        }
+        if (lastModified == 0) {
+            throw new IOException("Form template file not found: " + template);
+        }
+
+        PdfReader reader = new PdfReader(Files.readAllBytes(file.toPath()));
+        if (reader.getAcroForm() == null) {
+            log.warn("Form template " + template + " has no form fields");
+        }
+        loaded = new Template(reader, lastModified);
+        log.info("Loaded form template " + template);
+        return reader;
+    }
+
+    /**
+     * Parsed template with modification time of its file.
+     */
+    private static class Template {
+        private final PdfReader reader;
+        private final long lastModified;
+
+        Template(PdfReader reader, long lastModified) {
+            this.reader = reader;
+            this.lastModified = lastModified;
+        }
+    }
+}
@@ -0,0 +1,419 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanException;
+import javax.management.MBeanInfo;
+import javax.management.MBeanOperationInfo;
+import javax.management.MBeanParameterInfo;
+import javax.management.ReflectionException;
+
+/**
+ * Timing, size and failure metrics of a single PDF mediator, exposed as a
+ * dynamic MBean.
+ *
+ * Every stage has attributes <i>Stage</i>Count, <i>Stage</i>MeanMillis,
+ * <i>Stage</i>P50Millis, <i>Stage</i>P95Millis, <i>Stage</i>P99Millis and
+ * <i>Stage</i>MaxMillis, e.g. TransformP95Millis. Sizes have the same
+ * attributes without the unit suffix and a total, e.g. BytesOutP95 and
+ * BytesOutTotal. Gauges added by the mediator, such as renderer pool and
+ * cache counters, are exposed with their own names.
+ *
+ */
+public class PdfMediatorMetrics implements DynamicMBean {
+
+    /** MBean category metrics are registered with */
+    public static final String MBEAN_CATEGORY = "PdfMediator";
+
+    /**
+     * Stages of PDF creation.
+     */
+    public enum Stage {
+        /** Reading XSL and CSS resources from registry */
+        REGISTRY_FETCH("RegistryFetch"),
+        /** Evaluating file path expressions */
+        XPATH("XPath"),
+        /** Transforming payload into HTML */
+        TRANSFORM("Transform"),
+        /** Cleaning up HTML content into well formed XHTML */
+        CLEAN("Clean"),
+        /** Injecting CSS into HTML */
+        CSS_INJECT("CssInject"),
+        /** Parsing cleaned HTML content into document */
+        PARSE("Parse"),
+        /** Splitting document into chunks rendered in parallel */
+        SPLIT("Split"),
+        /** Laying out document into pages */
+        LAYOUT("Layout"),
+        /** Drawing laid out pages into PDF, excluding writing */
+        CREATE_PDF("CreatePdf"),
+        /** Writing PDF into file or stream */
+        WRITE("Write"),
+        /** Completing PDF file by writing buffered content, forcing it to disk and renaming it into place */
+        COMMIT("Commit"),
+        /** Merging separately rendered documents into one PDF */
+        MERGE("Merge"),
+        /** Adding static cover pages, appended pages and backgrounds to rendered PDF */
+        STAMP("Stamp"),
+        /** Filling form template with field values instead of rendering HTML */
+        FILL("Fill"),
+        /** Waiting for admission when the concurrent renders or in-flight bytes are limited */
+        ADMISSION("Admission"),
+        /** Whole mediation from resolving paths to delivered PDF */
+        TOTAL("Total");
+
+        private final String attributeName;
+
+        Stage(String attributeName) {
+            this.attributeName = attributeName;
+        }
+
+        /**
+         *
+         * @return Prefix of the stage attributes
+         */
+        public String getAttributeName() {
+            return attributeName;
+        }
+    }
+
+    /**
+     * Value read when its attribute is read.
+     */
+    public interface Gauge {
+        /**
+         *
+         * @return Current value
+         */
+        long getValue();
+    }
+
+    private static final String[] TIME_STATISTICS = { "Count", "MeanMillis", "P50Millis", "P95Millis", "P99Millis",
+            "MaxMillis" };
+    private static final String[] SIZE_STATISTICS = { "Count", "Total", "Mean", "P50", "P95", "P99", "Max" };
+    private static final String FAILURE_COUNT = "FailureCount";
+    private static final String RESET = "reset";
+    private static final double NANOS_PER_MILLI = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final Map<Stage, Histogram> stages = new EnumMap<Stage, Histogram>(Stage.class);
+    private final Map<String, Histogram> sizes = new LinkedHashMap<String, Histogram>();
+    private final Histogram bytesIn = new Histogram();
+    private final Histogram bytesOut = new Histogram();
+    private final Histogram pages = new Histogram();
+    private final AtomicLong failures = new AtomicLong();
+    private final Map<String, Gauge> gauges = Collections.synchronizedMap(new LinkedHashMap<String, Gauge>());
+
+    /**
+     * Creates empty metrics.
+     */
+    public PdfMediatorMetrics() {
+        for (Stage stage : Stage.values()) {
+            stages.put(stage, new Histogram());
+        }
+        sizes.put("BytesIn", bytesIn);
+        sizes.put("BytesOut", bytesOut);
+        sizes.put("Pages", pages);
+    }
+
+    /**
+     * Records duration of given stage.
+     *
+     * @param stage Stage to record duration of
+     * @param nanos Duration in nanoseconds
+     */
+    public void recordStage(Stage stage, long nanos) {
+        stages.get(stage).record(nanos);
+    }
+
+    /**
+     * Records duration of given stage started at given time.
+     *
+     * @param stage Stage to record duration of
+     * @param startNanos Value of {@link System#nanoTime()} when the stage started
+     *
+     * @return Current value of {@link System#nanoTime()}, to be used as start of the next stage
+     */
+    public long recordStageSince(Stage stage, long startNanos) {
+        long now = System.nanoTime();
+        stages.get(stage).record(now - startNanos);
+        return now;
+    }
+
+    /**
+     *
+     * @param size Size of the HTML content handed to the renderer in characters
+     */
+    public void recordBytesIn(long size) {
+        bytesIn.record(size);
+    }
+
+    /**
+     *
+     * @param size Size of the created PDF in bytes
+     */
+    public void recordBytesOut(long size) {
+        bytesOut.record(size);
+    }
+
+    /**
+     *
+     * @param pageCount Number of pages in the created PDF
+     */
+    public void recordPages(int pageCount) {
+        pages.record(pageCount);
+    }
+
+    /**
+     * Records failed mediation.
+     */
+    public void recordFailure() {
+        failures.incrementAndGet();
+    }
+
+    /**
+     * Adds value to be exposed as attribute with given name.
+     *
+     * @param name Attribute name
+     * @param gauge Source of the value
+     */
+    public void addGauge(String name, Gauge gauge) {
+        gauges.put(name, gauge);
+    }
+
+    /**
+     *
+     * @param stage Stage of PDF creation
+     *
+     * @return Durations of given stage in nanoseconds
+     */
+    public Histogram getStage(Stage stage) {
+        return stages.get(stage);
+    }
+
+    /**
+     *
+     * @return Sizes of the HTML content handed to the renderer
+     */
+    public Histogram getBytesIn() {
+        return bytesIn;
+    }
+
+    /**
+     *
+     * @return Sizes of the created PDFs
+     */
+    public Histogram getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     *
+     * @return Page counts of the created PDFs
+     */
+    public Histogram getPages() {
+        return pages;
+    }
+
+    /**
+     *
+     * @return Number of failed mediations
+     */
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    /**
+     * Forgets all recorded values. Gauges are not affected.
+     */
+    public void reset() {
+        for (Histogram histogram : stages.values()) {
+            histogram.reset();
+        }
+        for (Histogram histogram : sizes.values()) {
+            histogram.reset();
+        }
+        failures.set(0);
+    }
+
+    @Override
+    public Object getAttribute(String attribute) throws AttributeNotFoundException {
+        if (FAILURE_COUNT.equals(attribute)) {
+            return getFailureCount();
+        }
+        Gauge gauge = gauges.get(attribute);
+        if (gauge != null) {
+            return gauge.getValue();
+        }
+        for (Stage stage : Stage.values()) {
+            if (attribute.startsWith(stage.getAttributeName())) {
+                Object value = getTimeStatistic(stages.get(stage),
+                        attribute.substring(stage.getAttributeName().length()));
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        for (Map.Entry<String, Histogram> size : sizes.entrySet()) {
+            if (attribute.startsWith(size.getKey())) {
+                Object value = getSizeStatistic(size.getValue(), attribute.substring(size.getKey().length()));
+                if (value != null) {
+                    return value;
+                }
+            }
+        }
+        throw new AttributeNotFoundException("No such attribute: " + attribute);
+    }
+
+    @Override
+    public AttributeList getAttributes(String[] attributes) {
+        AttributeList list = new AttributeList();
+        for (String attribute : attributes) {
+            try {
+                list.add(new Attribute(attribute, getAttribute(attribute)));
+            } catch (AttributeNotFoundException e) {
+                // unknown attributes are left out as defined by DynamicMBean
+            }
+        }
+        return list;
+    }
+
+    @Override
+    public void setAttribute(Attribute attribute) throws AttributeNotFoundException {
+        throw new AttributeNotFoundException("Attribute is read-only: " + attribute.getName());
+    }
+
+    @Override
+    public AttributeList setAttributes(AttributeList attributes) {
+        return new AttributeList();
+    }
+
+    @Override
+    public Object invoke(String actionName, Object[] params, String[] signature) throws MBeanException,
+            ReflectionException {
+        if (RESET.equals(actionName)) {
+            reset();
+            return null;
+        }
+        throw new ReflectionException(new NoSuchMethodException(actionName), "No such operation: " + actionName);
+    }
+
+    @Override
+    public MBeanInfo getMBeanInfo() {
+        List<MBeanAttributeInfo> attributes = new ArrayList<MBeanAttributeInfo>();
+        attributes.add(attribute(FAILURE_COUNT, Long.class, "Number of failed mediations"));
+        for (Stage stage : Stage.values()) {
+            for (String statistic : TIME_STATISTICS) {
+                attributes.add(attribute(stage.getAttributeName() + statistic,
+                        "Count".equals(statistic) ? Long.class : Double.class, stage.name() + " " + statistic));
+            }
+        }
+        for (String size : sizes.keySet()) {
+            for (String statistic : SIZE_STATISTICS) {
+                attributes.add(attribute(size + statistic, "Mean".equals(statistic) ? Double.class : Long.class,
+                        size + " " + statistic));
+            }
+        }
+        synchronized (gauges) {
+            for (String gauge : gauges.keySet()) {
+                attributes.add(attribute(gauge, Long.class, gauge));
+            }
+        }
+        MBeanOperationInfo reset = new MBeanOperationInfo(RESET, "Forgets all recorded values",
+                new MBeanParameterInfo[0], void.class.getName(), MBeanOperationInfo.ACTION);
+        return new MBeanInfo(getClass().getName(), "PDF mediator metrics",
+                attributes.toArray(new MBeanAttributeInfo[attributes.size()]), null,
+                new MBeanOperationInfo[] { reset }, null);
+    }
+
+    /**
+     * Helper method to describe read-only attribute.
+     *
+     * @param name Attribute name
+     * @param type Attribute type
+     * @param description Attribute description
+     *
+     * @return Attribute description
+     */
+    private MBeanAttributeInfo attribute(String name, Class<?> type, String description) {
+        return new MBeanAttributeInfo(name, type.getName(), description, true, false, false);
+    }
+
+    /**
+     * Reads statistic of a histogram holding durations in nanoseconds.
+     *
+     * @param histogram Durations
+     * @param statistic Name of the statistic
+     *
+     * @return Statistic in milliseconds, count as is, null if not known
+     */
+    private Object getTimeStatistic(Histogram histogram, String statistic) {
+        if ("Count".equals(statistic)) {
+            return histogram.getCount();
+        } else if ("MeanMillis".equals(statistic)) {
+            return histogram.getMean() / NANOS_PER_MILLI;
+        } else if ("P50Millis".equals(statistic)) {
+            return histogram.getPercentile(50) / NANOS_PER_MILLI;
+        } else if ("P95Millis".equals(statistic)) {
+            return histogram.getPercentile(95) / NANOS_PER_MILLI;
+        } else if ("P99Millis".equals(statistic)) {
+            return histogram.getPercentile(99) / NANOS_PER_MILLI;
+        } else if ("MaxMillis".equals(statistic)) {
+            return histogram.getMax() / NANOS_PER_MILLI;
+        }
+        return null;
+    }
+
+    /**
+     * Reads statistic of a histogram holding sizes.
+     *
+     * @param histogram Sizes
+     * @param statistic Name of the statistic
+     *
+     * @return Statistic, null if not known
+     */
+    private Object getSizeStatistic(Histogram histogram, String statistic) {
+        if ("Count".equals(statistic)) {
+            return histogram.getCount();
+        } else if ("Total".equals(statistic)) {
+            return histogram.getSum();
+        } else if ("Mean".equals(statistic)) {
+            return histogram.getMean();
+        } else if ("P50".equals(statistic)) {
+            return histogram.getPercentile(50);
+        } else if ("P95".equals(statistic)) {
+            return histogram.getPercentile(95);
+        } else if ("P99".equals(statistic)) {
+            return histogram.getPercentile(99);
+        } else if ("Max".equals(statistic)) {
+            return histogram.getMax();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfCopy;
+import com.lowagie.text.pdf.PdfReader;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * Helper class to merge separately rendered PDF documents into one.
+ *
+ * Documents can be merged all at once with {@link #merge(List, OutputStream)},
+ * or added one by one as they become available, in which case each document
+ * is copied to the stream when added and need not be kept afterwards.
+ *
+ */
+public class PdfMerger {
+    private final OutputStream outputStream;
+    private Document document;
+    private PdfCopy copy;
+    private int pages;
+
+    /**
+     * Creates merger writing merged document to given stream.
+     *
+     * @param outputStream Stream to write merged document to, left open
+     */
+    public PdfMerger(OutputStream outputStream) {
+        this.outputStream = outputStream;
+    }
+
+    /**
+     * Copies pages of given document after the pages already added.
+     * Pages are copied as such, without laying out their content again.
+     *
+     * @param pdf Document to add
+     *
+     * @throws IOException If reading the document fails
+     * @throws DocumentException If writing merged document fails
+     */
+    public void add(byte[] pdf) throws IOException, DocumentException {
+        PdfReader reader = new PdfReader(pdf);
+        if (copy == null) {
+            document = new Document();
+            copy = new PdfCopy(document, outputStream);
+            copy.setCloseStream(false);
+            document.open();
+        }
+        for (int page = 1; page <= reader.getNumberOfPages(); page++) {
+            copy.addPage(copy.getImportedPage(reader, page));
+            pages++;
+        }
+        copy.freeReader(reader);
+        reader.close();
+    }
+
+    /**
+     * Finishes merged document.
+     *
+     * @throws IllegalStateException If no documents were added
+     */
+    public void close() {
+        if (document == null) {
+            throw new IllegalStateException("No documents merged");
+        }
+        document.close();
+    }
+
+    /**
+     *
+     * @return Number of pages added so far
+     */
+    public int getPageCount() {
+        return pages;
+    }
+
+    /**
+     * Copies pages of given documents in order into a single document.
+     * Pages are copied as such, without laying out their content again.
+     *
+     * @param pdfs Documents to merge
+     * @param outputStream Stream to write merged document to, left open
+     *
+     * @return Number of pages in the merged document
+     *
+     * @throws IOException If reading a document fails
+     * @throws DocumentException If writing merged document fails
+     */
+    public static int merge(List<byte[]> pdfs, OutputStream outputStream) throws IOException, DocumentException {
+        if (pdfs.isEmpty()) {
+            throw new IllegalArgumentException("No documents to merge");
+        }
+        PdfMerger merger = new PdfMerger(outputStream);
+        for (byte[] pdf : pdfs) {
+            merger.add(pdf);
+        }
+        merger.close();
+        return merger.getPageCount();
+    }
+}
@@ -0,0 +1,443 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe cache of rendered PDFs keyed by a hash of their inputs.
+ *
+ * Results are kept in a memory tier bounded by the total size of the PDFs
+ * and, when a directory is given, in a disk tier bounded likewise. Both
+ * tiers evict least recently used PDFs when their bound is exceeded. New
+ * results are written to both tiers, and results found on disk are promoted
+ * back to memory. The disk tier survives restarts; files found in the
+ * directory when the cache is created are indexed in modification order.
+ *
+ * Concurrent lookups of the same missing key are deduplicated: the first
+ * caller renders the PDF and the others wait for its result instead of
+ * rendering the same PDF in parallel. A failed render is not cached and
+ * its failure is handed to every waiting caller.
+ *
+ */
+public class PdfResultCache {
+    private final Log log = LogFactory.getLog(PdfResultCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+    public static final long DEFAULT_MAX_DISK_BYTES = 1024L * 1024 * 1024;
+
+    private static final String FILE_SUFFIX = ".pdf";
+
+    private final long maxBytes;
+    private final Path directory;
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<String, byte[]>(16, 0.75f, true);
+    private long memoryBytes;
+    private final LinkedHashMap<String, Long> disk = new LinkedHashMap<String, Long>(16, 0.75f, true);
+    private long diskBytes;
+
+    private final ConcurrentMap<String, FutureTask<byte[]>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<byte[]>>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong deduplicated = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+
+    /**
+     * Creates cache with memory tier only.
+     *
+     * @param maxBytes Maximum total size of PDFs kept in memory
+     */
+    public PdfResultCache(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("PDF result cache size must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.directory = null;
+        this.maxDiskBytes = 0;
+    }
+
+    /**
+     * Creates cache with memory and disk tiers, creating the directory if it
+     * does not exist and indexing PDFs cached there earlier.
+     *
+     * @param maxBytes Maximum total size of PDFs kept in memory, zero to keep them on disk only
+     * @param directory Directory of the disk tier
+     * @param maxDiskBytes Maximum total size of PDFs kept on disk
+     *
+     * @throws IOException If directory can not be created or listed
+     */
+    public PdfResultCache(long maxBytes, String directory, long maxDiskBytes) throws IOException {
+        if (maxDiskBytes < 1) {
+            throw new IllegalArgumentException("PDF result cache disk size must be positive: " + maxDiskBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.directory = Files.createDirectories(new File(directory).toPath());
+        this.maxDiskBytes = maxDiskBytes;
+        indexDirectory();
+    }
+
+    /**
+     * Gets PDF of given key from the cache, rendering and caching it if it is
+     * not cached. If the same key is already being rendered, waits for that
+     * render instead.
+     *
+     * @param key Hash of the render inputs
+     * @param render Renders the PDF on a cache miss
+     *
+     * @return Cached or rendered PDF
+     *
+     * @throws ExecutionException If the render failed, with the failure as cause
+     * @throws InterruptedIOException If interrupted while waiting for another render
+     */
+    public byte[] get(String key, Callable<byte[]> render) throws ExecutionException, InterruptedIOException {
+        byte[] pdf = getIfPresent(key);
+        if (pdf != null) {
+            return pdf;
+        }
+
+        FutureTask<byte[]> task = new FutureTask<byte[]>(new CachingRender(key, render));
+        FutureTask<byte[]> running = inFlight.putIfAbsent(key, task);
+        if (running != null) {
+            deduplicated.incrementAndGet();
+            task = running;
+        } else {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        }
+
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for PDF render of " + key);
+        }
+    }
+
+    /**
+     * Gets PDF of given key from memory or disk without rendering it.
+     *
+     * @param key Hash of the render inputs
+     *
+     * @return Cached PDF, null if not cached
+     */
+    public byte[] getIfPresent(String key) {
+        synchronized (this) {
+            byte[] pdf = memory.get(key);
+            if (pdf != null) {
+                hits.incrementAndGet();
+                return pdf;
+            }
+            if (disk.get(key) == null) {
+                return null;
+            }
+        }
+
+        try {
+            byte[] pdf = Files.readAllBytes(getFile(key));
+            diskHits.incrementAndGet();
+            putInMemory(key, pdf);
+            return pdf;
+        } catch (IOException e) {
+            // removed from under the cache, rendered again
+            log.warn("Failed to read cached PDF " + key, e);
+            synchronized (this) {
+                Long size = disk.remove(key);
+                if (size != null) {
+                    diskBytes -= size;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Caches PDF of given key in memory and on disk.
+     *
+     * @param key Hash of the render inputs
+     * @param pdf Rendered PDF
+     */
+    public void put(String key, byte[] pdf) {
+        putInMemory(key, pdf);
+        if (directory != null && pdf.length <= maxDiskBytes) {
+            try {
+                putOnDisk(key, pdf);
+            } catch (IOException e) {
+                // the result is still cached in memory
+                log.warn("Failed to write cached PDF " + key, e);
+            }
+        }
+    }
+
+    /**
+     * Removes all PDFs from memory and disk.
+     */
+    public synchronized void clear() {
+        memory.clear();
+        memoryBytes = 0;
+        for (String key : disk.keySet()) {
+            deleteFile(key);
+        }
+        disk.clear();
+        diskBytes = 0;
+    }
+
+    /**
+     *
+     * @return Number of PDFs cached in memory
+     */
+    public synchronized int size() {
+        return memory.size();
+    }
+
+    /**
+     *
+     * @return Number of PDFs cached on disk
+     */
+    public synchronized int getDiskSize() {
+        return disk.size();
+    }
+
+    /**
+     *
+     * @return Total size of PDFs cached in memory in bytes
+     */
+    public synchronized long getSizeInBytes() {
+        return memoryBytes;
+    }
+
+    /**
+     *
+     * @return Total size of PDFs cached on disk in bytes
+     */
+    public synchronized long getDiskSizeInBytes() {
+        return diskBytes;
+    }
+
+    /**
+     *
+     * @return Number of lookups served from memory
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return Number of lookups served from disk
+     */
+    public long getDiskHitCount() {
+        return diskHits.get();
+    }
+
+    /**
+     *
+     * @return Number of lookups which rendered the PDF
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return Number of lookups which waited for a render of the same key
+     */
+    public long getDeduplicatedCount() {
+        return deduplicated.get();
+    }
+
+    /**
+     *
+     * @return Number of PDFs evicted from memory due to the size bound
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     *
+     * @return Number of PDFs evicted from disk due to the size bound
+     */
+    public long getDiskEvictionCount() {
+        return diskEvictions.get();
+    }
+
+    /**
+     * Caches PDF in memory, evicting least recently used PDFs if needed. PDFs
+     * larger than the whole memory tier are not kept in memory.
+     *
+     * @param key Hash of the render inputs
+     * @param pdf Rendered PDF
+     */
+    private synchronized void putInMemory(String key, byte[] pdf) {
+        if (pdf.length > maxBytes) {
+            return;
+        }
+        byte[] previous = memory.put(key, pdf);
+        if (previous != null) {
+            memoryBytes -= previous.length;
+        }
+        memoryBytes += pdf.length;
+
+        Iterator<byte[]> eldest = memory.values().iterator();
+        while (memoryBytes > maxBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Writes PDF to the disk tier, evicting least recently used files if
+     * needed. The PDF is written to a temporary file first, so a partially
+     * written file is never found under the key.
+     *
+     * @param key Hash of the render inputs
+     * @param pdf Rendered PDF
+     *
+     * @throws IOException If writing the file fails
+     */
+    private void putOnDisk(String key, byte[] pdf) throws IOException {
+        Path temporary = Files.createTempFile(directory, "." + key, ".tmp");
+        try {
+            Files.write(temporary, pdf);
+            Files.move(temporary, getFile(key), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        synchronized (this) {
+            Long previous = disk.put(key, (long) pdf.length);
+            if (previous != null) {
+                diskBytes -= previous;
+            }
+            diskBytes += pdf.length;
+
+            Iterator<Map.Entry<String, Long>> eldest = disk.entrySet().iterator();
+            while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+                Map.Entry<String, Long> entry = eldest.next();
+                diskBytes -= entry.getValue();
+                eldest.remove();
+                deleteFile(entry.getKey());
+                diskEvictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Indexes PDFs cached in the directory earlier, least recently modified
+     * first so they are evicted first.
+     *
+     * @throws IOException If directory can not be listed
+     */
+    private void indexDirectory() throws IOException {
+        File[] files = directory.toFile().listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list PDF result cache directory " + directory);
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+        for (File file : files) {
+            String name = file.getName();
+            if (file.isFile() && name.endsWith(FILE_SUFFIX)) {
+                disk.put(name.substring(0, name.length() - FILE_SUFFIX.length()), file.length());
+                diskBytes += file.length();
+            }
+        }
+        log.info("Indexed " + disk.size() + " cached PDFs in " + directory);
+    }
+
+    /**
+     * Deletes cached file of given key.
+     *
+     * @param key Hash of the render inputs
+     */
+    private void deleteFile(String key) {
+        try {
+            Files.deleteIfExists(getFile(key));
+        } catch (IOException e) {
+            log.warn("Failed to delete cached PDF " + key, e);
+        }
+    }
+
+    /**
+     *
+     * @param key Hash of the render inputs
+     *
+     * @return Path of the cached file of given key
+     */
+    private Path getFile(String key) {
+        return directory.resolve(key + FILE_SUFFIX);
+    }
+
+    /**
+     * Render which looks the key up once more before rendering and caches
+     * its result once complete.
+     */
+    private class CachingRender implements Callable<byte[]> {
+        private final String key;
+        private final Callable<byte[]> render;
+
+        CachingRender(String key, Callable<byte[]> render) {
+            this.key = key;
+            this.render = render;
+        }
+
+        @Override
+        public byte[] call() throws Exception {
+            // A render of the same key may have completed since the caller looked the key up
+            byte[] pdf = getIfPresent(key);
+            if (pdf != null) {
+                return pdf;
+            }
+            misses.incrementAndGet();
+            pdf = render.call();
+            put(key, pdf);
+            return pdf;
+        }
+    }
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import com.lowagie.text.Image;
+
+import org.apache.axiom.om.OMNode;
+import org.apache.axiom.om.OMText;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.config.Entry;
+import org.apache.synapse.registry.Registry;
+import org.apache.synapse.registry.RegistryEntry;
+import org.xhtmlrenderer.extend.FSImage;
+import org.xhtmlrenderer.pdf.ITextFSImage;
+import org.xhtmlrenderer.pdf.ITextOutputDevice;
+import org.xhtmlrenderer.pdf.ITextUserAgent;
+import org.xhtmlrenderer.resource.ImageResource;
+import org.xhtmlrenderer.util.ImageUtil;
+
+import javax.activation.DataHandler;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Properties;
+
+/**
+ * User agent of the PDF renderer loading images, fonts and other resources
+ * referenced by documents.
+ *
+ * Decoded images and binary resources are kept in a cache shared by all
+ * renderers of a pool, so each resource is fetched and decoded once instead
+ * of once per document. Resources with gov: or conf: keys are read from the
+ * Synapse registry. They are cached under their registry version and
+ * modification time, which are looked up for every use, so an updated
+ * registry resource is read again the next time it is used. Registry
+ * resources without version information are not cached.
+ *
+ */
+public class PdfUserAgent extends ITextUserAgent {
+    private final Log log = LogFactory.getLog(PdfUserAgent.class);
+
+    public static final String GOVERNANCE_REGISTRY_PREFIX = "gov:";
+    public static final String CONFIGURATION_REGISTRY_PREFIX = "conf:";
+
+    private static final String IMAGE_KEY_PREFIX = "image:";
+    private static final String BINARY_KEY_PREFIX = "binary:";
+
+    private final RenderResourceCache resourceCache;
+    private volatile Registry registry;
+
+    /**
+     *
+     * @param outputDevice Output device of the renderer
+     * @param resourceCache Cache to share decoded images and binary resources through
+     */
+    public PdfUserAgent(ITextOutputDevice outputDevice, RenderResourceCache resourceCache) {
+        super(outputDevice);
+        this.resourceCache = resourceCache;
+    }
+
+    /**
+     *
+     * @return Registry to read gov: and conf: resources from, null if not available
+     */
+    public Registry getRegistry() {
+        return registry;
+    }
+
+    /**
+     *
+     * @param registry Registry to read gov: and conf: resources from
+     */
+    public void setRegistry(Registry registry) {
+        this.registry = registry;
+    }
+
+    /**
+     *
+     * @return Cache decoded images and binary resources are shared through
+     */
+    public RenderResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
+     * Resolves given URI against the base URL. Registry keys are absolute
+     * as such.
+     */
+    @Override
+    public String resolveURI(String uri) {
+        if (isRegistryKey(uri)) {
+            return uri;
+        }
+        return super.resolveURI(uri);
+    }
+
+    /**
+     * Gets decoded image from the shared cache, loading and decoding it on a
+     * cache miss. Embedded images and PDF pages used as images are handled by
+     * the default user agent.
+     */
+    @Override
+    public ImageResource getImageResource(String uri) {
+        if (uri == null || ImageUtil.isEmbeddedBase64Image(uri)) {
+            return super.getImageResource(uri);
+        }
+        String resolved = resolveURI(uri);
+        if (resolved == null || resolved.toLowerCase().endsWith(".pdf")) {
+            return super.getImageResource(uri);
+        }
+
+        String key = getCacheKey(IMAGE_KEY_PREFIX, resolved);
+        ITextFSImage image = key != null ? (ITextFSImage) resourceCache.get(key) : null;
+        if (image == null) {
+            byte[] content = loadResource(resolved);
+            if (content == null) {
+                return new ImageResource(resolved, null);
+            }
+            try {
+                Image decoded = Image.getInstance(content);
+                scaleToOutputResolution(decoded);
+                image = new ITextFSImage(decoded);
+            } catch (Exception e) {
+                log.warn("Can't read image " + resolved, e);
+                return new ImageResource(resolved, null);
+            }
+            if (key != null) {
+                resourceCache.put(key, image, content.length);
+            }
+        }
+        // images are scaled while laid out, hence each document gets its own copy
+        return new ImageResource(resolved, (FSImage) image.clone());
+    }
+
+    /**
+     * Gets binary resource, such as a font file, from the shared cache,
+     * loading it on a cache miss. The returned array is shared and must not
+     * be modified.
+     */
+    @Override
+    public byte[] getBinaryResource(String uri) {
+        String resolved = resolveURI(uri);
+        if (resolved == null) {
+            return null;
+        }
+        String key = getCacheKey(BINARY_KEY_PREFIX, resolved);
+        byte[] content = key != null ? (byte[]) resourceCache.get(key) : null;
+        if (content == null) {
+            content = loadResource(resolved);
+            if (content != null && key != null) {
+                resourceCache.put(key, content, content.length);
+            }
+        }
+        return content;
+    }
+
+    /**
+     * Opens stream to given resource, reading registry keys from the registry.
+     */
+    @Override
+    protected InputStream resolveAndOpenStream(String uri) {
+        if (isRegistryKey(uri)) {
+            byte[] content = readRegistryResource(uri);
+            return content != null ? new ByteArrayInputStream(content) : null;
+        }
+        return super.resolveAndOpenStream(uri);
+    }
+
+    /**
+     * Gets key of given resource in the shared cache. Registry resources are
+     * keyed by their current version, so a changed resource gets a new key
+     * and the old version is eventually evicted.
+     *
+     * @param prefix Prefix of the resource type
+     * @param uri Resolved URI of the resource
+     *
+     * @return Cache key, null if the resource must not be cached
+     */
+    private String getCacheKey(String prefix, String uri) {
+        if (!isRegistryKey(uri)) {
+            return prefix + uri;
+        }
+        Registry current = registry;
+        if (current == null) {
+            return null;
+        }
+        RegistryEntry registryEntry;
+        try {
+            registryEntry = current.getRegistryEntry(uri);
+        } catch (RuntimeException e) {
+            log.debug("Could not read registry entry for " + uri, e);
+            return null;
+        }
+        // registries not tracking changes report neither
+        if (registryEntry == null || (registryEntry.getVersion() == 0 && registryEntry.getLastModified() == 0)) {
+            return null;
+        }
+        return prefix + uri + '#' + registryEntry.getVersion() + '-' + registryEntry.getLastModified();
+    }
+
+    /**
+     * Reads content of given resource.
+     *
+     * @param uri Resolved URI of the resource
+     *
+     * @return Content of the resource, null if it cannot be read
+     */
+    private byte[] loadResource(String uri) {
+        InputStream in = resolveAndOpenStream(uri);
+        if (in == null) {
+            return null;
+        }
+        try {
+            return readFully(in);
+        } catch (IOException e) {
+            log.warn("Failed to read resource " + uri, e);
+            return null;
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // nothing to do
+            }
+        }
+    }
+
+    /**
+     * Reads content of given registry resource. Binary resources are read
+     * from their data handler, text and XML resources are encoded as UTF-8.
+     *
+     * @param key Registry key with gov: or conf: prefix
+     *
+     * @return Content of the resource, null if it cannot be read
+     */
+    private byte[] readRegistryResource(String key) {
+        Registry current = registry;
+        if (current == null) {
+            log.warn("Registry is not available for resource " + key);
+            return null;
+        }
+        Entry entry = new Entry();
+        entry.setType(Entry.REMOTE_ENTRY);
+        entry.setKey(key);
+        try {
+            Object resource = current.getResource(entry, new Properties());
+            if (resource instanceof OMText) {
+                OMText text = (OMText) resource;
+                if (text.isBinary()) {
+                    InputStream in = ((DataHandler) text.getDataHandler()).getInputStream();
+                    try {
+                        return readFully(in);
+                    } finally {
+                        in.close();
+                    }
+                }
+                return text.getText().getBytes("UTF-8");
+            } else if (resource instanceof OMNode) {
+                return resource.toString().getBytes("UTF-8");
+            }
+            log.warn("Registry resource " + key + " not found");
+        } catch (IOException e) {
+            log.warn("Failed to read registry resource " + key, e);
+        }
+        return null;
+    }
+
+    /**
+     * Scales image to the resolution of the output device.
+     *
+     * @param image Image to scale
+     */
+    private void scaleToOutputResolution(Image image) {
+        float factor = getSharedContext().getDotsPerPixel();
+        if (factor != 1.0f) {
+            image.scaleAbsolute(image.getPlainWidth() * factor, image.getPlainHeight() * factor);
+        }
+    }
+
+    /**
+     *
+     * @param uri URI to check
+     *
+     * @return True if given URI refers to the Synapse registry
+     */
+    private static boolean isRegistryKey(String uri) {
+        return uri != null
+                && (uri.startsWith(GOVERNANCE_REGISTRY_PREFIX) || uri.startsWith(CONFIGURATION_REGISTRY_PREFIX));
+    }
+
+    /**
+     * Reads given stream to the end.
+     *
+     * @param in Stream to read
+     *
+     * @return Content of the stream
+     *
+     * @throws IOException If reading fails
+     */
+    private static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+}
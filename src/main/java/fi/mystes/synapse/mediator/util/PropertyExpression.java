@@ -0,0 +1,106 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.util.xpath.SynapseXPath;
+
+/**
+ * Expression which only reads a message context property, either
+ * <code>$ctx:name</code> or <code>get-property('name')</code>.
+ *
+ * Such expressions are resolved by looking up the property directly instead
+ * of evaluating the XPath over the message envelope. Properties which
+ * get-property computes itself, like <code>To</code> or
+ * <code>SYSTEM_DATE</code>, and values which are not strings are left to the
+ * XPath evaluation.
+ *
+ */
+public final class PropertyExpression {
+
+    private static final Pattern CONTEXT_VARIABLE = Pattern.compile("\\s*\\$ctx:([\\w.\\-]+)\\s*");
+    private static final Pattern GET_PROPERTY = Pattern.compile(
+            "\\s*(?:synapse:)?get-property\\(\\s*(?:(['\"])default\\1\\s*,\\s*)?(['\"])([^'\"]+)\\2\\s*\\)\\s*");
+
+    private static final Set<String> COMPUTED_PROPERTIES = new HashSet<String>(Arrays.asList("SYSTEM_DATE",
+            "SYSTEM_TIME", "To", "From", "Action", "FaultTo", "ReplyTo", "MessageID", "FAULT", "MESSAGE_FORMAT",
+            "OperationName", "OperationNamespace"));
+
+    private final String name;
+
+    private PropertyExpression(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Recognizes property-only expressions.
+     *
+     * @param expression XPath expression
+     *
+     * @return Property expression, or null if given expression needs full XPath evaluation
+     */
+    public static PropertyExpression parse(SynapseXPath expression) {
+        if (expression == null) {
+            return null;
+        }
+        String text = expression.toString();
+        String name = null;
+        Matcher matcher = CONTEXT_VARIABLE.matcher(text);
+        if (matcher.matches()) {
+            name = matcher.group(1);
+        } else {
+            matcher = GET_PROPERTY.matcher(text);
+            if (matcher.matches()) {
+                name = matcher.group(3);
+            }
+        }
+        if (name == null || COMPUTED_PROPERTIES.contains(name)) {
+            return null;
+        }
+        return new PropertyExpression(name);
+    }
+
+    /**
+     * Reads the property from given message context.
+     *
+     * @param messageContext Message context to read property from
+     *
+     * @return Property value, or null if property is not set or is not a string
+     */
+    public String resolve(MessageContext messageContext) {
+        Object value = messageContext.getProperty(name);
+        return value instanceof String ? (String) value : null;
+    }
+
+    /**
+     *
+     * @return Name of the property
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "property " + name;
+    }
+}
@@ -0,0 +1,257 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.synapse.registry.Registry;
+import org.apache.synapse.registry.RegistryEntry;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache of resources read from Synapse registry.
+ *
+ * Cached resources are served without touching the registry until their
+ * cache duration has passed. After that the registry entry metadata is
+ * checked and the resource is read again only if its version or last
+ * modification time has changed. As long as the resource does not change
+ * the very same string instance is returned, which lets the caches of
+ * compiled forms recognize it without hashing the content.
+ *
+ * Resources without version or modification time are always read again.
+ *
+ */
+public class RegistryResourceCache {
+    private final Log log = LogFactory.getLog(RegistryResourceCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+    public static final long DEFAULT_CACHE_DURATION = 15000;
+
+    private final int maxSize;
+    private final long cacheDuration;
+    private final Map<String, CachedResource> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates cache with default size and cache duration.
+     */
+    public RegistryResourceCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_CACHE_DURATION);
+    }
+
+    /**
+     * Creates cache with given bounds.
+     *
+     * @param maxSize Maximum number of resources to keep
+     * @param cacheDuration Milliseconds a resource is served before checking it for changes
+     */
+    public RegistryResourceCache(final int maxSize, long cacheDuration) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Resource cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.cacheDuration = cacheDuration;
+        this.entries = new LinkedHashMap<String, CachedResource>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedResource> eldest) {
+                if (size() > RegistryResourceCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets resource from the cache, reading it with given reader if it is not
+     * cached or has changed in the registry.
+     *
+     * @param path Registry path of the resource
+     * @param registry Registry to check resource changes from
+     * @param reader Reads the resource content on a miss
+     *
+     * @return Resource content
+     */
+    public String get(String path, Registry registry, ResourceReader reader) {
+        CachedResource cached;
+        synchronized (entries) {
+            cached = entries.get(path);
+        }
+
+        final long now = System.currentTimeMillis();
+        if (cached != null && now - cached.validated <= cacheDuration) {
+            hits.incrementAndGet();
+            return cached.content;
+        }
+
+        // metadata is read before the content, so a change in between is seen
+        // by the next revalidation instead of being stored with old content
+        RegistryEntry registryEntry = getRegistryEntry(path, registry);
+        if (cached != null) {
+            if (registryEntry != null && cached.isSameVersion(registryEntry)) {
+                revalidations.incrementAndGet();
+                cached.validated = now;
+                return cached.content;
+            }
+            log.debug("Registry resource " + path + " has changed, reading it again");
+        }
+        misses.incrementAndGet();
+
+        String content = reader.read(path, registry);
+        cached = new CachedResource(content, registryEntry);
+        synchronized (entries) {
+            entries.put(path, cached);
+        }
+        return content;
+    }
+
+    /**
+     * Removes resource of given registry path from the cache.
+     *
+     * @param path Registry path of the resource
+     */
+    public void invalidate(String path) {
+        synchronized (entries) {
+            entries.remove(path);
+        }
+    }
+
+    /**
+     * Removes all resources from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     *
+     * @return Number of resources in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     *
+     * @return Milliseconds a resource is served before checking it for changes
+     */
+    public long getCacheDuration() {
+        return cacheDuration;
+    }
+
+    /**
+     *
+     * @return Number of lookups served from the cache without registry access
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return Number of lookups which required reading the resource
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return Number of lookups served from the cache after checking the resource had not changed
+     */
+    public long getRevalidationCount() {
+        return revalidations.get();
+    }
+
+    /**
+     *
+     * @return Number of resources evicted due to the size bound
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Reads registry entry metadata without reading the resource content.
+     *
+     * @param path Registry path of the resource
+     * @param registry Registry to read metadata from
+     *
+     * @return Registry entry, null if the registry does not provide one
+     */
+    private RegistryEntry getRegistryEntry(String path, Registry registry) {
+        try {
+            return registry.getRegistryEntry(path);
+        } catch (RuntimeException e) {
+            log.debug("Could not read registry entry for " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads resource content from registry on a cache miss.
+     */
+    public interface ResourceReader {
+
+        /**
+         * Reads resource content.
+         *
+         * @param path Registry path of the resource
+         * @param registry Registry to read resource from
+         *
+         * @return Resource content
+         */
+        String read(String path, Registry registry);
+    }
+
+    /**
+     * Resource content with the registry version it was read at.
+     */
+    private static class CachedResource {
+        private final String content;
+        private final boolean versioned;
+        private final long version;
+        private final long lastModified;
+        private volatile long validated = System.currentTimeMillis();
+
+        CachedResource(String content, RegistryEntry registryEntry) {
+            this.content = content;
+            this.version = registryEntry != null ? registryEntry.getVersion() : 0;
+            this.lastModified = registryEntry != null ? registryEntry.getLastModified() : 0;
+            // registries not tracking changes report neither
+            this.versioned = version != 0 || lastModified != 0;
+        }
+
+        boolean isSameVersion(RegistryEntry registryEntry) {
+            return versioned && version == registryEntry.getVersion()
+                    && lastModified == registryEntry.getLastModified();
+        }
+    }
+}
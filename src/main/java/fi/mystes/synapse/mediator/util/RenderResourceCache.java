@@ -0,0 +1,173 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread-safe cache of resources referenced by rendered documents, such as
+ * decoded images and font files. The cache is bounded by the total size of
+ * the cached resources in bytes and evicts least recently used resources
+ * when the bound is exceeded. Resources larger than the whole cache are not
+ * cached at all.
+ *
+ */
+public class RenderResourceCache {
+
+    public static final long DEFAULT_MAX_BYTES = 32L * 1024 * 1024;
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedResource> entries =
+            new LinkedHashMap<String, CachedResource>(16, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates cache with default size.
+     */
+    public RenderResourceCache() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Creates cache with given bound.
+     *
+     * @param maxBytes Maximum total size of cached resources in bytes
+     */
+    public RenderResourceCache(long maxBytes) {
+        if (maxBytes < 1) {
+            throw new IllegalArgumentException("Render resource cache size must be positive: " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets cached resource.
+     *
+     * @param key Key of the resource, typically its resolved URI with a type prefix
+     *
+     * @return Cached resource, null if not cached
+     */
+    public synchronized Object get(String key) {
+        CachedResource cached = entries.get(key);
+        if (cached == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return cached.resource;
+    }
+
+    /**
+     * Caches resource, evicting least recently used resources if needed.
+     *
+     * @param key Key of the resource
+     * @param resource Resource to cache
+     * @param size Size of the resource in bytes
+     */
+    public synchronized void put(String key, Object resource, long size) {
+        if (size > maxBytes) {
+            return;
+        }
+        CachedResource previous = entries.put(key, new CachedResource(resource, size));
+        if (previous != null) {
+            bytes -= previous.size;
+        }
+        bytes += size;
+
+        Iterator<CachedResource> eldest = entries.values().iterator();
+        while (bytes > maxBytes && eldest.hasNext()) {
+            bytes -= eldest.next().size;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    /**
+     * Removes all resources from the cache.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     *
+     * @return Number of cached resources
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     *
+     * @return Total size of cached resources in bytes
+     */
+    public synchronized long getSizeInBytes() {
+        return bytes;
+    }
+
+    /**
+     *
+     * @return Maximum total size of cached resources in bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     *
+     * @return Number of lookups served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return Number of lookups which required loading the resource
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return Number of resources evicted due to the size bound
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Cached resource with its size.
+     */
+    private static class CachedResource {
+        private final Object resource;
+        private final long size;
+
+        CachedResource(Object resource, long size) {
+            this.resource = resource;
+            this.size = size;
+        }
+    }
+}
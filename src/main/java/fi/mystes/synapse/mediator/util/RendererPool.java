@@ -0,0 +1,338 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.pdf.ITextUserAgent;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded pool of reusable PDF renderers.
+ *
+ * Creating a renderer builds its shared context, user agent and font
+ * resolver, and registers the configured fonts to it. Fonts are loaded once
+ * through a process-wide {@link FontManager} and shared by the renderers.
+ * Pooled renderers keep all of these between documents. A renderer is reset to an empty document
+ * when it is returned, so it does not keep the previous document in memory
+ * while idle. Renderers which failed while rendering are discarded. Images
+ * and other resources loaded by the renderers are shared through a common
+ * {@link RenderResourceCache}.
+ *
+ */
+public class RendererPool {
+    private final Log log = LogFactory.getLog(RendererPool.class);
+
+    public static final int DEFAULT_MAX_SIZE = Runtime.getRuntime().availableProcessors() * 2;
+
+    private final int maxSize;
+    private final List<String> fontFiles;
+    private final FontManager fontManager;
+    private final RenderResourceCache resourceCache;
+    private final Semaphore permits;
+    private final BlockingQueue<ITextRenderer> idle = new LinkedBlockingQueue<ITextRenderer>();
+    private final Document blankDocument;
+
+    private final AtomicInteger created = new AtomicInteger();
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    /**
+     * Creates pool with default size and no additional fonts.
+     */
+    public RendererPool() {
+        this(DEFAULT_MAX_SIZE, Collections.<String>emptyList());
+    }
+
+    /**
+     * Creates pool with given size.
+     *
+     * @param maxSize Maximum number of renderers in use at the same time
+     * @param fontFiles Paths of font files or directories to register to each renderer
+     */
+    public RendererPool(int maxSize, List<String> fontFiles) {
+        this(maxSize, fontFiles, new RenderResourceCache());
+    }
+
+    /**
+     * Creates pool with given size and resource cache.
+     *
+     * @param maxSize Maximum number of renderers in use at the same time
+     * @param fontFiles Paths of font files or directories to register to each renderer
+     * @param resourceCache Cache to share loaded images and other resources through
+     */
+    public RendererPool(int maxSize, List<String> fontFiles, RenderResourceCache resourceCache) {
+        this(maxSize, fontFiles, resourceCache, FontManager.getInstance());
+    }
+
+    /**
+     * Creates pool with given size, resource cache and font manager.
+     *
+     * @param maxSize Maximum number of renderers in use at the same time
+     * @param fontFiles Paths of font files or directories to register to each renderer
+     * @param resourceCache Cache to share loaded images and other resources through
+     * @param fontManager Manager to load and share the fonts through
+     */
+    public RendererPool(int maxSize, List<String> fontFiles, RenderResourceCache resourceCache,
+            FontManager fontManager) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Renderer pool size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.fontFiles = new ArrayList<String>(fontFiles);
+        this.resourceCache = resourceCache;
+        this.fontManager = fontManager;
+        this.permits = new Semaphore(maxSize, true);
+        this.blankDocument = createBlankDocument();
+    }
+
+    /**
+     * Borrows renderer from the pool, waiting for one to be returned if all
+     * renderers are in use.
+     *
+     * @return Renderer which must be returned with {@link #release(ITextRenderer, boolean)}
+     *
+     * @throws IOException If waiting is interrupted or font registration fails
+     */
+    public ITextRenderer borrow() throws IOException {
+        final long start = System.nanoTime();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for PDF renderer");
+        }
+        recordWait(System.nanoTime() - start);
+        return take();
+    }
+
+    /**
+     * Borrows renderer from the pool if one is available without waiting.
+     *
+     * @return Renderer which must be returned with {@link #release(ITextRenderer, boolean)},
+     *         null if all renderers are in use
+     *
+     * @throws IOException If font registration fails
+     */
+    public ITextRenderer tryBorrow() throws IOException {
+        if (!permits.tryAcquire()) {
+            return null;
+        }
+        recordWait(0);
+        return take();
+    }
+
+    /**
+     * Takes idle renderer or creates a new one after a permit has been acquired.
+     *
+     * @return Renderer
+     *
+     * @throws IOException If font registration fails
+     */
+    private ITextRenderer take() throws IOException {
+        ITextRenderer renderer = idle.poll();
+        if (renderer != null) {
+            return renderer;
+        }
+        try {
+            renderer = createRenderer();
+            created.incrementAndGet();
+            return renderer;
+        } catch (IOException e) {
+            permits.release();
+            throw e;
+        } catch (RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns borrowed renderer to the pool.
+     *
+     * @param renderer Borrowed renderer
+     * @param reusable False if rendering failed and the renderer must be discarded
+     */
+    public void release(ITextRenderer renderer, boolean reusable) {
+        try {
+            if (reusable && reset(renderer)) {
+                idle.offer(renderer);
+            } else {
+                created.decrementAndGet();
+            }
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     *
+     * @return Maximum number of renderers in use at the same time
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     *
+     * @return Paths of font files or directories registered to each renderer
+     */
+    public List<String> getFontFiles() {
+        return Collections.unmodifiableList(fontFiles);
+    }
+
+    /**
+     *
+     * @return Cache images and other resources loaded by the renderers are shared through
+     */
+    public RenderResourceCache getResourceCache() {
+        return resourceCache;
+    }
+
+    /**
+     *
+     * @return Number of renderers created and not discarded
+     */
+    public int getCreatedCount() {
+        return created.get();
+    }
+
+    /**
+     *
+     * @return Number of idle renderers
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     *
+     * @return Number of threads waiting for a renderer
+     */
+    public int getWaitingCount() {
+        return permits.getQueueLength();
+    }
+
+    /**
+     *
+     * @return Number of renderers borrowed
+     */
+    public long getBorrowCount() {
+        return borrows.get();
+    }
+
+    /**
+     *
+     * @return Total milliseconds spent waiting for renderers
+     */
+    public double getTotalWaitMillis() {
+        return totalWaitNanos.get() / 1000000d;
+    }
+
+    /**
+     *
+     * @return Longest wait for a renderer in milliseconds
+     */
+    public double getMaxWaitMillis() {
+        return maxWaitNanos.get() / 1000000d;
+    }
+
+    /**
+     * Creates renderer and registers configured fonts to it. Renderers
+     * created for threads keeping a renderer of their own are not counted
+     * as pooled renderers.
+     *
+     * @return New renderer
+     *
+     * @throws IOException If font file can not be read
+     */
+    ITextRenderer createRenderer() throws IOException {
+        ITextRenderer renderer = new ITextRenderer();
+        ITextUserAgent userAgent = new PdfUserAgent(renderer.getOutputDevice(), resourceCache);
+        userAgent.setSharedContext(renderer.getSharedContext());
+        renderer.getSharedContext().setUserAgentCallback(userAgent);
+        fontManager.register(renderer.getFontResolver(), fontFiles);
+        return renderer;
+    }
+
+    /**
+     * Resets renderer to an empty document so it does not hold on to the
+     * previous document or its layout.
+     *
+     * @param renderer Renderer to reset
+     *
+     * @return False if the renderer could not be reset and must be discarded
+     */
+    private boolean reset(ITextRenderer renderer) {
+        try {
+            synchronized (blankDocument) {
+                renderer.setDocument(blankDocument, null);
+                renderer.layout();
+            }
+            return true;
+        } catch (RuntimeException e) {
+            log.warn("Discarding PDF renderer which could not be reset", e);
+            return false;
+        }
+    }
+
+    /**
+     * Records time spent waiting for a renderer.
+     *
+     * @param waitNanos Nanoseconds waited
+     */
+    private void recordWait(long waitNanos) {
+        borrows.incrementAndGet();
+        totalWaitNanos.addAndGet(waitNanos);
+        long max = maxWaitNanos.get();
+        while (waitNanos > max && !maxWaitNanos.compareAndSet(max, waitNanos)) {
+            max = maxWaitNanos.get();
+        }
+    }
+
+    /**
+     * Creates the empty document renderers are reset to.
+     *
+     * @return Document with an empty html element
+     */
+    private static Document createBlankDocument() {
+        try {
+            Document document = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
+            Element html = document.createElement("html");
+            html.appendChild(document.createElement("body"));
+            document.appendChild(html);
+            return document;
+        } catch (ParserConfigurationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
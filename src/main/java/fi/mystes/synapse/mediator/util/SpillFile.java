@@ -0,0 +1,178 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Temporary file holding an intermediate representation of a large document,
+ * so that it does not have to be kept in heap between rendering stages.
+ *
+ * The file is written through a buffered stream and read back through a
+ * memory mapping, which leaves caching the content to the operating system.
+ * Closing the spill file deletes it.
+ *
+ */
+public class SpillFile implements Closeable {
+    private static final Log log = LogFactory.getLog(SpillFile.class);
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final Path path;
+    private volatile boolean closed;
+
+    /**
+     * Creates empty spill file in given directory.
+     *
+     * @param directory Directory to create file in, null for the default temporary directory
+     *
+     * @throws IOException If file cannot be created
+     */
+    public SpillFile(Path directory) throws IOException {
+        this(directory, ".html");
+    }
+
+    /**
+     * Creates empty spill file with given suffix in given directory.
+     *
+     * @param directory Directory to create file in, null for the default temporary directory
+     * @param suffix Suffix of the file name telling the kind of the content
+     *
+     * @throws IOException If file cannot be created
+     */
+    public SpillFile(Path directory, String suffix) throws IOException {
+        this.path = directory != null ? Files.createTempFile(directory, "pdf-spill-", suffix)
+                : Files.createTempFile("pdf-spill-", suffix);
+    }
+
+    /**
+     * Opens stream writing the content, replacing any earlier content.
+     *
+     * @return Buffered stream to write content to, to be closed by the caller
+     *
+     * @throws IOException If file cannot be opened
+     */
+    public OutputStream openOutputStream() throws IOException {
+        return new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE), WRITE_BUFFER_SIZE);
+    }
+
+    /**
+     * Opens stream reading the content through a memory mapping. Content
+     * too large to be mapped at once is read through the file channel.
+     *
+     * @return Stream to read content from, to be closed by the caller
+     *
+     * @throws IOException If file cannot be opened or mapped
+     */
+    public InputStream openInputStream() throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size <= Integer.MAX_VALUE) {
+                // the mapping stays valid after the channel is closed
+                return new MappedInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return Files.newInputStream(path);
+    }
+
+    /**
+     *
+     * @return Size of the content in bytes
+     *
+     * @throws IOException If size cannot be read
+     */
+    public long size() throws IOException {
+        return Files.size(path);
+    }
+
+    /**
+     *
+     * @return Path of the file
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Deletes the file. Closing a spill file more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            log.warn("Failed to delete spill file " + path, e);
+        }
+    }
+
+    /**
+     * Input stream reading a memory mapped buffer.
+     */
+    private static class MappedInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        MappedInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            int count = (int) Math.max(0, Math.min(n, buffer.remaining()));
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfContentByte;
+import com.lowagie.text.pdf.PdfImportedPage;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfStamper;
+import com.lowagie.text.pdf.RandomAccessFileOrArray;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Static pages added to every rendered document: cover pages inserted
+ * before the rendered pages, pages appended after them and a background,
+ * such as a letterhead, drawn under each rendered page.
+ *
+ * Each fragment is either an existing PDF file or an HTML file which is
+ * laid out and rendered once. The resulting PDF is kept in memory and read
+ * again only when the file changes. Fragment pages are imported into the
+ * rendered document as form XObjects, so a background is stored once and
+ * only referenced from each page, and none of the static content goes
+ * through HTML layout for each document. When the background has several
+ * pages, its first page is used on the first rendered page and its last page
+ * on the others.
+ *
+ */
+public class StaticPages {
+    private final Log log = LogFactory.getLog(StaticPages.class);
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final String coverPages;
+    private final String background;
+    private final String appendPages;
+    private final ConcurrentMap<String, Fragment> fragments = new ConcurrentHashMap<String, Fragment>();
+
+    /**
+     *
+     * @param coverPages Path of PDF or HTML file of pages inserted before rendered pages, null if none
+     * @param background Path of PDF or HTML file of background of rendered pages, null if none
+     * @param appendPages Path of PDF or HTML file of pages appended after rendered pages, null if none
+     */
+    public StaticPages(String coverPages, String background, String appendPages) {
+        this.coverPages = coverPages;
+        this.background = background;
+        this.appendPages = appendPages;
+    }
+
+    /**
+     * Adds static pages to a rendered document.
+     *
+     * @param pdf Rendered document
+     * @param outputStream Stream to write the document with static pages to, left open
+     * @param htmlToPdf Renderer of HTML fragments which are not rendered yet
+     *
+     * @return Number of pages in the resulting document
+     *
+     * @throws IOException If fragment can not be read or writing to stream fails
+     * @throws DocumentException If fragment can not be rendered or resulting document written
+     */
+    public int apply(byte[] pdf, OutputStream outputStream, HtmlToPdf htmlToPdf)
+            throws IOException, DocumentException {
+        return apply(new PdfReader(pdf), outputStream, htmlToPdf);
+    }
+
+    /**
+     * Adds static pages to a rendered document spilled to a file. The
+     * document is read from the file as its pages are copied, instead of
+     * reading it into memory first.
+     *
+     * @param pdf File holding rendered document
+     * @param outputStream Stream to write the document with static pages to, left open
+     * @param htmlToPdf Renderer of HTML fragments which are not rendered yet
+     *
+     * @return Number of pages in the resulting document
+     *
+     * @throws IOException If fragment or document can not be read or writing to stream fails
+     * @throws DocumentException If fragment can not be rendered or resulting document written
+     */
+    public int apply(SpillFile pdf, OutputStream outputStream, HtmlToPdf htmlToPdf)
+            throws IOException, DocumentException {
+        return apply(new PdfReader(new RandomAccessFileOrArray(pdf.getPath().toString()), null), outputStream,
+                htmlToPdf);
+    }
+
+    /**
+     * Adds static pages to a rendered document.
+     *
+     * @param reader Reader of rendered document, closed when done
+     * @param outputStream Stream to write the document with static pages to, left open
+     * @param htmlToPdf Renderer of HTML fragments which are not rendered yet
+     *
+     * @return Number of pages in the resulting document
+     *
+     * @throws IOException If fragment can not be read or writing to stream fails
+     * @throws DocumentException If fragment can not be rendered or resulting document written
+     */
+    private int apply(PdfReader reader, OutputStream outputStream, HtmlToPdf htmlToPdf)
+            throws IOException, DocumentException {
+        try {
+            PdfStamper stamper = new PdfStamper(reader, outputStream);
+            stamper.getWriter().setCloseStream(false);
+            int renderedPages = reader.getNumberOfPages();
+
+            if (background != null) {
+                PdfReader backgroundReader = new PdfReader(getFragment(background, htmlToPdf));
+                PdfImportedPage first = stamper.getImportedPage(backgroundReader, 1);
+                PdfImportedPage other = stamper.getImportedPage(backgroundReader,
+                        backgroundReader.getNumberOfPages());
+                for (int page = 1; page <= renderedPages; page++) {
+                    stamper.getUnderContent(page).addTemplate(page == 1 ? first : other, 0, 0);
+                }
+            }
+
+            int pages = renderedPages;
+            if (appendPages != null) {
+                pages += insertPages(stamper, getFragment(appendPages, htmlToPdf), pages + 1);
+            }
+            if (coverPages != null) {
+                pages += insertPages(stamper, getFragment(coverPages, htmlToPdf), 1);
+            }
+            stamper.close();
+            return pages;
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Renders or reads all fragments which are not loaded yet, so the first
+     * document does not have to.
+     *
+     * @param htmlToPdf Renderer of HTML fragments
+     *
+     * @throws IOException If fragment can not be read
+     * @throws DocumentException If fragment can not be rendered
+     */
+    public void load(HtmlToPdf htmlToPdf) throws IOException, DocumentException {
+        for (String path : new String[] { coverPages, background, appendPages }) {
+            if (path != null) {
+                getFragment(path, htmlToPdf);
+            }
+        }
+    }
+
+    /**
+     *
+     * @return Path of pages inserted before rendered pages, null if none
+     */
+    public String getCoverPages() {
+        return coverPages;
+    }
+
+    /**
+     *
+     * @return Path of background of rendered pages, null if none
+     */
+    public String getBackground() {
+        return background;
+    }
+
+    /**
+     *
+     * @return Path of pages appended after rendered pages, null if none
+     */
+    public String getAppendPages() {
+        return appendPages;
+    }
+
+    /**
+     * Inserts all pages of a fragment as new pages of the document.
+     *
+     * @param stamper Stamper of the document
+     * @param fragment Fragment PDF
+     * @param position Page number of the first inserted page
+     *
+     * @return Number of inserted pages
+     *
+     * @throws IOException If fragment can not be read
+     */
+    private int insertPages(PdfStamper stamper, byte[] fragment, int position) throws IOException {
+        PdfReader reader = new PdfReader(fragment);
+        int pages = reader.getNumberOfPages();
+        for (int page = 1; page <= pages; page++) {
+            stamper.insertPage(position + page - 1, reader.getPageSizeWithRotation(page));
+            PdfContentByte content = stamper.getOverContent(position + page - 1);
+            content.addTemplate(stamper.getImportedPage(reader, page), 0, 0);
+        }
+        return pages;
+    }
+
+    /**
+     * Gets PDF of a fragment, reading or rendering it if it is not loaded yet
+     * or its file has changed.
+     *
+     * @param path Path of PDF or HTML file
+     * @param htmlToPdf Renderer of HTML fragments
+     *
+     * @return Fragment PDF
+     *
+     * @throws IOException If file can not be read
+     * @throws DocumentException If HTML can not be rendered
+     */
+    private byte[] getFragment(String path, HtmlToPdf htmlToPdf) throws IOException, DocumentException {
+        File file = new File(path);
+        long lastModified = file.lastModified();
+        Fragment fragment = fragments.get(path);
+        if (fragment != null && fragment.lastModified == lastModified) {
+            return fragment.pdf;
+        }
+        if (lastModified == 0) {
+            throw new IOException("Static page file not found: " + path);
+        }
+
+        byte[] content = Files.readAllBytes(file.toPath());
+        byte[] pdf;
+        if (path.toLowerCase(Locale.ENGLISH).endsWith(".pdf")) {
+            pdf = content;
+        } else {
+            ByteArrayOutputStream rendered = new ByteArrayOutputStream();
+            htmlToPdf.renderStatic(new String(content, UTF_8), rendered);
+            pdf = rendered.toByteArray();
+        }
+        // fails early on a file which is not a PDF
+        new PdfReader(pdf).close();
+
+        fragments.put(path, new Fragment(pdf, lastModified));
+        log.info("Loaded static pages " + path);
+        return pdf;
+    }
+
+    /**
+     * PDF of a fragment with modification time of its file.
+     */
+    private static class Fragment {
+        private final byte[] pdf;
+        private final long lastModified;
+
+        Fragment(byte[] pdf, long lastModified) {
+            this.pdf = pdf;
+            this.lastModified = lastModified;
+        }
+    }
+}
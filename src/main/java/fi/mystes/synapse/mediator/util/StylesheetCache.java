@@ -0,0 +1,216 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xhtmlrenderer.css.parser.CSSErrorHandler;
+import org.xhtmlrenderer.css.parser.CSSParser;
+import org.xhtmlrenderer.css.sheet.Stylesheet;
+import org.xhtmlrenderer.css.sheet.StylesheetInfo;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache of parsed CSS style sheets.
+ *
+ * Entries are keyed by the style sheet content, so a changed registry
+ * resource is parsed again and the old version is evicted in least recently
+ * used order. Looking up the very same string instance, as returned by the
+ * registry resource cache, costs only an identity comparison.
+ *
+ * Parsed style sheets are shared between renderers the same way Flying
+ * Saucer shares its default style sheet.
+ *
+ */
+public class StylesheetCache {
+    private final Log log = LogFactory.getLog(StylesheetCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 32;
+
+    /** URI parsed style sheets are served from */
+    public static final String STYLESHEET_URI = "pdf-mediator:stylesheet";
+
+    private final int maxSize;
+    private final Map<String, CachedStylesheet> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates cache with default size.
+     */
+    public StylesheetCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates cache with given bound.
+     *
+     * @param maxSize Maximum number of parsed style sheets to keep
+     */
+    public StylesheetCache(final int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Stylesheet cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<String, CachedStylesheet>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStylesheet> eldest) {
+                if (size() > StylesheetCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns parsed style sheet for given content, parsing it when it is not
+     * cached yet.
+     *
+     * @param css Style sheet content
+     *
+     * @return Parsed style sheet
+     */
+    public Stylesheet getStylesheet(String css) {
+        CachedStylesheet cached;
+        synchronized (entries) {
+            cached = entries.get(css);
+        }
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached.stylesheet;
+        }
+
+        misses.incrementAndGet();
+        Stylesheet stylesheet = parse(css);
+        synchronized (entries) {
+            entries.put(css, new CachedStylesheet(stylesheet));
+        }
+        return stylesheet;
+    }
+
+    /**
+     * Returns hash of given style sheet content. The hash of a cached style
+     * sheet is calculated once and remembered by its entry.
+     *
+     * @param css Style sheet content
+     *
+     * @return SHA-1 hash of the content
+     */
+    public String getHash(String css) {
+        CachedStylesheet cached;
+        synchronized (entries) {
+            cached = entries.get(css);
+        }
+        if (cached == null) {
+            return Digests.sha1Hex(css);
+        }
+        String hash = cached.hash;
+        if (hash == null) {
+            hash = Digests.sha1Hex(css);
+            cached.hash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Removes all parsed style sheets from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     *
+     * @return Number of parsed style sheets in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     *
+     * @return Number of lookups served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return Number of lookups which required parsing the style sheet
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return Number of entries evicted due to the size bound
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Parses given style sheet as author style sheet. Errors in the rules
+     * are logged and the erroneous rules skipped, as Flying Saucer does.
+     *
+     * @param css Style sheet content
+     *
+     * @return Parsed style sheet
+     */
+    private Stylesheet parse(String css) {
+        CSSParser parser = new CSSParser(new CSSErrorHandler() {
+            public void error(String uri, String message) {
+                log.warn("(" + uri + ") " + message);
+            }
+        });
+        try {
+            return parser.parseStylesheet(STYLESHEET_URI, StylesheetInfo.AUTHOR, new StringReader(css));
+        } catch (IOException e) {
+            // reading from a string does not fail
+            log.warn("Failed to parse style sheet", e);
+            return new Stylesheet(STYLESHEET_URI, StylesheetInfo.AUTHOR);
+        }
+    }
+
+    /**
+     * Parsed style sheet with the hash of its content once calculated.
+     */
+    private static class CachedStylesheet {
+        private final Stylesheet stylesheet;
+        private volatile String hash;
+
+        CachedStylesheet(Stylesheet stylesheet) {
+            this.stylesheet = stylesheet;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.stream.StreamSource;
+import java.io.StringReader;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe cache of compiled XSL style sheets.
+ *
+ * Entries are keyed by the registry path of the style sheet and remember the
+ * hash of the content they were compiled from. When the registry resource
+ * changes the content no longer matches and the stale entry is replaced.
+ * Content read again from the registry is compared with the content the
+ * entry was compiled from, which is much cheaper than hashing it. Entries
+ * are evicted in least recently used order once the cache is full and, when a
+ * time to live is set, after they have been in the cache for longer than that.
+ *
+ */
+public class TemplatesCache {
+    private final Log log = LogFactory.getLog(TemplatesCache.class);
+
+    public static final int DEFAULT_MAX_SIZE = 64;
+    public static final long DEFAULT_TIME_TO_LIVE = 0;
+
+    private final int maxSize;
+    private final long timeToLive;
+    private final Map<String, CachedTemplates> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates cache with default size and no time to live.
+     */
+    public TemplatesCache() {
+        this(DEFAULT_MAX_SIZE, DEFAULT_TIME_TO_LIVE);
+    }
+
+    /**
+     * Creates cache with given bounds.
+     *
+     * @param maxSize Maximum number of compiled style sheets to keep
+     * @param timeToLive Milliseconds an entry is kept, zero or less to keep until evicted
+     */
+    public TemplatesCache(final int maxSize, long timeToLive) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Templates cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<String, CachedTemplates>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedTemplates> eldest) {
+                if (size() > TemplatesCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns compiled style sheet for given path and content, compiling it
+     * when it is not cached yet or the content has changed.
+     *
+     * @param path Registry path of the style sheet, null if not known
+     * @param xsl Style sheet content
+     * @param transformerFactory Factory to compile the style sheet with on a cache miss
+     *
+     * @return Compiled style sheet
+     *
+     * @throws TransformerConfigurationException If style sheet compilation fails
+     */
+    public Templates getTemplates(String path, String xsl, TransformerFactory transformerFactory)
+            throws TransformerConfigurationException {
+        final String key = path != null ? path : Digests.sha1Hex(xsl);
+        CachedTemplates cached;
+        synchronized (entries) {
+            cached = entries.get(key);
+        }
+
+        if (cached != null && isValid(cached, path, xsl)) {
+            hits.incrementAndGet();
+            return cached.templates;
+        }
+
+        misses.incrementAndGet();
+        if (cached != null) {
+            log.debug("Style sheet " + key + " has changed or expired, compiling it again");
+        }
+
+        Templates templates = compile(xsl, transformerFactory);
+        final String hash = path != null ? Digests.sha1Hex(xsl) : key;
+        synchronized (entries) {
+            entries.put(key, new CachedTemplates(xsl, hash, templates));
+        }
+        return templates;
+    }
+
+    /**
+     * Returns hash of given style sheet content. The hash remembered by the
+     * entry of given registry path is returned without hashing the content
+     * again when the content is the one the entry was compiled from.
+     *
+     * @param path Registry path of the style sheet, null for literal content
+     * @param xsl Style sheet content
+     *
+     * @return SHA-1 hash of the content
+     */
+    public String getHash(String path, String xsl) {
+        if (path != null) {
+            CachedTemplates cached;
+            synchronized (entries) {
+                cached = entries.get(path);
+            }
+            if (cached != null && cached.isCompiledFrom(xsl)) {
+                return cached.hash;
+            }
+        }
+        return Digests.sha1Hex(xsl);
+    }
+
+    /**
+     * Removes compiled style sheet of given registry path from the cache.
+     *
+     * @param path Registry path of the style sheet
+     */
+    public void invalidate(String path) {
+        synchronized (entries) {
+            entries.remove(path);
+        }
+    }
+
+    /**
+     * Removes all compiled style sheets from the cache.
+     */
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     *
+     * @return Maximum number of compiled style sheets kept
+     */
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     *
+     * @return Number of compiled style sheets in the cache
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     *
+     * @return Number of lookups served from the cache
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     *
+     * @return Number of lookups which required compiling the style sheet
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return Number of entries evicted due to the size bound
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Checks whether cached entry may still be used for given content.
+     * Entries of literal content are keyed by its hash, so their content is
+     * not compared again.
+     *
+     * @param cached Cached entry
+     * @param path Registry path of the style sheet, null for literal content
+     * @param xsl Current style sheet content
+     *
+     * @return True if entry is fresh and compiled from given content
+     */
+    private boolean isValid(CachedTemplates cached, String path, String xsl) {
+        if (timeToLive > 0 && System.currentTimeMillis() - cached.created > timeToLive) {
+            return false;
+        }
+        return path == null || cached.isCompiledFrom(xsl);
+    }
+
+    /**
+     * Compiles given style sheet. Transformer factories are not thread-safe,
+     * hence the compilation is done while holding the factory lock.
+     *
+     * @param xsl Style sheet content
+     * @param transformerFactory Factory to compile the style sheet with
+     *
+     * @return Compiled style sheet
+     *
+     * @throws TransformerConfigurationException If compilation fails
+     */
+    private Templates compile(String xsl, TransformerFactory transformerFactory)
+            throws TransformerConfigurationException {
+        synchronized (transformerFactory) {
+            return transformerFactory.newTemplates(new StreamSource(new StringReader(xsl)));
+        }
+    }
+
+    /**
+     * Compiled style sheet with information about its origin.
+     */
+    private static class CachedTemplates {
+        private final String source;
+        private final String hash;
+        private final Templates templates;
+        private final long created = System.currentTimeMillis();
+
+        CachedTemplates(String source, String hash, Templates templates) {
+            this.source = source;
+            this.hash = hash;
+            this.templates = templates;
+        }
+
+        boolean isCompiledFrom(String xsl) {
+            // the same instance is returned by the registry resource cache
+            return source == xsl || source.equals(xsl);
+        }
+    }
+}
@@ -16,6 +16,7 @@
 package fi.mystes.synapse.mediator.util;
 
 
+import org.apache.axiom.om.OMElement;
 import org.apache.commons.io.IOUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
@@ -25,24 +26,71 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.transform.OutputKeys;
 import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
 import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
 import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stax.StAXSource;
 import javax.xml.transform.stream.StreamResult;
-import javax.xml.transform.stream.StreamSource;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Helper class to transform XML content with desired XSL style sheet.
  *
+ * The JAXP factories are taken from the configured {@link XsltEngine} once
+ * and reused for every transformation. Payload elements are read as StAX
+ * events, or as SAX events when the transformer factory does not support
+ * StAX sources, as is the case with Xalan 2.7.
+ *
  */
 public class XslTransformer {
 	private final Log log = LogFactory.getLog(XslTransformer.class);
 
+	private final TemplatesCache templatesCache;
+	private final XsltEngine engine;
+	private TransformerFactory transformerFactory;
+	private boolean staxSupported;
+	private DocumentBuilderFactory documentBuilderFactory;
+
+	/**
+	 * Default constructor.
+	 */
+	public XslTransformer() {
+		this(new TemplatesCache());
+	}
+
+	/**
+	 * Constructor to use given cache for compiled style sheets.
+	 * 
+	 * @param templatesCache Cache for compiled style sheets
+	 */
+	public XslTransformer(TemplatesCache templatesCache) {
+		this(templatesCache, XsltEngines.getDefault());
+	}
+
+	/**
+	 * Constructor to use given cache for compiled style sheets and given
+	 * engine for the JAXP factories.
+	 * 
+	 * @param templatesCache Cache for compiled style sheets, only holding style sheets compiled by given engine
+	 * @param engine Provider of the transformer and document builder factories
+	 */
+	public XslTransformer(TemplatesCache templatesCache, XsltEngine engine) {
+		this.templatesCache = templatesCache;
+		this.engine = engine;
+	}
+
 	/**
 	 * Performs XML transformation with given XSL.
 	 * 
@@ -52,11 +100,25 @@ public class XslTransformer {
 	 * @return Transformed content
 	 */
     public String transform(String xml, String xsl) {
+        return transform(xml, null, xsl);
+    }
+
+	/**
+	 * Performs XML transformation with given XSL, reusing the compiled style
+	 * sheet as long as the content behind given path does not change.
+	 * 
+	 * @param xml Content to transform
+	 * @param xslPath Registry path of the style sheet, null if not known
+	 * @param xsl Transformation style sheet
+	 * 
+	 * @return Transformed content
+	 */
+    public String transform(String xml, String xslPath, String xsl) {
     	log.info("Starting XML content transformation");
         try {
             DOMSource source = createDomSource(xml);
 
-            Transformer xslTransformer = createTransformerFor(xsl);
+            Transformer xslTransformer = createTransformerFor(xslPath, xsl);
 
             final OutputStream outputStream = new ByteArrayOutputStream();
             Result result = new StreamResult(outputStream);
@@ -71,6 +133,106 @@ public class XslTransformer {
         }
     }
 
+	/**
+	 * Performs XML transformation of given payload element with given XSL.
+	 * The element is streamed to the transformer as StAX or SAX events, so it
+	 * is neither serialized to a string nor copied into a DOM tree.
+	 * 
+	 * @param xml Payload element to transform
+	 * @param xslPath Registry path of the style sheet, null if not known
+	 * @param xsl Transformation style sheet
+	 * 
+	 * @return Transformed content
+	 */
+    public String transform(OMElement xml, String xslPath, String xsl) {
+    	log.info("Starting XML content transformation");
+        try {
+            Source source = createSource(xml);
+
+            Transformer xslTransformer = createTransformerFor(xslPath, xsl);
+
+            final OutputStream outputStream = new ByteArrayOutputStream();
+            Result result = new StreamResult(outputStream);
+
+            xslTransformer.transform(source, result);
+
+            return outputStream.toString();
+
+        } catch (Exception e) {
+            log.error(e);
+            return "";
+        }
+    }
+
+	/**
+	 * Performs XML transformation of given payload element with given XSL and
+	 * writes the result to given stream, so large results need not be held
+	 * in memory. The result is always UTF-8 encoded, whatever encoding the
+	 * style sheet declares for its output.
+	 * 
+	 * @param xml Payload element to transform
+	 * @param xslPath Registry path of the style sheet, null if not known
+	 * @param xsl Transformation style sheet
+	 * @param outputStream Stream to write UTF-8 encoded transformed content to, left open
+	 * 
+	 * @throws TransformerException If transformation fails
+	 */
+    public void transform(OMElement xml, String xslPath, String xsl, OutputStream outputStream)
+            throws TransformerException {
+    	log.info("Starting XML content transformation");
+        try {
+            Transformer xslTransformer = createTransformerFor(xslPath, xsl);
+            xslTransformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
+            xslTransformer.transform(createSource(xml), new StreamResult(outputStream));
+        } catch (XMLStreamException e) {
+            throw new TransformerException(e);
+        }
+    }
+
+	/**
+	 * Performs XML transformation of given payload element with given XSL
+	 * into a DOM document, so the result can be rendered without being
+	 * serialized and parsed again.
+	 * 
+	 * @param xml Payload element to transform
+	 * @param xslPath Registry path of the style sheet, null if not known
+	 * @param xsl Transformation style sheet
+	 * 
+	 * @return Transformed document
+	 * 
+	 * @throws TransformerException If transformation fails
+	 */
+    public Document transformToDocument(OMElement xml, String xslPath, String xsl) throws TransformerException {
+    	log.info("Starting XML content transformation");
+        try {
+            DOMResult result = new DOMResult();
+            createTransformerFor(xslPath, xsl).transform(createSource(xml), result);
+            return (Document) result.getNode();
+        } catch (XMLStreamException e) {
+            throw new TransformerException(e);
+        }
+    }
+
+    /**
+     * Creates source reading events directly from given element, a StAX
+     * source if the transformer factory supports one and a SAX source
+     * otherwise. The element tree is cached while read so it stays available
+     * for later mediators.
+     * 
+     * @param xml Element to create source for
+     * 
+     * @return Source reading given element
+     * 
+     * @throws XMLStreamException If reader is not positioned at document or element start
+     * @throws TransformerConfigurationException If the engine fails to create the transformer factory
+     */
+    private Source createSource(final OMElement xml) throws XMLStreamException, TransformerConfigurationException {
+        if (isStaxSupported()) {
+            return new StAXSource(xml.getXMLStreamReader());
+        }
+        return xml.getSAXSource(true);
+    }
+
     /**
      * Created DOMSource object from given XML string content.
      * 
@@ -96,22 +258,129 @@ public class XslTransformer {
      * @throws ParserConfigurationException If document builder initialization fails
      */
     private DocumentBuilder createDocumentBuilder() throws ParserConfigurationException {
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-        return factory.newDocumentBuilder();
+        DocumentBuilderFactory factory = getDocumentBuilderFactory();
+        // document builder factories are not thread-safe
+        synchronized (factory) {
+            return factory.newDocumentBuilder();
+        }
+    }
+
+    /**
+     * 
+     * @return Cache holding compiled style sheets
+     */
+    public TemplatesCache getTemplatesCache() {
+        return templatesCache;
+    }
+
+    /**
+     * 
+     * @return Provider of the transformer and document builder factories
+     */
+    public XsltEngine getEngine() {
+        return engine;
     }
 
     /**
-     * Creates XSL transformer.
+     * Creates XSL transformer from compiled style sheet, compiling the style
+     * sheet only if it is not cached yet. Worker threads of a
+     * {@link ParallelRenderEngine} reuse their transformer of the style sheet.
+     * Transformers reference their compiled style sheet, so each worker keeps
+     * at most as many of them as the templates cache holds, dropping the least
+     * recently used ones, and style sheets evicted from the cache are released.
      * 
+     * @param xslPath Registry path of the style sheet, null if not known
      * @param xsl XSL style sheet to initialize transformer with
      * 
      * @return Initiated XSL transformer
      * 
      * @throws TransformerConfigurationException If transformer initialization fails
      */
-    private Transformer createTransformerFor(String xsl) throws TransformerConfigurationException {
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        return transformerFactory.newTransformer(new StreamSource(IOUtils.toInputStream(xsl)));
+    private Transformer createTransformerFor(String xslPath, String xsl) throws TransformerConfigurationException {
+        Templates templates = templatesCache.getTemplates(xslPath, xsl, getTransformerFactory());
+        Map<Object, Object> workerResources = ParallelRenderEngine.getWorkerResources();
+        if (workerResources == null) {
+            return templates.newTransformer();
+        }
+        // worker threads keep one transformer per style sheet between documents
+        TransformerCache transformers = (TransformerCache) workerResources.get(this);
+        if (transformers == null) {
+            transformers = new TransformerCache(templatesCache.getMaxSize());
+            workerResources.put(this, transformers);
+        }
+        Transformer transformer = transformers.get(templates);
+        if (transformer != null) {
+            transformer.reset();
+        } else {
+            transformer = templates.newTransformer();
+            transformers.put(templates, transformer);
+        }
+        return transformer;
+    }
+
+    /**
+     * Transformers of a worker thread by compiled style sheet, bounded in
+     * least recently used order. Only accessed by its own thread.
+     */
+    private static class TransformerCache extends LinkedHashMap<Templates, Transformer> {
+        private static final long serialVersionUID = 1L;
+
+        private final int maxSize;
+
+        TransformerCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Templates, Transformer> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    /**
+     * Gets transformer factory, creating it on first use.
+     * 
+     * @return Transformer factory
+     * 
+     * @throws TransformerConfigurationException If the engine fails to create the factory
+     */
+    private synchronized TransformerFactory getTransformerFactory() throws TransformerConfigurationException {
+        if (transformerFactory == null) {
+            transformerFactory = engine.newTransformerFactory();
+            staxSupported = transformerFactory.getFeature(StAXSource.FEATURE);
+            if (!staxSupported) {
+                log.info("XSLT engine " + engine.getName() + " does not support StAX sources, using SAX sources");
+            }
+        }
+        return transformerFactory;
+    }
+
+    /**
+     * Checks whether the transformer factory accepts StAX sources, creating
+     * the factory on first use.
+     * 
+     * @return True if the transformer factory supports StAX sources
+     * 
+     * @throws TransformerConfigurationException If the engine fails to create the factory
+     */
+    private synchronized boolean isStaxSupported() throws TransformerConfigurationException {
+        getTransformerFactory();
+        return staxSupported;
+    }
+
+    /**
+     * Gets document builder factory, creating it on first use.
+     * 
+     * @return Document builder factory
+     * 
+     * @throws ParserConfigurationException If the engine fails to create the factory
+     */
+    private synchronized DocumentBuilderFactory getDocumentBuilderFactory() throws ParserConfigurationException {
+        if (documentBuilderFactory == null) {
+            documentBuilderFactory = engine.newDocumentBuilderFactory();
+        }
+        return documentBuilderFactory;
     }
 
 }
@@ -0,0 +1,58 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+/**
+ * Provider of the JAXP factories used to parse and transform XML content.
+ *
+ * An engine is asked for its factories once per {@link XslTransformer}, so
+ * an implementation may instantiate a specific XSLT processor directly
+ * instead of letting JAXP look one up from the class path, and tune the
+ * factories before they are used. Built-in engines are available through
+ * {@link XsltEngines}.
+ *
+ */
+public interface XsltEngine {
+
+    /**
+     *
+     * @return Name of the engine used in configuration and logging
+     */
+    String getName();
+
+    /**
+     * Creates transformer factory compiling the style sheets.
+     *
+     * @return New, configured transformer factory
+     *
+     * @throws TransformerConfigurationException If the processor is not available or rejects its configuration
+     */
+    TransformerFactory newTransformerFactory() throws TransformerConfigurationException;
+
+    /**
+     * Creates document builder factory parsing XML content given as string.
+     *
+     * @return New, configured document builder factory
+     *
+     * @throws ParserConfigurationException If the parser is not available
+     */
+    DocumentBuilderFactory newDocumentBuilderFactory() throws ParserConfigurationException;
+}
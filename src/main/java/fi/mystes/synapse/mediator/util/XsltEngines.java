@@ -0,0 +1,242 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.FactoryConfigurationError;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.TransformerFactoryConfigurationError;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Built-in XSLT engines.
+ *
+ * <ul>
+ * <li><code>default</code> - whatever JAXP finds on the class path, looked up once</li>
+ * <li><code>jdk</code> - XSLTC bundled with the JDK</li>
+ * <li><code>xalan</code> - Apache Xalan interpreter, which must be installed</li>
+ * <li><code>saxon</code> - Saxon, which must be installed</li>
+ * </ul>
+ *
+ * Any other name is taken as the class name of either an {@link XsltEngine}
+ * or a {@link TransformerFactory} implementation. Named factories are
+ * instantiated directly, without the service lookup JAXP would otherwise do,
+ * which in an OSGi container scans the bundles each time. Features given as
+ * <code>name=value</code> pairs tune the transformer factory: values
+ * <code>true</code> and <code>false</code> are set as factory features, or as
+ * attributes if the factory has no such feature, and other values as string
+ * attributes.
+ *
+ */
+public final class XsltEngines {
+    private static final Log log = LogFactory.getLog(XsltEngines.class);
+
+    public static final String DEFAULT = "default";
+    public static final String JDK = "jdk";
+    public static final String XALAN = "xalan";
+    public static final String SAXON = "saxon";
+
+    static final String JDK_TRANSFORMER_FACTORY = "com.sun.org.apache.xalan.internal.xsltc.trax.TransformerFactoryImpl";
+    static final String JDK_DOCUMENT_BUILDER_FACTORY = "com.sun.org.apache.xerces.internal.jaxp.DocumentBuilderFactoryImpl";
+    static final String XALAN_TRANSFORMER_FACTORY = "org.apache.xalan.processor.TransformerFactoryImpl";
+    static final String SAXON_TRANSFORMER_FACTORY = "net.sf.saxon.TransformerFactoryImpl";
+
+    private XsltEngines() {
+    }
+
+    /**
+     *
+     * @return Engine using the JAXP default implementations
+     */
+    public static XsltEngine getDefault() {
+        return new ConfiguredEngine(DEFAULT, null, null, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * Gets engine by name.
+     *
+     * @param name Built-in engine name or class name of an engine or transformer factory
+     * @param features Transformer factory features by name, in the order they are set
+     *
+     * @return Engine creating factories of the named implementation
+     *
+     * @throws IllegalArgumentException If the name is neither a built-in engine nor a loadable class
+     */
+    public static XsltEngine forName(String name, Map<String, String> features) {
+        Map<String, String> copy = Collections.unmodifiableMap(new LinkedHashMap<String, String>(features));
+        if (DEFAULT.equals(name)) {
+            return new ConfiguredEngine(DEFAULT, null, null, copy);
+        } else if (JDK.equals(name)) {
+            return new ConfiguredEngine(JDK, JDK_TRANSFORMER_FACTORY, JDK_DOCUMENT_BUILDER_FACTORY, copy);
+        } else if (XALAN.equals(name)) {
+            return new ConfiguredEngine(XALAN, XALAN_TRANSFORMER_FACTORY, JDK_DOCUMENT_BUILDER_FACTORY, copy);
+        } else if (SAXON.equals(name)) {
+            return new ConfiguredEngine(SAXON, SAXON_TRANSFORMER_FACTORY, JDK_DOCUMENT_BUILDER_FACTORY, copy);
+        }
+
+        Class<?> engineClass;
+        try {
+            engineClass = Class.forName(name, true, XsltEngines.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("Unknown XSLT engine " + name, e);
+        }
+        if (TransformerFactory.class.isAssignableFrom(engineClass)) {
+            return new ConfiguredEngine(name, name, JDK_DOCUMENT_BUILDER_FACTORY, copy);
+        }
+        if (!XsltEngine.class.isAssignableFrom(engineClass)) {
+            throw new IllegalArgumentException(name + " is neither an XSLT engine nor a transformer factory");
+        }
+        if (!copy.isEmpty()) {
+            log.warn("Features are not applied to custom XSLT engine " + name);
+        }
+        try {
+            return (XsltEngine) engineClass.newInstance();
+        } catch (InstantiationException e) {
+            throw new IllegalArgumentException("Failed to create XSLT engine " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Failed to create XSLT engine " + name, e);
+        }
+    }
+
+    /**
+     * Parses features given as comma separated <code>name=value</code> pairs.
+     *
+     * @param features Features to parse, null or empty if none
+     *
+     * @return Values by feature name in the given order
+     *
+     * @throws IllegalArgumentException If a pair has no value
+     */
+    public static Map<String, String> parseFeatures(String features) {
+        Map<String, String> parsed = new LinkedHashMap<String, String>();
+        if (features == null) {
+            return parsed;
+        }
+        for (String feature : features.split(",")) {
+            if (feature.trim().isEmpty()) {
+                continue;
+            }
+            // feature names are URIs which may contain '=' only in a query
+            int separator = feature.lastIndexOf('=');
+            if (separator < 1) {
+                throw new IllegalArgumentException("Invalid XSLT feature " + feature.trim());
+            }
+            parsed.put(feature.substring(0, separator).trim(), feature.substring(separator + 1).trim());
+        }
+        return parsed;
+    }
+
+    /**
+     * Engine instantiating factories by class name and applying features to
+     * the transformer factory.
+     */
+    private static class ConfiguredEngine implements XsltEngine {
+        private final String name;
+        private final String transformerFactoryClass;
+        private final String documentBuilderFactoryClass;
+        private final Map<String, String> features;
+
+        /**
+         *
+         * @param name Name of the engine
+         * @param transformerFactoryClass Class name of the transformer factory, null to look it up
+         * @param documentBuilderFactoryClass Class name of the document builder factory, null to look it up
+         * @param features Transformer factory features by name
+         */
+        ConfiguredEngine(String name, String transformerFactoryClass, String documentBuilderFactoryClass,
+                Map<String, String> features) {
+            this.name = name;
+            this.transformerFactoryClass = transformerFactoryClass;
+            this.documentBuilderFactoryClass = documentBuilderFactoryClass;
+            this.features = features;
+        }
+
+        @Override
+        public String getName() {
+            return name;
+        }
+
+        @Override
+        public TransformerFactory newTransformerFactory() throws TransformerConfigurationException {
+            TransformerFactory factory;
+            try {
+                factory = transformerFactoryClass != null
+                        ? TransformerFactory.newInstance(transformerFactoryClass, XsltEngines.class.getClassLoader())
+                        : TransformerFactory.newInstance();
+            } catch (TransformerFactoryConfigurationError e) {
+                throw new TransformerConfigurationException("XSLT engine " + name + " is not available", e);
+            }
+            for (Map.Entry<String, String> feature : features.entrySet()) {
+                setFeature(factory, feature.getKey(), feature.getValue());
+            }
+            log.info("Created " + factory.getClass().getName() + " for XSLT engine " + name);
+            return factory;
+        }
+
+        @Override
+        public DocumentBuilderFactory newDocumentBuilderFactory() throws ParserConfigurationException {
+            try {
+                return documentBuilderFactoryClass != null
+                        ? DocumentBuilderFactory.newInstance(documentBuilderFactoryClass,
+                                XsltEngines.class.getClassLoader())
+                        : DocumentBuilderFactory.newInstance();
+            } catch (FactoryConfigurationError e) {
+                // the JDK parser may be hidden by the runtime, fall back to the lookup
+                log.debug("Parser " + documentBuilderFactoryClass + " is not available", e);
+                return DocumentBuilderFactory.newInstance();
+            }
+        }
+
+        /**
+         * Sets feature or attribute of transformer factory.
+         *
+         * @param factory Factory to tune
+         * @param feature Name of the feature or attribute
+         * @param value Value of the feature or attribute
+         *
+         * @throws TransformerConfigurationException If the factory supports neither
+         */
+        private void setFeature(TransformerFactory factory, String feature, String value)
+                throws TransformerConfigurationException {
+            try {
+                if ("true".equals(value) || "false".equals(value)) {
+                    try {
+                        factory.setFeature(feature, Boolean.parseBoolean(value));
+                    } catch (TransformerConfigurationException e) {
+                        factory.setAttribute(feature, Boolean.valueOf(value));
+                    }
+                } else {
+                    factory.setAttribute(feature, value);
+                }
+            } catch (IllegalArgumentException e) {
+                throw new TransformerConfigurationException("XSLT engine " + name + " does not support feature "
+                        + feature + "=" + value, e);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
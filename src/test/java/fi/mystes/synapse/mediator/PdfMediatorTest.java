@@ -15,12 +15,33 @@
  */
 package fi.mystes.synapse.mediator;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Stack;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.activation.DataHandler;
 
 import javax.xml.namespace.QName;
 
@@ -32,16 +53,34 @@ import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.axiom.soap.SOAPFactory;
 import org.apache.axiom.soap.impl.llom.soap11.SOAP11BodyImpl;
 import org.apache.axiom.soap.impl.llom.soap11.SOAP11Factory;
+import org.apache.synapse.FaultHandler;
 import org.apache.synapse.MessageContext;
+import org.apache.synapse.SynapseException;
+import org.apache.synapse.config.SynapseConfiguration;
+import org.apache.synapse.core.SynapseEnvironment;
+import org.apache.synapse.mediators.base.SequenceMediator;
+import org.apache.synapse.registry.Registry;
 import org.apache.synapse.util.xpath.SynapseXPath;
 import org.jaxen.JaxenException;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.w3c.dom.Document;
 
 import com.lowagie.text.DocumentException;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
 
+import fi.mystes.synapse.mediator.util.AdmissionController;
 import fi.mystes.synapse.mediator.util.HtmlToPdf;
 import fi.mystes.synapse.mediator.util.MediatorUtil;
+import fi.mystes.synapse.mediator.util.PdfFormFillerTest;
+import fi.mystes.synapse.mediator.util.PdfMediatorMetrics;
+import fi.mystes.synapse.mediator.util.RendererPool;
+import fi.mystes.synapse.mediator.util.SpillFile;
 import fi.mystes.synapse.mediator.util.XslTransformer;
 
 public class PdfMediatorTest {
@@ -72,6 +111,7 @@ public class PdfMediatorTest {
 	public void setUp() throws IOException, JaxenException {
 		//instantiate mediator with mock objects
 		mediator = new PdfMediator(xslTransformer, htmlToPdf, mediatorUtil);
+		mediator.setMetricsEnabled(true);
 		mediator.setCssFilePath(CSS_PATH);
 		mediator.setXslFilePath(XSL_PATH);
 		soapFactory = new SOAP11Factory(omFactory);
@@ -114,11 +154,556 @@ public class PdfMediatorTest {
 		verifyAssertions();
 	}
 	
+	@Test
+	public void shouldResolvePropertyOnlyExpressionsWithoutEvaluatingXPath() throws Exception {
+		SynapseXPath xslExpression = spy(new SynapseXPath("$ctx:xslProperty"));
+		mediator.setXslFilePath(null);
+		mediator.setXslFilePathExpression(xslExpression);
+		mediator.setPdfFilePathExpression(new SynapseXPath("get-property('pdfFileProperty')"));
+		when(mc.getProperty("xslProperty")).thenReturn(XSL_PATH);
+
+		verifyAssertions();
+		verify(xslExpression, never()).evaluate(any());
+	}
+
+	@Test
+	public void shouldCreatePdfFromDocumentWithDomPipeline() throws Exception {
+		Document document = mock(Document.class);
+		when(xslTransformer.transformToDocument(rootElement, XSL_PATH, xsl)).thenReturn(document);
+		mediator.setPipeline(PdfMediator.PIPELINE_DOM);
+		mediator.setPdfFilePath(PDF_FILE);
+
+		assertTrue(mediator.mediate(mc));
+
+		verify(xslTransformer).transformToDocument(rootElement, XSL_PATH, xsl);
+		verify(htmlToPdf).create(document, css, PDF_FILE);
+	}
+
+	@Test
+	public void shouldCreatePdfIntoMessageBody() throws Exception {
+		mediator.setOutput(PdfMediator.OUTPUT_BODY);
+
+		assertTrue(mediator.mediate(mc));
+
+		verify(htmlToPdf).create(eq(html), eq(css), any(OutputStream.class));
+		verify(mediatorUtil).setBinaryPayload(any(DataHandler.class), eq(true), eq(mc));
+	}
+
+	@Test
+	public void shouldCreatePdfIntoPropertyAsBase64() throws Exception {
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((OutputStream) invocation.getArguments()[2]).write("%PDF".getBytes("US-ASCII"));
+				return null;
+			}
+		}).when(htmlToPdf).create(eq(html), eq(css), any(OutputStream.class));
+		mediator.setOutput(PdfMediator.OUTPUT_PROPERTY);
+		mediator.setOutputProperty("pdfContent");
+		mediator.setOutputFormat(PdfMediator.OUTPUT_FORMAT_BASE64);
+
+		assertTrue(mediator.mediate(mc));
+
+		verify(mc).setProperty("pdfContent", "JVBERg==");
+	}
+
+	@Test
+	public void shouldCreatePdfAsynchronouslyAndContinueInSequence() throws Exception {
+		SynapseEnvironment environment = mock(SynapseEnvironment.class);
+		SequenceMediator sequence = mock(SequenceMediator.class);
+		when(mc.getEnvironment()).thenReturn(environment);
+		when(mc.getSequence("pdfCreated")).thenReturn(sequence);
+		mediator.setOutput(PdfMediator.OUTPUT_BODY);
+		mediator.setAsync(true);
+		mediator.setSequence("pdfCreated");
+		mediator.init(environment);
+
+		try {
+			assertFalse(mediator.mediate(mc));
+
+			verify(xslTransformer).transform(rootElement, XSL_PATH, xsl);
+			verify(environment, timeout(5000)).injectAsync(mc, sequence);
+			verify(mediatorUtil).setBinaryPayload(any(DataHandler.class), eq(true), eq(mc));
+		} finally {
+			mediator.destroy();
+		}
+	}
+
+	@Test
+	public void shouldHandleAsynchronousRenderFailureInFaultHandler() throws Exception {
+		IOException failure = new IOException("render failed");
+		FaultHandler faultHandler = mock(FaultHandler.class);
+		Stack<FaultHandler> faultStack = new Stack<FaultHandler>();
+		faultStack.push(faultHandler);
+		when(mc.getFaultStack()).thenReturn(faultStack);
+		doThrow(failure).when(htmlToPdf).create(html, css, PDF_FILE);
+		mediator.setPdfFilePath(PDF_FILE);
+		mediator.setAsync(true);
+		mediator.setSequence("pdfCreated");
+
+		try {
+			assertFalse(mediator.mediate(mc));
+
+			verify(faultHandler, timeout(5000)).handleFault(mc, failure);
+			verify(mc, never()).getEnvironment();
+		} finally {
+			mediator.destroy();
+		}
+	}
+
+	@Test
+	public void shouldRecordStageMetrics() throws Exception {
+		mediator.setPdfFilePath(PDF_FILE);
+
+		assertTrue(mediator.mediate(mc));
+
+		PdfMediatorMetrics metrics = mediator.getMetrics();
+		assertEquals(1, metrics.getStage(PdfMediatorMetrics.Stage.XPATH).getCount());
+		assertEquals(1, metrics.getStage(PdfMediatorMetrics.Stage.REGISTRY_FETCH).getCount());
+		assertEquals(1, metrics.getStage(PdfMediatorMetrics.Stage.TRANSFORM).getCount());
+		assertEquals(1, metrics.getStage(PdfMediatorMetrics.Stage.TOTAL).getCount());
+		assertEquals(0, metrics.getFailureCount());
+	}
+
+	@Test
+	public void shouldRecordFailureMetrics() throws Exception {
+		doThrow(new IOException("render failed")).when(htmlToPdf).create(html, css, PDF_FILE);
+		mediator.setPdfFilePath(PDF_FILE);
+
+		try {
+			mediator.mediate(mc);
+		} catch (SynapseException e) {
+			// expected
+		}
+
+		assertEquals(1, mediator.getMetrics().getFailureCount());
+		assertEquals(0, mediator.getMetrics().getStage(PdfMediatorMetrics.Stage.TOTAL).getCount());
+	}
+
+	@Test
+	public void shouldNotRecordMetricsWhenDisabled() {
+		mediator.setMetricsEnabled(false);
+		mediator.setPdfFilePath(PDF_FILE);
+
+		assertTrue(mediator.mediate(mc));
+		assertNull(mediator.getMetrics());
+		verify(htmlToPdf).setMetrics(null);
+	}
+
+	@Test
+	public void shouldReleaseAdmissionAfterRender() throws Exception {
+		mediator.setPdfFilePath(PDF_FILE);
+		mediator.setMaxConcurrentRenders(1);
+
+		assertTrue(mediator.mediate(mc));
+		assertTrue(mediator.mediate(mc));
+
+		assertEquals(2, mediator.getAdmissionController().getAdmittedCount());
+		assertEquals(0, mediator.getAdmissionController().getActiveCount());
+		assertEquals(2, mediator.getMetrics().getStage(PdfMediatorMetrics.Stage.ADMISSION).getCount());
+	}
+
+	@Test
+	public void shouldRejectRenderWhenAdmissionTimesOut() throws Exception {
+		mediator.setPdfFilePath(PDF_FILE);
+		mediator.setMaxConcurrentRenders(1);
+		mediator.setAdmissionTimeout(0);
+		AdmissionController.Permit permit = mediator.getAdmissionController().acquire(0);
+
+		try {
+			mediator.mediate(mc);
+			fail("render should be rejected");
+		} catch (SynapseException e) {
+			assertEquals(1, mediator.getAdmissionController().getRejectedCount());
+			assertEquals(1, mediator.getMetrics().getFailureCount());
+			verify(xslTransformer, never()).transform(rootElement, XSL_PATH, xsl);
+		} finally {
+			permit.release();
+		}
+	}
+
+	@Test
+	public void shouldReleaseAdmissionAfterFailedRender() throws Exception {
+		doThrow(new IOException("render failed")).when(htmlToPdf).create(html, css, PDF_FILE);
+		mediator.setPdfFilePath(PDF_FILE);
+		mediator.setMaxInFlightBytes(1024);
+		when(mediatorUtil.getPayloadSize(mc)).thenReturn(100L);
+
+		try {
+			mediator.mediate(mc);
+			fail("render should fail");
+		} catch (SynapseException e) {
+			assertEquals(0, mediator.getAdmissionController().getInFlightBytes());
+			assertEquals(0, mediator.getAdmissionController().getActiveCount());
+		}
+	}
+
+	@Test
+	public void shouldReleaseAdmissionAfterAsynchronousRender() throws Exception {
+		mediator.setPdfFilePath(PDF_FILE);
+		mediator.setAsync(true);
+		mediator.setMaxConcurrentRenders(1);
+		mediator.setAdmissionTimeout(5000);
+
+		try {
+			assertTrue(mediator.mediate(mc));
+			assertTrue("second message waits for the first render to release its admission",
+					mediator.mediate(mc));
+
+			verify(htmlToPdf, timeout(5000).times(2)).create(html, css, PDF_FILE);
+		} finally {
+			mediator.destroy();
+		}
+	}
+
+	@Test
+	public void shouldRenderLargeDocumentFromSpillFile() throws Exception {
+		mediator.setPdfFilePath(PDF_FILE);
+		mediator.setLargeDocumentThreshold(1024);
+		when(mediatorUtil.getPayloadSize(mc)).thenReturn(2048L);
+		ArgumentCaptor<SpillFile> spillFile = ArgumentCaptor.forClass(SpillFile.class);
+
+		assertTrue(mediator.mediate(mc));
+
+		verify(xslTransformer).transform(eq(rootElement), eq(XSL_PATH), eq(xsl), any(OutputStream.class));
+		verify(htmlToPdf).create(spillFile.capture(), eq(css), eq(PDF_FILE));
+		verify(xslTransformer, never()).transform(rootElement, XSL_PATH, xsl);
+		assertFalse("spill file is deleted", Files.exists(spillFile.getValue().getPath()));
+	}
+
+	@Test
+	public void shouldEstimatePayloadSizeOncePerMediation() throws Exception {
+		mediator.setPdfFilePath(PDF_FILE);
+		mediator.setMaxInFlightBytes(4096);
+		mediator.setLargeDocumentThreshold(1024);
+		when(mediatorUtil.getPayloadSize(mc)).thenReturn(2048L);
+
+		assertTrue(mediator.mediate(mc));
+
+		verify(mediatorUtil, times(1)).getPayloadSize(mc);
+		verify(htmlToPdf).create(any(SpillFile.class), eq(css), eq(PDF_FILE));
+	}
+
+	@Test
+	public void shouldRenderSmallDocumentInMemory() throws Exception {
+		mediator.setPdfFilePath(PDF_FILE);
+		mediator.setLargeDocumentThreshold(1024);
+		when(mediatorUtil.getPayloadSize(mc)).thenReturn(512L);
+
+		verifyAssertions();
+	}
+
+	@Test
+	public void shouldServeRepeatedRenderFromResultCache() throws Exception {
+		doAnswer(new Answer<Void>() {
+			@Override
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((OutputStream) invocation.getArguments()[2]).write("%PDF".getBytes("US-ASCII"));
+				return null;
+			}
+		}).when(htmlToPdf).create(eq(html), eq(css), any(OutputStream.class));
+		when(mediatorUtil.getPayloadHash(mc)).thenReturn("payloadHash");
+		mediator.setOutput(PdfMediator.OUTPUT_PROPERTY);
+		mediator.setOutputProperty("pdfContent");
+		mediator.setOutputFormat(PdfMediator.OUTPUT_FORMAT_BASE64);
+		mediator.setResultCacheSize(1024);
+
+		assertTrue(mediator.mediate(mc));
+		assertTrue(mediator.mediate(mc));
+
+		verify(xslTransformer, times(1)).transform(rootElement, XSL_PATH, xsl);
+		verify(htmlToPdf, times(1)).create(eq(html), eq(css), any(OutputStream.class));
+		verify(mc, times(2)).setProperty("pdfContent", "JVBERg==");
+		assertEquals(1, mediator.getResultCache().getHitCount());
+		assertEquals(1, mediator.getResultCache().getMissCount());
+	}
+
+	@Test
+	public void shouldRenderCachedAsynchronouslyFromPayloadAtMediation() throws Exception {
+		final CountDownLatch changed = new CountDownLatch(1);
+		final ArgumentCaptor<OMElement> transformed = ArgumentCaptor.forClass(OMElement.class);
+		when(xslTransformer.transform(transformed.capture(), eq(XSL_PATH), eq(xsl))).thenAnswer(new Answer<String>() {
+			@Override
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				changed.await(5, TimeUnit.SECONDS);
+				return html;
+			}
+		});
+		when(mediatorUtil.getPayloadHash(mc)).thenReturn("payloadHash");
+		mediator.setOutput(PdfMediator.OUTPUT_PROPERTY);
+		mediator.setOutputProperty("pdfContent");
+		mediator.setResultCacheSize(1024);
+		mediator.setAsync(true);
+
+		try {
+			assertTrue("mediation continues", mediator.mediate(mc));
+			// later mediators change the message while it is rendered
+			rootElement.getFirstElement().setText("changed");
+			changed.countDown();
+
+			verify(mc, timeout(5000)).setProperty(eq("pdfContent"), any(DataHandler.class));
+			assertFalse("payload at mediation is rendered", transformed.getValue().toString().contains("changed"));
+		} finally {
+			mediator.destroy();
+		}
+	}
+
+	@Test
+	public void shouldFillFormTemplateWithoutRenderingHtml() throws Exception {
+		File template = File.createTempFile("form-template", ".pdf");
+		try {
+			PdfFormFillerTest.writeTemplate(template, "path");
+			mediator = new PdfMediator(xslTransformer, htmlToPdf, mediatorUtil);
+			mediator.setMetricsEnabled(true);
+			mediator.setFormTemplate(template.getPath());
+			mediator.setFlattenForm(false);
+			mediator.addFormField("path", new SynapseXPath("//pdfFilePath/@pathToFile"));
+			mediator.setOutput(PdfMediator.OUTPUT_PROPERTY);
+			mediator.setOutputProperty("pdfContent");
+
+			assertTrue(mediator.mediate(mc));
+
+			ArgumentCaptor<DataHandler> pdf = ArgumentCaptor.forClass(DataHandler.class);
+			verify(mc).setProperty(eq("pdfContent"), pdf.capture());
+			PdfReader reader = new PdfReader(pdf.getValue().getInputStream());
+			assertEquals(PDF_FILE, reader.getAcroFields().getField("path"));
+			verify(xslTransformer, never()).transform(any(OMElement.class), any(String.class), any(String.class));
+			verify(htmlToPdf, never()).create(any(String.class), any(String.class), any(OutputStream.class));
+			assertEquals(1, mediator.getMetrics().getStage(PdfMediatorMetrics.Stage.FILL).getCount());
+		} finally {
+			template.delete();
+		}
+	}
+
+	@Test
+	public void shouldRenderAgainWhenStyleSheetChanges() throws Exception {
+		when(mediatorUtil.getPayloadHash(mc)).thenReturn("payloadHash");
+		when(mediatorUtil.getResource(CSS_PATH, mc)).thenReturn(css, "changed");
+		mediator.setOutput(PdfMediator.OUTPUT_BODY);
+		mediator.setResultCacheSize(1024);
+
+		assertTrue(mediator.mediate(mc));
+		assertTrue(mediator.mediate(mc));
+
+		verify(htmlToPdf).create(eq(html), eq(css), any(OutputStream.class));
+		verify(htmlToPdf).create(eq(html), eq("changed"), any(OutputStream.class));
+		assertEquals(2, mediator.getResultCache().getMissCount());
+	}
+
+	@Test
+	public void shouldNotServeDiskCachedPdfAfterConfigurationChange() throws Exception {
+		File directory = Files.createTempDirectory("pdf-result-cache").toFile();
+		try {
+			when(mediatorUtil.getPayloadHash(mc)).thenReturn("payloadHash");
+			mediator.setOutput(PdfMediator.OUTPUT_BODY);
+			mediator.setResultCacheDirectory(directory.getPath());
+			assertTrue(mediator.mediate(mc));
+
+			// restarted with other fonts
+			mediator = new PdfMediator(xslTransformer, htmlToPdf, mediatorUtil);
+			mediator.setCssFilePath(CSS_PATH);
+			mediator.setXslFilePath(XSL_PATH);
+			mediator.setOutput(PdfMediator.OUTPUT_BODY);
+			mediator.setResultCacheDirectory(directory.getPath());
+			mediator.setFontDirectories(directory.getPath());
+			assertTrue(mediator.mediate(mc));
+
+			verify(htmlToPdf, times(2)).create(eq(html), eq(css), any(OutputStream.class));
+			assertEquals(0, mediator.getResultCache().getHitCount());
+		} finally {
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+
+	@Test
+	public void shouldWarmUpOnInit() throws Exception {
+		Registry registry = mock(Registry.class);
+		SynapseEnvironment environment = mockEnvironment(registry);
+		when(mediatorUtil.getResource(XSL_PATH, registry)).thenReturn(xsl);
+		when(mediatorUtil.getResource(CSS_PATH, registry)).thenReturn(css);
+		when(xslTransformer.transform(any(OMElement.class), eq(XSL_PATH), eq(xsl))).thenReturn(html);
+		mediator.setWarmUp(true);
+
+		mediator.init(environment);
+
+		verify(xslTransformer).transform(any(OMElement.class), eq(XSL_PATH), eq(xsl));
+		verify(htmlToPdf).create(eq(html), eq(css), any(OutputStream.class));
+		assertEquals(0, mediator.getMetrics().getStage(PdfMediatorMetrics.Stage.TRANSFORM).getCount());
+		mediator.destroy();
+	}
+
+	@Test
+	public void shouldNotFailInitWhenWarmUpFails() throws Exception {
+		Registry registry = mock(Registry.class);
+		SynapseEnvironment environment = mockEnvironment(registry);
+		when(mediatorUtil.getResource(XSL_PATH, registry)).thenReturn(xsl);
+		when(xslTransformer.transform(any(OMElement.class), eq(XSL_PATH), eq(xsl)))
+				.thenThrow(new SynapseException("no content"));
+		mediator.setWarmUp(true);
+
+		mediator.init(environment);
+
+		verify(htmlToPdf, never()).create(any(String.class), any(String.class), any(OutputStream.class));
+		assertEquals(0, mediator.getMetrics().getFailureCount());
+		mediator.destroy();
+	}
+
+	@Test
+	public void shouldCreateRendererPoolOnceOnInit() throws Exception {
+		ArgumentCaptor<RendererPool> pool = ArgumentCaptor.forClass(RendererPool.class);
+		mediator.setFontDirectories("/usr/share/fonts");
+		mediator.setRenderResourceCacheSize(1024);
+		mediator.setRendererPoolSize(3);
+		verify(htmlToPdf, never()).setRendererPool(any(RendererPool.class));
+
+		mediator.init(mockEnvironment(mock(Registry.class)));
+		mediator.init(mockEnvironment(mock(Registry.class)));
+
+		verify(htmlToPdf).setRendererPool(pool.capture());
+		assertEquals(3, pool.getValue().getMaxSize());
+		assertEquals(1, pool.getValue().getFontFiles().size());
+		assertEquals(1024, pool.getValue().getResourceCache().getMaxBytes());
+		mediator.destroy();
+	}
+
+	@Test
+	public void shouldNotWarmUpByDefault() throws Exception {
+		mediator.init(mockEnvironment(mock(Registry.class)));
+
+		verify(htmlToPdf, never()).create(any(String.class), any(String.class), any(OutputStream.class));
+		mediator.destroy();
+	}
+
+	@Test
+	public void shouldRenderBatchItemsIntoFiles() throws Exception {
+		addInvoices();
+		mediator.setIterateExpression(new SynapseXPath("//invoice"));
+		mediator.setPdfFilePathExpression(new SynapseXPath("concat('/tmp/invoice-', @id, '.pdf')"));
+
+		assertTrue(mediator.mediate(mc));
+
+		verify(mediatorUtil).getResource(XSL_PATH, mc);
+		verify(xslTransformer, times(2)).transform(any(OMElement.class), eq(XSL_PATH), eq(xsl));
+		verify(htmlToPdf).create(html, css, "/tmp/invoice-1.pdf");
+		verify(htmlToPdf).create(html, css, "/tmp/invoice-2.pdf");
+		assertEquals(2, mediator.getMetrics().getStage(PdfMediatorMetrics.Stage.TRANSFORM).getCount());
+		assertEquals(1, mediator.getMetrics().getStage(PdfMediatorMetrics.Stage.TOTAL).getCount());
+	}
+
+	@Test
+	public void shouldResolveMessageContextPropertiesInItemPdfFilePath() throws Exception {
+		addInvoices();
+		when(mc.getProperty("invoiceDir")).thenReturn("/tmp/invoices");
+		mediator.setIterateExpression(new SynapseXPath("//invoice"));
+		mediator.setPdfFilePathExpression(
+				new SynapseXPath("concat($ctx:invoiceDir, '/invoice-', @id, '-', get-property('invoiceDir'), '.pdf')"));
+
+		assertTrue(mediator.mediate(mc));
+
+		verify(htmlToPdf).create(html, css, "/tmp/invoices/invoice-1-/tmp/invoices.pdf");
+		verify(htmlToPdf).create(html, css, "/tmp/invoices/invoice-2-/tmp/invoices.pdf");
+	}
+
+	@Test
+	public void shouldRenderBatchItemsInParallel() throws Exception {
+		addInvoices();
+		mediator.setIterateExpression(new SynapseXPath("//invoice"));
+		mediator.setPdfFilePathExpression(new SynapseXPath("concat('/tmp/invoice-', @id, '.pdf')"));
+		mediator.setBatchParallelism(2);
+
+		try {
+			assertTrue(mediator.mediate(mc));
+
+			verify(htmlToPdf).create(html, css, "/tmp/invoice-1.pdf");
+			verify(htmlToPdf).create(html, css, "/tmp/invoice-2.pdf");
+		} finally {
+			mediator.destroy();
+		}
+	}
+
+	@Test
+	public void shouldMergeBatchItemsIntoMessageBody() throws Exception {
+		addInvoices();
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) throws Throwable {
+				((OutputStream) invocation.getArguments()[2]).write(createPdf());
+				return null;
+			}
+		}).when(htmlToPdf).create(eq(html), eq(css), any(OutputStream.class));
+		mediator.setIterateExpression(new SynapseXPath("//invoice"));
+		mediator.setBatchOutput(PdfMediator.BATCH_OUTPUT_MERGED);
+		mediator.setOutput(PdfMediator.OUTPUT_BODY);
+
+		assertTrue(mediator.mediate(mc));
+
+		ArgumentCaptor<DataHandler> pdf = ArgumentCaptor.forClass(DataHandler.class);
+		verify(mediatorUtil).setBinaryPayload(pdf.capture(), eq(true), eq(mc));
+		assertEquals("merged PDF has page of each item", 2,
+				new PdfReader(pdf.getValue().getInputStream()).getNumberOfPages());
+		assertEquals(1, mediator.getMetrics().getStage(PdfMediatorMetrics.Stage.MERGE).getCount());
+	}
+
+	@Test(expected = SynapseException.class)
+	public void shouldFailMergedBatchWithoutItems() throws Exception {
+		mediator.setIterateExpression(new SynapseXPath("//invoice"));
+		mediator.setBatchOutput(PdfMediator.BATCH_OUTPUT_MERGED);
+		mediator.setOutput(PdfMediator.OUTPUT_BODY);
+
+		mediator.mediate(mc);
+	}
+
+	@Test
+	public void shouldFailBatchWhenItemFails() throws Exception {
+		addInvoices();
+		doThrow(new IOException("render failed")).when(htmlToPdf).create(html, css, "/tmp/invoice-2.pdf");
+		mediator.setIterateExpression(new SynapseXPath("//invoice"));
+		mediator.setPdfFilePathExpression(new SynapseXPath("concat('/tmp/invoice-', @id, '.pdf')"));
+		mediator.setBatchParallelism(2);
+
+		try {
+			mediator.mediate(mc);
+		} catch (SynapseException e) {
+			// expected
+		} finally {
+			mediator.destroy();
+		}
+
+		assertEquals(1, mediator.getMetrics().getFailureCount());
+	}
+
+	private void addInvoices() {
+		for (int i = 1; i <= 2; i++) {
+			soapFactory.createOMElement(new QName("invoice"), rootElement)
+					.addAttribute(new OMAttributeImpl("id", null, String.valueOf(i), soapFactory));
+		}
+		when(xslTransformer.transform(any(OMElement.class), eq(XSL_PATH), eq(xsl))).thenReturn(html);
+	}
+
+	private static byte[] createPdf() throws DocumentException {
+		ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+		com.lowagie.text.Document document = new com.lowagie.text.Document();
+		PdfWriter.getInstance(document, pdf);
+		document.open();
+		document.add(new Paragraph("invoice"));
+		document.close();
+		return pdf.toByteArray();
+	}
+
+	private SynapseEnvironment mockEnvironment(Registry registry) {
+		SynapseEnvironment environment = mock(SynapseEnvironment.class);
+		SynapseConfiguration configuration = mock(SynapseConfiguration.class);
+		when(environment.getSynapseConfiguration()).thenReturn(configuration);
+		when(configuration.getRegistry()).thenReturn(registry);
+		return environment;
+	}
+
 	private void prepareMockOperations () {
-		when(mediatorUtil.getPayload(mc)).thenReturn(rootElement.toString());
+		when(mediatorUtil.getPayloadElement(mc)).thenReturn(rootElement);
 		when(mediatorUtil.getResource(XSL_PATH, mc)).thenReturn(xsl);
 		when(mediatorUtil.getResource(CSS_PATH, mc)).thenReturn(css);
-		when(xslTransformer.transform(rootElement.toString(), xsl)).thenReturn(html);
+		when(xslTransformer.transform(rootElement, XSL_PATH, xsl)).thenReturn(html);
 		when(mc.getEnvelope()).thenReturn(envelope);
 		when(mc.getProperty("pdfFileProperty")).thenReturn(PDF_FILE);
 	}
@@ -128,7 +713,7 @@ public class PdfMediatorTest {
 
 		verify(mediatorUtil).getResource(XSL_PATH, mc);
 		verify(mediatorUtil).getResource(CSS_PATH, mc);
-		verify(xslTransformer).transform(rootElement.toString(), xsl);
+		verify(xslTransformer).transform(rootElement, XSL_PATH, xsl);
 		verify(htmlToPdf).create(html, css, PDF_FILE);
 	}
 
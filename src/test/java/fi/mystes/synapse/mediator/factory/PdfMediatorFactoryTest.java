@@ -15,7 +15,13 @@
  */
 package fi.mystes.synapse.mediator.factory;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
 
 import fi.mystes.synapse.mediator.factory.PdfMediatorFactory;
 import org.apache.axiom.om.OMAbstractFactory;
@@ -26,6 +32,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import fi.mystes.synapse.mediator.PdfMediator;
+import fi.mystes.synapse.mediator.util.PdfFileWriter;
 
 public class PdfMediatorFactoryTest {
 
@@ -91,6 +98,459 @@ public class PdfMediatorFactoryTest {
 		assertTrue("pdfFilePath should be set", pdfMediator.getPdfFilePath().equals(pdfFilePath));
 		assertTrue("cssFilePath should be set", pdfMediator.getCssFilePath().equals(cssFilePath));
 		assertTrue("xslFilePath should be set", pdfMediator.getXslFilePath().equals(xslFilePath));
+		assertFalse("resources should not be cached by default", pdfMediator.isCacheResources());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithResourceCaching() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("cacheResources", "true", null);
+		mediatorElement.addAttribute("resourceCacheDuration", "5000", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertTrue("resources should be cached", pdfMediator.isCacheResources());
+		assertEquals("resource cache duration should be set", 5000, pdfMediator.getResourceCacheDuration());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToInvalidResourceCacheDuration() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("resourceCacheDuration", "soon", null);
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+		} catch (Exception e) {
+			assertTrue("Should the following exception occur: Invalid resourceCacheDuration value : soon",
+					e.getMessage().equals("Invalid resourceCacheDuration value : soon"));
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithDomPipeline() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("pipeline", "dom", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("pipeline should be set", PdfMediator.PIPELINE_DOM, pdfMediator.getPipeline());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToInvalidPipeline() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("pipeline", "sax", null);
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+		} catch (Exception e) {
+			assertTrue("Should the following exception occur: Invalid pipeline value : sax",
+					e.getMessage().equals("Invalid pipeline value : sax"));
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithRendererPoolSize() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("rendererPoolSize", "3", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("renderer pool size should be set", 3, pdfMediator.getRendererPoolSize());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithPropertyOutputWithoutPdfFilePath() {
+		omFactory.createOMElement(PdfMediatorFactory.Q_CSS_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/cssFile.css", null);
+		omFactory.createOMElement(PdfMediatorFactory.Q_XSL_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/xslFile.xsl", null);
+		mediatorElement.addAttribute("output", "property", null);
+		mediatorElement.addAttribute("outputProperty", "pdfContent", null);
+		mediatorElement.addAttribute("outputFormat", "base64", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("output should be set", PdfMediator.OUTPUT_PROPERTY, pdfMediator.getOutput());
+		assertEquals("outputProperty should be set", "pdfContent", pdfMediator.getOutputProperty());
+		assertEquals("outputFormat should be set", PdfMediator.OUTPUT_FORMAT_BASE64, pdfMediator.getOutputFormat());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToMissingOutputProperty() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("output", "property", null);
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+		} catch (Exception e) {
+			assertTrue("Should the following exception occur: outputProperty attribute is required for property output",
+					e.getMessage().equals("outputProperty attribute is required for property output"));
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithAsyncRendering() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("async", "true", null);
+		mediatorElement.addAttribute("asyncPoolSize", "2", null);
+		mediatorElement.addAttribute("asyncQueueSize", "10", null);
+		mediatorElement.addAttribute("asyncRejectPolicy", "callerRuns", null);
+		mediatorElement.addAttribute("sequence", "pdfCreated", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertTrue("async should be set", pdfMediator.isAsync());
+		assertEquals("async pool size should be set", 2, pdfMediator.getAsyncPoolSize());
+		assertEquals("async queue size should be set", 10, pdfMediator.getAsyncQueueSize());
+		assertTrue("caller runs policy should be set", pdfMediator.isAsyncCallerRuns());
+		assertEquals("sequence should be set", "pdfCreated", pdfMediator.getSequence());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToAsyncBodyOutputWithoutSequence() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("async", "true", null);
+		mediatorElement.addAttribute("output", "body", null);
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Asynchronous body output without sequence should fail");
+		} catch (Exception e) {
+			assertEquals("sequence attribute is required for asynchronous body output", e.getMessage());
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithMetricsSettings() {
+		addRequiredChildren();
+		assertFalse("metrics should be disabled by default",
+				((PdfMediator)factory.createSpecificMediator(mediatorElement, null)).isMetricsEnabled());
+		mediatorElement.addAttribute("metrics", "true", null);
+		mediatorElement.addAttribute("metricsName", "invoices", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertTrue("metrics should be enabled", pdfMediator.isMetricsEnabled());
+		assertEquals("metrics name should be set", "invoices", pdfMediator.getMetricsName());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithoutHtmlCleaning() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("cleanHtml", "false", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertFalse("HTML cleaning should be disabled", pdfMediator.isCleanHtml());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithAdmissionControl() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("maxConcurrentRenders", "4", null);
+		mediatorElement.addAttribute("maxInFlightBytes", "10485760", null);
+		mediatorElement.addAttribute("admissionTimeout", "5000", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals(4, pdfMediator.getMaxConcurrentRenders());
+		assertEquals(10485760, pdfMediator.getAdmissionController().getMaxInFlightBytes());
+		assertEquals(5000, pdfMediator.getAdmissionController().getQueueTimeout());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithoutAdmissionControlByDefault() {
+		addRequiredChildren();
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertNull("renders should not be limited", pdfMediator.getAdmissionController());
+	}
+
+	@Test
+	public void shouldFailWithInvalidMaxConcurrentRenders() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("maxConcurrentRenders", "0", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Invalid maxConcurrentRenders should fail");
+		} catch (Exception e) {
+			assertEquals("Invalid maxConcurrentRenders value : 0", e.getMessage());
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithLargeDocumentThreshold() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("largeDocumentThreshold", "10485760", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals(10485760, pdfMediator.getLargeDocumentThreshold());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithChunking() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("chunkElement", "section", null);
+		mediatorElement.addAttribute("chunkSize", "50", null);
+		mediatorElement.addAttribute("chunkParallelism", "2", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("section", pdfMediator.getChunkElement());
+		assertEquals(50, pdfMediator.getChunkSize());
+		assertEquals(2, pdfMediator.getChunkParallelism());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithWarmUp() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("warmUp", "true", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertTrue("warm-up should be enabled", pdfMediator.isWarmUp());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithFontDirectories() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("fontDirectories", "src/test/resources", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("src/test/resources", pdfMediator.getFontDirectories());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToMissingFontDirectory() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("fontDirectories", "src/test/resources,nonexistent", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Should have thrown exception");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithResultCache() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("resultCacheSize", "1048576", null);
+		mediatorElement.addAttribute("resultCacheDirectory", "target/pdf-cache", null);
+		mediatorElement.addAttribute("resultCacheDiskSize", "10485760", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals(1048576L, pdfMediator.getResultCacheSize());
+		assertEquals("target/pdf-cache", pdfMediator.getResultCacheDirectory());
+		assertEquals(10485760L, pdfMediator.getResultCacheDiskSize());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithStaticPages() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("coverPages", "src/test/resources/example.html", null);
+		mediatorElement.addAttribute("background", "src/test/resources/example.html", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("src/test/resources/example.html", pdfMediator.getCoverPages());
+		assertEquals("src/test/resources/example.html", pdfMediator.getBackground());
+		assertNull(pdfMediator.getAppendPages());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToMissingStaticPages() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("appendPages", "src/test/resources/nonexistent.pdf", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Should have thrown exception");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithFormTemplate() throws Exception {
+		File template = File.createTempFile("form-template", ".pdf");
+		try {
+			mediatorElement.addAttribute("formTemplate", template.getPath(), null);
+			mediatorElement.addAttribute("flattenForm", "false", null);
+			omFactory.createOMElement(PdfMediatorFactory.Q_PDF_FILE_PATH, mediatorElement)
+						.addAttribute("value", "/tmp/label.pdf", null);
+			OMElement formField = omFactory.createOMElement(PdfMediatorFactory.Q_FORM_FIELD, mediatorElement);
+			formField.addAttribute("name", "recipient", null);
+			formField.addAttribute("expression", "//recipient", null);
+
+			PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+			assertEquals(template.getPath(), pdfMediator.getFormTemplate());
+			assertFalse(pdfMediator.isFlattenForm());
+			assertEquals("//recipient", pdfMediator.getFormFields().get("recipient").toString());
+			assertNull("xslFilePath is not required", pdfMediator.getXslFilePath());
+		} finally {
+			template.delete();
+		}
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToFormFieldWithoutTemplate() {
+		addRequiredChildren();
+		OMElement formField = omFactory.createOMElement(PdfMediatorFactory.Q_FORM_FIELD, mediatorElement);
+		formField.addAttribute("name", "recipient", null);
+		formField.addAttribute("expression", "//recipient", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Should have thrown exception");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithXsltEngine() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("xsltEngine", "jdk", null);
+		mediatorElement.addAttribute("xsltFeatures", "enable-inlining=false", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("jdk", pdfMediator.getXsltEngine());
+		assertEquals("enable-inlining=false", pdfMediator.getXsltFeatures());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToUnavailableXsltEngine() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("xsltEngine", "com.example.MissingTransformerFactory", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Should have thrown exception");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToInvalidResultCacheSize() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("resultCacheSize", "-1", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Should have thrown exception");
+		} catch (Exception e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithRenderResourceCacheSize() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("renderResourceCacheSize", "1048576", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("render resource cache size should be set", 1048576L, pdfMediator.getRenderResourceCacheSize());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToInvalidRenderResourceCacheSize() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("renderResourceCacheSize", "0", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Should have thrown exception");
+		} catch (Exception e) {
+			assertEquals("Invalid renderResourceCacheSize value : 0", e.getMessage());
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorInBatchMode() {
+		omFactory.createOMElement(PdfMediatorFactory.Q_PDF_FILE_PATH, mediatorElement)
+					.addAttribute("expression", "concat('/tmp/', @id, '.pdf')", null);
+		omFactory.createOMElement(PdfMediatorFactory.Q_CSS_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/cssFile.css", null);
+		omFactory.createOMElement(PdfMediatorFactory.Q_XSL_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/xslFile.xsl", null);
+		mediatorElement.addAttribute("iterateExpression", "//invoice", null);
+		mediatorElement.addAttribute("batchParallelism", "4", null);
+		mediatorElement.addAttribute("batchCompletion", "unordered", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("iterate expression should be set", "//invoice", pdfMediator.getIterateExpression().toString());
+		assertEquals("batch output should default to files", PdfMediator.BATCH_OUTPUT_FILES, pdfMediator.getBatchOutput());
+		assertEquals("batch parallelism should be set", 4, pdfMediator.getBatchParallelism());
+		assertEquals("batch completion should be set", PdfMediator.BATCH_COMPLETION_UNORDERED,
+				pdfMediator.getBatchCompletion());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorInMergedBatchMode() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("iterateExpression", "//invoice", null);
+		mediatorElement.addAttribute("batchOutput", "merged", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		assertEquals("batch output should be set", PdfMediator.BATCH_OUTPUT_MERGED, pdfMediator.getBatchOutput());
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToBatchFilesWithoutPdfFilePathExpression() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("iterateExpression", "//invoice", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Should have thrown exception");
+		} catch (Exception e) {
+			assertEquals("pdfFilePath expression is required for batchOutput files", e.getMessage());
+		}
+	}
+
+	@Test
+	public void shouldFailPdfMediatorInitiationDueToAsyncBatch() {
+		addRequiredChildren();
+		mediatorElement.addAttribute("iterateExpression", "//invoice", null);
+		mediatorElement.addAttribute("batchOutput", "merged", null);
+		mediatorElement.addAttribute("async", "true", null);
+
+		try {
+			factory.createSpecificMediator(mediatorElement, null);
+			fail("Should have thrown exception");
+		} catch (Exception e) {
+			assertEquals("async attribute is not supported with iterateExpression", e.getMessage());
+		}
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithPdfFileOptions() {
+		OMElement pdfFilePath = omFactory.createOMElement(PdfMediatorFactory.Q_PDF_FILE_PATH, mediatorElement);
+		pdfFilePath.addAttribute("value", "/tmp/pdfFile.pdf", null);
+		pdfFilePath.addAttribute("atomic", "false", null);
+		pdfFilePath.addAttribute("fsync", "true", null);
+		pdfFilePath.addAttribute("bufferSize", "8192", null);
+		pdfFilePath.addAttribute("createDirectories", "true", null);
+		omFactory.createOMElement(PdfMediatorFactory.Q_CSS_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/cssFile.css", null);
+		omFactory.createOMElement(PdfMediatorFactory.Q_XSL_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/xslFile.xsl", null);
+
+		PdfMediator pdfMediator = (PdfMediator)factory.createSpecificMediator(mediatorElement, null);
+		PdfFileWriter fileWriter = pdfMediator.getPdfFileWriter();
+		assertFalse("atomic writing should be disabled", fileWriter.isAtomic());
+		assertTrue("fsync should be enabled", fileWriter.isSync());
+		assertEquals("buffer size should be set", 8192, fileWriter.getBufferSize());
+		assertTrue("directory creation should be enabled", fileWriter.isCreateDirectories());
+	}
+
+	@Test
+	public void shouldInitiatePdfMediatorWithDefaultPdfFileOptions() {
+		addRequiredChildren();
+
+		PdfFileWriter fileWriter = ((PdfMediator)factory.createSpecificMediator(mediatorElement, null)).getPdfFileWriter();
+		assertTrue("atomic writing should be enabled by default", fileWriter.isAtomic());
+		assertFalse("fsync should be disabled by default", fileWriter.isSync());
+		assertEquals(PdfFileWriter.DEFAULT_BUFFER_SIZE, fileWriter.getBufferSize());
+	}
+
+	private void addRequiredChildren() {
+		omFactory.createOMElement(PdfMediatorFactory.Q_PDF_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/pdfFile.pdf", null);
+		omFactory.createOMElement(PdfMediatorFactory.Q_CSS_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/cssFile.css", null);
+		omFactory.createOMElement(PdfMediatorFactory.Q_XSL_FILE_PATH, mediatorElement)
+					.addAttribute("value", "/tmp/xslFile.xsl", null);
 	}
 	
 }
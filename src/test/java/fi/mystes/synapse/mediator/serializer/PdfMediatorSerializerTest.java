@@ -15,6 +15,7 @@
  */
 package fi.mystes.synapse.mediator.serializer;
 
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 import javax.xml.namespace.QName;
@@ -25,6 +26,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import fi.mystes.synapse.mediator.PdfMediator;
+import fi.mystes.synapse.mediator.util.PdfFileWriter;
 
 public class PdfMediatorSerializerTest {
 
@@ -59,6 +61,259 @@ public class PdfMediatorSerializerTest {
 				xslFilePathElement.getAttributeValue(new QName("value")) == null);
     }
 
+    @Test
+    public void shouldSerializePdfMediatorResourceCachingAttributes() {
+        PdfMediator pdf = new PdfMediator();
+        assertTrue("cacheResources attribute should not be set by default",
+                serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("cacheResources")) == null);
+
+        pdf.setCacheResources(true);
+        pdf.setResourceCacheDuration(5000);
+        OMElement mediatorElement = serializer.serializeSpecificMediator(pdf);
+        assertTrue("cacheResources attribute should be set",
+                "true".equals(mediatorElement.getAttributeValue(new QName("cacheResources"))));
+        assertTrue("resourceCacheDuration attribute should be set",
+                "5000".equals(mediatorElement.getAttributeValue(new QName("resourceCacheDuration"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorPipelineAttribute() {
+        PdfMediator pdf = new PdfMediator();
+        assertTrue("pipeline attribute should not be set by default",
+                serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("pipeline")) == null);
+
+        pdf.setPipeline(PdfMediator.PIPELINE_DOM);
+        assertTrue("pipeline attribute should be set",
+                "dom".equals(serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("pipeline"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorAsyncAttributes() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setAsync(true);
+        pdf.setAsyncQueueSize(10);
+        pdf.setAsyncCallerRuns(true);
+        pdf.setSequence("pdfCreated");
+
+        OMElement mediatorElement = serializer.serializeSpecificMediator(pdf);
+        assertTrue("async attribute should be set",
+                "true".equals(mediatorElement.getAttributeValue(new QName("async"))));
+        assertTrue("asyncPoolSize attribute should not be set",
+                mediatorElement.getAttributeValue(new QName("asyncPoolSize")) == null);
+        assertTrue("asyncQueueSize attribute should be set",
+                "10".equals(mediatorElement.getAttributeValue(new QName("asyncQueueSize"))));
+        assertTrue("asyncRejectPolicy attribute should be set",
+                "callerRuns".equals(mediatorElement.getAttributeValue(new QName("asyncRejectPolicy"))));
+        assertTrue("sequence attribute should be set",
+                "pdfCreated".equals(mediatorElement.getAttributeValue(new QName("sequence"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorMetricsAttributes() {
+        PdfMediator pdf = new PdfMediator();
+        assertTrue("metrics attribute should not be set by default",
+                serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("metrics")) == null);
+
+        pdf.setMetricsEnabled(true);
+        pdf.setMetricsName("invoices");
+
+        OMElement mediatorElement = serializer.serializeSpecificMediator(pdf);
+        assertTrue("metrics attribute should be set",
+                "true".equals(mediatorElement.getAttributeValue(new QName("metrics"))));
+        assertTrue("metricsName attribute should be set",
+                "invoices".equals(mediatorElement.getAttributeValue(new QName("metricsName"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorCleanHtmlAttribute() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setCleanHtml(false);
+
+        assertTrue("cleanHtml attribute should be set",
+                "false".equals(serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("cleanHtml"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorAdmissionAttributes() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setMaxConcurrentRenders(4);
+        pdf.setMaxInFlightBytes(1048576);
+        pdf.setAdmissionTimeout(5000);
+
+        OMElement mediatorElement = serializer.serializeSpecificMediator(pdf);
+        assertTrue("maxConcurrentRenders attribute should be set",
+                "4".equals(mediatorElement.getAttributeValue(new QName("maxConcurrentRenders"))));
+        assertTrue("maxInFlightBytes attribute should be set",
+                "1048576".equals(mediatorElement.getAttributeValue(new QName("maxInFlightBytes"))));
+        assertTrue("admissionTimeout attribute should be set",
+                "5000".equals(mediatorElement.getAttributeValue(new QName("admissionTimeout"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorFontDirectories() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setFontDirectories("/usr/share/fonts");
+
+        assertTrue("fontDirectories attribute should be set", "/usr/share/fonts".equals(
+                serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("fontDirectories"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorResultCache() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setResultCacheSize(1048576);
+        pdf.setResultCacheDirectory("/var/cache/pdf");
+        OMElement element = serializer.serializeSpecificMediator(pdf);
+
+        assertTrue("resultCacheSize attribute should be set", "1048576".equals(
+                element.getAttributeValue(new QName("resultCacheSize"))));
+        assertTrue("resultCacheDirectory attribute should be set", "/var/cache/pdf".equals(
+                element.getAttributeValue(new QName("resultCacheDirectory"))));
+        assertNull("default resultCacheDiskSize is not serialized",
+                element.getAttributeValue(new QName("resultCacheDiskSize")));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorStaticPages() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setCoverPages("/etc/pdf/cover.pdf");
+        pdf.setAppendPages("/etc/pdf/terms.html");
+        OMElement element = serializer.serializeSpecificMediator(pdf);
+
+        assertTrue("coverPages attribute should be set", "/etc/pdf/cover.pdf".equals(
+                element.getAttributeValue(new QName("coverPages"))));
+        assertTrue("appendPages attribute should be set", "/etc/pdf/terms.html".equals(
+                element.getAttributeValue(new QName("appendPages"))));
+        assertNull("unset background is not serialized", element.getAttributeValue(new QName("background")));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorFormTemplate() throws Exception {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setFormTemplate("/etc/pdf/label.pdf");
+        pdf.addFormField("recipient", new SynapseXPath("//recipient"));
+        OMElement element = serializer.serializeSpecificMediator(pdf);
+
+        assertTrue("formTemplate attribute should be set", "/etc/pdf/label.pdf".equals(
+                element.getAttributeValue(new QName("formTemplate"))));
+        assertNull("default flattenForm is not serialized", element.getAttributeValue(new QName("flattenForm")));
+        assertTrue("unset xslFilePath is not serialized", !element.getChildrenWithLocalName("xslFilePath").hasNext());
+        OMElement formField = (OMElement) element.getChildrenWithLocalName("formField").next();
+        assertTrue("formField name should be set", "recipient".equals(formField.getAttributeValue(new QName("name"))));
+        assertTrue("formField expression should be set", "//recipient".equals(
+                formField.getAttributeValue(new QName("expression"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorXsltEngine() {
+        PdfMediator pdf = new PdfMediator();
+        assertNull("default xsltEngine is not serialized",
+                serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("xsltEngine")));
+
+        pdf.setXsltEngine("jdk");
+        pdf.setXsltFeatures("enable-inlining=false");
+        OMElement element = serializer.serializeSpecificMediator(pdf);
+        assertTrue("xsltEngine attribute should be set", "jdk".equals(
+                element.getAttributeValue(new QName("xsltEngine"))));
+        assertTrue("xsltFeatures attribute should be set", "enable-inlining=false".equals(
+                element.getAttributeValue(new QName("xsltFeatures"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorChunking() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setChunkElement("section");
+        pdf.setChunkSize(50);
+        OMElement element = serializer.serializeSpecificMediator(pdf);
+        assertTrue("chunkElement attribute should be set", "section".equals(
+                element.getAttributeValue(new QName("chunkElement"))));
+        assertTrue("chunkSize attribute should be set", "50".equals(
+                element.getAttributeValue(new QName("chunkSize"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorLargeDocumentThreshold() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setLargeDocumentThreshold(10485760);
+
+        assertTrue("largeDocumentThreshold attribute should be set", "10485760".equals(
+                serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("largeDocumentThreshold"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorWarmUpAttribute() {
+        PdfMediator pdf = new PdfMediator();
+        assertNull("warmUp attribute should not be set by default",
+                serializer.serializeSpecificMediator(pdf).getAttribute(new QName("warmUp")));
+
+        pdf.setWarmUp(true);
+        assertTrue("warmUp attribute should be set",
+                "true".equals(serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("warmUp"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorBatchAttributes() throws Exception {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setIterateExpression(new SynapseXPath("//invoice"));
+        pdf.setBatchOutput(PdfMediator.BATCH_OUTPUT_MERGED);
+        pdf.setBatchParallelism(4);
+        pdf.setBatchCompletion(PdfMediator.BATCH_COMPLETION_UNORDERED);
+
+        OMElement mediatorElement = serializer.serializeSpecificMediator(pdf);
+        assertTrue("iterateExpression attribute should be set",
+                "//invoice".equals(mediatorElement.getAttributeValue(new QName("iterateExpression"))));
+        assertTrue("batchOutput attribute should be set",
+                "merged".equals(mediatorElement.getAttributeValue(new QName("batchOutput"))));
+        assertTrue("batchParallelism attribute should be set",
+                "4".equals(mediatorElement.getAttributeValue(new QName("batchParallelism"))));
+        assertTrue("batchCompletion attribute should be set",
+                "unordered".equals(mediatorElement.getAttributeValue(new QName("batchCompletion"))));
+    }
+
+    @Test
+    public void shouldSerializePdfFileOptions() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setPdfFilePath("/tmp/pdfFile.pdf");
+        pdf.setPdfFileWriter(new PdfFileWriter(8192, false, true, true));
+
+        OMElement pdfFilePath = serializer.serializeSpecificMediator(pdf).getFirstElement();
+        assertTrue("atomic attribute should be set", "false".equals(pdfFilePath.getAttributeValue(new QName("atomic"))));
+        assertTrue("fsync attribute should be set", "true".equals(pdfFilePath.getAttributeValue(new QName("fsync"))));
+        assertTrue("bufferSize attribute should be set",
+                "8192".equals(pdfFilePath.getAttributeValue(new QName("bufferSize"))));
+        assertTrue("createDirectories attribute should be set",
+                "true".equals(pdfFilePath.getAttributeValue(new QName("createDirectories"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorRenderResourceCacheSizeAttribute() {
+        PdfMediator pdf = new PdfMediator();
+        assertNull("default render resource cache size should not be serialized",
+                serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("renderResourceCacheSize")));
+
+        pdf.setRenderResourceCacheSize(1048576);
+        assertTrue("renderResourceCacheSize attribute should be set", "1048576".equals(
+                serializer.serializeSpecificMediator(pdf).getAttributeValue(new QName("renderResourceCacheSize"))));
+    }
+
+    @Test
+    public void shouldSerializePdfMediatorOutputAttributesWithoutPdfFilePath() {
+        PdfMediator pdf = new PdfMediator();
+        pdf.setOutput(PdfMediator.OUTPUT_PROPERTY);
+        pdf.setOutputProperty("pdfContent");
+        pdf.setOutputFormat(PdfMediator.OUTPUT_FORMAT_BASE64);
+
+        OMElement mediatorElement = serializer.serializeSpecificMediator(pdf);
+        assertTrue("output attribute should be set",
+                "property".equals(mediatorElement.getAttributeValue(new QName("output"))));
+        assertTrue("outputProperty attribute should be set",
+                "pdfContent".equals(mediatorElement.getAttributeValue(new QName("outputProperty"))));
+        assertTrue("outputFormat attribute should be set",
+                "base64".equals(mediatorElement.getAttributeValue(new QName("outputFormat"))));
+        assertTrue("pdfFilePath element should not be set",
+                !mediatorElement.getChildrenWithLocalName("pdfFilePath").hasNext());
+    }
+
     @Test
     public void shouldSerializePdfMediatorWithChildrenButWithChildrenValueAttributesOnly() {
     	PdfMediator pdf = new PdfMediator();
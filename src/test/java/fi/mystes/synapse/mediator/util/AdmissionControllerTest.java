@@ -0,0 +1,122 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+
+public class AdmissionControllerTest {
+
+    @Test
+    public void shouldLimitConcurrentRenders() throws Exception {
+        AdmissionController controller = new AdmissionController(1, 0, 0);
+        AdmissionController.Permit permit = controller.acquire(0);
+
+        try {
+            controller.acquire(0);
+            fail("second render should not be admitted");
+        } catch (TimeoutException e) {
+            assertEquals(1, controller.getRejectedCount());
+        }
+
+        permit.release();
+        controller.acquire(0).release();
+        assertEquals(2, controller.getAdmittedCount());
+        assertEquals(0, controller.getActiveCount());
+    }
+
+    @Test
+    public void shouldLimitInFlightBytes() throws Exception {
+        AdmissionController controller = new AdmissionController(0, 100, 0);
+        AdmissionController.Permit first = controller.acquire(60);
+        AdmissionController.Permit second = controller.acquire(40);
+        assertEquals(100, controller.getInFlightBytes());
+
+        try {
+            controller.acquire(1);
+            fail("render exceeding in-flight bytes should not be admitted");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        first.release();
+        second.release();
+        assertEquals(0, controller.getInFlightBytes());
+    }
+
+    @Test
+    public void shouldAdmitOversizedRenderAlone() throws Exception {
+        AdmissionController controller = new AdmissionController(0, 100, 0);
+
+        AdmissionController.Permit permit = controller.acquire(1000);
+
+        assertEquals("oversized render is charged the whole limit", 100, permit.getBytes());
+        try {
+            controller.acquire(1);
+            fail("nothing should be admitted next to the oversized render");
+        } catch (TimeoutException e) {
+            // expected
+        }
+        permit.release();
+    }
+
+    @Test
+    public void shouldAdmitWaitingRenderOnRelease() throws Exception {
+        final AdmissionController controller = new AdmissionController(1, 0, 5000);
+        AdmissionController.Permit permit = controller.acquire(0);
+        final CountDownLatch admitted = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    controller.acquire(0).release();
+                    admitted.countDown();
+                } catch (Exception e) {
+                    // latch is left open
+                }
+            }
+        };
+        waiter.start();
+        while (controller.getWaitingCount() == 0) {
+            Thread.sleep(10);
+        }
+
+        permit.release();
+
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, controller.getWaitedCount());
+        assertEquals(0, controller.getWaitingCount());
+    }
+
+    @Test
+    public void shouldIgnoreRepeatedRelease() throws Exception {
+        AdmissionController controller = new AdmissionController(2, 0, 0);
+        AdmissionController.Permit permit = controller.acquire(0);
+        controller.acquire(0);
+
+        permit.release();
+        permit.release();
+
+        assertEquals(1, controller.getActiveCount());
+    }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class AsyncRenderExecutorTest {
+
+    AsyncRenderExecutor executor;
+    CountDownLatch release = new CountDownLatch(1);
+
+    @After
+    public void tearDown() {
+        release.countDown();
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldRejectRenderWhenQueueIsFull() throws Exception {
+        executor = new AsyncRenderExecutor(1, 1, false);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(blockingRender(started));
+        assertTrue("first render is running", started.await(5, TimeUnit.SECONDS));
+        executor.execute(blockingRender(null));
+
+        try {
+            executor.execute(blockingRender(null));
+            fail("render should be rejected when queue is full");
+        } catch (RejectedExecutionException e) {
+            assertEquals("PDF render queue is full", e.getMessage());
+        }
+        assertEquals("one render queued", 1, executor.getQueuedCount());
+        assertEquals("no capacity left", 0, executor.getRemainingCapacity());
+        assertEquals("one render rejected", 1, executor.getRejectedCount());
+    }
+
+    @Test
+    public void shouldRunRenderInCallerWhenQueueIsFull() throws Exception {
+        executor = new AsyncRenderExecutor(1, 1, true);
+        CountDownLatch started = new CountDownLatch(1);
+        executor.execute(blockingRender(started));
+        assertTrue("first render is running", started.await(5, TimeUnit.SECONDS));
+        executor.execute(blockingRender(null));
+
+        final AtomicReference<Thread> renderThread = new AtomicReference<Thread>();
+        executor.execute(new Runnable() {
+            public void run() {
+                renderThread.set(Thread.currentThread());
+            }
+        });
+
+        assertSame("render is run by caller", Thread.currentThread(), renderThread.get());
+        assertEquals("one render run by caller", 1, executor.getCallerRunCount());
+        assertEquals("no render rejected", 0, executor.getRejectedCount());
+    }
+
+    @Test
+    public void shouldRejectRenderAfterShutdown() {
+        executor = new AsyncRenderExecutor(1, 1, true);
+        executor.shutdown();
+
+        try {
+            executor.execute(blockingRender(null));
+            fail("render should be rejected after shutdown");
+        } catch (RejectedExecutionException e) {
+            assertEquals("PDF render executor is shut down", e.getMessage());
+        }
+    }
+
+    private Runnable blockingRender(final CountDownLatch started) {
+        return new Runnable() {
+            public void run() {
+                if (started != null) {
+                    started.countDown();
+                }
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+    }
+}
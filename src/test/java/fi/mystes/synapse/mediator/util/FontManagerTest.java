@@ -0,0 +1,115 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+import com.lowagie.text.pdf.BaseFont;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xhtmlrenderer.css.constants.IdentValue;
+import org.xhtmlrenderer.css.value.FontSpecification;
+import org.xhtmlrenderer.pdf.ITextFSFont;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+public class FontManagerTest {
+
+    // Fonts of the build host are used rather than shipping a font with the tests
+    private static final String FONT_DIRECTORY = "/usr/share/fonts/truetype/dejavu";
+
+    FontManager fontManager;
+
+    @Before
+    public void setUp() {
+        fontManager = new FontManager();
+    }
+
+    @Test
+    public void shouldShareLoadedFontsBetweenRenderers() throws Exception {
+        assumeTrue(new File(FONT_DIRECTORY).isDirectory());
+        List<String> fontPaths = Collections.singletonList(FONT_DIRECTORY);
+        int fontFiles = fontManager.listFontFiles(FONT_DIRECTORY).size();
+
+        ITextRenderer first = new ITextRenderer();
+        ITextRenderer second = new ITextRenderer();
+        fontManager.register(first.getFontResolver(), fontPaths);
+        fontManager.register(second.getFontResolver(), fontPaths);
+
+        assertEquals("each font is loaded once", fontFiles, fontManager.getFontCount());
+        BaseFont font = resolveFont(first, "DejaVu Sans");
+        assertEquals("DejaVuSans", font.getPostscriptFontName());
+        assertSame("base font is shared", font, resolveFont(second, "DejaVu Sans"));
+    }
+
+    @Test
+    public void shouldRenderWithSharedFont() throws Exception {
+        assumeTrue(new File(FONT_DIRECTORY).isDirectory());
+        HtmlToPdf htmlToPdf = new HtmlToPdf(new RendererPool(1, Collections.singletonList(FONT_DIRECTORY),
+                new RenderResourceCache(), fontManager));
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        htmlToPdf.create("<html><head><link rel=\"stylesheet\" type=\"text/css\" href=\"style.css\"/></head>"
+                + "<body><p>Hello</p></body></html>", "p { font-family: 'DejaVu Sans'; }", outputStream);
+
+        assertTrue("font is embedded", new String(outputStream.toByteArray(), "ISO-8859-1").contains("DejaVuSans"));
+    }
+
+    @Test
+    public void shouldFailOnMissingFontFile() throws Exception {
+        try {
+            fontManager.register(new ITextRenderer().getFontResolver(), Collections.singletonList("nonexistent.ttf"));
+            fail("Should have thrown exception");
+        } catch (IOException e) {
+            // expected
+        }
+        assertEquals("failed font is not kept", 0, fontManager.getFontCount());
+    }
+
+    @Test
+    public void shouldListOnlyFontFiles() throws Exception {
+        File directory = new File("target/fonts-" + System.nanoTime());
+        assertTrue(directory.mkdirs());
+        try {
+            assertTrue(new File(directory, "readme.txt").createNewFile());
+            assertTrue("other files are not fonts", fontManager.listFontFiles(directory.getPath()).isEmpty());
+        } finally {
+            new File(directory, "readme.txt").delete();
+            directory.delete();
+        }
+    }
+
+    private BaseFont resolveFont(ITextRenderer renderer, String family) {
+        FontSpecification spec = new FontSpecification();
+        spec.families = new String[] { family };
+        spec.size = 12;
+        spec.fontWeight = IdentValue.NORMAL;
+        spec.fontStyle = IdentValue.NORMAL;
+        spec.variant = IdentValue.NORMAL;
+        ITextFSFont font = (ITextFSFont) renderer.getFontResolver().resolveFont(renderer.getSharedContext(), spec);
+        return font.getFontDescription().getFont();
+    }
+}
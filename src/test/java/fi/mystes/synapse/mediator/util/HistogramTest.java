@@ -0,0 +1,65 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class HistogramTest {
+
+    @Test
+    public void shouldCalculateStatisticsOfRecordedValues() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(50, histogram.getPercentile(50));
+        assertEquals(95, histogram.getPercentile(95));
+        assertEquals(99, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void shouldCalculatePercentilesFromMostRecentValues() {
+        Histogram histogram = new Histogram(10);
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(1000);
+        }
+        for (int i = 1; i <= 10; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals("count covers all values", 20, histogram.getCount());
+        assertEquals("max covers all values", 1000, histogram.getMax());
+        assertEquals("percentile covers recent values", 10, histogram.getPercentile(99));
+    }
+
+    @Test
+    public void shouldForgetValuesOnReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(5);
+        histogram.reset();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+}
@@ -0,0 +1,83 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.util.List;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xhtmlrenderer.resource.XMLResource;
+
+public class HtmlChunkerTest {
+
+    @Test
+    public void shouldSplitAtSections() {
+        Document html = parse("<html><head><title>t</title></head><body><h1>Report</h1>"
+                + "<section>1</section><section>2</section><p>between</p><section>3</section><p>end</p></body></html>");
+
+        List<Document> chunks = new HtmlChunker("section", 1).split(html);
+
+        assertEquals(3, chunks.size());
+        assertEquals("t", text(chunks.get(0), "title"));
+        assertEquals("t", text(chunks.get(2), "title"));
+        assertEquals("Report1", body(chunks.get(0)));
+        assertEquals("2", body(chunks.get(1)));
+        assertEquals("between3end", body(chunks.get(2)));
+        assertEquals("original document is left intact", 3, html.getElementsByTagName("section").getLength());
+    }
+
+    @Test
+    public void shouldSplitTableRowsRepeatingHeader() {
+        Document html = parse("<html><body><p>before</p><table class=\"rows\"><thead><tr><th>H</th></tr></thead>"
+                + "<tbody><tr><td>1</td></tr><tr><td>2</td></tr><tr><td>3</td></tr></tbody></table>"
+                + "<p>after</p></body></html>");
+
+        List<Document> chunks = new HtmlChunker("tr", 2).split(html);
+
+        assertEquals(2, chunks.size());
+        assertEquals("beforeH12", body(chunks.get(0)));
+        assertEquals("H3after", body(chunks.get(1)));
+        assertEquals("attributes are copied", "rows",
+                ((Element) chunks.get(1).getElementsByTagName("table").item(0)).getAttribute("class"));
+    }
+
+    @Test
+    public void shouldNotSplitSmallDocument() {
+        Document html = parse("<html><body><section>1</section><section>2</section></body></html>");
+
+        List<Document> chunks = new HtmlChunker("section", 2).split(html);
+
+        assertEquals(1, chunks.size());
+        assertSame(html, chunks.get(0));
+    }
+
+    private static Document parse(String html) {
+        return XMLResource.load(new StringReader(html)).getDocument();
+    }
+
+    private static String body(Document html) {
+        return text(html, "body");
+    }
+
+    private static String text(Document html, String element) {
+        return html.getElementsByTagName(element).item(0).getTextContent();
+    }
+}
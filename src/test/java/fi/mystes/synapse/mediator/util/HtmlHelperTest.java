@@ -19,6 +19,9 @@ import static fi.mystes.synapse.mediator.util.TestUtil.getResuorceAsString;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
 import org.junit.Test;
 
 public class HtmlHelperTest {
@@ -36,4 +39,16 @@ public class HtmlHelperTest {
         assertFalse(cleandHtml.contains(DOCTYPE));
         assertTrue(cleandHtml.contains(TABLE));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldCleanHtmlContentBetweenStreams() throws Exception {
+        final String originalHtml = getResuorceAsString("example.html");
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        new HtmlHelper().clean(new ByteArrayInputStream(originalHtml.getBytes("UTF-8")), out);
+
+        final String cleandHtml = out.toString("UTF-8");
+        assertFalse(cleandHtml.contains(DOCTYPE));
+        assertTrue(cleandHtml.contains(TABLE));
+    }
+}
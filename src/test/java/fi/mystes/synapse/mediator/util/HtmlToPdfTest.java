@@ -16,19 +16,33 @@
 package fi.mystes.synapse.mediator.util;
 
 import static fi.mystes.synapse.mediator.util.TestUtil.getResuorceAsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
 
+import org.apache.axiom.om.util.AXIOMUtil;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.lowagie.text.DocumentException;
+import com.lowagie.text.PageSize;
 import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.parser.PdfTextExtractor;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 public class HtmlToPdfTest {
 
@@ -55,6 +69,247 @@ public class HtmlToPdfTest {
     public void test() throws IOException, DocumentException {
         assertFalse("file doesn't exists", Files.exists(file.toPath()));
         new HtmlToPdf().create(html, css, createdFilePath);
+        assertPdfContent();
+    }
+
+    @Test
+    public void shouldCreatePdfFromDocument() throws Exception {
+        Document document = new XslTransformer().transformToDocument(
+                AXIOMUtil.stringToOM(getResuorceAsString("example.xml")), null, getResuorceAsString("example.xsl"));
+
+        assertFalse("file doesn't exists", Files.exists(file.toPath()));
+        new HtmlToPdf().create(document, css, createdFilePath);
+        assertPdfContent();
+        assertEquals("CSS link refers to cached style sheet", StylesheetCache.STYLESHEET_URI,
+                ((Element) document.getElementsByTagName("link").item(0)).getAttribute("href"));
+    }
+
+    @Test
+    public void shouldCreatePdfIntoStream() throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        new HtmlToPdf().create(html, css, outputStream);
+        Files.write(file.toPath(), outputStream.toByteArray());
+
+        assertPdfContent();
+    }
+
+    @Test
+    public void shouldCreatePdfWithoutCleaningWellFormedHtml() throws Exception {
+        HtmlToPdf htmlToPdf = new HtmlToPdf();
+        htmlToPdf.setCleanHtml(false);
+        htmlToPdf.create(new HtmlHelper().clean(html), css, createdFilePath);
+
+        assertPdfContent();
+        assertEquals("content is not cleaned", 0, htmlToPdf.getCleanFallbackCount());
+    }
+
+    @Test
+    public void shouldCleanMalformedHtmlAlthoughCleaningIsDisabled() throws Exception {
+        HtmlToPdf htmlToPdf = new HtmlToPdf();
+        htmlToPdf.setCleanHtml(false);
+        htmlToPdf.create(html, css, createdFilePath);
+
+        assertPdfContent();
+        assertEquals("content is cleaned", 1, htmlToPdf.getCleanFallbackCount());
+    }
+
+    @Test
+    public void shouldCreatePdfFromSpillFile() throws Exception {
+        SpillFile spillFile = createSpillFile(html);
+
+        new HtmlToPdf().create(spillFile, css, createdFilePath);
+
+        assertPdfContent();
+        assertFalse("spill file is deleted", Files.exists(spillFile.getPath()));
+    }
+
+    @Test
+    public void shouldCreatePdfFromWellFormedSpillFileWithoutCleaning() throws Exception {
+        HtmlToPdf htmlToPdf = new HtmlToPdf();
+        htmlToPdf.setCleanHtml(false);
+        SpillFile spillFile = createSpillFile(new HtmlHelper().clean(html));
+
+        htmlToPdf.create(spillFile, css, createdFilePath);
+
+        assertPdfContent();
+        assertEquals("content is not cleaned", 0, htmlToPdf.getCleanFallbackCount());
+        assertFalse("spill file is deleted", Files.exists(spillFile.getPath()));
+    }
+
+    @Test
+    public void shouldRenderChunksWithContinuousPageNumbers() throws Exception {
+        HtmlToPdf htmlToPdf = new HtmlToPdf();
+        htmlToPdf.setChunker(new HtmlChunker("section", 1));
+        ParallelRenderEngine engine = new ParallelRenderEngine(2);
+        htmlToPdf.setChunkEngine(engine);
+        String pageCss = "@page { @bottom-center { content: \"Page \" counter(page) \" of \" counter(pages); } }";
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            htmlToPdf.create("<html><head><link rel=\"stylesheet\" href=\"example.css\"/></head><body>"
+                    + "<section>First</section><section>Second</section><section>Third</section></body></html>",
+                    pageCss, outputStream);
+        } finally {
+            engine.shutdown();
+        }
+
+        Files.write(file.toPath(), outputStream.toByteArray());
+        PdfReader reader = new PdfReader(createdFilePath);
+        assertEquals(3, reader.getNumberOfPages());
+        String lastPage = new PdfTextExtractor(reader).getTextFromPage(3);
+        assertTrue("chunk content is rendered", lastPage.contains("Third"));
+        assertTrue("page numbers continue across chunks", lastPage.contains("Page 3 of 3"));
+    }
+
+    @Test
+    public void shouldRenderChunksWithPooledRenderers() throws Exception {
+        RendererPool pool = new RendererPool(1, Collections.<String>emptyList());
+        HtmlToPdf htmlToPdf = new HtmlToPdf(pool);
+        htmlToPdf.setChunker(new HtmlChunker("section", 1));
+        ParallelRenderEngine engine = new ParallelRenderEngine(2);
+        htmlToPdf.setChunkEngine(engine);
+        String pageCss = "@page { @bottom-center { content: counter(page) \" / \" counter(pages); } }";
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try {
+            htmlToPdf.create("<html><head><link rel=\"stylesheet\" href=\"example.css\"/></head><body>"
+                    + "<section>First</section><section>Second</section><section>Third</section></body></html>",
+                    pageCss, outputStream);
+        } finally {
+            engine.shutdown();
+        }
+
+        Files.write(file.toPath(), outputStream.toByteArray());
+        PdfReader reader = new PdfReader(createdFilePath);
+        assertEquals(3, reader.getNumberOfPages());
+        assertTrue("page numbers continue across chunks",
+                new PdfTextExtractor(reader).getTextFromPage(2).contains("2 / 3"));
+        assertEquals("pool bound is kept", 1, pool.getCreatedCount());
+        assertEquals("renderers are returned", 1, pool.getIdleCount());
+        assertEquals("each chunk is counted and drawn with a borrowed renderer", 6, pool.getBorrowCount());
+    }
+
+    @Test
+    public void shouldApplyCachedStylesheet() throws Exception {
+        HtmlToPdf htmlToPdf = new HtmlToPdf();
+        String pageCss = "@page { size: A5; }";
+        htmlToPdf.create(html, pageCss, new ByteArrayOutputStream());
+        htmlToPdf.create(html, pageCss, createdFilePath);
+
+        assertEquals("style sheet is parsed once", 1, htmlToPdf.getStylesheetCache().getMissCount());
+        assertEquals("style sheet is reused", 1, htmlToPdf.getStylesheetCache().getHitCount());
+        assertEquals("style sheet is applied", PageSize.A5.getWidth(),
+                new PdfReader(createdFilePath).getPageSize(1).getWidth(), 1);
+    }
+
+    @Test
+    public void shouldApplyStylesheetOfScreenMediaLink() throws Exception {
+        new HtmlToPdf().create("<html><head><link rel=\"stylesheet\" type=\"text/css\" media=\"screen\" "
+                + "href=\"example.css\"/><link href=\"other.css\"/></head><body><p>Hello</p></body></html>",
+                "@page { size: A5; }", createdFilePath);
+
+        assertEquals("style sheet is applied to print", PageSize.A5.getWidth(),
+                new PdfReader(createdFilePath).getPageSize(1).getWidth(), 1);
+    }
+
+    @Test
+    public void shouldRecordStageMetrics() throws Exception {
+        PdfMediatorMetrics metrics = new PdfMediatorMetrics();
+        HtmlToPdf htmlToPdf = new HtmlToPdf();
+        htmlToPdf.setMetrics(metrics);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        htmlToPdf.create(html, css, outputStream);
+        Files.write(file.toPath(), outputStream.toByteArray());
+
+        assertEquals("clean is recorded", 1, metrics.getStage(PdfMediatorMetrics.Stage.CLEAN).getCount());
+        assertEquals("layout is recorded", 1, metrics.getStage(PdfMediatorMetrics.Stage.LAYOUT).getCount());
+        assertEquals("write is recorded", 1, metrics.getStage(PdfMediatorMetrics.Stage.WRITE).getCount());
+        assertEquals("bytes in are recorded", html.length(), metrics.getBytesIn().getMax());
+        assertEquals("bytes out are recorded", outputStream.size(), metrics.getBytesOut().getMax());
+        assertEquals("pages are recorded", 1, metrics.getPages().getMax());
+        assertPdfContent();
+    }
+
+    @Test
+    public void shouldCommitPdfFile() throws Exception {
+        PdfMediatorMetrics metrics = new PdfMediatorMetrics();
+        HtmlToPdf htmlToPdf = new HtmlToPdf();
+        htmlToPdf.setMetrics(metrics);
+        htmlToPdf.setFileWriter(new PdfFileWriter(1024, true, true, false));
+        htmlToPdf.create(html, css, createdFilePath);
+
+        assertPdfContent();
+        assertEquals("commit is recorded", 1, metrics.getStage(PdfMediatorMetrics.Stage.COMMIT).getCount());
+    }
+
+    @Test
+    public void shouldNotLeavePdfFileOfFailedRender() throws Exception {
+        HtmlToPdf htmlToPdf = new HtmlToPdf(new RendererPool(1, Collections.singletonList("nonexistent.ttf")));
+        try {
+            htmlToPdf.create(html, css, createdFilePath);
+            fail("Should have thrown exception");
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertFalse("no file is left behind", file.exists());
+        assertEquals("no temporary file is left behind", 0,
+                file.getAbsoluteFile().getParentFile().list(new FilenameFilter() {
+                    @Override
+                    public boolean accept(File dir, String name) {
+                        return name.startsWith("." + file.getName());
+                    }
+                }).length);
+        // tearDown expects the test file to exist
+        file.createNewFile();
+    }
+
+    @Test
+    public void shouldReusePooledRenderer() throws Exception {
+        HtmlToPdf htmlToPdf = new HtmlToPdf(new RendererPool(1, Collections.<String>emptyList()));
+        htmlToPdf.create(html, css, createdFilePath);
+        assertTrue("delete first file", file.delete());
+        htmlToPdf.create(html, css, createdFilePath);
+
+        assertPdfContent();
+        assertEquals("renderer is reused", 1, htmlToPdf.getRendererPool().getCreatedCount());
+    }
+
+    @Test
+    public void shouldRenderWithWorkerRendererInParallelEngine() throws Exception {
+        final HtmlToPdf htmlToPdf = new HtmlToPdf(new RendererPool(1, Collections.<String>emptyList()));
+        ParallelRenderEngine engine = new ParallelRenderEngine(1);
+        Callable<byte[]> render = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+                htmlToPdf.create(html, css, outputStream);
+                return outputStream.toByteArray();
+            }
+        };
+
+        try {
+            List<byte[]> pdfs = engine.invokeAll(Arrays.asList(render, render));
+            assertTrue("second document is rendered", new PdfReader(pdfs.get(1)).getNumberOfPages() > 0);
+        } finally {
+            engine.shutdown();
+        }
+        htmlToPdf.create(html, css, createdFilePath);
+
+        assertPdfContent();
+        assertEquals("worker renderer is not taken from the pool", 1, htmlToPdf.getRendererPool().getCreatedCount());
+        assertEquals(0, htmlToPdf.getRendererPool().getWaitingCount());
+    }
+
+    private SpillFile createSpillFile(String content) throws IOException {
+        SpillFile spillFile = new SpillFile(null);
+        try (OutputStream out = spillFile.openOutputStream()) {
+            out.write(content.getBytes("UTF-8"));
+        }
+        return spillFile;
+    }
+
+    private void assertPdfContent() throws IOException {
         assertTrue("file exists", file.exists());
         
         PdfReader pdfReader = new PdfReader(createdFilePath);
@@ -15,23 +15,35 @@
  */
 package fi.mystes.synapse.mediator.util;
 
+import org.apache.axiom.attachments.ByteArrayDataSource;
+import org.apache.axiom.om.OMAbstractFactory;
 import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.OMText;
+import org.apache.axiom.om.util.AXIOMUtil;
 import org.apache.axiom.soap.SOAPBody;
 import org.apache.axiom.soap.SOAPEnvelope;
 import org.apache.synapse.MessageContext;
 import org.apache.synapse.config.SynapseConfiguration;
+import org.apache.synapse.core.axis2.Axis2MessageContext;
 import org.apache.synapse.core.SynapseEnvironment;
 import org.apache.synapse.registry.Registry;
 import org.junit.Before;
 import org.junit.Test;
 import org.apache.synapse.config.Entry;
 
+import javax.activation.DataHandler;
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -77,6 +89,29 @@ public class MediatorUtilTest {
         verify(body).getFirstElement();
     }
 
+    @Test
+    public void shouldGetPayloadElement() {
+        assertSame("payload element is returned", firstElement, mu.getPayloadElement(mc));
+        verify(body).getFirstElement();
+    }
+
+    @Test
+    public void shouldSetBinaryPayload() throws Exception {
+        SOAPEnvelope realEnvelope = OMAbstractFactory.getSOAP11Factory().getDefaultEnvelope();
+        realEnvelope.getBody().addChild(AXIOMUtil.stringToOM(PAYLOAD));
+        when(mc.getEnvelope()).thenReturn(realEnvelope);
+        DataHandler content = new DataHandler(new ByteArrayDataSource(new byte[] { 1, 2, 3 }, "application/pdf"));
+
+        mu.setBinaryPayload(content, true, mc);
+
+        OMElement binary = realEnvelope.getBody().getFirstElement();
+        assertEquals("payload is wrapped in binary element", MediatorUtil.BINARY_PAYLOAD, binary.getQName());
+        assertSame("previous payload is removed", binary, realEnvelope.getBody().getFirstOMChild());
+        OMText text = (OMText) binary.getFirstOMChild();
+        assertTrue("content is optimizable binary", text.isBinary() && text.isOptimized());
+        assertSame("content is set", content, text.getDataHandler());
+    }
+
     @Test
     public void shouldGetProperty() {
         when(mc.getProperty(KEY)).thenReturn(PROPERTY_VALUE);
@@ -93,4 +128,42 @@ public class MediatorUtilTest {
         verify(synapseConfiguration).getRegistry();
 
     }
+
+    @Test
+    public void shouldGetCachedResource() {
+        mu.setResourceCache(new RegistryResourceCache());
+        when(registry.getResource(any(Entry.class),any(Properties.class))).thenReturn(RESOURCE_VALUE);
+        assertEquals("resource is returned", RESOURCE_VALUE, mu.getResource(RESOURCE_PATH, mc));
+        assertEquals("cached resource is returned", RESOURCE_VALUE, mu.getResource(RESOURCE_PATH, mc));
+        verify(registry, times(1)).getResource(any(Entry.class),any(Properties.class));
+    }
+
+    @Test
+    public void shouldEstimatePayloadSizeBySerializingPayload() throws Exception {
+        when(body.getFirstElement()).thenReturn(AXIOMUtil.stringToOM("<payload>content</payload>"));
+
+        assertEquals("<payload>content</payload>".length(), mu.getPayloadSize(mc));
+    }
+
+    @Test
+    public void shouldEstimatePayloadSizeFromContentLength() {
+        Axis2MessageContext axis2Mc = mock(Axis2MessageContext.class);
+        org.apache.axis2.context.MessageContext axis2Context = new org.apache.axis2.context.MessageContext();
+        Map<String, String> headers = new HashMap<String, String>();
+        headers.put("Content-Length", "12345");
+        axis2Context.setProperty(org.apache.axis2.context.MessageContext.TRANSPORT_HEADERS, headers);
+        when(axis2Mc.getAxis2MessageContext()).thenReturn(axis2Context);
+
+        assertEquals(12345, mu.getPayloadSize(axis2Mc));
+    }
+
+    @Test
+    public void shouldHashPayloadContent() throws Exception {
+        when(body.getFirstElement()).thenReturn(AXIOMUtil.stringToOM("<payload>content</payload>"),
+                AXIOMUtil.stringToOM("<payload>content</payload>"), AXIOMUtil.stringToOM("<payload>other</payload>"));
+
+        String hash = mu.getPayloadHash(mc);
+        assertEquals("same content has same hash", hash, mu.getPayloadHash(mc));
+        assertFalse("different content has different hash", hash.equals(mu.getPayloadHash(mc)));
+    }
 }
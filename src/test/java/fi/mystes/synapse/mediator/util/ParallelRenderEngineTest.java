@@ -0,0 +1,202 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class ParallelRenderEngineTest {
+
+    ParallelRenderEngine engine = new ParallelRenderEngine(2);
+
+    @After
+    public void tearDown() {
+        engine.shutdown();
+    }
+
+    @Test
+    public void shouldReturnResultsInItemOrder() throws Exception {
+        List<Callable<Integer>> items = new ArrayList<Callable<Integer>>();
+        for (int i = 0; i < 10; i++) {
+            final int item = i;
+            items.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    Thread.sleep(10 - item);
+                    return item;
+                }
+            });
+        }
+
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), engine.invokeAll(items));
+    }
+
+    @Test
+    public void shouldRenderItemsInParallel() throws Exception {
+        final CountDownLatch bothRunning = new CountDownLatch(2);
+        Callable<Boolean> item = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                bothRunning.countDown();
+                return bothRunning.await(5, TimeUnit.SECONDS);
+            }
+        };
+
+        assertEquals(Arrays.asList(true, true), engine.invokeAll(Arrays.asList(item, item)));
+    }
+
+    @Test
+    public void shouldThrowFailureOfItem() throws Exception {
+        final IOException failure = new IOException("render failed");
+        Callable<Integer> failing = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                throw failure;
+            }
+        };
+        Callable<Integer> succeeding = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return 1;
+            }
+        };
+
+        try {
+            engine.invokeAll(Arrays.asList(succeeding, failing));
+            fail("Should have thrown exception");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertFalse("executor is usable after failed batch", engine.invokeAll(Arrays.asList(succeeding)).isEmpty());
+    }
+
+    @Test
+    public void shouldReturnResultsInCompletionOrder() throws Exception {
+        // the slow item completes only once the fast result has been taken
+        final CountDownLatch firstTaken = new CountDownLatch(1);
+        ParallelRenderEngine observed = new ParallelRenderEngine(2) {
+            @Override
+            <T> CompletionService<T> newCompletionService() {
+                return new TakeObservingCompletionService<T>(super.<T> newCompletionService(), firstTaken);
+            }
+        };
+        Callable<Integer> slow = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                firstTaken.await(5, TimeUnit.SECONDS);
+                return 0;
+            }
+        };
+        Callable<Integer> fast = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                return 1;
+            }
+        };
+
+        try {
+            assertEquals(Arrays.asList(1, 0), observed.invokeAll(Arrays.asList(slow, fast), false));
+        } finally {
+            observed.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldKeepWorkerResourcesBetweenItems() throws Exception {
+        ParallelRenderEngine single = new ParallelRenderEngine(1);
+        final Object key = new Object();
+        Callable<Object> item = new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                Map<Object, Object> resources = ParallelRenderEngine.getWorkerResources();
+                if (!resources.containsKey(key)) {
+                    resources.put(key, new Object());
+                }
+                return resources.get(key);
+            }
+        };
+
+        try {
+            List<Object> results = single.invokeAll(Arrays.asList(item, item));
+            assertSame("worker reuses its resource", results.get(0), results.get(1));
+        } finally {
+            single.shutdown();
+        }
+        assertNull("other threads have no worker resources", ParallelRenderEngine.getWorkerResources());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidParallelism() {
+        new ParallelRenderEngine(0);
+    }
+
+    /**
+     * Completion service counting down a latch whenever a completed item is taken.
+     */
+    private static class TakeObservingCompletionService<T> implements CompletionService<T> {
+        private final CompletionService<T> delegate;
+        private final CountDownLatch taken;
+
+        TakeObservingCompletionService(CompletionService<T> delegate, CountDownLatch taken) {
+            this.delegate = delegate;
+            this.taken = taken;
+        }
+
+        @Override
+        public Future<T> submit(Callable<T> task) {
+            return delegate.submit(task);
+        }
+
+        @Override
+        public Future<T> submit(Runnable task, T result) {
+            return delegate.submit(task, result);
+        }
+
+        @Override
+        public Future<T> take() throws InterruptedException {
+            Future<T> future = delegate.take();
+            taken.countDown();
+            return future;
+        }
+
+        @Override
+        public Future<T> poll() {
+            return delegate.poll();
+        }
+
+        @Override
+        public Future<T> poll(long timeout, TimeUnit unit) throws InterruptedException {
+            return delegate.poll(timeout, unit);
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PdfFileWriterTest {
+
+    Path directory;
+    Path target;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pdf-file-writer");
+        target = directory.resolve("document.pdf");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        deleteRecursively(directory.toFile());
+    }
+
+    @Test
+    public void shouldRenameCompletedFileIntoPlace() throws IOException {
+        PdfFileWriter.PdfFileStream stream = new PdfFileWriter().open(target.toString());
+        try {
+            stream.write(content(100));
+            assertFalse("target appears only once complete", Files.exists(target));
+            assertEquals("temporary file is written in target directory", 1, directory.toFile().list().length);
+            stream.commit();
+        } finally {
+            stream.close();
+        }
+
+        assertArrayEquals(content(100), Files.readAllBytes(target));
+        assertEquals("temporary file is renamed", 1, directory.toFile().list().length);
+    }
+
+    @Test
+    public void shouldCreateFileWithPermissionsOfDirectlyWrittenFile() throws IOException {
+        assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+        Path direct = directory.resolve("direct.pdf");
+        new FileOutputStream(direct.toFile()).close();
+        PdfFileWriter.PdfFileStream stream = new PdfFileWriter().open(target.toString());
+        try {
+            stream.write(content(10));
+            stream.commit();
+        } finally {
+            stream.close();
+        }
+
+        Set<PosixFilePermission> expected = Files.getPosixFilePermissions(direct);
+        assumeTrue("umask allows others to read", !expected.equals(PosixFilePermissions.fromString("rw-------")));
+        assertEquals("file is not owner only but follows the umask", expected, Files.getPosixFilePermissions(target));
+    }
+
+    @Test
+    public void shouldForceFileAndDirectoryToDisk() throws IOException {
+        PdfFileWriter.PdfFileStream stream = new PdfFileWriter(PdfFileWriter.DEFAULT_BUFFER_SIZE, true, true, false)
+                .open(target.toString());
+        try {
+            stream.write(content(100));
+            stream.commit();
+        } finally {
+            stream.close();
+        }
+
+        assertArrayEquals(content(100), Files.readAllBytes(target));
+        assertEquals("temporary file is renamed", 1, directory.toFile().list().length);
+    }
+
+    @Test
+    public void shouldLeaveNoFileIfNotCommitted() throws IOException {
+        Files.write(target, content(10));
+        PdfFileWriter.PdfFileStream stream = new PdfFileWriter().open(target.toString());
+        stream.write(content(100));
+        stream.close();
+
+        assertArrayEquals("previous file is untouched", content(10), Files.readAllBytes(target));
+        assertEquals("temporary file is deleted", 1, directory.toFile().list().length);
+    }
+
+    @Test
+    public void shouldWriteContentLargerThanBuffer() throws IOException {
+        PdfFileWriter.PdfFileStream stream = new PdfFileWriter(16, true, true, false).open(target.toString());
+        try {
+            stream.write(content(10));
+            stream.write(content(100));
+            for (int i = 0; i < 20; i++) {
+                stream.write(i);
+            }
+            stream.commit();
+        } finally {
+            stream.close();
+        }
+
+        byte[] written = Files.readAllBytes(target);
+        assertEquals(130, written.length);
+        assertArrayEquals(content(10), Arrays.copyOfRange(written, 0, 10));
+        assertArrayEquals(content(100), Arrays.copyOfRange(written, 10, 110));
+        assertEquals(19, written[129]);
+    }
+
+    @Test
+    public void shouldWriteDirectlyWhenNotAtomic() throws IOException {
+        Files.write(target, content(200));
+        PdfFileWriter.PdfFileStream stream = new PdfFileWriter(16, false, false, false).open(target.toString());
+        try {
+            stream.write(content(100));
+            stream.flush();
+            assertEquals("existing file is truncated", 100, Files.size(target));
+            stream.commit();
+        } finally {
+            stream.close();
+        }
+
+        assertArrayEquals(content(100), Files.readAllBytes(target));
+    }
+
+    @Test
+    public void shouldCreateMissingDirectories() throws IOException {
+        Path nested = directory.resolve("a").resolve("b").resolve("document.pdf");
+        PdfFileWriter.PdfFileStream stream = new PdfFileWriter(1024, true, false, true).open(nested.toString());
+        try {
+            stream.write(content(10));
+            stream.commit();
+        } finally {
+            stream.close();
+        }
+
+        assertTrue(Files.exists(nested));
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldNotCreateMissingDirectoriesByDefault() throws IOException {
+        new PdfFileWriter().open(directory.resolve("missing").resolve("document.pdf").toString());
+    }
+
+    private static byte[] content(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) i;
+        }
+        return content;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
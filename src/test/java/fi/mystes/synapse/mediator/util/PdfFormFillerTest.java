@@ -0,0 +1,144 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.PageSize;
+import com.lowagie.text.Rectangle;
+import com.lowagie.text.pdf.PdfDictionary;
+import com.lowagie.text.pdf.PdfName;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+import com.lowagie.text.pdf.TextField;
+
+public class PdfFormFillerTest {
+
+    File template;
+
+    @Before
+    public void setUp() throws Exception {
+        template = File.createTempFile("form-template", ".pdf");
+        writeTemplate(template, "recipient", "address");
+    }
+
+    @After
+    public void tearDown() {
+        template.delete();
+    }
+
+    @Test
+    public void shouldFillFormFields() throws Exception {
+        PdfFormFiller filler = new PdfFormFiller(template.getPath(), false);
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("recipient", "John Doe");
+        values.put("address", "Main Street 1");
+        values.put("unknown", "ignored");
+
+        PdfReader reader = new PdfReader(fill(filler, values));
+
+        assertEquals("John Doe", reader.getAcroFields().getField("recipient"));
+        assertEquals("Main Street 1", reader.getAcroFields().getField("address"));
+    }
+
+    @Test
+    public void shouldFlattenFilledForm() throws Exception {
+        PdfFormFiller filler = new PdfFormFiller(template.getPath(), true);
+
+        PdfReader reader = new PdfReader(fill(filler, singleValue("recipient", "John Doe")));
+
+        assertTrue("fields are removed", reader.getAcroFields().getFields().isEmpty());
+        assertNull("widgets are removed", reader.getPageN(1).get(PdfName.ANNOTS));
+        PdfDictionary resources = reader.getPageN(1).getAsDict(PdfName.RESOURCES);
+        assertEquals("appearances are drawn on page", 2, resources.getAsDict(PdfName.XOBJECT).size());
+    }
+
+    @Test
+    public void shouldFillIndependentCopiesOfTemplate() throws Exception {
+        PdfFormFiller filler = new PdfFormFiller(template.getPath(), false);
+
+        PdfReader first = new PdfReader(fill(filler, singleValue("recipient", "First")));
+        PdfReader second = new PdfReader(fill(filler, singleValue("address", "Second")));
+
+        assertEquals("First", first.getAcroFields().getField("recipient"));
+        assertEquals("value of earlier fill is not kept", "", second.getAcroFields().getField("recipient"));
+        assertEquals("Second", second.getAcroFields().getField("address"));
+    }
+
+    @Test
+    public void shouldReloadChangedTemplate() throws Exception {
+        PdfFormFiller filler = new PdfFormFiller(template.getPath(), false);
+        fill(filler, singleValue("recipient", "John Doe"));
+
+        long lastModified = template.lastModified();
+        writeTemplate(template, "sender");
+        assertTrue(template.setLastModified(lastModified + 2000));
+
+        PdfReader reader = new PdfReader(fill(filler, singleValue("sender", "Jane Doe")));
+        assertEquals("Jane Doe", reader.getAcroFields().getField("sender"));
+    }
+
+    @Test
+    public void shouldFailOnMissingTemplate() throws Exception {
+        try {
+            new PdfFormFiller(new File(template.getParentFile(), "missing.pdf").getPath(), true).load();
+            fail("Should have thrown exception");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("missing.pdf"));
+        }
+    }
+
+    private static byte[] fill(PdfFormFiller filler, Map<String, String> values) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertEquals(1, filler.fill(values, outputStream));
+        return outputStream.toByteArray();
+    }
+
+    private static Map<String, String> singleValue(String name, String value) {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put(name, value);
+        return values;
+    }
+
+    public static void writeTemplate(File file, String... fieldNames) throws Exception {
+        Document document = new Document(PageSize.A6);
+        PdfWriter writer = PdfWriter.getInstance(document, new FileOutputStream(file));
+        document.open();
+        float top = PageSize.A6.getHeight() - 40;
+        for (String fieldName : fieldNames) {
+            TextField field = new TextField(writer, new Rectangle(20, top - 20, 250, top), fieldName);
+            writer.addAnnotation(field.getTextField());
+            top -= 30;
+        }
+        document.close();
+    }
+}
@@ -0,0 +1,92 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.AttributeNotFoundException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.Test;
+
+public class PdfMediatorMetricsTest {
+
+    PdfMediatorMetrics metrics = new PdfMediatorMetrics();
+
+    @Test
+    public void shouldExposeStageStatisticsInMilliseconds() throws Exception {
+        metrics.recordStage(PdfMediatorMetrics.Stage.LAYOUT, TimeUnit.MILLISECONDS.toNanos(20));
+        metrics.recordStage(PdfMediatorMetrics.Stage.LAYOUT, TimeUnit.MILLISECONDS.toNanos(40));
+
+        assertEquals(2L, metrics.getAttribute("LayoutCount"));
+        assertEquals(30.0, (Double) metrics.getAttribute("LayoutMeanMillis"), 0.001);
+        assertEquals(20.0, (Double) metrics.getAttribute("LayoutP50Millis"), 0.001);
+        assertEquals(40.0, (Double) metrics.getAttribute("LayoutP99Millis"), 0.001);
+        assertEquals(0L, metrics.getAttribute("TransformCount"));
+    }
+
+    @Test
+    public void shouldExposeSizesFailuresAndGauges() throws Exception {
+        metrics.recordBytesOut(1000);
+        metrics.recordBytesOut(3000);
+        metrics.recordPages(2);
+        metrics.recordFailure();
+        metrics.addGauge("RendererPoolIdle", new PdfMediatorMetrics.Gauge() {
+            public long getValue() {
+                return 3;
+            }
+        });
+
+        assertEquals(4000L, metrics.getAttribute("BytesOutTotal"));
+        assertEquals(3000L, metrics.getAttribute("BytesOutMax"));
+        assertEquals(2L, metrics.getAttribute("PagesP50"));
+        assertEquals(1L, metrics.getAttribute("FailureCount"));
+        assertEquals(3L, metrics.getAttribute("RendererPoolIdle"));
+    }
+
+    @Test(expected = AttributeNotFoundException.class)
+    public void shouldFailOnUnknownAttribute() throws Exception {
+        metrics.getAttribute("LayoutP42Millis");
+    }
+
+    @Test
+    public void shouldBeReadableThroughMBeanServer() throws Exception {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("fi.mystes.test:Type=PdfMediator,Name=metricsTest");
+        server.registerMBean(metrics, name);
+        try {
+            metrics.recordStage(PdfMediatorMetrics.Stage.TRANSFORM, 1000);
+
+            assertEquals(1L, server.getAttribute(name, "TransformCount"));
+            boolean described = false;
+            for (MBeanAttributeInfo attribute : server.getMBeanInfo(name).getAttributes()) {
+                described |= "WriteP95Millis".equals(attribute.getName());
+            }
+            assertTrue("stage attributes are described", described);
+
+            server.invoke(name, "reset", null, null);
+            assertEquals(0L, server.getAttribute(name, "TransformCount"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
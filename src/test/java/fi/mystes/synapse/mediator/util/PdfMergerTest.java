@@ -0,0 +1,80 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.PageSize;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+
+public class PdfMergerTest {
+
+    @Test
+    public void shouldMergePagesInOrder() throws Exception {
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+
+        int pages = PdfMerger.merge(Arrays.asList(createPdf(2, PageSize.A4), createPdf(1, PageSize.A5)), merged);
+
+        PdfReader reader = new PdfReader(merged.toByteArray());
+        assertEquals(3, pages);
+        assertEquals(3, reader.getNumberOfPages());
+        assertEquals(PageSize.A4.getWidth(), reader.getPageSize(2).getWidth(), 0.1f);
+        assertEquals("page size of merged document is kept", PageSize.A5.getWidth(),
+                reader.getPageSize(3).getWidth(), 0.1f);
+    }
+
+    @Test
+    public void shouldCountPagesAddedSoFar() throws Exception {
+        ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        PdfMerger merger = new PdfMerger(merged);
+
+        merger.add(createPdf(2, PageSize.A4));
+        assertEquals(2, merger.getPageCount());
+        merger.add(createPdf(1, PageSize.A5));
+        merger.close();
+
+        assertEquals(3, merger.getPageCount());
+        assertEquals(3, new PdfReader(merged.toByteArray()).getNumberOfPages());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectEmptyList() throws Exception {
+        PdfMerger.merge(Collections.<byte[]>emptyList(), new ByteArrayOutputStream());
+    }
+
+    private static byte[] createPdf(int pages, com.lowagie.text.Rectangle pageSize) throws DocumentException {
+        ByteArrayOutputStream pdf = new ByteArrayOutputStream();
+        Document document = new Document(pageSize);
+        PdfWriter.getInstance(document, pdf);
+        document.open();
+        for (int page = 0; page < pages; page++) {
+            document.newPage();
+            document.add(new Paragraph("page " + page));
+        }
+        document.close();
+        return pdf.toByteArray();
+    }
+}
@@ -0,0 +1,208 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PdfResultCacheTest {
+
+    File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pdf-result-cache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldRenderOnlyOnMiss() throws Exception {
+        PdfResultCache cache = new PdfResultCache(1024);
+        CountingRender render = new CountingRender(new byte[] { 1, 2, 3 });
+
+        byte[] first = cache.get("key", render);
+        byte[] second = cache.get("key", render);
+
+        assertSame(first, second);
+        assertEquals(1, render.count.get());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(3, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void shouldNotRenderPdfCachedByRenderCompletedAfterLookup() throws Exception {
+        final byte[] cached = new byte[] { 1, 2, 3 };
+        PdfResultCache cache = new PdfResultCache(1024) {
+            private boolean looked;
+
+            @Override
+            public byte[] getIfPresent(String key) {
+                byte[] pdf = super.getIfPresent(key);
+                if (!looked) {
+                    // another render of the key completes right after the first lookup
+                    looked = true;
+                    put(key, cached);
+                }
+                return pdf;
+            }
+        };
+        CountingRender render = new CountingRender(new byte[] { 4 });
+
+        assertSame(cached, cache.get("key", render));
+        assertEquals("PDF is not rendered again", 0, render.count.get());
+        assertEquals(0, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedPdf() throws Exception {
+        PdfResultCache cache = new PdfResultCache(10);
+        cache.put("first", new byte[4]);
+        cache.put("second", new byte[4]);
+        cache.getIfPresent("first");
+        cache.put("third", new byte[4]);
+
+        assertNull("least recently used is evicted", cache.getIfPresent("second"));
+        assertEquals(4, cache.getIfPresent("first").length);
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(8, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void shouldKeepPdfsOnDiskAcrossInstances() throws Exception {
+        PdfResultCache cache = new PdfResultCache(1024, directory.getPath(), 1024);
+        cache.put("key", new byte[] { 1, 2, 3 });
+
+        PdfResultCache reopened = new PdfResultCache(1024, directory.getPath(), 1024);
+        assertEquals("cached file is indexed", 1, reopened.getDiskSize());
+        assertArrayEquals(new byte[] { 1, 2, 3 }, reopened.getIfPresent("key"));
+        assertEquals(1, reopened.getDiskHitCount());
+        assertEquals("disk hit is promoted to memory", 1, reopened.size());
+    }
+
+    @Test
+    public void shouldEvictPdfsFromDisk() throws Exception {
+        PdfResultCache cache = new PdfResultCache(0, directory.getPath(), 10);
+        cache.put("first", new byte[6]);
+        cache.put("second", new byte[6]);
+
+        assertEquals(1, cache.getDiskSize());
+        assertEquals(1, cache.getDiskEvictionCount());
+        assertTrue(new File(directory, "second.pdf").exists());
+        assertEquals("evicted file is deleted", 1, directory.list().length);
+    }
+
+    @Test
+    public void shouldWaitForRenderInFlight() throws Exception {
+        final PdfResultCache cache = new PdfResultCache(1024);
+        final CountDownLatch rendering = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger renders = new AtomicInteger();
+        final Callable<byte[]> render = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                renders.incrementAndGet();
+                rendering.countDown();
+                release.await(5, TimeUnit.SECONDS);
+                return new byte[] { 1 };
+            }
+        };
+        Callable<byte[]> lookup = new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return cache.get("key", render);
+            }
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<byte[]> first = executor.submit(lookup);
+            assertTrue(rendering.await(5, TimeUnit.SECONDS));
+            Future<byte[]> second = executor.submit(lookup);
+            while (cache.getDeduplicatedCount() == 0) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            assertSame(first.get(5, TimeUnit.SECONDS), second.get(5, TimeUnit.SECONDS));
+            assertEquals("same key is rendered once", 1, renders.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldNotCacheFailedRender() throws Exception {
+        PdfResultCache cache = new PdfResultCache(1024);
+        try {
+            cache.get("key", new Callable<byte[]>() {
+                @Override
+                public byte[] call() throws Exception {
+                    throw new IOException("render failed");
+                }
+            });
+            fail("Should have thrown exception");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+
+        CountingRender render = new CountingRender(new byte[] { 1 });
+        cache.get("key", render);
+        assertEquals("failed render is retried", 1, render.count.get());
+    }
+
+    private static class CountingRender implements Callable<byte[]> {
+        private final AtomicInteger count = new AtomicInteger();
+        private final byte[] pdf;
+
+        CountingRender(byte[] pdf) {
+            this.pdf = pdf;
+        }
+
+        @Override
+        public byte[] call() {
+            count.incrementAndGet();
+            return pdf;
+        }
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Properties;
+
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import javax.imageio.ImageIO;
+
+import org.apache.axiom.om.OMAbstractFactory;
+import org.apache.synapse.config.Entry;
+import org.apache.synapse.registry.Registry;
+import org.apache.synapse.registry.RegistryEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentMatcher;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+import org.xhtmlrenderer.resource.ImageResource;
+
+public class PdfUserAgentTest {
+
+    RenderResourceCache cache = new RenderResourceCache();
+    PdfUserAgent userAgent;
+    File imageFile;
+
+    @Before
+    public void setUp() throws IOException {
+        ITextRenderer renderer = new ITextRenderer();
+        userAgent = new PdfUserAgent(renderer.getOutputDevice(), cache);
+        userAgent.setSharedContext(renderer.getSharedContext());
+        renderer.getSharedContext().setUserAgentCallback(userAgent);
+
+        imageFile = File.createTempFile("pdf-user-agent", ".png");
+        ImageIO.write(new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB), "png", imageFile);
+    }
+
+    @After
+    public void tearDown() {
+        imageFile.delete();
+    }
+
+    @Test
+    public void shouldDecodeImageOnce() {
+        String uri = imageFile.toURI().toString();
+        ImageResource first = userAgent.getImageResource(uri);
+        ImageResource second = userAgent.getImageResource(uri);
+
+        assertNotNull(first.getImage());
+        assertNotNull(second.getImage());
+        assertNotSame("each use gets its own copy of the image", first.getImage(), second.getImage());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(imageFile.length(), cache.getSizeInBytes());
+    }
+
+    @Test
+    public void shouldShareImagesBetweenUserAgents() {
+        String uri = imageFile.toURI().toString();
+        userAgent.getImageResource(uri);
+        ITextRenderer renderer = new ITextRenderer();
+        PdfUserAgent other = new PdfUserAgent(renderer.getOutputDevice(), cache);
+        other.setSharedContext(renderer.getSharedContext());
+
+        assertNotNull(other.getImageResource(uri).getImage());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldNotCacheMissingImage() {
+        ImageResource resource = userAgent.getImageResource(new File("nonexistent.png").toURI().toString());
+
+        assertNull(resource.getImage());
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldReadImageFromRegistry() throws Exception {
+        Registry registry = mock(Registry.class);
+        stubVersion(registry, "gov:/images/logo.png", 1);
+        when(registry.getResource(argThat(entryWithKey("gov:/images/logo.png")), any(Properties.class)))
+                .thenReturn(OMAbstractFactory.getOMFactory().createOMText(
+                        new DataHandler(new FileDataSource(imageFile)), true));
+        userAgent.setRegistry(registry);
+
+        assertNotNull(userAgent.getImageResource("gov:/images/logo.png").getImage());
+        assertNotNull(userAgent.getImageResource("gov:/images/logo.png").getImage());
+        verify(registry, times(1)).getResource(any(Entry.class), any(Properties.class));
+    }
+
+    @Test
+    public void shouldReadChangedImageFromRegistryAgain() throws Exception {
+        Registry registry = mock(Registry.class);
+        stubVersion(registry, "gov:/images/logo.png", 1);
+        when(registry.getResource(argThat(entryWithKey("gov:/images/logo.png")), any(Properties.class)))
+                .thenReturn(OMAbstractFactory.getOMFactory().createOMText(
+                        new DataHandler(new FileDataSource(imageFile)), true));
+        userAgent.setRegistry(registry);
+
+        assertNotNull(userAgent.getImageResource("gov:/images/logo.png").getImage());
+        stubVersion(registry, "gov:/images/logo.png", 2);
+        assertNotNull(userAgent.getImageResource("gov:/images/logo.png").getImage());
+        verify(registry, times(2)).getResource(any(Entry.class), any(Properties.class));
+    }
+
+    @Test
+    public void shouldNotCacheUnversionedRegistryResource() throws Exception {
+        Registry registry = mock(Registry.class);
+        when(registry.getResource(argThat(entryWithKey("conf:/fonts/font.afm")), any(Properties.class)))
+                .thenReturn(OMAbstractFactory.getOMFactory().createOMText("font"));
+        userAgent.setRegistry(registry);
+
+        assertArrayEquals("font".getBytes("UTF-8"), userAgent.getBinaryResource("conf:/fonts/font.afm"));
+        assertArrayEquals("font".getBytes("UTF-8"), userAgent.getBinaryResource("conf:/fonts/font.afm"));
+        verify(registry, times(2)).getResource(any(Entry.class), any(Properties.class));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void shouldReadBinaryResourceFromRegistry() throws Exception {
+        Registry registry = mock(Registry.class);
+        stubVersion(registry, "conf:/fonts/font.afm", 1);
+        when(registry.getResource(argThat(entryWithKey("conf:/fonts/font.afm")), any(Properties.class)))
+                .thenReturn(OMAbstractFactory.getOMFactory().createOMText("font"));
+        userAgent.setRegistry(registry);
+
+        assertArrayEquals("font".getBytes("UTF-8"), userAgent.getBinaryResource("conf:/fonts/font.afm"));
+        assertArrayEquals("font".getBytes("UTF-8"), userAgent.getBinaryResource("conf:/fonts/font.afm"));
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldNotResolveRegistryKeyAgainstBaseUrl() {
+        userAgent.setBaseURL("http://localhost/documents/");
+
+        assertEquals("gov:/images/logo.png", userAgent.resolveURI("gov:/images/logo.png"));
+        assertTrue(userAgent.resolveURI("logo.png").startsWith("http://localhost/documents/"));
+    }
+
+    @Test
+    public void shouldNotFailWithoutRegistry() {
+        assertNull(userAgent.getImageResource("gov:/images/logo.png").getImage());
+        assertNull(userAgent.getBinaryResource("gov:/fonts/font.afm"));
+    }
+
+    private static void stubVersion(Registry registry, String key, long version) {
+        RegistryEntry registryEntry = mock(RegistryEntry.class);
+        when(registryEntry.getVersion()).thenReturn(version);
+        when(registryEntry.getLastModified()).thenReturn(1000L * version);
+        when(registry.getRegistryEntry(key)).thenReturn(registryEntry);
+    }
+
+    private static ArgumentMatcher<Entry> entryWithKey(final String key) {
+        return new ArgumentMatcher<Entry>() {
+            @Override
+            public boolean matches(Object argument) {
+                return argument instanceof Entry && key.equals(((Entry) argument).getKey());
+            }
+        };
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.apache.synapse.MessageContext;
+import org.apache.synapse.util.xpath.SynapseXPath;
+import org.junit.Test;
+
+public class PropertyExpressionTest {
+
+    private MessageContext messageContext = mock(MessageContext.class);
+
+    @Test
+    public void shouldRecognizeContextVariable() throws Exception {
+        assertEquals("templateName", PropertyExpression.parse(new SynapseXPath("$ctx:templateName")).getName());
+    }
+
+    @Test
+    public void shouldRecognizeGetPropertyFunction() throws Exception {
+        assertEquals("templateName", PropertyExpression.parse(new SynapseXPath("get-property('templateName')")).getName());
+        assertEquals("templateName",
+                PropertyExpression.parse(new SynapseXPath("get-property('default', \"templateName\")")).getName());
+    }
+
+    @Test
+    public void shouldNotRecognizeOtherExpressions() throws Exception {
+        assertNull(PropertyExpression.parse(new SynapseXPath("//templateName")));
+        assertNull(PropertyExpression.parse(new SynapseXPath("get-property('axis2', 'templateName')")));
+        assertNull(PropertyExpression.parse(new SynapseXPath("concat($ctx:dir, '/invoice.xsl')")));
+        assertNull("computed properties need XPath evaluation",
+                PropertyExpression.parse(new SynapseXPath("get-property('SYSTEM_DATE')")));
+        assertNull(PropertyExpression.parse(null));
+    }
+
+    @Test
+    public void shouldResolveStringPropertiesOnly() throws Exception {
+        PropertyExpression expression = PropertyExpression.parse(new SynapseXPath("$ctx:templateName"));
+        when(messageContext.getProperty("templateName")).thenReturn("invoice.xsl");
+        assertEquals("invoice.xsl", expression.resolve(messageContext));
+
+        when(messageContext.getProperty("templateName")).thenReturn(Integer.valueOf(1));
+        assertNull(expression.resolve(messageContext));
+    }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.apache.synapse.registry.Registry;
+import org.apache.synapse.registry.RegistryEntry;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class RegistryResourceCacheTest {
+
+    public static final String PATH = "gov:/css/example.css";
+    public static final String CONTENT = "body { color: black; }";
+
+    private Registry registry = mock(Registry.class);
+    private RegistryEntry registryEntry = mock(RegistryEntry.class);
+    private RegistryEntry changedEntry = mock(RegistryEntry.class);
+    private RegistryResourceCache.ResourceReader reader = mock(RegistryResourceCache.ResourceReader.class);
+
+    @Before
+    public void setUp() {
+        when(registry.getRegistryEntry(PATH)).thenReturn(registryEntry);
+        when(registryEntry.getVersion()).thenReturn(1L);
+        when(registryEntry.getLastModified()).thenReturn(1000L);
+        when(changedEntry.getVersion()).thenReturn(2L);
+        when(changedEntry.getLastModified()).thenReturn(2000L);
+        when(reader.read(anyString(), eq(registry))).thenReturn(CONTENT);
+    }
+
+    @Test
+    public void shouldServeCachedResourceWithoutRegistryAccess() {
+        RegistryResourceCache cache = new RegistryResourceCache(2, 60000);
+        assertSame("resource is read", CONTENT, cache.get(PATH, registry, reader));
+
+        assertSame("cached resource is returned", CONTENT, cache.get(PATH, registry, reader));
+        verify(registry, times(1)).getRegistryEntry(PATH);
+        verify(reader, times(1)).read(PATH, registry);
+        assertEquals("one hit", 1, cache.getHitCount());
+        assertEquals("one miss", 1, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldRevalidateUnchangedResourceAfterCacheDuration() throws Exception {
+        RegistryResourceCache cache = new RegistryResourceCache(2, 0);
+        cache.get(PATH, registry, reader);
+        Thread.sleep(5);
+
+        assertSame("unchanged resource is returned", CONTENT, cache.get(PATH, registry, reader));
+        assertEquals("one revalidation", 1, cache.getRevalidationCount());
+        verify(reader, times(1)).read(PATH, registry);
+    }
+
+    @Test
+    public void shouldReadChangedResourceAgainAfterCacheDuration() throws Exception {
+        RegistryResourceCache cache = new RegistryResourceCache(2, 0);
+        cache.get(PATH, registry, reader);
+        when(registry.getRegistryEntry(PATH)).thenReturn(changedEntry);
+        Thread.sleep(5);
+
+        cache.get(PATH, registry, reader);
+        verify(reader, times(2)).read(PATH, registry);
+        verify(registry, times(2)).getRegistryEntry(PATH);
+        assertEquals("two misses", 2, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldReadUnversionedResourceAgainAfterCacheDuration() throws Exception {
+        when(registry.getRegistryEntry(PATH)).thenReturn(null);
+        RegistryResourceCache cache = new RegistryResourceCache(2, 0);
+        cache.get(PATH, registry, reader);
+        Thread.sleep(5);
+
+        cache.get(PATH, registry, reader);
+        verify(reader, times(2)).read(PATH, registry);
+    }
+
+    @Test
+    public void shouldReadResourceWithoutVersionAndModificationTimeAgain() throws Exception {
+        when(registryEntry.getVersion()).thenReturn(0L);
+        when(registryEntry.getLastModified()).thenReturn(0L);
+        RegistryResourceCache cache = new RegistryResourceCache(2, 0);
+        cache.get(PATH, registry, reader);
+        Thread.sleep(5);
+
+        cache.get(PATH, registry, reader);
+        verify(reader, times(2)).read(PATH, registry);
+    }
+
+    @Test
+    public void shouldKeepVersionReadBeforeResourceContent() throws Exception {
+        when(reader.read(PATH, registry)).thenAnswer(new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                // resource changes in registry while it is being read
+                when(registry.getRegistryEntry(PATH)).thenReturn(changedEntry);
+                return CONTENT;
+            }
+        });
+        RegistryResourceCache cache = new RegistryResourceCache(2, 0);
+        cache.get(PATH, registry, reader);
+        Thread.sleep(5);
+
+        cache.get(PATH, registry, reader);
+        verify(reader, times(2)).read(PATH, registry);
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedResource() {
+        RegistryResourceCache cache = new RegistryResourceCache(1, 60000);
+        cache.get("a", registry, reader);
+        cache.get("b", registry, reader);
+
+        assertEquals("cache is bounded", 1, cache.size());
+        assertEquals("one eviction", 1, cache.getEvictionCount());
+        cache.get("a", registry, reader);
+        verify(reader, times(2)).read("a", registry);
+    }
+}
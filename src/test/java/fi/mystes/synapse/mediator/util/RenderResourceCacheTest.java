@@ -0,0 +1,82 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+public class RenderResourceCacheTest {
+
+    RenderResourceCache cache = new RenderResourceCache(100);
+
+    @Test
+    public void shouldCountHitsAndMisses() {
+        Object resource = new Object();
+        assertNull(cache.get("image:a"));
+        cache.put("image:a", resource, 10);
+
+        assertSame(resource, cache.get("image:a"));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(10, cache.getSizeInBytes());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedResourcesBySize() {
+        cache.put("a", "a", 40);
+        cache.put("b", "b", 40);
+        cache.get("a");
+        cache.put("c", "c", 40);
+
+        assertEquals(2, cache.size());
+        assertEquals(80, cache.getSizeInBytes());
+        assertEquals(1, cache.getEvictionCount());
+        assertNull("least recently used resource is evicted", cache.get("b"));
+        assertEquals("a", cache.get("a"));
+    }
+
+    @Test
+    public void shouldNotCacheResourceLargerThanCache() {
+        cache.put("a", "a", 40);
+        cache.put("huge", "huge", 101);
+
+        assertNull(cache.get("huge"));
+        assertEquals("a", cache.get("a"));
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void shouldReplaceResourceWithSameKey() {
+        cache.put("a", "first", 40);
+        cache.put("a", "second", 30);
+
+        assertEquals(1, cache.size());
+        assertEquals(30, cache.getSizeInBytes());
+        assertEquals("second", cache.get("a"));
+    }
+
+    @Test
+    public void shouldClear() {
+        cache.put("a", "a", 40);
+        cache.clear();
+
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getSizeInBytes());
+    }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.xhtmlrenderer.pdf.ITextRenderer;
+
+public class RendererPoolTest {
+
+    RendererPool pool;
+
+    @Before
+    public void setUp() {
+        pool = new RendererPool(1, Collections.<String>emptyList());
+    }
+
+    @Test
+    public void shouldReuseReturnedRenderer() throws Exception {
+        ITextRenderer first = pool.borrow();
+        pool.release(first, true);
+        ITextRenderer second = pool.borrow();
+        pool.release(second, true);
+
+        assertSame("renderer is reused", first, second);
+        assertEquals("one renderer created", 1, pool.getCreatedCount());
+        assertEquals("two borrows", 2, pool.getBorrowCount());
+        assertEquals("renderer is idle", 1, pool.getIdleCount());
+    }
+
+    @Test
+    public void shouldDiscardFailedRenderer() throws Exception {
+        ITextRenderer first = pool.borrow();
+        pool.release(first, false);
+        ITextRenderer second = pool.borrow();
+        pool.release(second, true);
+
+        assertNotSame("failed renderer is not reused", first, second);
+        assertEquals("discarded renderer is not counted", 1, pool.getCreatedCount());
+    }
+
+    @Test
+    public void shouldWaitForRendererWhenPoolIsExhausted() throws Exception {
+        final ITextRenderer first = pool.borrow();
+        final CountDownLatch borrowed = new CountDownLatch(1);
+        Thread waiter = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pool.release(pool.borrow(), true);
+                    borrowed.countDown();
+                } catch (Exception e) {
+                    // test fails by timeout below
+                }
+            }
+        };
+        waiter.start();
+
+        assertTrue("second borrow waits", !borrowed.await(100, TimeUnit.MILLISECONDS));
+        pool.release(first, true);
+        assertTrue("second borrow succeeds after release", borrowed.await(5, TimeUnit.SECONDS));
+        assertTrue("wait time is recorded", pool.getMaxWaitMillis() >= 50);
+    }
+
+    @Test
+    public void shouldNotWaitForRendererWhenTryingToBorrow() throws Exception {
+        ITextRenderer first = pool.tryBorrow();
+
+        assertNull("no renderer while pool is exhausted", pool.tryBorrow());
+        pool.release(first, true);
+        ITextRenderer second = pool.tryBorrow();
+        pool.release(second, true);
+        assertSame("renderer is reused", first, second);
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+public class SpillFileTest {
+
+    @Test
+    public void shouldReadWrittenContentThroughMapping() throws Exception {
+        byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        SpillFile spillFile = new SpillFile(null);
+        try {
+            try (OutputStream out = spillFile.openOutputStream()) {
+                out.write(content);
+            }
+            assertEquals(content.length, spillFile.size());
+
+            ByteArrayOutputStream read = new ByteArrayOutputStream();
+            try (InputStream in = spillFile.openInputStream()) {
+                assertEquals(content[0] & 0xff, in.read());
+                byte[] buffer = new byte[4096];
+                int count;
+                while ((count = in.read(buffer)) != -1) {
+                    read.write(buffer, 0, count);
+                }
+            }
+            byte[] expected = new byte[content.length - 1];
+            System.arraycopy(content, 1, expected, 0, expected.length);
+            assertArrayEquals(expected, read.toByteArray());
+        } finally {
+            spillFile.close();
+        }
+    }
+
+    @Test
+    public void shouldDeleteFileOnClose() throws Exception {
+        SpillFile spillFile = new SpillFile(null);
+        assertTrue(Files.exists(spillFile.getPath()));
+
+        spillFile.close();
+        spillFile.close();
+
+        assertFalse(Files.exists(spillFile.getPath()));
+    }
+}
@@ -0,0 +1,174 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.lowagie.text.PageSize;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.Rectangle;
+import com.lowagie.text.pdf.PdfDictionary;
+import com.lowagie.text.pdf.PdfName;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+import com.lowagie.text.pdf.parser.PdfTextExtractor;
+
+public class StaticPagesTest {
+
+    File directory;
+    HtmlToPdf htmlToPdf;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("static-pages").toFile();
+        htmlToPdf = new HtmlToPdf();
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void shouldAddCoverAndAppendedPages() throws Exception {
+        String cover = writePdf("cover.pdf", PageSize.A5, 1);
+        String terms = writePdf("terms.pdf", PageSize.A4, 2);
+        htmlToPdf.setStaticPages(new StaticPages(cover, null, terms));
+
+        PdfReader reader = new PdfReader(create("Content"));
+
+        assertEquals(4, reader.getNumberOfPages());
+        assertEquals(PageSize.A5.getHeight(), reader.getPageSize(1).getHeight(), 0.1);
+        assertEquals("rendered page", PageSize.LETTER.getHeight(), reader.getPageSize(2).getHeight(), 0.1);
+        assertEquals(PageSize.A4.getHeight(), reader.getPageSize(3).getHeight(), 0.1);
+        assertEquals(PageSize.A4.getHeight(), reader.getPageSize(4).getHeight(), 0.1);
+    }
+
+    @Test
+    public void shouldAddPagesToDocumentSpilledToFile() throws Exception {
+        StaticPages pages = new StaticPages(writePdf("cover.pdf", PageSize.A5, 1), null, null);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        try (SpillFile rendered = new SpillFile(directory.toPath(), ".pdf")) {
+            Files.write(rendered.getPath(), Files.readAllBytes(new File(writePdf("rendered.pdf", PageSize.A4, 2))
+                    .toPath()));
+            assertEquals(3, pages.apply(rendered, outputStream, htmlToPdf));
+        }
+
+        PdfReader reader = new PdfReader(outputStream.toByteArray());
+        assertEquals(3, reader.getNumberOfPages());
+        assertEquals(PageSize.A5.getHeight(), reader.getPageSize(1).getHeight(), 0.1);
+        assertEquals(PageSize.A4.getHeight(), reader.getPageSize(3).getHeight(), 0.1);
+    }
+
+    @Test
+    public void shouldRenderHtmlFragment() throws Exception {
+        htmlToPdf.setStaticPages(new StaticPages(writeHtml("cover.html", "Cover"), null, null));
+
+        PdfReader reader = new PdfReader(create("Content"));
+
+        assertEquals(2, reader.getNumberOfPages());
+        assertEquals("cover page is drawn as form", 1, getForms(reader, 1).size());
+        assertTrue(new PdfTextExtractor(reader).getTextFromPage(2).contains("Content"));
+    }
+
+    @Test
+    public void shouldShareBackgroundBetweenPages() throws Exception {
+        String background = writePdf("background.pdf", PageSize.LETTER, 1);
+        htmlToPdf.setStaticPages(new StaticPages(null, background, null));
+
+        PdfReader reader = new PdfReader(create("<p style=\"page-break-after: always\">First</p><p>Second</p>"));
+
+        assertEquals(2, reader.getNumberOfPages());
+        PdfDictionary first = getForms(reader, 1);
+        PdfDictionary second = getForms(reader, 2);
+        assertEquals(1, first.size());
+        assertEquals("background is stored once", first.get((PdfName) first.getKeys().iterator().next()).toString(),
+                second.get((PdfName) second.getKeys().iterator().next()).toString());
+    }
+
+    @Test
+    public void shouldReloadChangedFragment() throws Exception {
+        File cover = new File(writePdf("cover.pdf", PageSize.A5, 1));
+        htmlToPdf.setStaticPages(new StaticPages(cover.getPath(), null, null));
+        create("Content");
+
+        long lastModified = cover.lastModified();
+        writePdf("cover.pdf", PageSize.A5, 2);
+        assertTrue(cover.setLastModified(lastModified + 2000));
+
+        assertEquals(3, new PdfReader(create("Content")).getNumberOfPages());
+    }
+
+    @Test
+    public void shouldFailOnMissingFragment() throws Exception {
+        try {
+            new StaticPages(new File(directory, "missing.pdf").getPath(), null, null).load(htmlToPdf);
+            fail("Should have thrown exception");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("missing.pdf"));
+        }
+    }
+
+    private byte[] create(String text) throws Exception {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        htmlToPdf.create(html(text), "", outputStream);
+        return outputStream.toByteArray();
+    }
+
+    private String writePdf(String name, Rectangle pageSize, int pages) throws Exception {
+        File file = new File(directory, name);
+        com.lowagie.text.Document document = new com.lowagie.text.Document(pageSize);
+        PdfWriter.getInstance(document, new FileOutputStream(file));
+        document.open();
+        for (int page = 1; page <= pages; page++) {
+            document.newPage();
+            document.add(new Paragraph(name + " " + page));
+        }
+        document.close();
+        return file.getPath();
+    }
+
+    private static PdfDictionary getForms(PdfReader reader, int page) {
+        PdfDictionary resources = reader.getPageN(page).getAsDict(PdfName.RESOURCES);
+        return resources.getAsDict(PdfName.XOBJECT);
+    }
+
+    private String writeHtml(String name, String text) throws IOException {
+        File file = new File(directory, name);
+        Files.write(file.toPath(), html(text).getBytes("UTF-8"));
+        return file.getPath();
+    }
+
+    private static String html(String content) {
+        return "<html><body>" + content + "</body></html>";
+    }
+}
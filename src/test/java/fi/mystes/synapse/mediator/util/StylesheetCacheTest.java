@@ -0,0 +1,73 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.xhtmlrenderer.css.sheet.Stylesheet;
+
+public class StylesheetCacheTest {
+
+    StylesheetCache cache = new StylesheetCache(2);
+
+    @Test
+    public void shouldParseStylesheetOnce() {
+        Stylesheet first = cache.getStylesheet("body { margin: 5px; }");
+        Stylesheet second = cache.getStylesheet(new String("body { margin: 5px; }"));
+
+        assertSame("parsed style sheet is reused for equal content", first, second);
+        assertEquals(1, first.getContents().size());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldHashParsedStylesheetOnce() {
+        String css = "body { margin: 5px; }";
+        cache.getStylesheet(css);
+
+        String hash = cache.getHash(css);
+        assertSame("hash of parsed style sheet is reused", hash, cache.getHash(css));
+        assertEquals(Digests.sha1Hex(css), hash);
+        assertEquals("unparsed style sheet is hashed", Digests.sha1Hex("p {}"), cache.getHash("p {}"));
+        assertEquals("hashing does not parse", 1, cache.size());
+    }
+
+    @Test
+    public void shouldParseChangedStylesheet() {
+        Stylesheet first = cache.getStylesheet("body { margin: 5px; }");
+        Stylesheet second = cache.getStylesheet("body { margin: 6px; }");
+
+        assertNotSame("changed style sheet is parsed again", first, second);
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedStylesheet() {
+        cache.getStylesheet("a { color: red; }");
+        cache.getStylesheet("b { color: red; }");
+        cache.getStylesheet("a { color: red; }");
+        cache.getStylesheet("i { color: red; }");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+        cache.getStylesheet("a { color: red; }");
+        assertEquals("recently used style sheet is kept", 2, cache.getHitCount());
+    }
+}
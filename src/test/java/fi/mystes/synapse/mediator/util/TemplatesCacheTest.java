@@ -0,0 +1,118 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static fi.mystes.synapse.mediator.util.TestUtil.getResuorceAsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import javax.xml.transform.Templates;
+import javax.xml.transform.TransformerFactory;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class TemplatesCacheTest {
+
+    public static final String XSL_PATH = "gov:/xsl/example.xsl";
+    public static final String OTHER_XSL = "<xsl:stylesheet version=\"1.0\" "
+            + "xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\"/>";
+
+    TemplatesCache cache;
+    TransformerFactory transformerFactory;
+    String xsl;
+
+    @Before
+    public void setUp() {
+        cache = new TemplatesCache(2, 0);
+        transformerFactory = TransformerFactory.newInstance();
+        xsl = getResuorceAsString("example.xsl");
+    }
+
+    @Test
+    public void shouldCompileStyleSheetOnlyOnce() throws Exception {
+        Templates first = cache.getTemplates(XSL_PATH, xsl, transformerFactory);
+        Templates second = cache.getTemplates(XSL_PATH, new String(xsl), transformerFactory);
+
+        assertSame("compiled style sheet is reused", first, second);
+        assertEquals("one miss", 1, cache.getMissCount());
+        assertEquals("one hit", 1, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldReuseHashOfCompiledStyleSheet() throws Exception {
+        cache.getTemplates(XSL_PATH, xsl, transformerFactory);
+
+        String hash = cache.getHash(XSL_PATH, xsl);
+        assertSame("hash of compiled content is reused", hash, cache.getHash(XSL_PATH, xsl));
+        assertSame("hash of equal content is reused", hash, cache.getHash(XSL_PATH, new String(xsl)));
+        assertEquals(Digests.sha1Hex(xsl), hash);
+        assertEquals("changed content is hashed", Digests.sha1Hex(OTHER_XSL), cache.getHash(XSL_PATH, OTHER_XSL));
+    }
+
+    @Test
+    public void shouldCompileLiteralStyleSheetOnlyOnce() throws Exception {
+        Templates first = cache.getTemplates(null, xsl, transformerFactory);
+        Templates second = cache.getTemplates(null, new String(xsl), transformerFactory);
+
+        assertSame("compiled style sheet is reused", first, second);
+        assertEquals("one hit", 1, cache.getHitCount());
+        assertNotSame("other style sheet is compiled", first, cache.getTemplates(null, OTHER_XSL, transformerFactory));
+    }
+
+    @Test
+    public void shouldCompileAgainWhenContentChanges() throws Exception {
+        Templates first = cache.getTemplates(XSL_PATH, xsl, transformerFactory);
+        Templates second = cache.getTemplates(XSL_PATH, OTHER_XSL, transformerFactory);
+
+        assertNotSame("changed style sheet is compiled again", first, second);
+        assertEquals("stale entry is replaced", 1, cache.size());
+        assertEquals("two misses", 2, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldEvictLeastRecentlyUsedEntry() throws Exception {
+        cache.getTemplates("a", xsl, transformerFactory);
+        cache.getTemplates("b", xsl, transformerFactory);
+        cache.getTemplates("a", xsl, transformerFactory);
+        cache.getTemplates("c", xsl, transformerFactory);
+
+        assertEquals("cache is bounded", 2, cache.size());
+        assertEquals("one eviction", 1, cache.getEvictionCount());
+        cache.getTemplates("a", xsl, transformerFactory);
+        assertEquals("recently used entry is kept", 2, cache.getHitCount());
+    }
+
+    @Test
+    public void shouldCompileAgainAfterTimeToLive() throws Exception {
+        cache = new TemplatesCache(2, 1);
+        cache.getTemplates(XSL_PATH, xsl, transformerFactory);
+        Thread.sleep(5);
+        cache.getTemplates(XSL_PATH, xsl, transformerFactory);
+
+        assertEquals("expired entry is compiled again", 2, cache.getMissCount());
+    }
+
+    @Test
+    public void shouldCompileAgainAfterInvalidation() throws Exception {
+        cache.getTemplates(XSL_PATH, xsl, transformerFactory);
+        cache.invalidate(XSL_PATH);
+        cache.getTemplates(XSL_PATH, xsl, transformerFactory);
+
+        assertEquals("invalidated entry is compiled again", 2, cache.getMissCount());
+    }
+}
@@ -16,8 +16,31 @@
 package fi.mystes.synapse.mediator.util;
 
 import static fi.mystes.synapse.mediator.util.TestUtil.getResuorceAsString;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.ErrorListener;
+import javax.xml.transform.Result;
+import javax.xml.transform.Source;
+import javax.xml.transform.Templates;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.URIResolver;
+import javax.xml.transform.stax.StAXSource;
+
+import org.apache.axiom.om.OMElement;
+import org.apache.axiom.om.util.AXIOMUtil;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -39,4 +62,286 @@ public class XslTransformerTest {
         final String result = transformer.transform(xml, xsl);
         assertTrue("creates transformed result.", result.contains("<html>"));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void shouldTransformGivenElementUsingGivenXsl() throws Exception {
+        final OMElement element = AXIOMUtil.stringToOM(xml);
+        final String result = transformer.transform(element, "example.xsl", xsl);
+        assertEquals("creates same result as from string.", transformer.transform(xml, xsl), result);
+        assertTrue("creates transformed result.", result.contains("<td>Column 2</td>"));
+        assertTrue("element remains usable.", element.toString().contains("<rows>"));
+    }
+
+    @Test
+    public void shouldTransformWithConfiguredEngine() throws Exception {
+        XslTransformer jdkTransformer = new XslTransformer(new TemplatesCache(),
+                XsltEngines.forName(XsltEngines.JDK, Collections.<String, String>emptyMap()));
+
+        assertEquals(XsltEngines.JDK, jdkTransformer.getEngine().getName());
+        assertEquals("creates same result as default engine.", transformer.transform(xml, xsl),
+                jdkTransformer.transform(xml, xsl));
+    }
+
+    @Test
+    public void shouldTransformGivenElementIntoStream() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.transform(AXIOMUtil.stringToOM(xml), "example.xsl", xsl, out);
+        assertEquals("creates same result as into string.", transformer.transform(xml, xsl), out.toString("UTF-8"));
+    }
+
+    @Test
+    public void shouldTransformIntoUtf8StreamWhateverOutputEncoding() throws Exception {
+        final String latin1Xsl = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+                + "<xsl:output method=\"xml\" encoding=\"ISO-8859-1\"/>"
+                + "<xsl:template match=\"/\"><html><body>\u00e4\u00f6</body></html></xsl:template>"
+                + "</xsl:stylesheet>";
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        transformer.transform(AXIOMUtil.stringToOM(xml), null, latin1Xsl, out);
+        assertTrue("writes UTF-8 encoded content.", out.toString("UTF-8").contains("\u00e4\u00f6"));
+    }
+
+    @Test
+    public void shouldTransformGivenElementWithEngineNotSupportingStax() throws Exception {
+        XslTransformer noStaxTransformer = new XslTransformer(new TemplatesCache(), new NoStaxEngine());
+        final OMElement element = AXIOMUtil.stringToOM(xml);
+
+        final String result = noStaxTransformer.transform(element, "example.xsl", xsl);
+        assertEquals("creates same result as from string.", transformer.transform(xml, xsl), result);
+        assertTrue("element remains usable.", element.toString().contains("<rows>"));
+        assertTrue("transforms into document.", noStaxTransformer.transformToDocument(AXIOMUtil.stringToOM(xml),
+                "example.xsl", xsl).getElementsByTagName("td").getLength() > 0);
+    }
+
+    @Test
+    public void shouldReuseCompiledStyleSheet() throws Exception {
+        transformer.transform(xml, "example.xsl", xsl);
+        final String result = transformer.transform(xml, "example.xsl", xsl);
+        assertTrue("creates transformed result.", result.contains("<html>"));
+        assertEquals("style sheet is compiled once", 1, transformer.getTemplatesCache().getMissCount());
+        assertEquals("compiled style sheet is reused", 1, transformer.getTemplatesCache().getHitCount());
+    }
+
+    @Test
+    public void shouldReuseTransformerInParallelEngineWorker() throws Exception {
+        final OMElement element = AXIOMUtil.stringToOM(xml);
+        final String expected = transformer.transform(xml, xsl);
+        ParallelRenderEngine engine = new ParallelRenderEngine(1);
+        Callable<Integer> transform = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                assertEquals("reused transformer creates same result", expected,
+                        transformer.transform(element, "example.xsl", xsl));
+                return ParallelRenderEngine.getWorkerResources().size();
+            }
+        };
+
+        try {
+            assertEquals("worker keeps one transformer per style sheet", Arrays.asList(1, 1),
+                    engine.invokeAll(Arrays.asList(transform, transform)));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldBoundTransformersKeptByWorker() throws Exception {
+        final XslTransformer bounded = new XslTransformer(new TemplatesCache(1, 0));
+        final OMElement element = AXIOMUtil.stringToOM(xml);
+        final String otherXsl = "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\">"
+                + "<xsl:template match=\"/\"><html/></xsl:template></xsl:stylesheet>";
+        ParallelRenderEngine engine = new ParallelRenderEngine(1);
+        Callable<Integer> transform = new Callable<Integer>() {
+            @Override
+            public Integer call() throws Exception {
+                bounded.transform(element, null, xsl);
+                bounded.transform(element, null, otherXsl);
+                return ((Map<?, ?>) ParallelRenderEngine.getWorkerResources().get(bounded)).size();
+            }
+        };
+
+        try {
+            assertEquals("evicted style sheets are not kept by worker", Arrays.asList(1, 1),
+                    engine.invokeAll(Arrays.asList(transform, transform)));
+        } finally {
+            engine.shutdown();
+        }
+    }
+
+    /**
+     * Engine whose transformers reject StAX sources, like those of Xalan 2.7.
+     */
+    private static class NoStaxEngine implements XsltEngine {
+        private final XsltEngine engine = XsltEngines.getDefault();
+
+        @Override
+        public String getName() {
+            return "nostax";
+        }
+
+        @Override
+        public TransformerFactory newTransformerFactory() throws TransformerConfigurationException {
+            return new NoStaxTransformerFactory(engine.newTransformerFactory());
+        }
+
+        @Override
+        public DocumentBuilderFactory newDocumentBuilderFactory() throws ParserConfigurationException {
+            return engine.newDocumentBuilderFactory();
+        }
+    }
+
+    private static class NoStaxTransformerFactory extends TransformerFactory {
+        private final TransformerFactory factory;
+
+        NoStaxTransformerFactory(TransformerFactory factory) {
+            this.factory = factory;
+        }
+
+        @Override
+        public Transformer newTransformer(Source source) throws TransformerConfigurationException {
+            return new NoStaxTransformer(factory.newTransformer(source));
+        }
+
+        @Override
+        public Transformer newTransformer() throws TransformerConfigurationException {
+            return new NoStaxTransformer(factory.newTransformer());
+        }
+
+        @Override
+        public Templates newTemplates(Source source) throws TransformerConfigurationException {
+            final Templates templates = factory.newTemplates(source);
+            return new Templates() {
+                @Override
+                public Transformer newTransformer() throws TransformerConfigurationException {
+                    return new NoStaxTransformer(templates.newTransformer());
+                }
+
+                @Override
+                public Properties getOutputProperties() {
+                    return templates.getOutputProperties();
+                }
+            };
+        }
+
+        @Override
+        public Source getAssociatedStylesheet(Source source, String media, String title, String charset)
+                throws TransformerConfigurationException {
+            return factory.getAssociatedStylesheet(source, media, title, charset);
+        }
+
+        @Override
+        public void setURIResolver(URIResolver resolver) {
+            factory.setURIResolver(resolver);
+        }
+
+        @Override
+        public URIResolver getURIResolver() {
+            return factory.getURIResolver();
+        }
+
+        @Override
+        public void setFeature(String name, boolean value) throws TransformerConfigurationException {
+            factory.setFeature(name, value);
+        }
+
+        @Override
+        public boolean getFeature(String name) {
+            return !StAXSource.FEATURE.equals(name) && factory.getFeature(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            factory.setAttribute(name, value);
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            return factory.getAttribute(name);
+        }
+
+        @Override
+        public void setErrorListener(ErrorListener listener) {
+            factory.setErrorListener(listener);
+        }
+
+        @Override
+        public ErrorListener getErrorListener() {
+            return factory.getErrorListener();
+        }
+    }
+
+    private static class NoStaxTransformer extends Transformer {
+        private final Transformer transformer;
+
+        NoStaxTransformer(Transformer transformer) {
+            this.transformer = transformer;
+        }
+
+        @Override
+        public void transform(Source source, Result result) throws TransformerException {
+            if (source instanceof StAXSource) {
+                throw new TransformerException("Can't transform a Source of type javax.xml.transform.stax.StAXSource");
+            }
+            transformer.transform(source, result);
+        }
+
+        @Override
+        public void reset() {
+            transformer.reset();
+        }
+
+        @Override
+        public void setParameter(String name, Object value) {
+            transformer.setParameter(name, value);
+        }
+
+        @Override
+        public Object getParameter(String name) {
+            return transformer.getParameter(name);
+        }
+
+        @Override
+        public void clearParameters() {
+            transformer.clearParameters();
+        }
+
+        @Override
+        public void setURIResolver(URIResolver resolver) {
+            transformer.setURIResolver(resolver);
+        }
+
+        @Override
+        public URIResolver getURIResolver() {
+            return transformer.getURIResolver();
+        }
+
+        @Override
+        public void setOutputProperties(Properties properties) {
+            transformer.setOutputProperties(properties);
+        }
+
+        @Override
+        public Properties getOutputProperties() {
+            return transformer.getOutputProperties();
+        }
+
+        @Override
+        public void setOutputProperty(String name, String value) {
+            transformer.setOutputProperty(name, value);
+        }
+
+        @Override
+        public String getOutputProperty(String name) {
+            return transformer.getOutputProperty(name);
+        }
+
+        @Override
+        public void setErrorListener(ErrorListener listener) {
+            transformer.setErrorListener(listener);
+        }
+
+        @Override
+        public ErrorListener getErrorListener() {
+            return transformer.getErrorListener();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright 2016 Mystes Oy
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package fi.mystes.synapse.mediator.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.xml.XMLConstants;
+import javax.xml.transform.TransformerConfigurationException;
+import javax.xml.transform.TransformerFactory;
+
+import org.junit.Test;
+
+public class XsltEnginesTest {
+
+    private static final Map<String, String> NO_FEATURES = Collections.emptyMap();
+
+    @Test
+    public void shouldCreateJdkTransformerFactory() throws Exception {
+        XsltEngine engine = XsltEngines.forName(XsltEngines.JDK, NO_FEATURES);
+
+        assertEquals(XsltEngines.JDK, engine.getName());
+        assertEquals(XsltEngines.JDK_TRANSFORMER_FACTORY, engine.newTransformerFactory().getClass().getName());
+    }
+
+    @Test
+    public void shouldCreateTransformerFactoryByClassName() throws Exception {
+        XsltEngine engine = XsltEngines.forName(XsltEngines.JDK_TRANSFORMER_FACTORY, NO_FEATURES);
+
+        assertEquals(XsltEngines.JDK_TRANSFORMER_FACTORY, engine.newTransformerFactory().getClass().getName());
+    }
+
+    @Test
+    public void shouldApplyFeatures() throws Exception {
+        XsltEngine engine = XsltEngines.forName(XsltEngines.JDK,
+                XsltEngines.parseFeatures(XMLConstants.FEATURE_SECURE_PROCESSING + "=true, enable-inlining=false"));
+
+        TransformerFactory factory = engine.newTransformerFactory();
+        assertTrue(factory.getFeature(XMLConstants.FEATURE_SECURE_PROCESSING));
+        assertEquals(Boolean.FALSE, factory.getAttribute("enable-inlining"));
+    }
+
+    @Test
+    public void shouldFailOnUnsupportedFeature() throws Exception {
+        XsltEngine engine = XsltEngines.forName(XsltEngines.JDK,
+                Collections.singletonMap("http://example.com/unsupported", "value"));
+        try {
+            engine.newTransformerFactory();
+            fail("Should have thrown exception");
+        } catch (TransformerConfigurationException e) {
+            assertTrue(e.getMessage().contains("http://example.com/unsupported"));
+        }
+    }
+
+    @Test
+    public void shouldFailOnUnknownEngine() throws Exception {
+        try {
+            XsltEngines.forName("unknown", NO_FEATURES);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            XsltEngines.forName(String.class.getName(), NO_FEATURES);
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void shouldParseFeaturesInOrder() throws Exception {
+        Map<String, String> features = XsltEngines.parseFeatures("b=1, a=true,");
+
+        assertEquals("[b, a]", features.keySet().toString());
+        assertEquals("true", features.get("a"));
+        try {
+            XsltEngines.parseFeatures("novalue");
+            fail("Should have thrown exception");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}